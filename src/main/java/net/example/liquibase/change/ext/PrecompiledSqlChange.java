@@ -0,0 +1,240 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.change.ext;
+
+import static liquibase.serializer.LiquibaseSerializable.GENERIC_CHANGELOG_EXTENSION_NAMESPACE;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import liquibase.change.AbstractChange;
+import liquibase.change.ChangeFactory;
+import liquibase.change.ChangeMetaData;
+import liquibase.change.CheckSum;
+import liquibase.change.DatabaseChange;
+import liquibase.change.DatabaseChangeProperty;
+import liquibase.change.DbmsTargetedChange;
+import liquibase.database.Database;
+import liquibase.exception.UnexpectedLiquibaseException;
+import liquibase.exception.ValidationErrors;
+import liquibase.resource.ResourceAccessor;
+import liquibase.statement.SqlStatement;
+import liquibase.statement.core.RawSqlStatement;
+import liquibase.util.StreamUtil;
+
+/**
+ * Executes statements pre-generated at build time for the target database,
+ * bypassing {@code SqlGeneratorFactory}.
+ * <pre>
+ * &lt;changeSet id="1" author="john">
+ *     &lt;ext:precompiledSql path="app/changelog.sql" changeIndex="0"
+ *             checkSum="8:..." />
+ * &lt;/changeSet></pre>
+ * <p>
+ * The statements are looked up in the {@link PrecompiledSqlScript} for the
+ * database ({@code app/changelog.derby.sql} for Derby) by the identity of
+ * the enclosing change set, and {@code changeIndex}.  Setting
+ * {@code checkSum} to the check sum of the change it replaces keeps the
+ * change set check sum intact, and {@code dbms} restricts it to the
+ * databases the replaced change is targeted at.</p>
+ * <p>
+ * The compiler writes this change in place of the changes pre-generated
+ * for every one of its SQL dialects, when asked to.  Such a compiled
+ * changelog applies to those databases only.</p>
+ *
+ * @see  net.example.liquibase.command.ext.CompileXMLCommand#setPrecompiledSql(boolean)
+ */
+@DatabaseChange(name = "precompiledSql",
+        description = "Executes SQL pre-generated for the target database",
+        priority = ChangeMetaData.PRIORITY_DEFAULT)
+public class PrecompiledSqlChange extends AbstractChange implements DbmsTargetedChange {
+
+    private static final Map<String, CachedScript> scripts = new ConcurrentHashMap<>();
+
+    private String path;
+    private Integer changeIndex;
+    private String checkSum;
+    private String dbms;
+
+    /**
+     * Registers this change unless already defined, f.e. when not loaded
+     * from a jar declaring the {@code Liquibase-Package}.
+     */
+    public static synchronized void register() {
+        ChangeFactory factory = ChangeFactory.getInstance();
+        if (!factory.getDefinedChanges().contains("precompiledSql")) {
+            factory.register(PrecompiledSqlChange.class);
+        }
+    }
+
+    @DatabaseChangeProperty(description = "Base path of the pre-generated scripts",
+            exampleValue = "app/changelog.sql", requiredForDatabase = "all", supportsDatabase = "all")
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    @DatabaseChangeProperty(description = "Index of the original change in its change set",
+            exampleValue = "0", requiredForDatabase = "all", supportsDatabase = "all")
+    public Integer getChangeIndex() {
+        return changeIndex;
+    }
+
+    public void setChangeIndex(Integer changeIndex) {
+        this.changeIndex = changeIndex;
+    }
+
+    @DatabaseChangeProperty(description = "Check sum of the original change",
+            requiredForDatabase = "none", supportsDatabase = "all")
+    public String getCheckSum() {
+        return checkSum;
+    }
+
+    public void setCheckSum(String checkSum) {
+        this.checkSum = checkSum;
+    }
+
+    @Override
+    @DatabaseChangeProperty(description = "Databases the original change is targeted at",
+            requiredForDatabase = "none", supportsDatabase = "all")
+    public String getDbms() {
+        return dbms;
+    }
+
+    @Override
+    public void setDbms(String dbms) {
+        this.dbms = dbms;
+    }
+
+    @Override
+    public CheckSum generateCheckSum() {
+        return (checkSum == null) ? super.generateCheckSum()
+                                  : CheckSum.parse(checkSum);
+    }
+
+    @Override
+    public boolean generateStatementsVolatile(Database database) {
+        return false;
+    }
+
+    @Override
+    public ValidationErrors validate(Database database) {
+        if (path != null && changeIndex != null && getChangeSet() != null
+                && statements(database) == null) {
+            // The base validation generates the statements.
+            ValidationErrors errors = new ValidationErrors();
+            errors.addError("No precompiled SQL for " + key()
+                    + " in " + PrecompiledSqlScript.dialectPath(path, database.getShortName()));
+            return errors;
+        }
+        return super.validate(database);
+    }
+
+    @Override
+    public SqlStatement[] generateStatements(Database database) {
+        List<String> sql = statements(database);
+        if (sql == null) {
+            throw new UnexpectedLiquibaseException("No precompiled SQL for " + key() + " in "
+                    + PrecompiledSqlScript.dialectPath(path, database.getShortName()));
+        }
+        SqlStatement[] statements = new SqlStatement[sql.size()];
+        for (int i = 0; i < statements.length; i++) {
+            statements[i] = new RawSqlStatement(sql.get(i));
+        }
+        return statements;
+    }
+
+    private String key() {
+        return PrecompiledSqlScript.key(getChangeSet(), changeIndex);
+    }
+
+    private List<String> statements(Database database) {
+        String scriptPath = PrecompiledSqlScript.dialectPath(path, database.getShortName());
+        return script(scriptPath, getResourceAccessor()).get(key());
+    }
+
+    /*
+     * Scripts are cached by URL and modification time, so a long-lived
+     * JVM picks up rewritten scripts.  Missing scripts, and scripts
+     * without a known modification time are not cached.
+     */
+    private static Map<String, List<String>> script(String scriptPath,
+                                                    ResourceAccessor resourceAccessor) {
+        try {
+            URL url = resourceAccessor.toClassLoader().getResource(scriptPath);
+            if (url == null) {
+                try (InputStream in = StreamUtil.singleInputStream(scriptPath, resourceAccessor)) {
+                    return (in == null) ? Collections.emptyMap() : read(in);
+                }
+            }
+            long lastModified = lastModified(url);
+            CachedScript cached = scripts.get(url.toString());
+            if (cached != null && lastModified != 0 && cached.lastModified == lastModified) {
+                return cached.statements;
+            }
+            Map<String, List<String>> statements;
+            try (InputStream in = url.openStream()) {
+                statements = read(in);
+            }
+            if (lastModified != 0) {
+                scripts.put(url.toString(), new CachedScript(lastModified, statements));
+            }
+            return statements;
+        } catch (IOException e) {
+            throw new UnexpectedLiquibaseException("Could not read " + scriptPath, e);
+        }
+    }
+
+    private static long lastModified(URL url) throws IOException {
+        if (url.getProtocol().equals("file")) {
+            try {
+                return new File(url.toURI()).lastModified();
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                return 0;
+            }
+        }
+        return url.openConnection().getLastModified();
+    }
+
+    private static Map<String, List<String>> read(InputStream in) throws IOException {
+        return PrecompiledSqlScript.read(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public String getConfirmationMessage() {
+        return "Precompiled SQL executed";
+    }
+
+    @Override
+    public String getSerializedObjectNamespace() {
+        return GENERIC_CHANGELOG_EXTENSION_NAMESPACE;
+    }
+
+
+    private static final class CachedScript {
+
+        final long lastModified;
+        final Map<String, List<String>> statements;
+
+        CachedScript(long lastModified, Map<String, List<String>> statements) {
+            this.lastModified = lastModified;
+            this.statements = statements;
+        }
+
+    }
+
+}
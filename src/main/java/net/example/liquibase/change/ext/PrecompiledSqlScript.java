@@ -0,0 +1,188 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.change.ext;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import liquibase.change.Change;
+import liquibase.change.DbmsTargetedChange;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.database.Database;
+import liquibase.database.DatabaseList;
+import liquibase.database.ObjectQuotingStrategy;
+import liquibase.sql.Sql;
+import liquibase.sqlgenerator.SqlGeneratorFactory;
+
+import net.example.liquibase.changelog.ext.RollbackMaterializer;
+
+/**
+ * Reads and writes dialect SQL pre-generated from a changelog at build time.
+ * <p>
+ * A script holds the statements of every change which could be generated
+ * offline, keyed by the change set identity and the change index within
+ * its change set:</p>
+ * <pre>
+ * --changeSet app/changelog.xml::1::john
+ * --change 0
+ * --statement 42
+ * CREATE TABLE people (id INTEGER NOT NULL)</pre>
+ * <p>
+ * The {@code --statement} line gives the exact length of the statement
+ * text following it, so statements need no delimiter parsing at runtime.
+ * Changes which generate volatile statements (depend on the database
+ * state), which are not supported for, or targeted at other than the
+ * target database are not written.  Neither are changes rolled back
+ * automatically, unless their change set has explicit rollback, gets its
+ * rollback {@linkplain RollbackMaterializer materialized}, or can't be
+ * rolled back anyway – the stand-in change has no inverse.</p>
+ *
+ * @see  PrecompiledSqlChange
+ */
+public final class PrecompiledSqlScript {
+
+    private static final String CHANGE_SET = "--changeSet ";
+    private static final String CHANGE = "--change ";
+    private static final String STATEMENT = "--statement ";
+
+    private PrecompiledSqlScript() {
+        // no instances
+    }
+
+    /**
+     * @param   changeSet  a change set;
+     * @param   changeIndex  index of a change in the change set;
+     * @return  the key statements of the given change are stored with.
+     */
+    public static String key(ChangeSet changeSet, int changeIndex) {
+        return changeSet.toString(false) + '#' + changeIndex;
+    }
+
+    /**
+     * Maps a script base path to the path of the script for given database.
+     *
+     * @param   path  the base path, f.e. {@code app/changelog.sql};
+     * @param   dbms  a database short name, f.e. {@code derby};
+     * @return  the dialect script path, f.e. {@code app/changelog.derby.sql}.
+     */
+    public static String dialectPath(String path, String dbms) {
+        int dotIndex = path.lastIndexOf('.');
+        return (dotIndex > path.lastIndexOf('/'))
+               ? path.substring(0, dotIndex) + '.' + dbms + path.substring(dotIndex)
+               : path + '.' + dbms;
+    }
+
+    /**
+     * Generates the SQL of all change sets in the given changelog for the
+     * given (offline) database.
+     *
+     * @param   changeLog  the changelog to generate SQL for;
+     * @param   database  target database;
+     * @param   out  script output;
+     * @return  the {@linkplain #key(ChangeSet, int) keys} of the changes
+     *          written, in order.
+     * @throws  IOException  if I/O error occurs.
+     */
+    public static Set<String> write(DatabaseChangeLog changeLog, Database database, Writer out)
+            throws IOException
+    {
+        SqlGeneratorFactory generatorFactory = SqlGeneratorFactory.getInstance();
+        ObjectQuotingStrategy originalStrategy = database.getObjectQuotingStrategy();
+        RollbackMaterializer materializer = RollbackMaterializer.isSupported()
+                                            ? new RollbackMaterializer()
+                                            : null;
+        Set<String> written = new LinkedHashSet<>();
+        try {
+            for (ChangeSet changeSet : changeLog.getChangeSets()) {
+                if (!DatabaseList.definitionMatches(changeSet.getDbmsSet(), database, true)) {
+                    continue;
+                }
+                // Impossible automatic rollback is not lost, either.
+                boolean rollbackKept = !changeSet.getRollback().getChanges().isEmpty()
+                        || (materializer != null
+                            && (materializer.materialize(changeSet) != null
+                                || materializer.getImpossibleReason(changeSet) != null));
+                database.setObjectQuotingStrategy(changeSet.getObjectQuotingStrategy());
+                out.write(CHANGE_SET + changeSet.toString(false) + "\n");
+                List<Change> changes = changeSet.getChanges();
+                for (int i = 0; i < changes.size(); i++) {
+                    Change change = changes.get(i);
+                    if (!change.supports(database)
+                            || change.generateStatementsVolatile(database)
+                            || !dbmsMatches(change, database)
+                            || (!rollbackKept && change.supportsRollback(database))) {
+                        continue;
+                    }
+                    out.write(CHANGE + i + "\n");
+                    for (Sql sql : generatorFactory.generateSql(change, database)) {
+                        String text = sql.toSql();
+                        out.write(STATEMENT + text.length() + "\n");
+                        out.write(text);
+                        out.write("\n");
+                    }
+                    written.add(key(changeSet, i));
+                }
+            }
+        } finally {
+            database.setObjectQuotingStrategy(originalStrategy);
+        }
+        return written;
+    }
+
+    private static boolean dbmsMatches(Change change, Database database) {
+        return !(change instanceof DbmsTargetedChange) || DatabaseList
+                .definitionMatches(((DbmsTargetedChange) change).getDbms(), database, true);
+    }
+
+    /**
+     * Reads a script written by {@link #write(DatabaseChangeLog, Database, Writer)}.
+     *
+     * @param   in  script input;
+     * @return  statements keyed by {@link #key(ChangeSet, int)}.
+     * @throws  IOException  if I/O error occurs, or the script is malformed.
+     */
+    public static Map<String, List<String>> read(Reader in) throws IOException {
+        Map<String, List<String>> statements = new HashMap<>();
+        BufferedReader reader = new BufferedReader(in);
+        String changeSet = null;
+        List<String> current = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith(CHANGE_SET)) {
+                changeSet = line.substring(CHANGE_SET.length());
+                current = null;
+            } else if (line.startsWith(CHANGE) && changeSet != null) {
+                current = new ArrayList<>(1);
+                statements.put(changeSet + '#' + line.substring(CHANGE.length()).trim(),
+                               Collections.unmodifiableList(current));
+            } else if (line.startsWith(STATEMENT) && current != null) {
+                int length = Integer.parseInt(line.substring(STATEMENT.length()).trim());
+                char[] text = new char[length];
+                for (int off = 0, n; off < length; off += n) {
+                    n = reader.read(text, off, length - off);
+                    if (n < 0) {
+                        throw new IOException("Unexpected end of script in " + changeSet);
+                    }
+                }
+                current.add(new String(text));
+                reader.readLine(); // statement terminating line break
+            } else if (!line.isEmpty()) {
+                throw new IOException("Unexpected script line: " + line);
+            }
+        }
+        return statements;
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.changelog.ext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import liquibase.change.CheckSum;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+
+/**
+ * Reduces a changelog to the change sets new or changed since a baseline
+ * version of it.
+ * <p>
+ * The entries of the baseline {@link ChangeSetIdentityIndex} are hashed
+ * by their {@linkplain ChangeSetIdentityIndex#key(String, String, String)
+ * identity key}, and every change set of the changelog is looked up by its
+ * effective {@code logicalFilePath}, {@code id} and {@code author}.  A
+ * change set is kept if it has no baseline entry (new), its check sum
+ * differs from the baseline one (changed), or it is {@code runAlways}, as
+ * it would run with the full changelog as well.  Change sets keep their
+ * identities, so {@code DATABASECHANGELOG} rows still match.</p>
+ * <p>
+ * Changed change sets would fail the runtime validation, unless
+ * {@code runOnChange}, or having a matching {@code validCheckSum} – the
+ * same as with the full changelog.  These are reported as {@linkplain
+ * #getRejected() rejected}.</p>
+ */
+public class ChangeLogDelta {
+
+    private final Map<String, ChangeSetIdentityIndex.Entry> baseline;
+    private final List<ChangeSet> added = new ArrayList<>();
+    private final List<ChangeSet> changed = new ArrayList<>();
+    private final List<ChangeSet> runAlways = new ArrayList<>();
+    private final List<ChangeSet> rejected = new ArrayList<>();
+    private int unchanged;
+    private int removed;
+
+    /**
+     * @param   baseline  the index of the baseline changelog version.
+     */
+    public ChangeLogDelta(ChangeSetIdentityIndex baseline) {
+        this.baseline = new HashMap<>(baseline.getEntries().size() * 4 / 3 + 1);
+        for (ChangeSetIdentityIndex.Entry entry : baseline.getEntries()) {
+            this.baseline.put(entry.getKey(), entry);
+        }
+    }
+
+    /**
+     * @return  change sets having no baseline entry.
+     */
+    public List<ChangeSet> getAdded() {
+        return Collections.unmodifiableList(added);
+    }
+
+    /**
+     * @return  change sets having a check sum different from the baseline.
+     */
+    public List<ChangeSet> getChanged() {
+        return Collections.unmodifiableList(changed);
+    }
+
+    /**
+     * @return  changed change sets neither {@code runOnChange}, nor
+     *          having a {@code validCheckSum} matching the baseline one.
+     */
+    public List<ChangeSet> getRejected() {
+        return Collections.unmodifiableList(rejected);
+    }
+
+    /**
+     * @return  unchanged {@code runAlways} change sets kept.
+     */
+    public List<ChangeSet> getRunAlways() {
+        return Collections.unmodifiableList(runAlways);
+    }
+
+    /**
+     * @return  number of unchanged change sets omitted.
+     */
+    public int getUnchanged() {
+        return unchanged;
+    }
+
+    /**
+     * @return  number of baseline entries no longer in the changelog.
+     */
+    public int getRemoved() {
+        return removed;
+    }
+
+    /**
+     * Removes the unchanged change sets from the given changelog, and the
+     * changelogs including them.
+     *
+     * @param   changeLog  the (root) changelog to reduce.
+     */
+    public void reduce(DatabaseChangeLog changeLog) {
+        Set<ChangeSet> omitted = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<DatabaseChangeLog> holders = Collections.newSetFromMap(new IdentityHashMap<>());
+        int matched = 0;
+        for (ChangeSet changeSet : changeLog.getChangeSets()) {
+            ChangeSetIdentityIndex.Entry entry = baseline.get(ChangeSetIdentityIndex
+                    .key(changeSet.getFilePath(), changeSet.getId(), changeSet.getAuthor()));
+            if (entry == null) {
+                added.add(changeSet);
+                continue;
+            }
+            matched++;
+            if (!entry.getCheckSum().equals(changeSet.generateCheckSum().toString())) {
+                changed.add(changeSet);
+                if (!changeSet.isRunOnChange()
+                        && !changeSet.isCheckSumValid(CheckSum.parse(entry.getCheckSum()))) {
+                    rejected.add(changeSet);
+                }
+            } else if (changeSet.isAlwaysRun()) {
+                runAlways.add(changeSet);
+            } else {
+                unchanged++;
+                omitted.add(changeSet);
+                DatabaseChangeLog log = changeSet.getChangeLog();
+                while (log != null && holders.add(log)) {
+                    log = log.getParentChangeLog();
+                }
+            }
+        }
+        removed = baseline.size() - matched;
+
+        holders.add(changeLog);
+        for (DatabaseChangeLog log : holders) {
+            log.getChangeSets().removeIf(omitted::contains);
+        }
+    }
+
+}
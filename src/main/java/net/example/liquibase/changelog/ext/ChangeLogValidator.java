@@ -0,0 +1,180 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.changelog.ext;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import liquibase.change.Change;
+import liquibase.change.CheckSum;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.database.Database;
+import liquibase.database.DatabaseList;
+import liquibase.exception.SetupException;
+import liquibase.exception.ValidationErrors;
+import liquibase.exception.Warnings;
+import liquibase.util.StringUtils;
+
+import net.example.liquibase.serializer.ext.util.ContentDigest;
+
+/**
+ * Runs the change set checks of {@code DatabaseChangeLog.validate()} at
+ * compile time, and computes the stamp of the validated content.
+ * <p>
+ * Duplicate change set identities are detected through a hash map of
+ * their {@code path::id::author} strings, as the runtime does.  Changes
+ * are initialized, and validated against each of the given (offline)
+ * databases their change set applies to.  Changelog preconditions, and
+ * check sums of ran change sets depend on the target database, and are
+ * left to the runtime.</p>
+ * <p>
+ * The {@link #stamp(DatabaseChangeLog, Collection) stamp} is a digest of
+ * the identities, check sums and {@code dbms} of the change sets, and the
+ * names of the databases validated against.  It is embedded in the
+ * compiled output, so {@link ValidatedDatabaseChangeLog} could skip
+ * revalidating unchanged content at runtime.</p>
+ */
+public class ChangeLogValidator {
+
+    private final DatabaseChangeLog changeLog;
+    private final List<String> errors = new ArrayList<>();
+    private final List<String> warnings = new ArrayList<>();
+    private int duplicates;
+
+    public ChangeLogValidator(DatabaseChangeLog changeLog) {
+        this.changeLog = changeLog;
+    }
+
+    /**
+     * @return  validation error messages.
+     */
+    public List<String> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    /**
+     * @return  validation warning messages.
+     */
+    public List<String> getWarnings() {
+        return Collections.unmodifiableList(warnings);
+    }
+
+    /**
+     * @return  number of duplicate change set identities found.
+     */
+    public int getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @param   databases  the databases to validate the changes against,
+     *          possibly none to check only for duplicate identities and
+     *          change initialization;
+     * @return  {@code true} if no errors have been found.
+     */
+    public boolean validate(Collection<Database> databases) {
+        Map<String, ChangeSet> seen = new HashMap<>();
+        for (ChangeSet changeSet : changeLog.getChangeSets()) {
+            String identity = changeSet.toString(false);
+            if (seen.putIfAbsent(identity, changeSet) != null) {
+                duplicates++;
+                errors.add(identity + " is a duplicate");
+                continue;
+            }
+            for (Change change : changeSet.getChanges()) {
+                try {
+                    change.finishInitialization();
+                } catch (SetupException e) {
+                    errors.add(identity + ": " + e.getMessage());
+                }
+            }
+            for (Database database : databases) {
+                if (DatabaseList.definitionMatches(changeSet.getDbmsSet(), database, true)) {
+                    validate(changeSet, identity, database);
+                }
+            }
+        }
+        return errors.isEmpty();
+    }
+
+    private void validate(ChangeSet changeSet, String identity, Database database) {
+        String prefix = identity + " on " + database.getShortName() + ": ";
+        for (Change change : changeSet.getChanges()) {
+            ValidationErrors changeErrors;
+            try {
+                Warnings changeWarnings = change.warn(database);
+                if (changeWarnings != null) {
+                    for (String message : changeWarnings.getMessages()) {
+                        warnings.add(prefix + message);
+                    }
+                }
+                changeErrors = change.validate(database);
+            } catch (RuntimeException e) {
+                errors.add(prefix + e);
+                continue;
+            }
+            if (changeErrors == null) {
+                continue;
+            }
+            if (changeErrors.hasErrors() && changeSet.getOnValidationFail()
+                                            == ChangeSet.ValidationFailOption.MARK_RAN) {
+                // Skipped at runtime, rather than failing.
+                warnings.add(prefix + "would be marked ran due to validation error(s): "
+                        + StringUtils.join(changeErrors.getErrorMessages(), ", "));
+                continue;
+            }
+            for (String message : changeErrors.getWarningMessages()) {
+                warnings.add(prefix + message);
+            }
+            for (String message : changeErrors.getErrorMessages()) {
+                errors.add(prefix + message);
+            }
+        }
+    }
+
+    /**
+     * @param   changeLog  a changelog;
+     * @param   dbms  short names of the databases the changelog has been
+     *          validated against;
+     * @return  the stamp of the changelog content, as validated.
+     */
+    public static String stamp(DatabaseChangeLog changeLog, Collection<String> dbms) {
+        return stamp(changeLog, dbms, null);
+    }
+
+    /**
+     * @param   changeLog  a changelog;
+     * @param   dbms  short names of the databases the changelog has been
+     *          validated against;
+     * @param   checkSums  receives the check sums of the change sets, as
+     *          computed for the stamp, or {@code null};
+     * @return  the stamp of the changelog content, as validated.
+     */
+    public static String stamp(DatabaseChangeLog changeLog,
+                               Collection<String> dbms,
+                               Map<ChangeSet, CheckSum> checkSums) {
+        StringBuilder content = new StringBuilder(changeLog.getChangeSets().size() * 100);
+        content.append(String.join(",", new TreeSet<>(dbms))).append('\n');
+        for (ChangeSet changeSet : changeLog.getChangeSets()) {
+            CheckSum checkSum = changeSet.generateCheckSum();
+            if (checkSums != null) {
+                checkSums.put(changeSet, checkSum);
+            }
+            content.append(changeSet.toString(false))
+                    .append('\t').append(checkSum)
+                    .append('\t').append((changeSet.getDbmsSet() == null)
+                                          ? "" : new TreeSet<>(changeSet.getDbmsSet()))
+                    .append('\n');
+        }
+        return ContentDigest.sha256(content.toString());
+    }
+
+}
@@ -0,0 +1,402 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.changelog.ext;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import liquibase.change.AbstractSQLChange;
+import liquibase.change.Change;
+import liquibase.change.ChangeWithColumns;
+import liquibase.change.ColumnConfig;
+import liquibase.change.ConstraintsConfig;
+import liquibase.change.core.CreateViewChange;
+import liquibase.change.core.EmptyChange;
+import liquibase.change.core.OutputChange;
+import liquibase.change.core.RawSQLChange;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+
+/**
+ * Groups the change sets of a changelog so that change sets in the same
+ * group touch disjoint database objects, and depend only on change sets
+ * in preceding groups.
+ * <pre>
+ * # changeSet apply plan
+ * 0	app/changelog.xml	1	john	w:orders
+ * 0	app/changelog.xml	2	john	w:people
+ * 1	app/changelog.xml	3	john	r:people w:addresses</pre>
+ * <p>
+ * The tables, views and sequences every change reads and writes are
+ * derived from its name fields ({@code tableName}, {@code baseTableName},
+ * {@code referencedTableName}, {@code viewName}, etc.) and column
+ * constraint references.  Names are compared case-insensitively, and
+ * without schema, erring on the side of more dependencies.</p>
+ * <p>
+ * Changes which cannot be analyzed ({@code sql}, {@code sqlFile},
+ * {@code createProcedure}, custom changes, {@code tagDatabase}, etc.)
+ * make their change set a barrier depending on, and depended upon by all
+ * others, unless the change set declares the objects they touch through
+ * {@code @reads} and {@code @writes} hints in its comment, or in the
+ * comment or text of its {@code sql} changes:</p>
+ * <pre>
+ * -- @reads people, orders
+ * -- @writes order_totals</pre>
+ * <p>
+ * A {@code createView}, and a change set with preconditions read all
+ * objects.</p>
+ * <p>
+ * Each line of the plan holds the tab-separated group, effective
+ * {@code logicalFilePath}, {@code id}, {@code author}, and the
+ * space-separated objects read ({@code r:}) and written ({@code w:}), or
+ * {@code *} for a barrier.  Lines are sorted by group, and otherwise
+ * keep the changelog order.  Contexts, labels and {@code dbms} are not
+ * evaluated.</p>
+ */
+public final class ChangeSetApplyPlan {
+
+    private static final String HEADER = "# changeSet apply plan";
+
+    private static final Set<String> writeFields = new HashSet<>(Arrays.asList(
+            "tableName", "baseTableName", "viewName", "sequenceName",
+            "oldTableName", "newTableName", "oldViewName", "newViewName",
+            "oldSequenceName", "newSequenceName"));
+
+    private static final Set<String> readFields = Collections.singleton("referencedTableName");
+
+    private static final Set<Class<?>> neutralChanges = new HashSet<>(Arrays
+            .asList(EmptyChange.class, OutputChange.class));
+
+    private static final Pattern HINT = Pattern
+            .compile("@(reads|writes)[ \\t]+([\\w.$\"`\\[\\]]+(?:[ \\t]*,[ \\t]*[\\w.$\"`\\[\\]]+)*)");
+
+    private final List<Entry> entries;
+
+    private ChangeSetApplyPlan(List<Entry> entries) {
+        entries.sort((a, b) -> Integer.compare(a.group, b.group));
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * @param   changeLog  a (source or compiled) changelog;
+     * @return  the apply plan of the change sets in the given changelog.
+     */
+    public static ChangeSetApplyPlan of(DatabaseChangeLog changeLog) {
+        List<Entry> entries = new ArrayList<>(changeLog.getChangeSets().size());
+        Map<String, Integer> lastWrite = new HashMap<>();
+        Map<String, Integer> lastRead = new HashMap<>();
+        int floor = 0;
+        int maxGroup = -1;
+        int maxWrite = -1;
+        int maxReadAll = -1;
+        for (ChangeSet changeSet : changeLog.getChangeSets()) {
+            Access access = Access.of(changeSet);
+            int group;
+            if (access.barrier) {
+                group = maxGroup + 1;
+                floor = group + 1;
+            } else {
+                group = floor;
+                for (String name : access.reads) {
+                    group = Math.max(group, lastWrite.getOrDefault(name, -1) + 1);
+                }
+                for (String name : access.writes) {
+                    group = Math.max(group, lastWrite.getOrDefault(name, -1) + 1);
+                    group = Math.max(group, lastRead.getOrDefault(name, -1) + 1);
+                    group = Math.max(group, maxReadAll + 1);
+                }
+                if (access.readsAll) {
+                    group = Math.max(group, maxWrite + 1);
+                    maxReadAll = Math.max(maxReadAll, group);
+                }
+                for (String name : access.reads) {
+                    lastRead.merge(name, group, Math::max);
+                }
+                for (String name : access.writes) {
+                    lastWrite.put(name, group);
+                    maxWrite = Math.max(maxWrite, group);
+                }
+            }
+            maxGroup = Math.max(maxGroup, group);
+            entries.add(new Entry(group, changeSet.getFilePath(),
+                    changeSet.getId(), changeSet.getAuthor(), access.toString()));
+        }
+        return new ChangeSetApplyPlan(entries);
+    }
+
+    /**
+     * Maps a compiled changelog path to the path of its plan.
+     *
+     * @param   changeLogPath  f.e. {@code app/changelog.xml};
+     * @return  the plan path, f.e. {@code app/changelog.plan}.
+     */
+    public static String planPath(String changeLogPath) {
+        int dotIndex = changeLogPath.lastIndexOf('.');
+        return (dotIndex > changeLogPath.lastIndexOf('/'))
+               ? changeLogPath.substring(0, dotIndex) + ".plan"
+               : changeLogPath + ".plan";
+    }
+
+    /**
+     * @return  the plan entries sorted by group.
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return  the plan entries partitioned by group.
+     */
+    public List<List<Entry>> getGroups() {
+        List<List<Entry>> groups = new ArrayList<>();
+        for (Entry entry : entries) {
+            while (groups.size() <= entry.group) {
+                groups.add(new ArrayList<>());
+            }
+            groups.get(entry.group).add(entry);
+        }
+        return groups;
+    }
+
+    /**
+     * @param   out  plan output.
+     * @throws  IOException  if I/O error occurs.
+     */
+    public void write(Writer out) throws IOException {
+        out.write(HEADER + "\n");
+        for (Entry entry : entries) {
+            out.write(Integer.toString(entry.group));
+            out.write('\t');
+            out.write(ChangeSetIdentityIndex.escape(entry.filePath));
+            out.write('\t');
+            out.write(ChangeSetIdentityIndex.escape(entry.id));
+            out.write('\t');
+            out.write(ChangeSetIdentityIndex.escape(entry.author));
+            out.write('\t');
+            out.write(ChangeSetIdentityIndex.escape(entry.objects));
+            out.write('\n');
+        }
+    }
+
+    /**
+     * @param   in  plan input, as written by {@link #write(Writer)}.
+     * @return  the plan read.
+     * @throws  IOException  if I/O error occurs, or the plan is malformed.
+     */
+    public static ChangeSetApplyPlan read(Reader in) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(in);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\t", -1);
+            if (fields.length != 5 || !fields[0].matches("\\d+")) {
+                throw new IOException("Malformed plan line: " + line);
+            }
+            entries.add(new Entry(Integer.parseInt(fields[0]),
+                                  ChangeSetIdentityIndex.unescape(fields[1]),
+                                  ChangeSetIdentityIndex.unescape(fields[2]),
+                                  ChangeSetIdentityIndex.unescape(fields[3]),
+                                  ChangeSetIdentityIndex.unescape(fields[4])));
+        }
+        return new ChangeSetApplyPlan(entries);
+    }
+
+
+    /**
+     * Objects read and written by a change set.
+     */
+    private static class Access {
+
+        final Set<String> reads = new TreeSet<>();
+        final Set<String> writes = new TreeSet<>();
+        boolean readsAll;
+        boolean barrier;
+
+        static Access of(ChangeSet changeSet) {
+            Access access = new Access();
+            boolean hinted = access.addHints(changeSet.getComments());
+            boolean opaque = false;
+            for (Change change : changeSet.getChanges()) {
+                if (change instanceof RawSQLChange) {
+                    // Not sqlFile - would load the file
+                    hinted |= access.addHints(((RawSQLChange) change).getComment());
+                    hinted |= access.addHints(((RawSQLChange) change).getSql());
+                }
+                if (!access.addChange(change)) {
+                    opaque = true;
+                }
+            }
+            if (changeSet.getPreconditions() != null
+                    && !changeSet.getPreconditions().getNestedPreconditions().isEmpty()) {
+                access.readsAll = true;
+            }
+            access.barrier = opaque && !hinted;
+            return access;
+        }
+
+        private boolean addHints(String text) {
+            if (text == null || text.indexOf('@') < 0) {
+                return false;
+            }
+            boolean found = false;
+            Matcher matcher = HINT.matcher(text);
+            while (matcher.find()) {
+                Set<String> target = matcher.group(1).equals("reads") ? reads : writes;
+                for (String name : matcher.group(2).split(",")) {
+                    target.add(normalize(name.trim()));
+                }
+                found = true;
+            }
+            return found;
+        }
+
+        /*
+         * Returns false if the change cannot be analyzed.
+         */
+        private boolean addChange(Change change) {
+            if (neutralChanges.contains(change.getClass())) {
+                return true;
+            }
+            if (change instanceof AbstractSQLChange) {
+                return false;
+            }
+            boolean named = false;
+            for (String field : change.getSerializableFields()) {
+                boolean write = writeFields.contains(field);
+                if (!write && !readFields.contains(field)) {
+                    continue;
+                }
+                Object name = change.getSerializableFieldValue(field);
+                if (name != null) {
+                    (write ? writes : reads).add(normalize(name.toString()));
+                    named = true;
+                }
+            }
+            if (change instanceof ChangeWithColumns) {
+                for (Object column : ((ChangeWithColumns<?>) change).getColumns()) {
+                    addColumn((ColumnConfig) column);
+                }
+            }
+            if (change instanceof CreateViewChange) {
+                readsAll = true;
+            }
+            return named;
+        }
+
+        private void addColumn(ColumnConfig column) {
+            if (column.getDefaultValueSequenceNext() != null) {
+                reads.add(normalize(column.getDefaultValueSequenceNext().getValue()));
+            }
+            ConstraintsConfig constraints = column.getConstraints();
+            if (constraints == null) {
+                return;
+            }
+            if (constraints.getReferencedTableName() != null) {
+                reads.add(normalize(constraints.getReferencedTableName()));
+            }
+            String references = constraints.getReferences();
+            if (references != null && references.indexOf('(') > 0) {
+                reads.add(normalize(references.substring(0, references.indexOf('('))));
+            }
+        }
+
+        /*
+         * Unqualified, unquoted, lower-case name.
+         */
+        private static String normalize(String name) {
+            String unqualified = name.trim().substring(name.trim().lastIndexOf('.') + 1);
+            return unqualified.replaceAll("[\"`\\[\\]]", "").toLowerCase(Locale.ROOT);
+        }
+
+        @Override
+        public String toString() {
+            if (barrier) {
+                return "*";
+            }
+            StringBuilder buf = new StringBuilder();
+            if (readsAll) {
+                buf.append("r:*");
+            }
+            for (String name : reads) {
+                buf.append(buf.length() > 0 ? " " : "").append("r:").append(name);
+            }
+            for (String name : writes) {
+                buf.append(buf.length() > 0 ? " " : "").append("w:").append(name);
+            }
+            return buf.toString();
+        }
+
+    }
+
+
+    public static final class Entry {
+
+        final int group;
+        final String filePath;
+        final String id;
+        final String author;
+        final String objects;
+
+        Entry(int group, String filePath, String id, String author, String objects) {
+            this.group = group;
+            this.filePath = filePath;
+            this.id = id;
+            this.author = author;
+            this.objects = objects;
+        }
+
+        public int getGroup() {
+            return group;
+        }
+
+        public String getFilePath() {
+            return filePath;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getAuthor() {
+            return author;
+        }
+
+        /**
+         * @return  space-separated {@code r:<name>} and {@code w:<name>}
+         *          objects, or {@code *} if the change set is a barrier.
+         */
+        public String getObjects() {
+            return objects;
+        }
+
+        public boolean isBarrier() {
+            return objects.equals("*");
+        }
+
+        @Override
+        public String toString() {
+            return filePath + "::" + id + "::" + author;
+        }
+
+    }
+
+}
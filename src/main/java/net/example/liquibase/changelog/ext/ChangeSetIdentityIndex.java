@@ -0,0 +1,224 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.changelog.ext;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+
+/**
+ * A sorted index of the change set identities in a compiled changelog.
+ * <pre>
+ * app/changelog.xml	1	john	8:d41d8cd98f00b204e9800998ecf8427e	-</pre>
+ * <p>
+ * Each line holds the tab-separated effective {@code logicalFilePath},
+ * {@code id}, {@code author}, check sum and flags ({@code A} for
+ * {@code runAlways}, {@code C} for {@code runOnChange}, or {@code -}) of
+ * a change set.  Lines are sorted by {@link #key(String, String, String)}
+ * which matches identities the way Liquibase does – ignoring case,
+ * path separator differences, and {@code classpath:} prefix.  Tab, line
+ * break and backslash characters in values are backslash-escaped.</p>
+ *
+ * @see  PendingChangeSets
+ */
+public final class ChangeSetIdentityIndex {
+
+    private static final String HEADER = "# changeSet identity index";
+
+    private final List<Entry> entries;
+
+    private ChangeSetIdentityIndex(List<Entry> entries) {
+        entries.sort(Comparator.comparing(Entry::getKey));
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * @param   changeLog  a (source or compiled) changelog;
+     * @return  index of the change sets in the given changelog.
+     */
+    public static ChangeSetIdentityIndex of(DatabaseChangeLog changeLog) {
+        List<Entry> entries = new ArrayList<>(changeLog.getChangeSets().size());
+        for (ChangeSet changeSet : changeLog.getChangeSets()) {
+            entries.add(new Entry(changeSet.getFilePath(),
+                                  changeSet.getId(),
+                                  changeSet.getAuthor(),
+                                  changeSet.generateCheckSum().toString(),
+                                  changeSet.isAlwaysRun(),
+                                  changeSet.isRunOnChange()));
+        }
+        return new ChangeSetIdentityIndex(entries);
+    }
+
+    /**
+     * Maps a compiled changelog path to the path of its index.
+     *
+     * @param   changeLogPath  f.e. {@code app/changelog.xml};
+     * @return  the index path, f.e. {@code app/changelog.index}.
+     */
+    public static String indexPath(String changeLogPath) {
+        int dotIndex = changeLogPath.lastIndexOf('.');
+        return (dotIndex > changeLogPath.lastIndexOf('/'))
+               ? changeLogPath.substring(0, dotIndex) + ".index"
+               : changeLogPath + ".index";
+    }
+
+    /**
+     * @param   filePath  a change set {@code logicalFilePath};
+     * @param   id  a change set id;
+     * @param   author  a change set author;
+     * @return  a sort and match key for the given change set identity.
+     */
+    public static String key(String filePath, String id, String author) {
+        String path = filePath.replace('\\', '/').replaceFirst("^classpath:", "");
+        return (path + '\0' + id + '\0' + author).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return  the index entries sorted by key.
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @param   out  index output.
+     * @throws  IOException  if I/O error occurs.
+     */
+    public void write(Writer out) throws IOException {
+        out.write(HEADER + "\n");
+        for (Entry entry : entries) {
+            out.write(escape(entry.filePath));
+            out.write('\t');
+            out.write(escape(entry.id));
+            out.write('\t');
+            out.write(escape(entry.author));
+            out.write('\t');
+            out.write(entry.checkSum);
+            out.write('\t');
+            out.write(entry.runAlways ? (entry.runOnChange ? "AC" : "A")
+                                      : (entry.runOnChange ? "C" : "-"));
+            out.write('\n');
+        }
+    }
+
+    /**
+     * @param   in  index input, as written by {@link #write(Writer)}.
+     * @return  the index read.
+     * @throws  IOException  if I/O error occurs, or the index is malformed.
+     */
+    public static ChangeSetIdentityIndex read(Reader in) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(in);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\t", -1);
+            if (fields.length != 5) {
+                throw new IOException("Malformed index line: " + line);
+            }
+            entries.add(new Entry(unescape(fields[0]),
+                                  unescape(fields[1]),
+                                  unescape(fields[2]),
+                                  fields[3],
+                                  fields[4].indexOf('A') >= 0,
+                                  fields[4].indexOf('C') >= 0));
+        }
+        return new ChangeSetIdentityIndex(entries);
+    }
+
+    static String escape(String value) {
+        return value.replace("\\", "\\\\")
+                    .replace("\t", "\\t")
+                    .replace("\n", "\\n")
+                    .replace("\r", "\\r");
+    }
+
+    static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder buf = new StringBuilder(value.length());
+        for (int i = 0, len = value.length(); i < len; i++) {
+            char ch = value.charAt(i);
+            if (ch == '\\' && i + 1 < len) {
+                ch = value.charAt(++i);
+                ch = (ch == 't') ? '\t'
+                                 : (ch == 'n') ? '\n'
+                                               : (ch == 'r') ? '\r' : ch;
+            }
+            buf.append(ch);
+        }
+        return buf.toString();
+    }
+
+
+    public static final class Entry {
+
+        final String filePath;
+        final String id;
+        final String author;
+        final String checkSum;
+        final boolean runAlways;
+        final boolean runOnChange;
+        private final String key;
+
+        Entry(String filePath, String id, String author,
+              String checkSum, boolean runAlways, boolean runOnChange) {
+            this.filePath = filePath;
+            this.id = id;
+            this.author = author;
+            this.checkSum = checkSum;
+            this.runAlways = runAlways;
+            this.runOnChange = runOnChange;
+            this.key = ChangeSetIdentityIndex.key(filePath, id, author);
+        }
+
+        public String getFilePath() {
+            return filePath;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getAuthor() {
+            return author;
+        }
+
+        public String getCheckSum() {
+            return checkSum;
+        }
+
+        public boolean isRunAlways() {
+            return runAlways;
+        }
+
+        public boolean isRunOnChange() {
+            return runOnChange;
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        @Override
+        public String toString() {
+            return filePath + "::" + id + "::" + author;
+        }
+
+    }
+
+}
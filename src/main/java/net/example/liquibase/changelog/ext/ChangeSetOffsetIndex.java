@@ -0,0 +1,510 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.changelog.ext;
+
+import static net.example.liquibase.changelog.ext.ChangeSetIdentityIndex.escape;
+import static net.example.liquibase.changelog.ext.ChangeSetIdentityIndex.unescape;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import liquibase.changelog.ChangeLogParameters;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.exception.ChangeLogParseException;
+import liquibase.exception.LiquibaseException;
+import liquibase.parser.ChangeLogParserFactory;
+import liquibase.resource.ResourceAccessor;
+import liquibase.util.StreamUtil;
+
+/**
+ * A sorted index of the byte ranges of the change sets in compiled XML
+ * changelog files, for loading individual change sets without parsing
+ * the complete changelog.
+ * <pre>
+ * app/changelog.xml	1	john	app/changelog.xml	1275	318</pre>
+ * <p>
+ * Each line holds the tab-separated effective {@code logicalFilePath},
+ * {@code id} and {@code author} of a change set, followed by the path of
+ * the compiled file (relative to the output base directory) and the
+ * byte offset and length of the {@code <changeSet>} element in it.
+ * Lines are sorted by {@link ChangeSetIdentityIndex#key(String, String,
+ * String)}, and values escaped the same as in the identity index.</p>
+ * <pre>
+ * property	app/changelog.xml	486	52</pre>
+ * <p>
+ * Lines starting with {@code property} hold the byte range of a
+ * top-level {@code <property>} element of a compiled file, which is
+ * loaded along with any change sets from that file.</p>
+ *
+ * @see  net.example.liquibase.serializer.ext.EnhancedXMLChangeLogSerializer#setOffsetIndex(boolean)
+ */
+public final class ChangeSetOffsetIndex {
+
+    private static final String HEADER = "# changeSet offset index";
+
+    private static final String PROPERTY = "property";
+
+    private static final String ROOT_START = "<databaseChangeLog";
+    private static final String ROOT_END = "</databaseChangeLog>";
+
+    /**
+     * The root start tag is expected within this many bytes.
+     */
+    private static final int HEAD_LIMIT = 8192;
+
+    private final List<Entry> entries;
+    private final List<Range> properties;
+
+    private ChangeSetOffsetIndex(List<Entry> entries, List<Range> properties) {
+        entries.sort(Comparator.comparing(Entry::getKey));
+        this.entries = Collections.unmodifiableList(entries);
+        this.properties = Collections.unmodifiableList(properties);
+    }
+
+    /**
+     * @param   entries  the index entries, in any order;
+     * @return  index of the given entries.
+     */
+    public static ChangeSetOffsetIndex of(Collection<Entry> entries) {
+        return of(entries, Collections.emptyList());
+    }
+
+    /**
+     * @param   entries  the index entries, in any order;
+     * @param   properties  the ranges of top-level {@code <property>}
+     *          elements, in file order;
+     * @return  index of the given entries and properties.
+     */
+    public static ChangeSetOffsetIndex of(Collection<Entry> entries,
+                                          Collection<Range> properties) {
+        return new ChangeSetOffsetIndex(new ArrayList<>(entries), new ArrayList<>(properties));
+    }
+
+    /**
+     * Maps a compiled changelog path to the path of its offset index.
+     *
+     * @param   changeLogPath  f.e. {@code app/changelog.xml};
+     * @return  the index path, f.e. {@code app/changelog.offsets}.
+     */
+    public static String indexPath(String changeLogPath) {
+        int dotIndex = changeLogPath.lastIndexOf('.');
+        return (dotIndex > changeLogPath.lastIndexOf('/'))
+               ? changeLogPath.substring(0, dotIndex) + ".offsets"
+               : changeLogPath + ".offsets";
+    }
+
+    /**
+     * @return  the index entries sorted by key.
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return  the ranges of top-level {@code <property>} elements.
+     */
+    public List<Range> getProperties() {
+        return properties;
+    }
+
+    /**
+     * Looks up a change set by identity, matching the way Liquibase does.
+     *
+     * @param   filePath  a change set {@code logicalFilePath};
+     * @param   id  a change set id;
+     * @param   author  a change set author;
+     * @return  the entry of the given change set, or {@code null}.
+     */
+    public Entry find(String filePath, String id, String author) {
+        String key = ChangeSetIdentityIndex.key(filePath, id, author);
+        int low = 0;
+        int high = entries.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = entries.get(mid).key.compareTo(key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return entries.get(mid);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param   out  index output.
+     * @throws  IOException  if I/O error occurs.
+     */
+    public void write(Writer out) throws IOException {
+        out.write(HEADER + "\n");
+        for (Range range : properties) {
+            out.write(PROPERTY);
+            out.write('\t');
+            out.write(escape(range.file));
+            out.write('\t');
+            out.write(Long.toString(range.offset));
+            out.write('\t');
+            out.write(Integer.toString(range.length));
+            out.write('\n');
+        }
+        for (Entry entry : entries) {
+            out.write(escape(entry.filePath));
+            out.write('\t');
+            out.write(escape(entry.id));
+            out.write('\t');
+            out.write(escape(entry.author));
+            out.write('\t');
+            out.write(escape(entry.file));
+            out.write('\t');
+            out.write(Long.toString(entry.offset));
+            out.write('\t');
+            out.write(Integer.toString(entry.length));
+            out.write('\n');
+        }
+    }
+
+    /**
+     * @param   in  index input, as written by {@link #write(Writer)}.
+     * @return  the index read.
+     * @throws  IOException  if I/O error occurs, or the index is malformed.
+     */
+    public static ChangeSetOffsetIndex read(Reader in) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        List<Range> properties = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(in);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\t", -1);
+            if (fields.length == 4 && fields[0].equals(PROPERTY)) {
+                try {
+                    properties.add(new Range(unescape(fields[1]),
+                                             Long.parseLong(fields[2]),
+                                             Integer.parseInt(fields[3])));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed index line: " + line, e);
+                }
+                continue;
+            }
+            if (fields.length != 6) {
+                throw new IOException("Malformed index line: " + line);
+            }
+            try {
+                entries.add(new Entry(unescape(fields[0]),
+                                      unescape(fields[1]),
+                                      unescape(fields[2]),
+                                      unescape(fields[3]),
+                                      Long.parseLong(fields[4]),
+                                      Integer.parseInt(fields[5])));
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed index line: " + line, e);
+            }
+        }
+        return new ChangeSetOffsetIndex(entries, properties);
+    }
+
+    /**
+     * Loads the given change sets reading only their byte ranges, and
+     * the root start tag and top-level properties of the files containing
+     * them.  The change set and property elements of each file are put
+     * in file order under a copy of its root start tag, so namespace
+     * declarations, {@code logicalFilePath}, {@code context}, properties
+     * and the like apply as in the full file, and the result is parsed
+     * by the registered changelog parser.  The properties of all indexed
+     * files are read first, so global properties declared in other files
+     * apply as well.
+     *
+     * @param   resourceAccessor  resolves the compiled files, and files
+     *          referenced from the change sets;
+     * @param   selected  entries of this index;
+     * @return  the loaded change sets, in the order of the given entries.
+     * @throws  IOException  if I/O error occurs;
+     * @throws  LiquibaseException  if parsing fails, or an entry doesn't
+     *          match the file content.
+     */
+    public List<ChangeSet> load(ResourceAccessor resourceAccessor,
+                                Collection<Entry> selected)
+            throws IOException, LiquibaseException
+    {
+        Map<String, List<Range>> propertiesByFile = new LinkedHashMap<>();
+        for (Range property : properties) {
+            propertiesByFile.computeIfAbsent(property.file, k -> new ArrayList<>()).add(property);
+        }
+        ChangeLogParameters parameters = new ChangeLogParameters();
+        for (Map.Entry<String, List<Range>> fileProperties : propertiesByFile.entrySet()) {
+            parseExcerpt(fileProperties.getKey(), fileProperties.getValue(),
+                         parameters, resourceAccessor);
+        }
+
+        Map<String, List<Range>> byFile = new LinkedHashMap<>();
+        for (Entry entry : selected) {
+            byFile.computeIfAbsent(entry.file, k -> new ArrayList<>()).add(entry);
+        }
+        for (Map.Entry<String, List<Range>> fileEntries : byFile.entrySet()) {
+            // Again for the properties local to the file
+            fileEntries.getValue().addAll(propertiesByFile
+                    .getOrDefault(fileEntries.getKey(), Collections.emptyList()));
+        }
+
+        Map<String, ChangeSet> loaded = new HashMap<>();
+        for (Map.Entry<String, List<Range>> fileEntries : byFile.entrySet()) {
+            DatabaseChangeLog changeLog = parseExcerpt(fileEntries.getKey(),
+                    fileEntries.getValue(), parameters, resourceAccessor);
+            for (ChangeSet changeSet : changeLog.getChangeSets()) {
+                loaded.put(ChangeSetIdentityIndex.key(changeSet.getFilePath(),
+                        changeSet.getId(), changeSet.getAuthor()), changeSet);
+            }
+        }
+
+        List<ChangeSet> result = new ArrayList<>(selected.size());
+        for (Entry entry : selected) {
+            ChangeSet changeSet = loaded.get(entry.key);
+            if (changeSet == null) {
+                throw new ChangeLogParseException("Change set " + entry
+                        + " not found at " + entry.file + " offset " + entry.offset
+                        + " - the index is out of date");
+            }
+            result.add(changeSet);
+        }
+        return result;
+    }
+
+    private static DatabaseChangeLog parseExcerpt(String file,
+                                                  List<Range> ranges,
+                                                  ChangeLogParameters parameters,
+                                                  ResourceAccessor resourceAccessor)
+            throws IOException, LiquibaseException
+    {
+        List<Range> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingLong(Range::getOffset));
+        byte[] excerpt = readExcerpt(file, sorted, resourceAccessor);
+
+        ResourceAccessor excerptAccessor =
+                new ExcerptResourceAccessor(resourceAccessor, file, excerpt);
+        return ChangeLogParserFactory.getInstance()
+                .getParser(file, excerptAccessor)
+                .parse(file, parameters, excerptAccessor);
+    }
+
+    private static byte[] readExcerpt(String file,
+                                      List<Range> ranges,
+                                      ResourceAccessor resourceAccessor)
+            throws IOException, ChangeLogParseException
+    {
+        try (InputStream stream = StreamUtil.singleInputStream(file, resourceAccessor)) {
+            if (stream == null) {
+                throw new ChangeLogParseException(file + " does not exist");
+            }
+            InputStream in = new BufferedInputStream(stream);
+            ByteArrayOutputStream excerpt = new ByteArrayOutputStream();
+            long position = readHead(in, file, excerpt);
+            for (Range entry : ranges) {
+                if (entry.offset < position) {
+                    throw new ChangeLogParseException("Overlapping range of "
+                            + entry + " in " + file + " - the index is out of date");
+                }
+                skipFully(in, entry.offset - position);
+                byte[] element = new byte[entry.length];
+                readFully(in, element);
+                excerpt.write(element);
+                position = entry.offset + entry.length;
+            }
+            excerpt.write(ROOT_END.getBytes(StandardCharsets.US_ASCII));
+            return excerpt.toByteArray();
+        }
+    }
+
+    /*
+     * Copies the XML declaration and the root start tag, returning the
+     * number of bytes consumed.
+     */
+    private static long readHead(InputStream in, String file, ByteArrayOutputStream head)
+            throws IOException, ChangeLogParseException
+    {
+        // ASCII compatible encodings, as written by the serializer.
+        StringBuilder text = new StringBuilder();
+        int rootStart = -1;
+        int b;
+        while (text.length() < HEAD_LIMIT && (b = in.read()) >= 0) {
+            head.write(b);
+            text.append((char) b);
+            if (rootStart < 0) {
+                if (b == 'g' && text.length() >= ROOT_START.length()
+                        && text.lastIndexOf(ROOT_START) >= 0) {
+                    rootStart = text.lastIndexOf(ROOT_START);
+                }
+            } else if (b == '>') {
+                if (text.charAt(text.length() - 2) == '/') {
+                    break; // Empty root element
+                }
+                return text.length();
+            }
+        }
+        throw new ChangeLogParseException("Could not find the root start tag of " + file);
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        long remaining = count;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new IOException("Unexpected end of stream");
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] buf) throws IOException {
+        int length = 0;
+        while (length < buf.length) {
+            int count = in.read(buf, length, buf.length - length);
+            if (count < 0) {
+                throw new IOException("Unexpected end of stream");
+            }
+            length += count;
+        }
+    }
+
+
+    /**
+     * A byte range in a compiled file.
+     */
+    public static class Range {
+
+        final String file;
+        final long offset;
+        final int length;
+
+        public Range(String file, long offset, int length) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        @Override
+        public String toString() {
+            return file + "@" + offset;
+        }
+
+    }
+
+
+    public static final class Entry extends Range {
+
+        final String filePath;
+        final String id;
+        final String author;
+        private final String key;
+
+        public Entry(String filePath, String id, String author,
+                     String file, long offset, int length) {
+            super(file, offset, length);
+            this.filePath = filePath;
+            this.id = id;
+            this.author = author;
+            this.key = ChangeSetIdentityIndex.key(filePath, id, author);
+        }
+
+        public String getFilePath() {
+            return filePath;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getAuthor() {
+            return author;
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        @Override
+        public String toString() {
+            return filePath + "::" + id + "::" + author;
+        }
+
+    }
+
+
+    /**
+     * Serves the excerpt in place of the compiled file, resolving
+     * everything else with the given accessor.
+     */
+    private static class ExcerptResourceAccessor implements ResourceAccessor {
+
+        private final ResourceAccessor delegate;
+        private final String path;
+        private final byte[] content;
+
+        ExcerptResourceAccessor(ResourceAccessor delegate, String path, byte[] content) {
+            this.delegate = delegate;
+            this.path = path;
+            this.content = content;
+        }
+
+        @Override
+        public Set<InputStream> getResourcesAsStream(String resource) throws IOException {
+            if (resource.equals(path)) {
+                return Collections.singleton(new ByteArrayInputStream(content));
+            }
+            return delegate.getResourcesAsStream(resource);
+        }
+
+        @Override
+        public Set<String> list(String relativeTo, String dir,
+                                boolean includeFiles, boolean includeDirectories,
+                                boolean recursive)
+                throws IOException
+        {
+            return delegate.list(relativeTo, dir, includeFiles, includeDirectories, recursive);
+        }
+
+        @Override
+        public ClassLoader toClassLoader() {
+            return delegate.toClassLoader();
+        }
+
+    }
+
+}
@@ -0,0 +1,222 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.changelog.ext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import liquibase.Contexts;
+import liquibase.LabelExpression;
+import liquibase.change.AbstractChange;
+import liquibase.change.Change;
+import liquibase.change.core.CreateProcedureChange;
+import liquibase.change.core.CreateViewChange;
+import liquibase.change.core.SQLFileChange;
+import liquibase.changelog.ChangeLogParameters;
+import liquibase.changelog.ChangeLogParameters.ChangeLogParameter;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.database.Database;
+import liquibase.logging.LogService;
+import liquibase.serializer.LiquibaseSerializable;
+import liquibase.util.StreamUtil;
+
+/**
+ * Expands changelog parameters at compile time, for a given target
+ * environment, and finds the references left unresolved.
+ * <p>
+ * Liquibase expands {@code ${...}} references as it parses a changelog,
+ * with the parameters valid for the current database, contexts and labels.
+ * Parsing the source with the {@link #of(Database, Map, String, String)
+ * parameters of the target environment} thus yields fully resolved
+ * attributes and SQL bodies, and the {@code <property>} declarations need
+ * not be written to the compiled output.  Only the content of files loaded
+ * at runtime ({@code sqlFile}, {@code createView} and
+ * {@code createProcedure} having a {@code path}) is still expanded by the
+ * runtime – the declarations of the parameters it refers to are
+ * {@linkplain #getRuntimeReferenced() retained}.</p>
+ * <p>
+ * Note, change sets not matching the target database are omitted while
+ * parsing, as they are at runtime.</p>
+ */
+public class CompileTimeParameters {
+
+    /*
+     * See ChangeLogParameters.ExpressionExpander
+     */
+    private static final Pattern EXPRESSION = Pattern.compile("\\$\\{([^}]+)\\}");
+
+    private final DatabaseChangeLog changeLog;
+    private final Map<String, Set<String>> unresolved = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final Set<String> runtimeReferenced = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    private final Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * @param   changeLog  a changelog parsed with the parameters of the
+     *          target environment.
+     */
+    public CompileTimeParameters(DatabaseChangeLog changeLog) {
+        this.changeLog = changeLog;
+    }
+
+    /**
+     * Creates parameters to parse a changelog with, for the given target
+     * environment.  As with the Liquibase command line {@code -D} options,
+     * the given values take precedence over the changelog declarations,
+     * but not over the system properties and the environment variables.
+     *
+     * @param   database  the target database, or {@code null} to select
+     *          only parameters not specific to a database;
+     * @param   values  the parameter values of the environment;
+     * @param   contexts  the target contexts, or {@code null};
+     * @param   labels  the target label expression, or {@code null};
+     * @return  new changelog parameters.
+     */
+    public static ChangeLogParameters of(Database database,
+                                         Map<String, String> values,
+                                         String contexts,
+                                         String labels) {
+        ChangeLogParameters params = new ChangeLogParameters(database);
+        params.setContexts(new Contexts(contexts));
+        params.setLabels(new LabelExpression(labels));
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            params.set(entry.getKey(), entry.getValue());
+        }
+        return params;
+    }
+
+    /**
+     * @return  the names of the parameters left unresolved, mapped to the
+     *          change sets (or files) referring to them.
+     */
+    public Map<String, Set<String>> getUnresolved() {
+        return Collections.unmodifiableMap(unresolved);
+    }
+
+    /**
+     * @return  the names of the declared parameters referred to by the
+     *          content of files loaded at runtime.
+     */
+    public Set<String> getRuntimeReferenced() {
+        return Collections.unmodifiableSet(runtimeReferenced);
+    }
+
+    /**
+     * Scans the changelog for parameter references.
+     */
+    public void scan() {
+        if (changeLog.getPreconditions() != null) {
+            scan(changeLog.getPreconditions(), changeLog.getPhysicalFilePath());
+        }
+        for (ChangeSet changeSet : changeLog.getChangeSets()) {
+            String location = changeSet.toString(false);
+            scan(changeSet, location);
+            for (Change change : changeSet.getChanges()) {
+                scanRuntimeLoaded(change, location);
+            }
+            for (Change change : changeSet.getRollback().getChanges()) {
+                scanRuntimeLoaded(change, location);
+            }
+        }
+        visited.clear();
+    }
+
+    private void scan(Object value, String location) {
+        if (value == null) {
+            return;
+        }
+        if (value instanceof LiquibaseSerializable) {
+            if (!visited.add(value)) {
+                return;
+            }
+            LiquibaseSerializable serializable = (LiquibaseSerializable) value;
+            for (String field : serializable.getSerializableFields()) {
+                scan(serializable.getSerializableFieldValue(field), location);
+            }
+        } else if (value instanceof Collection) {
+            for (Object item : (Collection<?>) value) {
+                scan(item, location);
+            }
+        } else {
+            String text = value.toString();
+            if (text.indexOf("${") < 0) {
+                return;
+            }
+            Matcher m = EXPRESSION.matcher(text);
+            while (m.find()) {
+                addUnresolved(m.group(1), location);
+            }
+        }
+    }
+
+    private void scanRuntimeLoaded(Change change, String location) {
+        if (!(change instanceof SQLFileChange
+                || change instanceof CreateViewChange
+                || change instanceof CreateProcedureChange)) {
+            return;
+        }
+        Object path = change.getSerializableFieldValue("path");
+        if (path == null) {
+            return;
+        }
+
+        String content;
+        try (InputStream in = StreamUtil.openStream(path.toString(),
+                (Boolean) change.getSerializableFieldValue("relativeToChangelogFile"),
+                change.getChangeSet(), ((AbstractChange) change).getResourceAccessor())) {
+            if (in == null) {
+                throw new IOException("File does not exist: " + path);
+            }
+            content = StreamUtil.getStreamContents(in,
+                    (String) change.getSerializableFieldValue("encoding"));
+        } catch (IOException e) {
+            LogService.getLog(getClass()).warning("Could not scan " + path
+                    + " of " + location + " for parameter references", e);
+            return;
+        }
+
+        ChangeLogParameters params = change.getChangeSet().getChangeLogParameters();
+        Matcher m = EXPRESSION.matcher(content);
+        while (m.find()) {
+            String name = m.group(1);
+            if (name.toLowerCase(Locale.ROOT).startsWith("database.")
+                    || isDeclared(params, name)) {
+                // Resolved by the runtime as well.
+                runtimeReferenced.add(name);
+            } else {
+                addUnresolved(name, location + " (" + path + ")");
+            }
+        }
+    }
+
+    private static boolean isDeclared(ChangeLogParameters params, String name) {
+        if (params == null) {
+            return false;
+        }
+        for (ChangeLogParameter param : params.getChangeLogParameters()) {
+            if (param.getChangeLog() != null
+                    && param.getKey().equalsIgnoreCase(name) && param.isValid()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addUnresolved(String name, String location) {
+        unresolved.computeIfAbsent(name, k -> new LinkedHashSet<>()).add(location);
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.changelog.ext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import liquibase.Contexts;
+import liquibase.LabelExpression;
+import liquibase.Liquibase;
+import liquibase.change.ColumnConfig;
+import liquibase.database.Database;
+import liquibase.exception.DatabaseException;
+import liquibase.exception.LiquibaseException;
+import liquibase.executor.ExecutorService;
+import liquibase.logging.LogService;
+import liquibase.resource.ResourceAccessor;
+import liquibase.snapshot.SnapshotGeneratorFactory;
+import liquibase.statement.core.SelectFromDatabaseChangeLogStatement;
+import liquibase.util.StreamUtil;
+
+/**
+ * Finds the change sets pending for a database using the
+ * {@link ChangeSetIdentityIndex} of a compiled changelog, without parsing
+ * the changelog itself.
+ * <p>
+ * The {@code DATABASECHANGELOG} identities are read with a single query,
+ * sorted by {@link ChangeSetIdentityIndex#key(String, String, String)},
+ * and merge-joined with the index entries.  An entry is pending if it
+ * has no matching row, is {@code runAlways}, or has a check sum different
+ * from the recorded one.  The latter is only legal for {@code runOnChange}
+ * change sets; other ones are reported pending as well, so the following
+ * update validates them, and fails unless a {@code validCheckSum} – not
+ * recorded in the index – accepts the change.  Contexts, labels
+ * and {@code dbms} are not evaluated, so a change set reported pending may
+ * still get skipped by a following update – never the reverse.</p>
+ */
+public final class PendingChangeSets {
+
+    private PendingChangeSets() {
+        // no instances
+    }
+
+    /**
+     * @param   database  the target database;
+     * @param   index  the index of the changelog to be applied;
+     * @return  the index entries pending for the given database, in index
+     *          order.
+     * @throws  DatabaseException  if the change log table query fails.
+     */
+    public static List<ChangeSetIdentityIndex.Entry> find(Database database,
+                                                          ChangeSetIdentityIndex index)
+            throws DatabaseException
+    {
+        if (!SnapshotGeneratorFactory.getInstance().hasDatabaseChangeLogTable(database)) {
+            return index.getEntries();
+        }
+
+        List<Map<String, ?>> rows = ExecutorService.getInstance().getExecutor(database)
+                .queryForList(new SelectFromDatabaseChangeLogStatement(
+                        new ColumnConfig().setName("FILENAME"),
+                        new ColumnConfig().setName("ID"),
+                        new ColumnConfig().setName("AUTHOR"),
+                        new ColumnConfig().setName("MD5SUM")));
+        List<String[]> ran = new ArrayList<>(rows.size());
+        for (Map<String, ?> row : rows) {
+            Object checkSum = row.get("MD5SUM");
+            ran.add(new String[] { ChangeSetIdentityIndex.key(row.get("FILENAME").toString(),
+                                                              row.get("ID").toString(),
+                                                              row.get("AUTHOR").toString()),
+                                   (checkSum == null) ? null : checkSum.toString() });
+        }
+        ran.sort((a, b) -> a[0].compareTo(b[0]));
+
+        List<ChangeSetIdentityIndex.Entry> pending = new ArrayList<>();
+        int r = 0;
+        for (ChangeSetIdentityIndex.Entry entry : index.getEntries()) {
+            String key = entry.getKey();
+            while (r < ran.size() && ran.get(r)[0].compareTo(key) < 0) {
+                r++;
+            }
+            if (r == ran.size() || !ran.get(r)[0].equals(key)) {
+                pending.add(entry);
+            } else if (entry.runAlways || checkSumChanged(ran.get(r)[1], entry.checkSum)) {
+                pending.add(entry);
+            }
+        }
+        return pending;
+    }
+
+    private static boolean checkSumChanged(String recorded, String current) {
+        // Null, or a different version check sum is updated by Liquibase
+        // without running the change set.
+        return recorded != null && recorded.length() > 2
+                && recorded.regionMatches(0, current, 0, 2)
+                && !recorded.equals(current);
+    }
+
+    /**
+     * Updates the database from the given compiled changelog, parsing it
+     * only if its index (see {@link ChangeSetIdentityIndex#indexPath(String)})
+     * is not available, or reports pending change sets.  Change sets
+     * modified after being ran, without being {@code runOnChange}, fail
+     * the update validation.
+     *
+     * @param   changeLogFile  compiled changelog path;
+     * @param   resourceAccessor  resolves the changelog and its index;
+     * @param   database  the target database;
+     * @param   contexts  contexts to update with;
+     * @param   labels  labels to update with;
+     * @return  {@code false} if the database was found up to date, and
+     *          the changelog was not parsed.
+     * @throws  LiquibaseException  if the update fails.
+     */
+    public static boolean update(String changeLogFile,
+                                 ResourceAccessor resourceAccessor,
+                                 Database database,
+                                 Contexts contexts,
+                                 LabelExpression labels)
+            throws LiquibaseException
+    {
+        ChangeSetIdentityIndex index = readIndex(changeLogFile, resourceAccessor);
+        if (index != null) {
+            List<ChangeSetIdentityIndex.Entry> pending = find(database, index);
+            if (pending.isEmpty()) {
+                LogService.getLog(PendingChangeSets.class)
+                        .info("No pending change sets in " + changeLogFile);
+                return false;
+            }
+            LogService.getLog(PendingChangeSets.class).info(pending.size()
+                    + " pending change set(s) in " + changeLogFile + ", first: " + pending.get(0));
+        }
+        new Liquibase(changeLogFile, resourceAccessor, database).update(contexts, labels);
+        return true;
+    }
+
+    private static ChangeSetIdentityIndex readIndex(String changeLogFile,
+                                                    ResourceAccessor resourceAccessor)
+            throws LiquibaseException
+    {
+        String indexPath = ChangeSetIdentityIndex.indexPath(changeLogFile);
+        try (InputStream in = StreamUtil.singleInputStream(indexPath, resourceAccessor)) {
+            if (in == null) {
+                return null;
+            }
+            return ChangeSetIdentityIndex
+                    .read(new InputStreamReader(in, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new LiquibaseException("Could not read " + indexPath, e);
+        }
+    }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.changelog.ext;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import liquibase.change.AbstractChange;
+import liquibase.change.Change;
+import liquibase.change.custom.CustomChangeWrapper;
+import liquibase.change.custom.CustomSqlRollback;
+import liquibase.change.custom.CustomTaskRollback;
+import liquibase.changelog.ChangeSet;
+import liquibase.database.Database;
+import liquibase.exception.UnexpectedLiquibaseException;
+import liquibase.logging.LogService;
+import liquibase.util.LiquibaseUtil;
+
+/**
+ * Turns the automatic rollback of change sets into explicit
+ * {@code <rollback>} changes, so rolling back replays them as written,
+ * and change sets which couldn't be rolled back are known at compile time.
+ * <p>
+ * The rollback of a change set without explicit rollback changes is
+ * made of the inverses of its changes, in reverse order – the same
+ * {@code AbstractChange.createInverses()} the runtime derives its
+ * rollback statements from.  A change set gets no rollback if:</p>
+ * <ul>
+ * <li>it has explicit rollback already, or no changes;</li>
+ * <li>some of its changes derive their rollback statements at runtime
+ * only – custom changes implementing rollback, {@code loadUpdateData},
+ * or changes not based on {@code AbstractChange};</li>
+ * <li>some of its changes have no inverse – the change set is then
+ * reported by {@link #getImpossible()}.</li>
+ * </ul>
+ * <p>
+ * The change sets are not modified – the serializer writes the returned
+ * rollback in place of the empty one, so the model may be shared with
+ * other threads, and check sums are not affected.</p>
+ * <p>
+ * {@code createInverses()} is not public API.  It is looked up for
+ * Liquibase 3.x only, and materializing is not {@linkplain #isSupported()
+ * supported} if it can't be found or made accessible.</p>
+ */
+public class RollbackMaterializer {
+
+    private static final Method createInverses = findCreateInverses();
+
+    private static Method findCreateInverses() {
+        String version = LiquibaseUtil.getBuildVersion();
+        if (version != null && version.matches("\\d.*") && !version.startsWith("3.")) {
+            LogService.getLog(RollbackMaterializer.class)
+                    .debug("Not looking up createInverses() in Liquibase " + version);
+            return null;
+        }
+        try {
+            Method method = AbstractChange.class.getDeclaredMethod("createInverses");
+            if (method.getReturnType() != Change[].class) {
+                return null;
+            }
+            method.setAccessible(true);
+            return method;
+        } catch (NoSuchMethodException | RuntimeException e) {
+            LogService.getLog(RollbackMaterializer.class)
+                    .debug("createInverses() not accessible in Liquibase " + version, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return  whether rollback can be materialized with the Liquibase
+     *          version in use.
+     */
+    public static boolean isSupported() {
+        return createInverses != null;
+    }
+
+    private final Map<ChangeSet, String> impossible = new LinkedHashMap<>();
+    private int materialized;
+    private int runtime;
+
+    /**
+     * @return  number of change sets given explicit rollback.
+     */
+    public int getMaterialized() {
+        return materialized;
+    }
+
+    /**
+     * @return  number of change sets left with rollback derived at runtime.
+     */
+    public int getRuntime() {
+        return runtime;
+    }
+
+    /**
+     * @return  change sets which couldn't be rolled back, mapped to the
+     *          (comma-separated) names of their changes having no inverse.
+     */
+    public Map<ChangeSet, String> getImpossible() {
+        return Collections.unmodifiableMap(impossible);
+    }
+
+    /**
+     * @param   changeSet  a change set;
+     * @return  the names of the changes having no inverse, if the given
+     *          change set couldn't be rolled back, or {@code null}.
+     */
+    public String getImpossibleReason(ChangeSet changeSet) {
+        return impossible.get(changeSet);
+    }
+
+    /**
+     * @param   changeSet  the change set to materialize the rollback of;
+     * @return  the rollback changes of the given change set, in order, or
+     *          {@code null} if it gets no rollback materialized.
+     * @throws  IllegalStateException  if not {@linkplain #isSupported()
+     *          supported}.
+     */
+    public List<Change> materialize(ChangeSet changeSet) {
+        if (createInverses == null) {
+            throw new IllegalStateException("Rollback materializing is not supported"
+                    + " with Liquibase " + LiquibaseUtil.getBuildVersion());
+        }
+        if (!changeSet.getRollback().getChanges().isEmpty()
+                || changeSet.getChanges().isEmpty()
+                || impossible.containsKey(changeSet)) {
+            return null;
+        }
+
+        List<Change> rollback = new ArrayList<>();
+        Set<String> noInverse = new LinkedHashSet<>();
+        boolean runtimeOnly = false;
+        List<Change> changes = changeSet.getChanges();
+        for (int i = changes.size() - 1; i >= 0; i--) {
+            Change change = changes.get(i);
+            if (hasRuntimeRollback(change)) {
+                runtimeOnly = true;
+                continue;
+            }
+            Change[] inverses = (change instanceof AbstractChange)
+                                ? inversesOf((AbstractChange) change)
+                                : null;
+            if (inverses == null) {
+                noInverse.add(change.getSerializedObjectName());
+            } else {
+                for (Change inverse : inverses) {
+                    inverse.setChangeSet(changeSet); // as addRollbackChange() does
+                    rollback.add(inverse);
+                }
+            }
+        }
+
+        if (!noInverse.isEmpty()) {
+            impossible.put(changeSet, String.join(", ", noInverse));
+            return null;
+        } else if (runtimeOnly) {
+            runtime++;
+            return null;
+        }
+        materialized++;
+        return rollback;
+    }
+
+    private static boolean hasRuntimeRollback(Change change) {
+        if (change instanceof CustomChangeWrapper) {
+            Object customChange = ((CustomChangeWrapper) change).getCustomChange();
+            return customChange instanceof CustomSqlRollback
+                    || customChange instanceof CustomTaskRollback;
+        }
+        if (!(change instanceof AbstractChange)) {
+            return true;
+        }
+        try {
+            return change.getClass()
+                    .getMethod("generateRollbackStatements", Database.class)
+                    .getDeclaringClass() != AbstractChange.class;
+        } catch (NoSuchMethodException e) {
+            throw new UnexpectedLiquibaseException(e);
+        }
+    }
+
+    private static Change[] inversesOf(AbstractChange change) {
+        try {
+            return (Change[]) createInverses.invoke(change);
+        } catch (IllegalAccessException e) {
+            throw new UnexpectedLiquibaseException(e);
+        } catch (InvocationTargetException e) {
+            throw new UnexpectedLiquibaseException("Could not create inverse of "
+                    + change.getSerializedObjectName(), e.getCause());
+        }
+    }
+
+}
@@ -0,0 +1,249 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.changelog.ext;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.database.Database;
+import liquibase.resource.ResourceAccessor;
+import liquibase.serializer.LiquibaseSerializable;
+
+/**
+ * Replaces equal strings in a parsed changelog graph with a single
+ * canonical instance.
+ * <p>
+ * The graph is walked reflectively starting from the root changelog,
+ * descending into Liquibase model objects (changelogs, change sets,
+ * changes, column configs, context expressions, etc.), their lists, sets,
+ * maps and arrays.  Strings are canonicalized through a fixed-size,
+ * direct-mapped table: a colliding string evicts the previous entry, so
+ * the table never grows beyond its initial capacity, at the expense of
+ * missing some duplicates.</p>
+ * <p>
+ * Fields which could not be made accessible, and elements of immutable
+ * collections are not replaced, though still traversed.</p>
+ * <p>
+ * The deduplication runs on a completely parsed changelog, so it doesn't
+ * lower the peak heap of parsing itself – only the heap retained during
+ * the following serialization and verification.</p>
+ */
+public class StringDeduplicator {
+
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final Map<Class<?>, List<Field>> fieldCache = new ConcurrentHashMap<>();
+
+    private final String[] table;
+    private final Map<Object, Boolean> visited = new IdentityHashMap<>();
+
+    private long strings;
+    private long duplicates;
+    private long savedBytes;
+
+    public StringDeduplicator() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param   capacity  string table capacity, rounded up to a power of two.
+     */
+    public StringDeduplicator(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+        this.table = new String[size];
+    }
+
+    /**
+     * @return  number of string references visited.
+     */
+    public long getStrings() {
+        return strings;
+    }
+
+    /**
+     * @return  number of string references replaced with a canonical
+     *          instance.
+     */
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @return  estimated heap bytes made collectable, assuming a 40 byte
+     *          string and array overhead, and two bytes per character.
+     */
+    public long getSavedBytes() {
+        return savedBytes;
+    }
+
+    /**
+     * @param   changeLog  the root changelog to deduplicate strings of.
+     */
+    public void deduplicate(DatabaseChangeLog changeLog) {
+        Deque<Object> pending = new ArrayDeque<>();
+        pending.push(changeLog);
+        while (!pending.isEmpty()) {
+            Object object = pending.pop();
+            if (visited.put(object, Boolean.TRUE) != null) {
+                continue;
+            }
+            if (object instanceof List) {
+                dedupList((List<?>) object, pending);
+            } else if (object instanceof Set) {
+                dedupSet((Set<?>) object, pending);
+            } else if (object instanceof Map) {
+                dedupValues((Map<?, ?>) object, pending);
+            } else if (object instanceof Object[]) {
+                Object[] array = (Object[]) object;
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = visit(array[i], pending);
+                }
+            } else {
+                dedupFields(object, pending);
+            }
+        }
+        visited.clear();
+    }
+
+    private void dedupFields(Object object, Deque<Object> pending) {
+        for (Field field : fieldsOf(object.getClass())) {
+            try {
+                Object value = field.get(object);
+                Object canonical = visit(value, pending);
+                if (canonical != value) {
+                    field.set(object, canonical);
+                }
+            } catch (IllegalAccessException e) {
+                // Skip
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void dedupList(List<?> list, Deque<Object> pending) {
+        ListIterator<Object> iter = (ListIterator<Object>) list.listIterator();
+        boolean modifiable = true;
+        while (iter.hasNext()) {
+            Object value = iter.next();
+            Object canonical = visit(value, pending);
+            if (modifiable && canonical != value) {
+                try {
+                    iter.set(canonical);
+                } catch (UnsupportedOperationException e) {
+                    modifiable = false;
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void dedupSet(Set<?> set, Deque<Object> pending) {
+        List<Object> elements = new ArrayList<>(set.size());
+        boolean replaced = false;
+        for (Object value : set) {
+            Object canonical = visit(value, pending);
+            replaced |= (canonical != value);
+            elements.add(canonical);
+        }
+        if (replaced) {
+            try {
+                set.clear();
+                ((Set<Object>) set).addAll(elements);
+            } catch (UnsupportedOperationException e) {
+                // Skip
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void dedupValues(Map<?, ?> map, Deque<Object> pending) {
+        boolean modifiable = true;
+        for (Map.Entry<?, Object> entry : ((Map<?, Object>) map).entrySet()) {
+            Object value = entry.getValue();
+            Object canonical = visit(value, pending);
+            if (modifiable && canonical != value) {
+                try {
+                    entry.setValue(canonical);
+                } catch (UnsupportedOperationException e) {
+                    modifiable = false;
+                }
+            }
+        }
+    }
+
+    private Object visit(Object value, Deque<Object> pending) {
+        if (value instanceof String) {
+            return canonical((String) value);
+        }
+        if (value != null && isTraversable(value)) {
+            pending.push(value);
+        }
+        return value;
+    }
+
+    String canonical(String value) {
+        strings++;
+        int slot = value.hashCode() & (table.length - 1);
+        String existing = table[slot];
+        if (existing == value) {
+            return value;
+        }
+        if (value.equals(existing)) {
+            duplicates++;
+            savedBytes += 40 + 2L * value.length();
+            return existing;
+        }
+        table[slot] = value;
+        return value;
+    }
+
+    private static boolean isTraversable(Object value) {
+        if (value instanceof Collection
+                || value instanceof Map
+                || value instanceof Object[]) {
+            return true;
+        }
+        if (value instanceof Database
+                || value instanceof ResourceAccessor
+                || value instanceof Enum) {
+            return false;
+        }
+        return value instanceof LiquibaseSerializable
+                || value.getClass().getName().startsWith("liquibase.");
+    }
+
+    private static List<Field> fieldsOf(Class<?> type) {
+        return fieldCache.computeIfAbsent(type, k -> {
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> c = k; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())
+                            || field.getType().isPrimitive()) {
+                        continue;
+                    }
+                    try {
+                        field.setAccessible(true);
+                        fields.add(field);
+                    } catch (RuntimeException e) {
+                        // Inaccessible (JPMS) - skip
+                    }
+                }
+            }
+            return fields;
+        });
+    }
+
+}
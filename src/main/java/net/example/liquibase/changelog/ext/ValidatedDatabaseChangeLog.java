@@ -0,0 +1,230 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.changelog.ext;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import liquibase.Contexts;
+import liquibase.LabelExpression;
+import liquibase.RuntimeEnvironment;
+import liquibase.change.Change;
+import liquibase.change.CheckSum;
+import liquibase.changelog.ChangeLogIterator;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.changelog.RanChangeSet;
+import liquibase.changelog.filter.ChangeSetFilterResult;
+import liquibase.changelog.filter.ContextChangeSetFilter;
+import liquibase.changelog.filter.DbmsChangeSetFilter;
+import liquibase.changelog.filter.LabelChangeSetFilter;
+import liquibase.changelog.visitor.ValidatingVisitor;
+import liquibase.database.Database;
+import liquibase.exception.LiquibaseException;
+import liquibase.exception.SetupException;
+import liquibase.exception.ValidationFailedException;
+import liquibase.logging.LogService;
+
+/**
+ * A changelog carrying the stamp of its content validated at compile
+ * time.
+ * <p>
+ * If the content still matches the stamp, and the target database is one
+ * validated against, {@link #validate(Database, Contexts, LabelExpression)}
+ * skips the duplicate identity detection and the validation of every
+ * change.  Changes are still initialized, and the changelog preconditions
+ * and the check sums of ran change sets are still verified, as these
+ * depend on the target database.  Otherwise, the full standard validation
+ * is performed.</p>
+ * <p>
+ * Checking the stamp computes the check sum of every change set once.
+ * The ran change sets are then verified against these, rather than
+ * computing their check sums again.</p>
+ *
+ * @see  ChangeLogValidator
+ */
+public class ValidatedDatabaseChangeLog extends DatabaseChangeLog {
+
+    /**
+     * Local name of the stamp attribute of the root element, in the
+     * {@value liquibase.serializer.LiquibaseSerializable#GENERIC_CHANGELOG_EXTENSION_NAMESPACE}
+     * namespace.
+     */
+    public static final String STAMP_ATTRIBUTE = "validated";
+
+    /**
+     * Local name of the attribute listing the databases validated against.
+     */
+    public static final String DBMS_ATTRIBUTE = "validatedDbms";
+
+    private final String stamp;
+    private final Set<String> dbms;
+
+    /**
+     * @param   physicalFilePath  the changelog file path;
+     * @param   stamp  the stamp of the validated content;
+     * @param   dbms  comma-separated short names of the databases
+     *          validated against.
+     */
+    public ValidatedDatabaseChangeLog(String physicalFilePath, String stamp, String dbms) {
+        super(physicalFilePath);
+        this.stamp = stamp;
+        this.dbms = Collections.unmodifiableSet(new LinkedHashSet<>(
+                Arrays.asList(dbms.trim().split("\\s*,\\s*"))));
+    }
+
+    public String getStamp() {
+        return stamp;
+    }
+
+    public Set<String> getDbms() {
+        return dbms;
+    }
+
+    /**
+     * @param   database  the target database;
+     * @return  {@code true} if the content has been validated against
+     *          the given database, and hasn't changed since.
+     */
+    public boolean isStampValid(Database database) {
+        return checkStamp(database) != null;
+    }
+
+    /*
+     * Returns the check sums computed for the stamp, if it is valid.
+     */
+    private Map<ChangeSet, CheckSum> checkStamp(Database database) {
+        if (!dbms.contains(database.getShortName())) {
+            return null;
+        }
+        Map<ChangeSet, CheckSum> checkSums = new IdentityHashMap<>();
+        return stamp.equals(ChangeLogValidator.stamp(this, dbms, checkSums))
+               ? checkSums
+               : null;
+    }
+
+    @Override
+    public void validate(Database database, Contexts contexts, LabelExpression labelExpression)
+            throws LiquibaseException
+    {
+        Map<ChangeSet, CheckSum> checkSums = checkStamp(database);
+        if (checkSums == null) {
+            LogService.getLog(getClass()).info("Validated stamp of " + getPhysicalFilePath()
+                    + " doesn't apply, validating fully");
+            super.validate(database, contexts, labelExpression);
+            return;
+        }
+
+        database.setObjectQuotingStrategy(getObjectQuotingStrategy());
+        ChangeLogIterator logIterator = new ChangeLogIterator(this,
+                new DbmsChangeSetFilter(database),
+                new ContextChangeSetFilter(contexts),
+                new LabelChangeSetFilter(labelExpression));
+        ValidatingVisitor visitor = new StampedValidatingVisitor(database.getRanChangeSetList(), checkSums);
+        visitor.validate(database, this);
+        logIterator.run(visitor, new RuntimeEnvironment(database, contexts, labelExpression));
+        if (!visitor.validationPassed()) {
+            throw new ValidationFailedException(visitor);
+        }
+    }
+
+
+    /**
+     * Performs only the database-dependent part of the standard
+     * {@code ValidatingVisitor}.
+     */
+    static class StampedValidatingVisitor extends ValidatingVisitor {
+
+        private final Map<String, RanChangeSet> ranIndex = new HashMap<>();
+        private final Map<ChangeSet, CheckSum> checkSums;
+
+        StampedValidatingVisitor(List<RanChangeSet> ranChangeSets,
+                                 Map<ChangeSet, CheckSum> checkSums) {
+            super(Collections.emptyList());
+            this.checkSums = checkSums;
+            for (RanChangeSet ranChangeSet : ranChangeSets) {
+                ranIndex.put(ranChangeSet.toString(), ranChangeSet);
+            }
+        }
+
+        @Override
+        public void visit(ChangeSet changeSet,
+                          DatabaseChangeLog databaseChangeLog,
+                          Database database,
+                          Set<ChangeSetFilterResult> filterResults)
+                throws LiquibaseException
+        {
+            RanChangeSet ranChangeSet = findChangeSet(changeSet);
+            changeSet.setStoredCheckSum((ranChangeSet == null) ? null
+                                                               : ranChangeSet.getLastCheckSum());
+            for (Change change : changeSet.getChanges()) {
+                try {
+                    change.finishInitialization();
+                } catch (SetupException e) {
+                    getSetupExceptions().add(e);
+                }
+            }
+            if (ranChangeSet != null && !changeSet.shouldRunOnChange()
+                    && !isCheckSumValid(changeSet, ranChangeSet.getLastCheckSum())) {
+                getInvalidMD5Sums().add(changeSet.toString(false)
+                        + " was: " + ranChangeSet.getLastCheckSum()
+                        + " but is now: " + checkSumOf(changeSet));
+            }
+        }
+
+        private CheckSum checkSumOf(ChangeSet changeSet) {
+            CheckSum checkSum = checkSums.get(changeSet);
+            return (checkSum == null) ? changeSet.generateCheckSum() : checkSum;
+        }
+
+        /*
+         * The common case of ChangeSet.isCheckSumValid(CheckSum), with the
+         * check sum computed already.
+         */
+        private boolean isCheckSumValid(ChangeSet changeSet, CheckSum storedCheckSum) {
+            CheckSum checkSum = checkSums.get(changeSet);
+            if (checkSum != null && checkSum.equals(storedCheckSum)) {
+                return true;
+            }
+            return changeSet.isCheckSumValid(storedCheckSum);
+        }
+
+        /*
+         * See ValidatingVisitor.findChangeSet(ChangeSet)
+         */
+        private RanChangeSet findChangeSet(ChangeSet changeSet) {
+            RanChangeSet result = ranIndex.get(changeSet.toString(false));
+            if (result != null) {
+                return result;
+            }
+            String changeSetPath = normalizePath(changeSet.getFilePath());
+            for (RanChangeSet ranChangeSet : ranIndex.values()) {
+                if (!ranChangeSet.getId().equalsIgnoreCase(changeSet.getId())
+                        || !ranChangeSet.getAuthor().equalsIgnoreCase(changeSet.getAuthor())) {
+                    continue;
+                }
+                String ranChangeSetPath = normalizePath(ranChangeSet.getChangeLog());
+                if (ranChangeSetPath.equalsIgnoreCase(changeSetPath)
+                        || ranChangeSetPath.endsWith(changeSetPath)
+                        || changeSetPath.endsWith(ranChangeSetPath)) {
+                    result = ranChangeSet;
+                }
+            }
+            return result;
+        }
+
+        private static String normalizePath(String filePath) {
+            return filePath.replaceFirst("^classpath:", "");
+        }
+
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.command.ext;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import liquibase.ContextExpression;
+import liquibase.Contexts;
+import liquibase.LabelExpression;
+import liquibase.Labels;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+
+/**
+ * Verifies a compiled changelog is equivalent to its source, change set
+ * by change set, without applying either of them to a database.
+ * <p>
+ * Change sets are matched by their identity ({@code logicalFilePath},
+ * {@code id} and {@code author}), and compared on effective contexts,
+ * effective labels (own and inherited from includes, as a set) and
+ * {@code CheckSum}.  Effective contexts are compared by
+ * evaluating both sides against every combination of the context names
+ * they refer to, as the compiled output merges inherited contexts into
+ * a single expression.</p>
+ */
+class ChangeLogVerifier {
+
+    private static final int MAX_CONTEXT_NAMES = 12;
+    private static final Pattern CONTEXT_NAME = Pattern.compile("[^\\s,()!]+");
+
+    private final DatabaseChangeLog source;
+    private final DatabaseChangeLog compiled;
+
+    ChangeLogVerifier(DatabaseChangeLog source, DatabaseChangeLog compiled) {
+        this.source = Objects.requireNonNull(source, "source must not be null");
+        this.compiled = Objects.requireNonNull(compiled, "compiled must not be null");
+    }
+
+    /**
+     * Compares the source and compiled change sets in parallel.
+     *
+     * @return  mismatch descriptions in source change set order; an empty
+     *          list if the changelogs are equivalent.
+     */
+    List<String> verify() {
+        List<ChangeSet> sourceSets = source.getChangeSets();
+        List<ChangeSet> compiledSets = compiled.getChangeSets();
+
+        Map<String, Integer> compiledIndex = new HashMap<>();
+        List<String> mismatches = new ArrayList<>();
+        for (int i = 0; i < compiledSets.size(); i++) {
+            if (compiledIndex.putIfAbsent(identity(compiledSets.get(i)), i) != null) {
+                mismatches.add(compiledSets.get(i) + ": duplicate in compiled changelog");
+            }
+        }
+
+        int[] matched = new int[sourceSets.size()];
+        mismatches.addAll(IntStream.range(0, sourceSets.size()).parallel()
+                .mapToObj(i -> {
+                    ChangeSet sourceSet = sourceSets.get(i);
+                    Integer index = compiledIndex.get(identity(sourceSet));
+                    matched[i] = (index == null) ? -1 : index;
+                    return (index == null)
+                            ? sourceSet + ": missing from compiled changelog"
+                            : compare(sourceSet, compiledSets.get(index));
+                })
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList()));
+
+        boolean[] seen = new boolean[compiledSets.size()];
+        int last = -1;
+        for (int i = 0; i < matched.length; i++) {
+            if (matched[i] < 0) {
+                continue;
+            }
+            seen[matched[i]] = true;
+            if (matched[i] < last) {
+                mismatches.add(sourceSets.get(i) + ": out of order in compiled changelog");
+            }
+            last = Math.max(last, matched[i]);
+        }
+        for (int i = 0; i < seen.length; i++) {
+            if (!seen[i]) {
+                mismatches.add(compiledSets.get(i) + ": not present in source changelog");
+            }
+        }
+        return mismatches;
+    }
+
+    private static String identity(ChangeSet changeSet) {
+        return changeSet.toString(false);
+    }
+
+    private static String compare(ChangeSet sourceSet, ChangeSet compiledSet) {
+        List<String> diffs = new ArrayList<>(3);
+        if (!sameContexts(sourceSet, compiledSet)) {
+            diffs.add("contexts differ (" + contextsString(sourceSet)
+                    + " vs. " + contextsString(compiledSet) + ")");
+        }
+        if (!labelsOf(sourceSet).equals(labelsOf(compiledSet))) {
+            diffs.add("labels differ (" + labelsOf(sourceSet)
+                    + " vs. " + labelsOf(compiledSet) + ")");
+        }
+        if (!sourceSet.generateCheckSum().equals(compiledSet.generateCheckSum())) {
+            diffs.add("checksum differs (" + sourceSet.generateCheckSum()
+                    + " vs. " + compiledSet.generateCheckSum() + ")");
+        }
+        return diffs.isEmpty() ? null : sourceSet + ": " + String.join("; ", diffs);
+    }
+
+    private static List<ContextExpression> effectiveContexts(ChangeSet changeSet) {
+        List<ContextExpression> contexts = new ArrayList<>();
+        if (changeSet.getContexts() != null && !changeSet.getContexts().isEmpty()) {
+            contexts.add(changeSet.getContexts());
+        }
+        contexts.addAll(changeSet.getInheritableContexts());
+        return contexts;
+    }
+
+    private static boolean sameContexts(ChangeSet sourceSet, ChangeSet compiledSet) {
+        List<ContextExpression> sourceContexts = effectiveContexts(sourceSet);
+        List<ContextExpression> compiledContexts = effectiveContexts(compiledSet);
+
+        Set<String> names = new TreeSet<>();
+        addContextNames(sourceContexts, names);
+        addContextNames(compiledContexts, names);
+        if (names.size() > MAX_CONTEXT_NAMES) {
+            return contextsString(sourceSet).equals(contextsString(compiledSet));
+        }
+
+        // No runtime contexts match anything, so start with a single one.
+        List<String> nameList = new ArrayList<>(names);
+        for (int mask = 1; mask < (1 << nameList.size()); mask++) {
+            List<String> runtime = new ArrayList<>();
+            for (int i = 0; i < nameList.size(); i++) {
+                if ((mask & (1 << i)) != 0) {
+                    runtime.add(nameList.get(i));
+                }
+            }
+            Contexts contexts = new Contexts(runtime);
+            if (ContextExpression.matchesAll(sourceContexts, contexts)
+                    != ContextExpression.matchesAll(compiledContexts, contexts)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void addContextNames(Collection<ContextExpression> expressions,
+                                        Set<String> names) {
+        for (ContextExpression expr : expressions) {
+            for (String context : expr.getContexts()) {
+                Matcher m = CONTEXT_NAME.matcher(context);
+                while (m.find()) {
+                    String name = m.group();
+                    if (!name.equals("and") && !name.equals("or") && !name.equals("not")) {
+                        names.add(name);
+                    }
+                }
+            }
+        }
+    }
+
+    private static String contextsString(ChangeSet changeSet) {
+        StringBuilder buf = new StringBuilder();
+        for (ContextExpression expr : effectiveContexts(changeSet)) {
+            if (buf.length() > 0) {
+                buf.append(" AND ");
+            }
+            buf.append(new TreeSet<>(expr.getContexts()));
+        }
+        return buf.toString();
+    }
+
+    /*
+     * The own labels together with the inherited include labels, as the
+     * compiled output may carry the latter over to the change set itself.
+     */
+    private static Set<String> labelsOf(ChangeSet changeSet) {
+        Set<String> labels = new TreeSet<>();
+        Labels own = changeSet.getLabels();
+        if (own != null) {
+            labels.addAll(own.getLabels());
+        }
+        for (LabelExpression expr : changeSet.getInheritableLabels()) {
+            labels.addAll(expr.getLabels());
+        }
+        return labels;
+    }
+
+}
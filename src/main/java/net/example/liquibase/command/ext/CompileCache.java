@@ -0,0 +1,246 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.command.ext;
+
+import static net.example.liquibase.serializer.ext.util.ContentDigest.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import liquibase.logging.LogService;
+import liquibase.resource.ResourceAccessor;
+import liquibase.util.LiquibaseUtil;
+
+/**
+ * A content-addressed cache of compiled output, which may be shared
+ * between build agents through a common directory.
+ * <pre>
+ * &lt;cacheDir>/
+ *     objects/&lt;sha-256>
+ *     &lt;key>/&lt;sha-256>.manifest</pre>
+ * <p>
+ * The <i>key</i> digests the compiler and Liquibase versions, and the
+ * options affecting the output.  A manifest lists every resource read
+ * (or listed) while compiling, with the digest of its content, and every
+ * output file with the digest of its content stored in {@code objects/}.
+ * A lookup re-digests the listed resources through the current resource
+ * accessor – the first manifest whose inputs all match is a hit, and its
+ * outputs are copied to the target directory.</p>
+ * <p>
+ * Files are written to temporary names, and moved into place, so
+ * concurrent agents never observe partially written entries.</p>
+ */
+final class CompileCache {
+
+    private static final String MANIFEST_HEADER = "# compile cache manifest";
+    private static final String MANIFEST_EXT = ".manifest";
+
+    private final Path cacheDir;
+    private final Path entryDir;
+    private final Path objectsDir;
+
+    /**
+     * @param   cacheDir  the cache base directory;
+     * @param   options  name-value pairs of options affecting the output.
+     */
+    CompileCache(Path cacheDir, Map<String, ?> options) {
+        StringBuilder key = new StringBuilder();
+        key.append("compiler=").append(compilerVersion()).append('\n');
+        key.append("liquibase=").append(LiquibaseUtil.getBuildVersion()).append('\n');
+        for (Map.Entry<String, ?> entry : options.entrySet()) {
+            key.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        }
+        this.cacheDir = cacheDir;
+        this.entryDir = cacheDir.resolve(sha256(key.toString()));
+        this.objectsDir = cacheDir.resolve("objects");
+    }
+
+    /**
+     * @return  a new empty directory to compile into, on the same file
+     *          system as the cache.
+     * @throws  IOException  if I/O error occurs.
+     */
+    Path newWorkDir() throws IOException {
+        Files.createDirectories(cacheDir);
+        return Files.createTempDirectory(cacheDir, "work-");
+    }
+
+    /**
+     * @param   resourceAccessor  resolves the source resources;
+     * @param   targetDir  the directory to restore a cached output to;
+     * @return  {@code true} if a matching entry has been found and
+     *          restored.
+     * @throws  IOException  if I/O error occurs.
+     */
+    boolean restore(ResourceAccessor resourceAccessor, Path targetDir) throws IOException {
+        if (!Files.isDirectory(entryDir)) {
+            return false;
+        }
+        List<Path> manifests = new ArrayList<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(entryDir, "*" + MANIFEST_EXT)) {
+            dir.forEach(manifests::add);
+        }
+        for (Path manifest : manifests) {
+            Map<String, String> outputs = outputsOf(manifest, resourceAccessor);
+            if (outputs != null && copyOutputs(outputs, targetDir)) {
+                LogService.getLog(getClass()).info("Restored " + outputs.size()
+                        + " file(s) from " + manifest);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Map<String, String> outputsOf(Path manifest,
+                                                 ResourceAccessor resourceAccessor)
+            throws IOException
+    {
+        List<String[]> records = matchInputs(manifest, resourceAccessor);
+        if (records == null) {
+            return null;
+        }
+        Map<String, String> outputs = new LinkedHashMap<>();
+        for (String[] fields : records) {
+            if (!fields[0].equals("out") || fields.length != 3) {
+                LogService.getLog(CompileCache.class)
+                        .warning("Malformed cache manifest: " + manifest);
+                return null;
+            }
+            outputs.put(fields[1], fields[2]);
+        }
+        return outputs;
+    }
+
+    private boolean copyOutputs(Map<String, String> outputs, Path targetDir) throws IOException {
+        for (String digest : outputs.values()) {
+            if (!Files.isRegularFile(objectsDir.resolve(digest))) {
+                return false;
+            }
+        }
+        for (Map.Entry<String, String> entry : outputs.entrySet()) {
+            Path target = targetDir.resolve(entry.getKey());
+            Files.createDirectories(target.getParent());
+            Files.copy(objectsDir.resolve(entry.getValue()), target,
+                       StandardCopyOption.REPLACE_EXISTING);
+        }
+        return true;
+    }
+
+    /**
+     * Stores the output compiled from the given inputs.
+     *
+     * @param   inputs  the resources read while compiling;
+     * @param   compiledDir  the directory containing the compiled output;
+     * @throws  IOException  if I/O error occurs.
+     */
+    void store(RecordingResourceAccessor inputs, Path compiledDir) throws IOException {
+        StringBuilder manifest = new StringBuilder(MANIFEST_HEADER).append('\n');
+        for (String path : inputs.getResources()) {
+            appendInput(manifest, inputs.getDelegate(), path);
+        }
+        for (String[] list : inputs.getLists()) {
+            appendList(manifest, inputs.getDelegate(), list);
+        }
+        String inputsDigest = sha256(manifest.toString());
+
+        Files.createDirectories(objectsDir);
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> tree = Files.walk(compiledDir)) {
+            tree.filter(Files::isRegularFile).sorted().forEach(files::add);
+        }
+        for (Path file : files) {
+            String digest;
+            try (InputStream in = Files.newInputStream(file)) {
+                digest = digest(in);
+            }
+            Path object = objectsDir.resolve(digest);
+            if (!Files.exists(object)) {
+                Path temp = Files.createTempFile(objectsDir, "tmp-", null);
+                Files.copy(file, temp, StandardCopyOption.REPLACE_EXISTING);
+                moveInto(temp, object);
+            }
+            manifest.append("out\t")
+                    .append(compiledDir.relativize(file).toString().replace('\\', '/'))
+                    .append('\t').append(digest).append('\n');
+        }
+
+        Files.createDirectories(entryDir);
+        Path temp = Files.createTempFile(entryDir, "tmp-", null);
+        try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            out.write(manifest.toString());
+        }
+        moveInto(temp, entryDir.resolve(inputsDigest + MANIFEST_EXT));
+    }
+
+
+    /**
+     * Records the resources read and listed through it.
+     */
+    static class RecordingResourceAccessor implements ResourceAccessor {
+
+        private final ResourceAccessor delegate;
+        private final Set<String> resources = Collections.synchronizedSet(new LinkedHashSet<>());
+        private final Map<String, String[]> lists = Collections.synchronizedMap(new LinkedHashMap<>());
+
+        RecordingResourceAccessor(ResourceAccessor delegate) {
+            this.delegate = delegate;
+        }
+
+        ResourceAccessor getDelegate() {
+            return delegate;
+        }
+
+        List<String> getResources() {
+            synchronized (resources) {
+                return new ArrayList<>(resources);
+            }
+        }
+
+        List<String[]> getLists() {
+            synchronized (lists) {
+                return new ArrayList<>(lists.values());
+            }
+        }
+
+        @Override
+        public Set<InputStream> getResourcesAsStream(String path) throws IOException {
+            resources.add(path);
+            return delegate.getResourcesAsStream(path);
+        }
+
+        @Override
+        public Set<String> list(String relativeTo, String path,
+                                boolean includeFiles, boolean includeDirectories,
+                                boolean recursive)
+                throws IOException
+        {
+            String flags = listFlags(includeFiles, includeDirectories, recursive);
+            lists.put(relativeTo + '\t' + path + '\t' + flags,
+                      new String[] { relativeTo, path, flags });
+            return delegate.list(relativeTo, path, includeFiles, includeDirectories, recursive);
+        }
+
+        @Override
+        public ClassLoader toClassLoader() {
+            return delegate.toClassLoader();
+        }
+
+    }
+
+}
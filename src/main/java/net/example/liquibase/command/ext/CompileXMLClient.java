@@ -0,0 +1,134 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.command.ext;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sends a compile request to a running {@link CompileXMLDaemon}.
+ * <pre>
+ * java net.example.liquibase.command.ext.CompileXMLClient [--port-file=&lt;path>]
+ *         src=&lt;changelog> out=&lt;dir> [classpath=&lt;dir>] [singleFile=true] ...</pre>
+ * <p>
+ * {@code out}, {@code cacheDir}, {@code modelCacheDir} and {@code classpath}
+ * are resolved against the current directory, which is also the default
+ * {@code classpath}, as the daemon may run in a different one.  So is
+ * {@code src}, unless found relative to the {@code classpath}.  Exits with
+ * status {@code 0} on success, {@code 1} on compile failure, {@code 2} if
+ * the daemon is not available, and {@code 3} if the daemon has shut down
+ * for a restart.</p>
+ */
+public class CompileXMLClient {
+
+    private final Path portFile;
+
+    public CompileXMLClient(Path portFile) {
+        this.portFile = portFile;
+    }
+
+    /**
+     * @param   request  {@code CompileXMLCommand} property values, paths
+     *          relative to the current directory;
+     * @return  the daemon response: status line followed by the message.
+     * @throws  IOException  if the daemon is not available, or I/O error
+     *          occurs.
+     */
+    public String send(Map<String, String> request) throws IOException {
+        return sendResolved(resolvePaths(request));
+    }
+
+    /*
+     * The daemon resolves relative paths against its own directory.
+     */
+    static Map<String, String> resolvePaths(Map<String, String> request) {
+        Map<String, String> resolved = new LinkedHashMap<>(request);
+        resolved.computeIfPresent("out", (k, v) -> absolutePath(v));
+        resolved.computeIfPresent("cacheDir", (k, v) -> absolutePath(v));
+        resolved.computeIfPresent("modelCacheDir", (k, v) -> absolutePath(v));
+        String classpath = absolutePath(resolved.getOrDefault("classpath", ""));
+        resolved.put("classpath", classpath);
+        resolved.computeIfPresent("src", (k, v) -> {
+            Path src = Paths.get(v);
+            return (src.isAbsolute() || Files.exists(Paths.get(classpath).resolve(src))
+                    || !Files.exists(src)) ? v : absolutePath(v);
+        });
+        return resolved;
+    }
+
+    private static String absolutePath(String path) {
+        return Paths.get(path).toAbsolutePath().toString();
+    }
+
+    private String sendResolved(Map<String, String> request) throws IOException {
+        String[] portAndToken = new String(Files.readAllBytes(portFile),
+                                           StandardCharsets.UTF_8).trim().split(" ", 2);
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                                        Integer.parseInt(portAndToken[0]))) {
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            out.write(portAndToken[1] + "\n");
+            for (Map.Entry<String, String> entry : request.entrySet()) {
+                out.write(entry.getKey() + "=" + entry.getValue() + "\n");
+            }
+            out.write("\n");
+            out.flush();
+
+            StringBuilder response = new StringBuilder();
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), StandardCharsets.UTF_8));
+            char[] buf = new char[1024];
+            for (int n; (n = in.read(buf)) >= 0;) {
+                response.append(buf, 0, n);
+            }
+            return response.toString();
+        }
+    }
+
+    public static void main(String[] args) {
+        Path portFile = CompileXMLDaemon.defaultPortFile();
+        Map<String, String> request = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--port-file=")) {
+                portFile = Paths.get(arg.substring("--port-file=".length()));
+                continue;
+            }
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                System.err.println("Expected name=value: " + arg);
+                System.exit(2);
+            }
+            request.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        String response;
+        try {
+            response = new CompileXMLClient(portFile).send(request);
+        } catch (IOException e) {
+            System.err.println("Compile daemon not available (" + portFile + "): " + e);
+            System.exit(2);
+            return;
+        }
+        int statusEnd = response.indexOf('\n');
+        String status = (statusEnd < 0) ? response : response.substring(0, statusEnd);
+        String message = (statusEnd < 0) ? "" : response.substring(statusEnd + 1);
+        if (CompileXMLDaemon.STATUS_OK.equals(status)) {
+            System.out.println(message);
+        } else {
+            System.err.println(message);
+            System.exit(CompileXMLDaemon.STATUS_RESTART.equals(status) ? 3 : 1);
+        }
+    }
+
+}
@@ -4,22 +4,70 @@
  */
 package net.example.liquibase.command.ext;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import liquibase.changelog.ChangeLogParameters;
+import liquibase.changelog.ChangeSet;
 import liquibase.changelog.DatabaseChangeLog;
 import liquibase.command.AbstractCommand;
 import liquibase.command.CommandResult;
 import liquibase.command.CommandValidationErrors;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.exception.DatabaseException;
+import liquibase.exception.LiquibaseException;
+import liquibase.logging.LogService;
+import liquibase.logging.Logger;
 import liquibase.parser.ChangeLogParser;
 import liquibase.parser.ChangeLogParserFactory;
 import liquibase.resource.ClassLoaderResourceAccessor;
 import liquibase.resource.CompositeResourceAccessor;
 import liquibase.resource.FileSystemResourceAccessor;
 import liquibase.resource.ResourceAccessor;
+import liquibase.util.StringUtils;
 
+import net.example.liquibase.change.ext.PrecompiledSqlChange;
+import net.example.liquibase.change.ext.PrecompiledSqlScript;
+import net.example.liquibase.changelog.ext.ChangeLogDelta;
+import net.example.liquibase.changelog.ext.ChangeLogValidator;
+import net.example.liquibase.changelog.ext.ChangeSetApplyPlan;
+import net.example.liquibase.changelog.ext.ChangeSetIdentityIndex;
+import net.example.liquibase.changelog.ext.ChangeSetOffsetIndex;
+import net.example.liquibase.changelog.ext.CompileTimeParameters;
+import net.example.liquibase.changelog.ext.RollbackMaterializer;
+import net.example.liquibase.changelog.ext.StringDeduplicator;
+import net.example.liquibase.parser.ext.StreamingJsonChangeLogParser;
+import net.example.liquibase.parser.ext.TrustedXMLChangeLogParser;
+import net.example.liquibase.serializer.ext.ChangeLogTransformer;
+import net.example.liquibase.serializer.ext.EnhancedJsonChangeLogSerializer;
 import net.example.liquibase.serializer.ext.EnhancedXMLChangeLogSerializer;
+import net.example.liquibase.serializer.ext.EnhancedXMLChangeLogSerializer.CompactedFile;
+import net.example.liquibase.serializer.ext.ParsedChangeLogCache;
+import net.example.liquibase.serializer.ext.PipelinedChangeLogWriter;
+import net.example.liquibase.serializer.ext.util.ContentDigest;
+import net.example.liquibase.serializer.ext.util.HeapUsage;
+import net.example.liquibase.serializer.ext.util.WriteBehindOutput;
 
 /**
  * @see  liquibase.sdk.convert.ConvertCommand
@@ -32,6 +80,41 @@ public class CompileXMLCommand extends AbstractCommand<CommandResult> {
     private String out;
     private String classpath;
     private boolean singleFile;
+    private boolean verify;
+    private String sqlDialects;
+    private boolean precompiledSql;
+    private String squashBefore;
+    private boolean identityIndex;
+    private boolean applyPlan;
+    private boolean deduplicateStrings;
+    private int cdataThreshold;
+    private boolean pipelined;
+    private int ioWorkers;
+    private boolean canonical;
+    private String cacheDir;
+    private String modelCacheDir;
+    private String format = "xml";
+    private boolean trusted;
+    private boolean offsetIndex;
+    private boolean materializeRollback;
+    private boolean transform;
+    private boolean validate;
+    private boolean boundedMemory;
+    private boolean compact;
+    private boolean expandParameters;
+    private String parametersFile;
+    private String targetDbms;
+    private String targetContexts;
+    private String targetLabels;
+    private String deltaFrom;
+    private int coalesceChangeSets;
+    private long coalesceSize;
+
+    private ChangeSetIdentityIndex baseline;
+
+    private List<ChangeLogTransformer> transformers;
+
+    private boolean verified;
 
     /**
      * {@value #NAME}
@@ -73,6 +156,464 @@ public class CompileXMLCommand extends AbstractCommand<CommandResult> {
         this.singleFile = singleFile;
     }
 
+    public boolean isVerify() {
+        return verify;
+    }
+
+    /**
+     * @param   verify  {@code true} to re-parse the compiled changelog and
+     *          verify it is equivalent to the source one.
+     */
+    public void setVerify(boolean verify) {
+        this.verify = verify;
+    }
+
+    public String getSqlDialects() {
+        return sqlDialects;
+    }
+
+    /**
+     * @param   sqlDialects  comma-separated database short names (f.e.
+     *          {@code derby,h2,postgresql}) to pre-generate SQL scripts for.
+     * @see     PrecompiledSqlScript
+     */
+    public void setSqlDialects(String sqlDialects) {
+        this.sqlDialects = sqlDialects;
+    }
+
+    public boolean isPrecompiledSql() {
+        return precompiledSql;
+    }
+
+    /**
+     * @param   precompiledSql  {@code true} to write {@code ext:precompiledSql}
+     *          in place of the changes pre-generated for every one of the
+     *          {@linkplain #setSqlDialects(String) SQL dialects}, making
+     *          the compiled changelog specific to those databases.
+     *          Implies no {@linkplain #setPipelined(boolean) pipelining}.
+     * @see     PrecompiledSqlChange
+     */
+    public void setPrecompiledSql(boolean precompiledSql) {
+        this.precompiledSql = precompiledSql;
+    }
+
+    public String getSquashBefore() {
+        return squashBefore;
+    }
+
+    /**
+     * @param   squashBefore  a tag name, or change set identity to squash
+     *          all preceding change sets into a baseline changelog before.
+     * @see     EnhancedXMLChangeLogSerializer#setSquashBoundary(String)
+     */
+    public void setSquashBefore(String squashBefore) {
+        this.squashBefore = squashBefore;
+    }
+
+    public boolean isIdentityIndex() {
+        return identityIndex;
+    }
+
+    /**
+     * @param   identityIndex  {@code true} to write a change set identity
+     *          index alongside the compiled changelog.
+     * @see     net.example.liquibase.changelog.ext.PendingChangeSets
+     */
+    public void setIdentityIndex(boolean identityIndex) {
+        this.identityIndex = identityIndex;
+    }
+
+    public boolean isApplyPlan() {
+        return applyPlan;
+    }
+
+    /**
+     * @param   applyPlan  {@code true} to write a plan grouping change sets
+     *          which may be applied concurrently alongside the compiled
+     *          changelog.
+     * @see     ChangeSetApplyPlan
+     */
+    public void setApplyPlan(boolean applyPlan) {
+        this.applyPlan = applyPlan;
+    }
+
+    public boolean isDeduplicateStrings() {
+        return deduplicateStrings;
+    }
+
+    /**
+     * @param   deduplicateStrings  {@code true} to deduplicate equal
+     *          strings in the parsed changelog before serializing it.  This
+     *          happens after parsing completes, so it doesn't reduce the
+     *          peak heap needed for parsing.
+     * @see     StringDeduplicator
+     */
+    public void setDeduplicateStrings(boolean deduplicateStrings) {
+        this.deduplicateStrings = deduplicateStrings;
+    }
+
+    public int getCdataThreshold() {
+        return cdataThreshold;
+    }
+
+    /**
+     * @param   cdataThreshold  minimum text content length to write as
+     *          CDATA; {@code 0} to never use CDATA.
+     * @see     EnhancedXMLChangeLogSerializer#setCdataThreshold(int)
+     */
+    public void setCdataThreshold(int cdataThreshold) {
+        this.cdataThreshold = cdataThreshold;
+    }
+
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    /**
+     * @param   pipelined  {@code true} to write compiled files while parsing
+     *          is still in progress; ignored with {@code singleFile}.
+     * @see     PipelinedChangeLogWriter
+     */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    public int getIoWorkers() {
+        return ioWorkers;
+    }
+
+    /**
+     * @param   ioWorkers  number of background threads writing the
+     *          compiled changelog files; {@code 0} (the default) to write
+     *          them on the serializing thread.
+     * @see     WriteBehindOutput
+     */
+    public void setIoWorkers(int ioWorkers) {
+        this.ioWorkers = ioWorkers;
+    }
+
+    public boolean isCanonical() {
+        return canonical;
+    }
+
+    /**
+     * @param   canonical  {@code true} to produce output independent of
+     *          the platform, and of Liquibase service and field iteration
+     *          order.
+     * @see     EnhancedXMLChangeLogSerializer#setCanonical(boolean)
+     */
+    public void setCanonical(boolean canonical) {
+        this.canonical = canonical;
+    }
+
+    public String getCacheDir() {
+        return cacheDir;
+    }
+
+    /**
+     * @param   cacheDir  a (shared) directory to look up the compiled
+     *          output in, and to store it to.
+     * @see     CompileCache
+     */
+    public void setCacheDir(String cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    public String getModelCacheDir() {
+        return modelCacheDir;
+    }
+
+    /**
+     * @param   modelCacheDir  a directory to cache the parsed model of
+     *          individual non-XML source changelogs in, so unchanged ones
+     *          are not evaluated again.
+     * @see     ParsedChangeLogCache
+     */
+    public void setModelCacheDir(String modelCacheDir) {
+        this.modelCacheDir = modelCacheDir;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    /**
+     * @param   format  {@code "xml"} (default), or {@code "json"}.
+     * @see     EnhancedJsonChangeLogSerializer
+     */
+    public void setFormat(String format) {
+        this.format = format;
+    }
+
+    public boolean isTrusted() {
+        return trusted;
+    }
+
+    /**
+     * @param   trusted  {@code true} to mark the compiled XML as trusted,
+     *          loading without schema validation at runtime.
+     * @see     TrustedXMLChangeLogParser
+     */
+    public void setTrusted(boolean trusted) {
+        this.trusted = trusted;
+    }
+
+    public boolean isOffsetIndex() {
+        return offsetIndex;
+    }
+
+    /**
+     * @param   offsetIndex  {@code true} to write a {@code .offsets} index
+     *          of the byte ranges of the change sets in the compiled XML
+     *          files.
+     * @see     ChangeSetOffsetIndex
+     */
+    public void setOffsetIndex(boolean offsetIndex) {
+        this.offsetIndex = offsetIndex;
+    }
+
+    public boolean isMaterializeRollback() {
+        return materializeRollback;
+    }
+
+    /**
+     * @param   materializeRollback  {@code true} to write the automatic
+     *          rollback of change sets as explicit {@code <rollback>}
+     *          changes, and report change sets which couldn't be rolled
+     *          back.
+     * @see     RollbackMaterializer
+     */
+    public void setMaterializeRollback(boolean materializeRollback) {
+        this.materializeRollback = materializeRollback;
+    }
+
+    public boolean isTransform() {
+        return transform;
+    }
+
+    /**
+     * @param   transform  {@code true} to apply the
+     *          {@code ChangeLogTransformer}s found on the class path to
+     *          the written output.
+     * @see     ChangeLogTransformer
+     */
+    public void setTransform(boolean transform) {
+        this.transform = transform;
+    }
+
+    public boolean isValidate() {
+        return validate;
+    }
+
+    /**
+     * @param   validate  {@code true} to validate the changelog before
+     *          writing the output, against the {@link #getSqlDialects()
+     *          SQL dialects} given, failing early on errors, and to stamp
+     *          the compiled XML as validated.
+     * @see     ChangeLogValidator
+     */
+    public void setValidate(boolean validate) {
+        this.validate = validate;
+    }
+
+    public boolean isBoundedMemory() {
+        return boundedMemory;
+    }
+
+    /**
+     * @param   boundedMemory  {@code true} to release every file content,
+     *          and its change sets once written, so the memory used by
+     *          writing doesn't add to that of the parsed changelog.  The
+     *          whole changelog is still parsed before writing starts – the
+     *          peak is about the parsed model, rather than the model and
+     *          the output structure together.  The SQL scripts, identity
+     *          index and apply plan are then produced before writing the
+     *          files, and the output is not {@linkplain #setVerify(boolean)
+     *          verified}.  Implies no {@linkplain #setPipelined(boolean)
+     *          pipelining}.  The peak heap usage is logged.
+     * @see     EnhancedXMLChangeLogSerializer#setReleaseWritten(boolean)
+     */
+    public void setBoundedMemory(boolean boundedMemory) {
+        this.boundedMemory = boundedMemory;
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * @param   compact  {@code true} to write unindented output, omitting
+     *          attributes equal to their defaults, and report the size
+     *          reduction per file.
+     * @see     EnhancedXMLChangeLogSerializer#setCompact(boolean)
+     */
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
+    public boolean isExpandParameters() {
+        return expandParameters;
+    }
+
+    /**
+     * @param   expandParameters  {@code true} to expand changelog
+     *          parameters for the target environment given by the
+     *          {@linkplain #setParametersFile(String) parameter values},
+     *          {@linkplain #setTargetDbms(String) database},
+     *          {@linkplain #setTargetContexts(String) contexts} and
+     *          {@linkplain #setTargetLabels(String) labels}, writing fully
+     *          resolved output without the property declarations, and to
+     *          report unresolved references.
+     * @see     CompileTimeParameters
+     */
+    public void setExpandParameters(boolean expandParameters) {
+        this.expandParameters = expandParameters;
+    }
+
+    public String getParametersFile() {
+        return parametersFile;
+    }
+
+    /**
+     * @param   parametersFile  a properties file of the parameter values
+     *          of the target environment.
+     */
+    public void setParametersFile(String parametersFile) {
+        this.parametersFile = parametersFile;
+    }
+
+    public String getTargetDbms() {
+        return targetDbms;
+    }
+
+    /**
+     * @param   targetDbms  the short name of the target database; change
+     *          sets not applying to it are omitted.
+     */
+    public void setTargetDbms(String targetDbms) {
+        this.targetDbms = targetDbms;
+    }
+
+    public String getTargetContexts() {
+        return targetContexts;
+    }
+
+    /**
+     * @param   targetContexts  the contexts of the target environment.
+     */
+    public void setTargetContexts(String targetContexts) {
+        this.targetContexts = targetContexts;
+    }
+
+    public String getTargetLabels() {
+        return targetLabels;
+    }
+
+    /**
+     * @param   targetLabels  the label expression of the target
+     *          environment.
+     */
+    public void setTargetLabels(String targetLabels) {
+        this.targetLabels = targetLabels;
+    }
+
+    public String getDeltaFrom() {
+        return deltaFrom;
+    }
+
+    /**
+     * @param   deltaFrom  a compiled output directory (preferably having
+     *          an {@linkplain #setIdentityIndex(boolean) identity index}),
+     *          or a source root of the baseline version, to write a delta
+     *          changelog of the change sets new or changed since – only
+     *          the files holding such change sets, and the files including
+     *          them.  Implies no {@linkplain #setPipelined(boolean)
+     *          pipelining}.  Fails on change sets changed since, unless
+     *          {@code runOnChange}, or having a matching
+     *          {@code validCheckSum}.
+     * @see     ChangeLogDelta
+     */
+    public void setDeltaFrom(String deltaFrom) {
+        this.deltaFrom = deltaFrom;
+    }
+
+    public int getCoalesceChangeSets() {
+        return coalesceChangeSets;
+    }
+
+    /**
+     * @param   coalesceChangeSets  maximum number of change sets per file
+     *          small included changelogs are packed into, or {@code 0}
+     *          (the default) not to limit the count.  Packing is enabled
+     *          by either this or the {@linkplain #setCoalesceSize(long)
+     *          size} limit, and implies no {@linkplain
+     *          #setPipelined(boolean) pipelining}.
+     * @see     EnhancedXMLChangeLogSerializer#setCoalesceChangeSets(int)
+     */
+    public void setCoalesceChangeSets(int coalesceChangeSets) {
+        this.coalesceChangeSets = coalesceChangeSets;
+    }
+
+    public long getCoalesceSize() {
+        return coalesceSize;
+    }
+
+    /**
+     * @param   coalesceSize  maximum (estimated) size of a file small
+     *          included changelogs are packed into, or {@code 0} (the
+     *          default) not to limit the size.
+     * @see     EnhancedXMLChangeLogSerializer#setCoalesceSize(long)
+     */
+    public void setCoalesceSize(long coalesceSize) {
+        this.coalesceSize = coalesceSize;
+    }
+
+    private Map<String, String> parameterValues() throws IOException {
+        Map<String, String> values = new TreeMap<>();
+        if (getParametersFile() != null) {
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(Paths.get(getParametersFile()))) {
+                properties.load(in);
+            }
+            for (String name : properties.stringPropertyNames()) {
+                values.put(name, properties.getProperty(name));
+            }
+        }
+        return values;
+    }
+
+    private ChangeLogParameters newChangeLogParameters(ResourceAccessor resourceAccessor)
+            throws IOException, DatabaseException
+    {
+        if (!isExpandParameters()) {
+            return new ChangeLogParameters();
+        }
+        Database database = (getTargetDbms() == null)
+                            ? null
+                            : DatabaseFactory.getInstance().openDatabase("offline:"
+                                    + getTargetDbms(), null, null, null, resourceAccessor);
+        try {
+            return CompileTimeParameters.of(database, parameterValues(),
+                                            getTargetContexts(), getTargetLabels());
+        } finally {
+            if (database != null) {
+                database.close();
+            }
+        }
+    }
+
+    private EnhancedXMLChangeLogSerializer newSerializer() {
+        String outputFormat = (getFormat() == null) ? "xml" : getFormat();
+        switch (outputFormat.toLowerCase(Locale.ROOT)) {
+        case "xml":
+            return new EnhancedXMLChangeLogSerializer();
+        case "json":
+            return new EnhancedJsonChangeLogSerializer().getStructureSerializer();
+        default:
+            throw new IllegalArgumentException("Unsupported format: " + getFormat());
+        }
+    }
+
     @Override
     protected CommandResult run() throws Exception {
         List<ResourceAccessor> openers = new ArrayList<>();
@@ -82,15 +623,512 @@ public class CompileXMLCommand extends AbstractCommand<CommandResult> {
             openers.add(new FileSystemResourceAccessor(getClasspath()));
         }
         ResourceAccessor resourceAccessor = new CompositeResourceAccessor(openers);
+        baseline = (getDeltaFrom() == null) ? null : readBaseline(resourceAccessor);
+        transformers = isTransform()
+                       ? ChangeLogTransformer.load(Thread.currentThread().getContextClassLoader())
+                       : Collections.emptyList();
+        if (getCacheDir() != null) {
+            return compileCached(resourceAccessor);
+        }
+        return compile(resourceAccessor, getOut());
+    }
+
+    private CommandResult compileCached(ResourceAccessor resourceAccessor) throws Exception {
+        // Only options affecting the output.
+        Map<String, Object> options = new LinkedHashMap<>();
+        options.put("src", getSrc());
+        options.put("singleFile", isSingleFile());
+        options.put("sqlDialects", getSqlDialects());
+        options.put("precompiledSql", isPrecompiledSql());
+        options.put("squashBefore", getSquashBefore());
+        options.put("identityIndex", isIdentityIndex());
+        options.put("applyPlan", isApplyPlan());
+        options.put("cdataThreshold", getCdataThreshold());
+        options.put("canonical", isCanonical());
+        options.put("format", getFormat());
+        options.put("trusted", isTrusted());
+        options.put("offsetIndex", isOffsetIndex());
+        options.put("materializeRollback", isMaterializeRollback());
+        options.put("validate", isValidate());
+        options.put("compact", isCompact());
+        options.put("coalesceChangeSets", getCoalesceChangeSets());
+        options.put("coalesceSize", getCoalesceSize());
+        // Unverified output is not served for a verifying compile.
+        options.put("verify", isVerify());
+        if (isExpandParameters()) {
+            options.put("parameters", parameterValues());
+            options.put("targetDbms", getTargetDbms());
+            options.put("targetContexts", getTargetContexts());
+            options.put("targetLabels", getTargetLabels());
+        }
+        if (baseline != null) {
+            StringWriter index = new StringWriter();
+            baseline.write(index);
+            options.put("deltaFrom", ContentDigest.sha256(index.toString()));
+        }
+        options.put("transformers", transformers.stream()
+                .map(transformer -> transformer.getClass().getName()
+                                    + "@" + transformer.getVersion())
+                .collect(Collectors.joining(",")));
+        CompileCache cache = new CompileCache(Paths.get(getCacheDir()), options);
+
+        Path targetDir = Paths.get(getOut());
+        if (cache.restore(resourceAccessor, targetDir)) {
+            return new CommandResult("Compiled successfully (cached)");
+        }
+
+        CompileCache.RecordingResourceAccessor inputs =
+                new CompileCache.RecordingResourceAccessor(resourceAccessor);
+        Path workDir = cache.newWorkDir();
+        try {
+            CommandResult result = compile(inputs, workDir.toString());
+            // Skipped verification (f.e. bounded memory) is not cached as verified.
+            if (result.succeeded && (verified || !isVerify())) {
+                cache.store(inputs, workDir);
+            }
+            copyTree(workDir, targetDir);
+            return result;
+        } finally {
+            deleteTree(workDir);
+        }
+    }
+
+    private static void copyTree(Path sourceDir, Path targetDir) throws IOException {
+        List<Path> files;
+        try (Stream<Path> tree = Files.walk(sourceDir)) {
+            files = tree.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            Path target = targetDir.resolve(sourceDir.relativize(file).toString());
+            Files.createDirectories(target.getParent());
+            Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> tree = Files.walk(dir)) {
+            paths = tree.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        for (Path path : paths) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private CommandResult compile(ResourceAccessor resourceAccessor, String outDir)
+            throws Exception
+    {
+        verified = false;
+        EnhancedXMLChangeLogSerializer enhancedSerializer = newSerializer();
+        enhancedSerializer.setSquashBoundary(getSquashBefore());
+        enhancedSerializer.setCdataThreshold(getCdataThreshold());
+        enhancedSerializer.setCanonical(isCanonical());
+        enhancedSerializer.setTrusted(isTrusted());
+        enhancedSerializer.setOffsetIndex(isOffsetIndex());
+        if (isMaterializeRollback()) {
+            if (RollbackMaterializer.isSupported()) {
+                enhancedSerializer.setRollbackMaterializer(new RollbackMaterializer());
+            } else {
+                LogService.getLog(getClass()).warning("Rollback materializing is not"
+                        + " supported with this Liquibase version, rollback left to runtime");
+            }
+        }
+        enhancedSerializer.setTransformers(transformers);
+        enhancedSerializer.setCompact(isCompact());
+        enhancedSerializer.setCoalesceChangeSets(getCoalesceChangeSets());
+        enhancedSerializer.setCoalesceSize(getCoalesceSize());
+        enhancedSerializer.setReleaseWritten(isBoundedMemory());
+        // Resets the JVM-wide peak usage, so only when asked for.
+        HeapUsage heapUsage = isBoundedMemory() ? new HeapUsage() : null;
+        enhancedSerializer.setHeapUsage(heapUsage);
+        boolean writePipelined = isPipelined() && !isSingleFile() && !isBoundedMemory()
+                                 && baseline == null && !isPrecompiledSql()
+                                 && getCoalesceChangeSets() <= 0 && getCoalesceSize() <= 0;
 
-        ChangeLogParser sourceParser = ChangeLogParserFactory.getInstance().getParser(getSrc(), resourceAccessor);
-        DatabaseChangeLog changeLog = sourceParser.parse(getSrc(), new ChangeLogParameters(), resourceAccessor);
-        EnhancedXMLChangeLogSerializer enhancedSerializer = new EnhancedXMLChangeLogSerializer();
-        enhancedSerializer.serialize(changeLog, getOut(), isSingleFile());
+        DatabaseChangeLog changeLog;
+        WriteBehindOutput writeBehind = (getIoWorkers() > 0)
+                                        ? new WriteBehindOutput(getIoWorkers())
+                                        : null;
+        try (WriteBehindOutput output = writeBehind) {
+            enhancedSerializer.setWriteBehind(output);
+            // Intercepts parsing while open
+            ParsedChangeLogCache modelCache = (getModelCacheDir() != null)
+                    ? ParsedChangeLogCache.open(Paths.get(getModelCacheDir()))
+                    : null;
+            try {
+                ChangeLogParameters params = newChangeLogParameters(resourceAccessor);
+                if (writePipelined) {
+                    changeLog = new PipelinedChangeLogWriter(enhancedSerializer, outDir)
+                            .parse(getSrc(), params, resourceAccessor);
+                } else {
+                    ChangeLogParser sourceParser = ChangeLogParserFactory.getInstance().getParser(getSrc(), resourceAccessor);
+                    changeLog = sourceParser.parse(getSrc(), params, resourceAccessor);
+                }
+            } finally {
+                if (modelCache != null) {
+                    modelCache.close();
+                }
+            }
+            if (isDeduplicateStrings()) {
+                StringDeduplicator deduplicator = new StringDeduplicator();
+                deduplicator.deduplicate(changeLog);
+                LogService.getLog(getClass()).info("Deduplicated " + deduplicator.getDuplicates()
+                        + " of " + deduplicator.getStrings() + " strings, saving approx. "
+                        + (deduplicator.getSavedBytes() / 1024) + " KiB");
+            }
+            if (baseline != null) {
+                List<String> rejected = reduceToDelta(changeLog);
+                if (!rejected.isEmpty()) {
+                    return new CommandResult("Delta failed with " + rejected.size()
+                            + " change set(s) changed since the baseline:"
+                            + System.lineSeparator()
+                            + String.join(System.lineSeparator(), rejected), false);
+                }
+            }
+            if (isExpandParameters()) {
+                expandParameters(changeLog, writePipelined ? null : enhancedSerializer);
+            }
+            if (isValidate()) {
+                List<String> errors = validate(changeLog, resourceAccessor,
+                        writePipelined ? null : enhancedSerializer);
+                if (!errors.isEmpty()) {
+                    return new CommandResult("Validation failed with " + errors.size()
+                            + " error(s):" + System.lineSeparator()
+                            + String.join(System.lineSeparator(), errors), false);
+                }
+            }
+            if (isPrecompiledSql()) {
+                enhancedSerializer.setPrecompiledSql(sqlScriptPath(),
+                        writeSqlScripts(changeLog, resourceAccessor, outDir));
+            }
+            if (isBoundedMemory()) {
+                // The change sets get released as written.
+                writeModelArtifacts(changeLog, resourceAccessor, outDir);
+            }
+            if (!writePipelined) {
+                enhancedSerializer.serialize(changeLog, outDir, isSingleFile());
+            }
+        }
+        if (writeBehind != null) {
+            LogService.getLog(getClass()).info("Written " + writeBehind.getFiles()
+                    + " file(s), " + (writeBehind.getBytes() / 1024) + " KiB in background");
+        }
+        if (enhancedSerializer.getRollbackMaterializer() != null) {
+            reportRollback(enhancedSerializer.getRollbackMaterializer());
+        }
+        if (enhancedSerializer.isCompact()) {
+            reportCompaction(enhancedSerializer.getCompactedFiles());
+        }
+        if (!isBoundedMemory()) {
+            writeModelArtifacts(changeLog, resourceAccessor, outDir);
+        }
+        if (enhancedSerializer.isOffsetIndex()) {
+            writeOffsetIndex(enhancedSerializer, outDir);
+        }
+        if (heapUsage != null) {
+            LogService.getLog(getClass()).info("Peak heap retained "
+                    + (heapUsage.getPeakRetained() / (1024 * 1024)) + " MiB, used "
+                    + (heapUsage.getPeakUsed() / (1024 * 1024)) + " MiB");
+        }
+
+        if (enhancedSerializer.getTransformed() > 0) {
+            LogService.getLog(getClass()).info("Transformers replaced, omitted or modified "
+                    + enhancedSerializer.getTransformed() + " changelog children");
+        }
 
+        if (isVerify() && enhancedSerializer.getTransformed() > 0) {
+            // The source model is not meant to match.
+            LogService.getLog(getClass()).warning("Skipping verification of transformed output");
+        } else if (isVerify() && isBoundedMemory()) {
+            LogService.getLog(getClass()).warning("Skipping verification of bounded-memory output");
+        } else if (isVerify()) {
+            String compiledPath = enhancedSerializer.outputPath(getSrc()).replace('\\', '/');
+            List<String> mismatches = verify(changeLog, resourceAccessor, outDir, compiledPath);
+            if (!mismatches.isEmpty()) {
+                return new CommandResult("Compiled with " + mismatches.size()
+                        + " verification mismatch(es):" + System.lineSeparator()
+                        + String.join(System.lineSeparator(), mismatches), false);
+            }
+            verified = true;
+        }
         return new CommandResult("Compiled successfully");
     }
 
+    private List<String> validate(DatabaseChangeLog changeLog,
+                                  ResourceAccessor resourceAccessor,
+                                  EnhancedXMLChangeLogSerializer serializer)
+            throws DatabaseException
+    {
+        List<String> dialects = (getSqlDialects() == null)
+                                ? Collections.emptyList()
+                                : StringUtils.splitAndTrim(getSqlDialects(), ",");
+        List<Database> databases = new ArrayList<>();
+        List<String> dbms = new ArrayList<>();
+        ChangeLogValidator validator = new ChangeLogValidator(changeLog);
+        try {
+            for (String dialect : dialects) {
+                Database database = DatabaseFactory.getInstance()
+                        .openDatabase("offline:" + dialect, null, null, null, resourceAccessor);
+                databases.add(database);
+                dbms.add(database.getShortName());
+            }
+            validator.validate(databases);
+        } finally {
+            for (Database database : databases) {
+                database.close();
+            }
+        }
+
+        Logger log = LogService.getLog(getClass());
+        for (String message : validator.getWarnings()) {
+            log.warning(message);
+        }
+        if (!validator.getErrors().isEmpty()) {
+            return validator.getErrors();
+        }
+        log.info("Validated " + changeLog.getChangeSets().size() + " change sets"
+                + (dialects.isEmpty() ? " (no SQL dialects to validate changes against)"
+                                      : " against " + String.join(", ", dialects)));
+        if (serializer == null) {
+            log.info("Validated stamp not written with pipelined output");
+        } else if (!dbms.isEmpty()) {
+            serializer.setValidatedStamp(ChangeLogValidator.stamp(changeLog, dbms), dbms);
+        }
+        return Collections.emptyList();
+    }
+
+    /*
+     * Reads the index of the baseline compiled output, or indexes the
+     * baseline changelog.
+     */
+    private ChangeSetIdentityIndex readBaseline(ResourceAccessor resourceAccessor)
+            throws IOException, LiquibaseException
+    {
+        Path baseDir = Paths.get(getDeltaFrom());
+        Path indexFile = baseDir.resolve(ChangeSetIdentityIndex
+                .indexPath(EnhancedXMLChangeLogSerializer.xmlExt(getSrc())));
+        if (Files.isRegularFile(indexFile)) {
+            try (Reader in = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+                return ChangeSetIdentityIndex.read(in);
+            }
+        }
+
+        String path = newSerializer().outputPath(getSrc()).replace('\\', '/');
+        if (!Files.isRegularFile(baseDir.resolve(path))) {
+            path = getSrc();
+        }
+        if (!Files.isRegularFile(baseDir.resolve(path))) {
+            throw new IOException("No baseline changelog " + path + " in " + baseDir);
+        }
+        // Referenced data files missing from the baseline resolve from
+        // the current sources.
+        ResourceAccessor baseAccessor = new CompositeResourceAccessor(
+                new FileSystemResourceAccessor(baseDir.toString()), resourceAccessor);
+        if (path.endsWith(".json")) {
+            StreamingJsonChangeLogParser.register();
+        }
+        DatabaseChangeLog changeLog = ChangeLogParserFactory.getInstance()
+                .getParser(path, baseAccessor)
+                .parse(path, newChangeLogParameters(resourceAccessor), baseAccessor);
+        return ChangeSetIdentityIndex.of(changeLog);
+    }
+
+    /*
+     * Returns the changed change sets that would fail the validation.
+     */
+    private List<String> reduceToDelta(DatabaseChangeLog changeLog) {
+        ChangeLogDelta delta = new ChangeLogDelta(baseline);
+        delta.reduce(changeLog);
+
+        List<String> rejected = new ArrayList<>(delta.getRejected().size());
+        for (ChangeSet changeSet : delta.getRejected()) {
+            rejected.add(changeSet.toString());
+        }
+        Logger log = LogService.getLog(getClass());
+        log.info("Delta of " + changeLog.getChangeSets().size() + " change sets: "
+                + delta.getAdded().size() + " new, " + delta.getChanged().size()
+                + " changed, " + delta.getRunAlways().size() + " runAlways; "
+                + delta.getUnchanged() + " unchanged omitted, "
+                + delta.getRemoved() + " removed since the baseline");
+        return rejected;
+    }
+
+    private void expandParameters(DatabaseChangeLog changeLog,
+                                  EnhancedXMLChangeLogSerializer serializer) {
+        CompileTimeParameters parameters = new CompileTimeParameters(changeLog);
+        parameters.scan();
+
+        Logger log = LogService.getLog(getClass());
+        for (Map.Entry<String, Set<String>> entry : parameters.getUnresolved().entrySet()) {
+            Set<String> locations = entry.getValue();
+            log.warning("Unresolved ${" + entry.getKey() + "} in "
+                    + locations.iterator().next() + ((locations.size() > 1)
+                                                     ? " and " + (locations.size() - 1) + " more"
+                                                     : ""));
+        }
+        log.info("Expanded parameters for "
+                + ((getTargetDbms() == null) ? "any database" : getTargetDbms())
+                + ", " + parameters.getUnresolved().size() + " unresolved, "
+                + parameters.getRuntimeReferenced().size() + " left to runtime");
+        if (serializer == null) {
+            log.info("Property declarations retained with pipelined output");
+        } else {
+            serializer.setRetainedProperties(parameters.getRuntimeReferenced());
+        }
+    }
+
+    /*
+     * Writes the artifacts derived from the complete changelog model.
+     */
+    private void writeModelArtifacts(DatabaseChangeLog changeLog,
+                                     ResourceAccessor resourceAccessor,
+                                     String outDir)
+            throws IOException, DatabaseException
+    {
+        if (getSqlDialects() != null && !isPrecompiledSql()) {
+            writeSqlScripts(changeLog, resourceAccessor, outDir);
+        }
+        if (isIdentityIndex()) {
+            writeIdentityIndex(changeLog, outDir);
+        }
+        if (isApplyPlan()) {
+            writeApplyPlan(changeLog, outDir);
+        }
+    }
+
+    private void reportCompaction(List<CompactedFile> files) {
+        Logger log = LogService.getLog(getClass());
+        long size = 0;
+        long saved = 0;
+        for (CompactedFile file : files) {
+            log.info("Compacted " + file.getPath() + ": " + file.getSize()
+                    + " bytes, approx. " + file.getSaved() + " bytes ("
+                    + percentage(file.getSaved(), file.getSize() + file.getSaved())
+                    + "%) saved");
+            size += file.getSize();
+            saved += file.getSaved();
+        }
+        log.info("Compacted " + files.size() + " file(s): " + (size / 1024)
+                + " KiB, approx. " + (saved / 1024) + " KiB ("
+                + percentage(saved, size + saved) + "%) saved");
+    }
+
+    private static long percentage(long part, long whole) {
+        return (whole == 0) ? 0 : Math.round(part * 100.0 / whole);
+    }
+
+    private void reportRollback(RollbackMaterializer materializer) {
+        Logger log = LogService.getLog(getClass());
+        for (Map.Entry<ChangeSet, String> entry : materializer.getImpossible().entrySet()) {
+            log.warning("Rollback impossible for changeSet " + entry.getKey()
+                    + ": no inverse of " + entry.getValue());
+        }
+        log.info("Materialized rollback of " + materializer.getMaterialized()
+                + " change sets, " + materializer.getRuntime() + " left to runtime, "
+                + materializer.getImpossible().size() + " impossible");
+    }
+
+    private String sqlScriptPath() {
+        return EnhancedXMLChangeLogSerializer.xmlExt(getSrc())
+                .replaceFirst("\\.xml$", ".sql").replace('\\', '/');
+    }
+
+    /*
+     * Returns the keys of the changes pre-generated for all dialects.
+     */
+    private Set<String> writeSqlScripts(DatabaseChangeLog changeLog,
+                                        ResourceAccessor resourceAccessor,
+                                        String outDir)
+            throws IOException, DatabaseException
+    {
+        if (getSqlDialects() == null) {
+            throw new IllegalArgumentException("No SQL dialects to pre-generate SQL for");
+        }
+        String basePath = sqlScriptPath();
+        Set<String> common = null;
+        for (String dbms : StringUtils.splitAndTrim(getSqlDialects(), ",")) {
+            Database database = DatabaseFactory.getInstance()
+                    .openDatabase("offline:" + dbms, null, null, null, resourceAccessor);
+            Path scriptFile = Paths.get(outDir)
+                    .resolve(PrecompiledSqlScript.dialectPath(basePath, dbms));
+            Files.createDirectories(scriptFile.getParent());
+            try (Writer out = Files.newBufferedWriter(scriptFile, StandardCharsets.UTF_8)) {
+                Set<String> written = PrecompiledSqlScript.write(changeLog, database, out);
+                if (common == null) {
+                    common = written;
+                } else {
+                    common.retainAll(written);
+                }
+            } finally {
+                database.close();
+            }
+        }
+        return (common == null) ? Collections.emptySet() : common;
+    }
+
+    private void writeIdentityIndex(DatabaseChangeLog changeLog, String outDir)
+            throws IOException
+    {
+        Path indexFile = Paths.get(outDir).resolve(ChangeSetIdentityIndex
+                .indexPath(EnhancedXMLChangeLogSerializer.xmlExt(getSrc())));
+        Files.createDirectories(indexFile.getParent());
+        try (Writer out = Files.newBufferedWriter(indexFile, StandardCharsets.UTF_8)) {
+            ChangeSetIdentityIndex.of(changeLog).write(out);
+        }
+    }
+
+    private void writeOffsetIndex(EnhancedXMLChangeLogSerializer serializer, String outDir)
+            throws IOException
+    {
+        Path indexFile = Paths.get(outDir).resolve(ChangeSetOffsetIndex
+                .indexPath(serializer.outputPath(getSrc())));
+        Files.createDirectories(indexFile.getParent());
+        ChangeSetOffsetIndex index = serializer.getOffsetIndex();
+        try (Writer out = Files.newBufferedWriter(indexFile, StandardCharsets.UTF_8)) {
+            index.write(out);
+        }
+        LogService.getLog(getClass()).info("Indexed offsets of "
+                + index.getEntries().size() + " change sets");
+    }
+
+    private void writeApplyPlan(DatabaseChangeLog changeLog, String outDir)
+            throws IOException
+    {
+        Path planFile = Paths.get(outDir).resolve(ChangeSetApplyPlan
+                .planPath(EnhancedXMLChangeLogSerializer.xmlExt(getSrc())));
+        Files.createDirectories(planFile.getParent());
+        ChangeSetApplyPlan plan = ChangeSetApplyPlan.of(changeLog);
+        try (Writer out = Files.newBufferedWriter(planFile, StandardCharsets.UTF_8)) {
+            plan.write(out);
+        }
+        LogService.getLog(getClass()).info("Planned " + plan.getEntries().size()
+                + " change sets in " + plan.getGroups().size() + " group(s)");
+    }
+
+    private List<String> verify(DatabaseChangeLog changeLog,
+                                ResourceAccessor sourceAccessor,
+                                String outDir,
+                                String compiledPath)
+            throws LiquibaseException
+    {
+        // Resolve compiled files first, and referenced data files
+        // (f.e. <loadData file="...">) from the source locations.
+        ResourceAccessor resourceAccessor = new CompositeResourceAccessor(
+                new FileSystemResourceAccessor(outDir), sourceAccessor);
+        if (isPrecompiledSql()) {
+            PrecompiledSqlChange.register();
+        }
+        if (compiledPath.endsWith(".json")) {
+            StreamingJsonChangeLogParser.register();
+        } else if (isTrusted()) {
+            TrustedXMLChangeLogParser.register();
+        }
+        DatabaseChangeLog compiled = ChangeLogParserFactory.getInstance()
+                .getParser(compiledPath, resourceAccessor)
+                .parse(compiledPath, new ChangeLogParameters(), resourceAccessor);
+        return new ChangeLogVerifier(changeLog, compiled).verify();
+    }
+
     @Override
     public CommandValidationErrors validate() {
         return new CommandValidationErrors(this);
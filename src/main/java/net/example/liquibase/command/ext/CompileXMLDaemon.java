@@ -0,0 +1,291 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.command.ext;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.beans.PropertyEditor;
+import java.beans.PropertyEditorManager;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.AclEntry;
+import java.nio.file.attribute.AclEntryPermission;
+import java.nio.file.attribute.AclEntryType;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import liquibase.command.CommandResult;
+import liquibase.logging.LogService;
+
+/**
+ * Keeps a JVM resident serving {@link CompileXMLCommand} requests over a
+ * loopback socket, so Liquibase service lookup, parser and serializer
+ * initialization, and Groovy DSL bootstrap happen once.
+ * <pre>
+ * java net.example.liquibase.command.ext.CompileXMLDaemon
+ *         [--port-file=&lt;path>] [--port=&lt;n>] [--idle-timeout=&lt;seconds>]</pre>
+ * <p>
+ * On start the daemon writes its port and a random access token to the
+ * port file, created accessible to the current user only.  A request is a connection sending the token line, followed
+ * by {@code name=value} lines setting {@code CompileXMLCommand} properties
+ * ({@code src}, {@code out}, {@code classpath}, {@code singleFile}, etc.),
+ * and an empty line.  The response is a status line – {@code OK},
+ * {@code FAIL}, or {@code RESTART} – followed by the result message, after
+ * which the connection is closed.  Requests are served one at a time.</p>
+ * <p>
+ * The daemon exits after being idle for the given timeout, or when a
+ * change to its own class path (f.e. upgraded Liquibase or extension
+ * jars) is detected – the request is then answered with {@code RESTART}
+ * without being executed.</p>
+ *
+ * @see  CompileXMLClient
+ */
+public class CompileXMLDaemon {
+
+    static final String STATUS_OK = "OK";
+    static final String STATUS_FAIL = "FAIL";
+    static final String STATUS_RESTART = "RESTART";
+
+    private static final int DEFAULT_IDLE_TIMEOUT = (int) TimeUnit.HOURS.toSeconds(1);
+
+    private final Path portFile;
+    private final int port;
+    private final int idleTimeout;
+    private final String token;
+    private final String classPathStamp;
+    private final Map<String, PropertyDescriptor> properties;
+
+    public CompileXMLDaemon(Path portFile, int port, int idleTimeout) {
+        this.portFile = portFile;
+        this.port = port;
+        this.idleTimeout = idleTimeout;
+        byte[] random = new byte[16];
+        new SecureRandom().nextBytes(random);
+        StringBuilder buf = new StringBuilder(32);
+        for (byte b : random) {
+            buf.append(String.format("%02x", b & 0xFF));
+        }
+        this.token = buf.toString();
+        this.classPathStamp = classPathStamp();
+        this.properties = commandProperties();
+    }
+
+    /**
+     * @return  the default port file path, specific to the current user.
+     */
+    public static Path defaultPortFile() {
+        return Paths.get(System.getProperty("java.io.tmpdir"),
+                "compilexml-daemon-" + System.getProperty("user.name") + ".port");
+    }
+
+    /**
+     * Serves requests until idle for longer than the idle timeout, or
+     * a class path change is detected.
+     *
+     * @throws  IOException  if I/O error occurs setting up the server socket.
+     */
+    public void run() throws IOException {
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            server.setSoTimeout((int) TimeUnit.SECONDS.toMillis(idleTimeout));
+            writePortFile(server.getLocalPort());
+            LogService.getLog(getClass()).info("Listening on "
+                    + server.getLocalSocketAddress() + ", port file: " + portFile);
+            boolean running = true;
+            while (running) {
+                try (Socket client = server.accept()) {
+                    running = serve(client);
+                } catch (SocketTimeoutException e) {
+                    LogService.getLog(getClass()).info("Idle for "
+                            + idleTimeout + "s, shutting down");
+                    running = false;
+                } catch (IOException e) {
+                    LogService.getLog(getClass()).warning("Request failed", e);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(portFile);
+        }
+    }
+
+    private void writePortFile(int localPort) throws IOException {
+        Files.deleteIfExists(portFile);
+        createPrivateFile(portFile);
+        try (Writer out = Files.newBufferedWriter(portFile, StandardCharsets.UTF_8,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.write(localPort + " " + token + "\n");
+        }
+    }
+
+    /*
+     * Creates the file accessible to the owner only, before anything is
+     * written to it – there's no window another user could open it in.
+     */
+    static void createPrivateFile(Path file) throws IOException {
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(file, PosixFilePermissions
+                    .asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+            return;
+        }
+
+        Files.createFile(file);
+        AclFileAttributeView acl = Files.getFileAttributeView(file, AclFileAttributeView.class);
+        if (acl != null) {
+            UserPrincipal owner = Files.getOwner(file);
+            acl.setAcl(Collections.singletonList(AclEntry.newBuilder()
+                    .setType(AclEntryType.ALLOW)
+                    .setPrincipal(owner)
+                    .setPermissions(EnumSet.allOf(AclEntryPermission.class))
+                    .build()));
+        } else {
+            File legacy = file.toFile();
+            legacy.setReadable(false, false);
+            legacy.setReadable(true, true);
+        }
+    }
+
+    private boolean serve(Socket client) throws IOException {
+        client.setSoTimeout((int) TimeUnit.MINUTES.toMillis(1));
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                client.getInputStream(), StandardCharsets.UTF_8));
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                client.getOutputStream(), StandardCharsets.UTF_8));
+        if (!token.equals(in.readLine())) {
+            respond(out, STATUS_FAIL, "Invalid token");
+            return true;
+        }
+
+        Map<String, String> request = new LinkedHashMap<>();
+        String line;
+        while ((line = in.readLine()) != null && !line.isEmpty()) {
+            int eq = line.indexOf('=');
+            if (eq < 0) {
+                respond(out, STATUS_FAIL, "Malformed request line: " + line);
+                return true;
+            }
+            request.put(line.substring(0, eq).trim(), line.substring(eq + 1));
+        }
+
+        if (!classPathStamp.equals(classPathStamp())) {
+            respond(out, STATUS_RESTART, "Daemon class path changed, shutting down");
+            return false;
+        }
+
+        try {
+            CommandResult result = compile(request);
+            respond(out, result.succeeded ? STATUS_OK : STATUS_FAIL, result.message);
+        } catch (IllegalArgumentException e) {
+            respond(out, STATUS_FAIL, e.getMessage());
+        } catch (Exception e) {
+            // The trace stays with the daemon.
+            LogService.getLog(getClass()).severe("Compile failed", e);
+            respond(out, STATUS_FAIL, (e.getMessage() == null) ? e.toString() : e.getMessage());
+        }
+        return true;
+    }
+
+    private static void respond(PrintWriter out, String status, String message) {
+        out.print(status + "\n");
+        out.print(message);
+        out.flush();
+    }
+
+    private CommandResult compile(Map<String, String> request) throws Exception {
+        CompileXMLCommand command = new CompileXMLCommand();
+        for (Map.Entry<String, String> entry : request.entrySet()) {
+            PropertyDescriptor property = properties.get(entry.getKey());
+            if (property == null) {
+                throw new IllegalArgumentException("Unknown property: " + entry.getKey());
+            }
+            property.getWriteMethod().invoke(command,
+                    convert(entry.getValue(), property.getPropertyType()));
+        }
+        return command.execute();
+    }
+
+    private static Object convert(String value, Class<?> type) {
+        if (type == String.class) {
+            return value;
+        }
+        PropertyEditor editor = PropertyEditorManager.findEditor(type);
+        if (editor == null) {
+            throw new IllegalArgumentException("Unsupported property type: " + type.getName());
+        }
+        editor.setAsText(value);
+        return editor.getValue();
+    }
+
+    private static Map<String, PropertyDescriptor> commandProperties() {
+        Map<String, PropertyDescriptor> properties = new HashMap<>();
+        try {
+            for (PropertyDescriptor property : Introspector
+                    .getBeanInfo(CompileXMLCommand.class).getPropertyDescriptors()) {
+                if (property.getWriteMethod() != null) {
+                    properties.put(property.getName(), property);
+                }
+            }
+        } catch (IntrospectionException e) {
+            throw new IllegalStateException(e);
+        }
+        return properties;
+    }
+
+    /*
+     * Entries of java.class.path with their size and modification time.
+     */
+    private static String classPathStamp() {
+        StringBuilder stamp = new StringBuilder();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            File file = new File(entry);
+            stamp.append(entry).append(':')
+                    .append(file.length()).append(':')
+                    .append(file.lastModified()).append(';');
+        }
+        return stamp.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path portFile = defaultPortFile();
+        int port = 0;
+        int idleTimeout = DEFAULT_IDLE_TIMEOUT;
+        for (String arg : args) {
+            if (arg.startsWith("--port-file=")) {
+                portFile = Paths.get(arg.substring("--port-file=".length()));
+            } else if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            } else if (arg.startsWith("--idle-timeout=")) {
+                idleTimeout = Integer.parseInt(arg.substring("--idle-timeout=".length()));
+            } else {
+                System.err.println("Unknown argument: " + arg);
+                System.exit(2);
+            }
+        }
+        new CompileXMLDaemon(portFile, port, idleTimeout).run();
+    }
+
+}
@@ -0,0 +1,524 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.parser.ext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+import liquibase.ContextExpression;
+import liquibase.Labels;
+import liquibase.changelog.ChangeLogParameters;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.exception.ChangeLogParseException;
+import liquibase.logging.LogService;
+import liquibase.parser.ChangeLogParser;
+import liquibase.parser.ChangeLogParserFactory;
+import liquibase.parser.core.ParsedNode;
+import liquibase.parser.core.ParsedNodeException;
+import liquibase.parser.core.xml.AbstractChangeLogParser;
+import liquibase.resource.ResourceAccessor;
+import liquibase.resource.UtfBomStripperInputStream;
+import liquibase.servicelocator.LiquibaseService;
+import liquibase.util.StreamUtil;
+
+/**
+ * Parses JSON changelogs building the {@code ParsedNode} tree directly
+ * from a stream of tokens, without the intermediate maps and lists of
+ * the standard (YAML based) JSON parser.
+ * <p>
+ * Values are mapped to nodes as {@link ParsedNode#setValue(Object)}
+ * does for the standard parser, so any Liquibase JSON changelog is
+ * supported – not only compiled ones.  As the standard parser, it sets
+ * the top-level properties first, and then expands parameters in all
+ * string values, including the elements of lists.</p>
+ * <p>
+ * The parser is not picked up by the service locator, leaving other
+ * JSON changelogs to the standard parser, but is {@link #register()
+ * registered} by the compile command for loading its JSON output.</p>
+ *
+ * @see  net.example.liquibase.serializer.ext.EnhancedJsonChangeLogSerializer
+ */
+@LiquibaseService(skip = true)
+public class StreamingJsonChangeLogParser extends AbstractChangeLogParser {
+
+    private static final String ROOT_NODE = "databaseChangeLog";
+
+    /**
+     * Registers this parser unless already registered.
+     */
+    public static synchronized void register() {
+        ChangeLogParserFactory factory = ChangeLogParserFactory.getInstance();
+        for (ChangeLogParser parser : factory.getParsers()) {
+            if (parser instanceof StreamingJsonChangeLogParser) {
+                return;
+            }
+        }
+        factory.register(new StreamingJsonChangeLogParser());
+    }
+
+    @Override
+    public int getPriority() {
+        return PRIORITY_DEFAULT + 1;
+    }
+
+    @Override
+    public boolean supports(String changeLogFile, ResourceAccessor resourceAccessor) {
+        return changeLogFile.toLowerCase(Locale.ROOT).endsWith(".json");
+    }
+
+    @Override
+    public DatabaseChangeLog parse(String physicalChangeLogLocation,
+                                   ChangeLogParameters changeLogParameters,
+                                   ResourceAccessor resourceAccessor)
+            throws ChangeLogParseException
+    {
+        ParsedNode parsedNode = parseToNode(physicalChangeLogLocation,
+                                            changeLogParameters, resourceAccessor);
+        DatabaseChangeLog changeLog = new DatabaseChangeLog(physicalChangeLogLocation);
+        try {
+            if (changeLogParameters != null) {
+                setProperties(parsedNode, changeLogParameters, changeLog, resourceAccessor);
+                expandExpressions(parsedNode, changeLogParameters, changeLog);
+            }
+            changeLog.setChangeLogParameters(changeLogParameters);
+            changeLog.load(parsedNode, resourceAccessor);
+        } catch (Exception e) {
+            throw new ChangeLogParseException(e);
+        }
+        return changeLog;
+    }
+
+    /*
+     * See YamlChangeLogParser.parse()
+     */
+    private static void setProperties(ParsedNode changeLogNode,
+                                      ChangeLogParameters changeLogParameters,
+                                      DatabaseChangeLog changeLog,
+                                      ResourceAccessor resourceAccessor)
+            throws ParsedNodeException, IOException
+    {
+        for (ParsedNode property : changeLogNode.getChildren(null, "property")) {
+            ContextExpression context = new ContextExpression(
+                    property.getChildValue(null, "context", String.class));
+            Labels labels = new Labels(property.getChildValue(null, "labels", String.class));
+            String dbms = property.getChildValue(null, "dbms", String.class);
+            Boolean global = property.getChildValue(null, "global", Boolean.class);
+            if (global == null) {
+                global = Boolean.TRUE;
+            }
+
+            String name = property.getChildValue(null, "name", String.class);
+            String file = property.getChildValue(null, "file", String.class);
+            if (name != null) {
+                Object value = property.getChildValue(null, "value");
+                changeLogParameters.set(name, (value == null) ? null : value.toString(),
+                        context, labels, dbms, global, changeLog);
+            } else if (file != null) {
+                try (InputStream in = StreamUtil.singleInputStream(file, resourceAccessor)) {
+                    if (in == null) {
+                        LogService.getLog(StreamingJsonChangeLogParser.class)
+                                .info("Could not open properties file " + file);
+                        continue;
+                    }
+                    Properties props = new Properties();
+                    props.load(in);
+                    for (Map.Entry<Object, Object> entry : props.entrySet()) {
+                        changeLogParameters.set(entry.getKey().toString(),
+                                entry.getValue().toString(),
+                                context, labels, dbms, global, changeLog);
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * See YamlChangeLogParser.replaceParameters()
+     */
+    private static void expandExpressions(ParsedNode node,
+                                          ChangeLogParameters changeLogParameters,
+                                          DatabaseChangeLog changeLog)
+            throws ParsedNodeException
+    {
+        Object value = node.getValue();
+        if (value instanceof String) {
+            node.setValue(changeLogParameters.expandExpressions((String) value, changeLog));
+        } else if (value instanceof List) {
+            List<Object> expanded = new ArrayList<>();
+            for (Object element : (List<?>) value) {
+                expanded.add((element instanceof String)
+                        ? changeLogParameters.expandExpressions((String) element, changeLog)
+                        : element);
+            }
+            node.setValue(expanded);
+        }
+        for (ParsedNode child : node.getChildren()) {
+            expandExpressions(child, changeLogParameters, changeLog);
+        }
+    }
+
+    @Override
+    protected ParsedNode parseToNode(String physicalChangeLogLocation,
+                                     ChangeLogParameters changeLogParameters,
+                                     ResourceAccessor resourceAccessor)
+            throws ChangeLogParseException
+    {
+        try (InputStream in = StreamUtil
+                .singleInputStream(physicalChangeLogLocation, resourceAccessor)) {
+            if (in == null) {
+                throw new ChangeLogParseException(physicalChangeLogLocation + " does not exist");
+            }
+            JsonReader reader = new JsonReader(physicalChangeLogLocation,
+                    new InputStreamReader(new UtfBomStripperInputStream(in),
+                                          StandardCharsets.UTF_8));
+            return reader.readChangeLog();
+        } catch (IOException e) {
+            throw new ChangeLogParseException("Error reading "
+                                              + physicalChangeLogLocation, e);
+        } catch (ParsedNodeException e) {
+            throw new ChangeLogParseException("Error parsing "
+                                              + physicalChangeLogLocation, e);
+        }
+    }
+
+
+    /**
+     * Pull tokenizer mapping JSON values to {@code ParsedNode}s.
+     */
+    static class JsonReader {
+
+        private final String path;
+        private final Reader in;
+        private final char[] buf = new char[8192];
+        private int pos;
+        private int limit;
+        private int line = 1;
+        private final StringBuilder text = new StringBuilder();
+
+        JsonReader(String path, Reader in) {
+            this.path = path;
+            this.in = in;
+        }
+
+        ParsedNode readChangeLog()
+                throws IOException, ParsedNodeException, ChangeLogParseException
+        {
+            ParsedNode changeLog = null;
+            expect('{');
+            if (peek() == '}') {
+                read();
+            } else {
+                do {
+                    String key = readString();
+                    expect(':');
+                    if (changeLog == null && key.equals(ROOT_NODE)) {
+                        changeLog = new ParsedNode(null, ROOT_NODE);
+                        readValue(changeLog);
+                    } else {
+                        readRaw();
+                    }
+                } while (nextMember('}'));
+            }
+            if (peek() != -1) {
+                throw syntaxError("Unexpected content after the root object");
+            }
+            if (changeLog == null) {
+                throw new ChangeLogParseException("Could not find "
+                        + ROOT_NODE + " node in " + path);
+            }
+            return changeLog;
+        }
+
+        /*
+         * See ParsedNode.setValue(Object)
+         */
+        private void readValue(ParsedNode node)
+                throws IOException, ParsedNodeException, ChangeLogParseException
+        {
+            int c = peek();
+            if (c == '{') {
+                readMembers(node);
+            } else if (c == '[') {
+                readElements(node);
+            } else {
+                node.setValue(readScalar());
+            }
+        }
+
+        /*
+         * Adds the members of an object as children of the given node.
+         */
+        private void readMembers(ParsedNode node)
+                throws IOException, ParsedNodeException, ChangeLogParseException
+        {
+            expect('{');
+            if (peek() == '}') {
+                read();
+                return;
+            }
+            do {
+                String key = readString();
+                expect(':');
+                ParsedNode child = new ParsedNode(null, key);
+                readValue(child);
+                node.addChild(child);
+            } while (nextMember('}'));
+        }
+
+        /*
+         * Objects in an array add their members as children of the given
+         * node, other elements become its value.
+         */
+        private void readElements(ParsedNode node)
+                throws IOException, ParsedNodeException, ChangeLogParseException
+        {
+            expect('[');
+            if (peek() == ']') {
+                read();
+                return;
+            }
+            List<Object> values = null;
+            do {
+                int c = peek();
+                if (c == '{') {
+                    readMembers(node);
+                } else {
+                    if (values == null) {
+                        values = new ArrayList<>();
+                    }
+                    values.add((c == '[') ? readRaw() : readScalar());
+                }
+            } while (nextMember(']'));
+            if (values != null) {
+                node.setValue(values);
+            }
+        }
+
+        /*
+         * Values not mapped to nodes - nested arrays, and ignored members.
+         */
+        private Object readRaw() throws IOException, ChangeLogParseException {
+            int c = peek();
+            if (c == '{') {
+                read();
+                Map<String, Object> map = new LinkedHashMap<>();
+                if (peek() == '}') {
+                    read();
+                    return map;
+                }
+                do {
+                    String key = readString();
+                    expect(':');
+                    map.put(key, readRaw());
+                } while (nextMember('}'));
+                return map;
+            } else if (c == '[') {
+                read();
+                List<Object> list = new ArrayList<>();
+                if (peek() == ']') {
+                    read();
+                    return list;
+                }
+                do {
+                    list.add(readRaw());
+                } while (nextMember(']'));
+                return list;
+            }
+            return readScalar();
+        }
+
+        private boolean nextMember(char end) throws IOException, ChangeLogParseException {
+            int c = read();
+            if (c == ',') {
+                return true;
+            } else if (c == end) {
+                return false;
+            }
+            throw syntaxError("Expected ',' or '" + end + "'");
+        }
+
+        private Object readScalar() throws IOException, ChangeLogParseException {
+            int c = peek();
+            if (c == '"') {
+                return readString();
+            } else if (c == '-' || (c >= '0' && c <= '9')) {
+                return readNumber();
+            }
+            String word = readWord();
+            switch (word) {
+            case "true":
+                return Boolean.TRUE;
+            case "false":
+                return Boolean.FALSE;
+            case "null":
+                return null;
+            default:
+                throw syntaxError("Unexpected '" + word + "'");
+            }
+        }
+
+        private String readWord() throws IOException {
+            text.setLength(0);
+            int c;
+            while ((c = peekRaw()) != -1 && Character.isLetter(c)) {
+                text.append((char) read());
+            }
+            return (text.length() == 0 && c != -1) ? String.valueOf((char) c)
+                                                   : text.toString();
+        }
+
+        private Number readNumber() throws IOException, ChangeLogParseException {
+            text.setLength(0);
+            boolean decimal = false;
+            int c;
+            while ((c = peekRaw()) != -1
+                    && (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E'
+                        || (c >= '0' && c <= '9'))) {
+                decimal |= (c == '.' || c == 'e' || c == 'E');
+                text.append((char) read());
+            }
+            String number = text.toString();
+            try {
+                if (decimal) {
+                    return Double.valueOf(number);
+                }
+                BigInteger value = new BigInteger(number);
+                if (value.bitLength() < Integer.SIZE) {
+                    return value.intValue();
+                } else if (value.bitLength() < Long.SIZE) {
+                    return value.longValue();
+                }
+                return value;
+            } catch (NumberFormatException e) {
+                throw syntaxError("Invalid number '" + number + "'");
+            }
+        }
+
+        private String readString() throws IOException, ChangeLogParseException {
+            expect('"');
+            text.setLength(0);
+            while (true) {
+                if (pos == limit && !fill()) {
+                    throw syntaxError("Unterminated string");
+                }
+                // Copy unescaped runs as a whole
+                int start = pos;
+                while (pos < limit && buf[pos] != '"' && buf[pos] != '\\') {
+                    if (buf[pos] == '\n') {
+                        line++;
+                    }
+                    pos++;
+                }
+                text.append(buf, start, pos - start);
+                if (pos == limit) {
+                    continue;
+                }
+                char c = buf[pos++];
+                if (c == '"') {
+                    return text.toString();
+                }
+                text.append(readEscape());
+            }
+        }
+
+        private char readEscape() throws IOException, ChangeLogParseException {
+            int c = read();
+            switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int code = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("Invalid unicode escape");
+                    }
+                    code = (code << 4) | digit;
+                }
+                return (char) code;
+            default:
+                throw syntaxError("Invalid escape");
+            }
+        }
+
+        private void expect(char expected) throws IOException, ChangeLogParseException {
+            if (read() != expected) {
+                throw syntaxError("Expected '" + expected + "'");
+            }
+        }
+
+        /*
+         * Next non-whitespace character, without consuming it.
+         */
+        private int peek() throws IOException {
+            while (true) {
+                if (pos == limit && !fill()) {
+                    return -1;
+                }
+                char c = buf[pos];
+                if (c == '\n') {
+                    line++;
+                } else if (c != ' ' && c != '\t' && c != '\r') {
+                    return c;
+                }
+                pos++;
+            }
+        }
+
+        private int peekRaw() throws IOException {
+            if (pos == limit && !fill()) {
+                return -1;
+            }
+            return buf[pos];
+        }
+
+        private int read() throws IOException {
+            int c = peek();
+            if (c != -1) {
+                pos++;
+            }
+            return c;
+        }
+
+        private boolean fill() throws IOException {
+            int count = in.read(buf, 0, buf.length);
+            if (count <= 0) {
+                return false;
+            }
+            pos = 0;
+            limit = count;
+            return true;
+        }
+
+        private ChangeLogParseException syntaxError(String message) {
+            return new ChangeLogParseException("Syntax error in file " + path
+                    + " at line " + line + ": " + message);
+        }
+
+    }
+
+}
@@ -0,0 +1,325 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.parser.ext;
+
+import static liquibase.serializer.LiquibaseSerializable.GENERIC_CHANGELOG_EXTENSION_NAMESPACE;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import liquibase.changelog.ChangeLogParameters;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.exception.ChangeLogParseException;
+import liquibase.logging.LogService;
+import liquibase.parser.ChangeLogParser;
+import liquibase.parser.ChangeLogParserFactory;
+import liquibase.parser.core.ParsedNode;
+import liquibase.parser.core.ParsedNodeException;
+import liquibase.parser.core.xml.XMLChangeLogSAXParser;
+import liquibase.resource.ResourceAccessor;
+import liquibase.resource.UtfBomStripperInputStream;
+import liquibase.util.StreamUtil;
+
+import net.example.liquibase.changelog.ext.ValidatedDatabaseChangeLog;
+
+/**
+ * Loads XML changelogs marked as trusted compiler output without
+ * resolving and validating against their declared schemas.
+ * <p>
+ * The compiled output is produced from an already validated model, so
+ * validating it again at runtime only costs startup time – mostly in
+ * fetching and compiling the XSDs named by {@code xsi:schemaLocation}.
+ * Files carrying the marker written by
+ * {@code EnhancedXMLChangeLogSerializer.setTrusted(true)} are read by
+ * a non-validating SAX parser, not loading external DTDs or schemas.
+ * All other files are passed to the standard validating parser.</p>
+ * <p>
+ * The parser is namespace-aware, building the {@code ParsedNode} tree
+ * from local names the way the standard {@code XMLChangeLogSAXHandler}
+ * does, expanding changelog parameters in attribute values and text.
+ * Unlike the validating parser, it doesn't apply XSD default attribute
+ * values – the compiled output already has them in place, from the
+ * validated source, so only for such output the trees match.</p>
+ * <p>
+ * Changelogs carrying a validated stamp are loaded as
+ * {@link ValidatedDatabaseChangeLog}, skipping the revalidation of
+ * unchanged content.</p>
+ *
+ * @see  net.example.liquibase.serializer.ext.EnhancedXMLChangeLogSerializer#setTrusted(boolean)
+ */
+public class TrustedXMLChangeLogParser extends XMLChangeLogSAXParser {
+
+    /**
+     * Local name of the marker attribute in the
+     * {@value liquibase.serializer.LiquibaseSerializable#GENERIC_CHANGELOG_EXTENSION_NAMESPACE}
+     * namespace.
+     */
+    public static final String MARKER_ATTRIBUTE = "compiled";
+
+    public static final String MARKER_VALUE = "trusted";
+
+    /**
+     * The root start tag is expected within this many bytes.
+     */
+    private static final int HEAD_LIMIT = 8192;
+
+    private static final Pattern MARKER = Pattern.compile("\\s([\\w.-]+):"
+            + MARKER_ATTRIBUTE + "\\s*=\\s*([\"'])" + MARKER_VALUE + "\\2");
+
+    private final SAXParserFactory trustedParserFactory;
+
+    public TrustedXMLChangeLogParser() {
+        trustedParserFactory = SAXParserFactory.newInstance();
+        trustedParserFactory.setValidating(false);
+        trustedParserFactory.setNamespaceAware(true);
+        trustedParserFactory.setXIncludeAware(false);
+        try {
+            trustedParserFactory.setFeature("http://apache.org/xml/features"
+                    + "/nonvalidating/load-external-dtd", false);
+        } catch (ParserConfigurationException | SAXException e) {
+            LogService.getLog(getClass()).debug("Could not disable external DTD loading: " + e);
+        }
+    }
+
+    /**
+     * Registers this parser unless already registered, f.e. when not
+     * loaded from a jar declaring the {@code Liquibase-Package}.
+     */
+    public static synchronized void register() {
+        ChangeLogParserFactory factory = ChangeLogParserFactory.getInstance();
+        for (ChangeLogParser parser : factory.getParsers()) {
+            if (parser instanceof TrustedXMLChangeLogParser) {
+                return;
+            }
+        }
+        factory.register(new TrustedXMLChangeLogParser());
+    }
+
+    @Override
+    public int getPriority() {
+        return super.getPriority() + 1;
+    }
+
+    @Override
+    public DatabaseChangeLog parse(String physicalChangeLogLocation,
+                                   ChangeLogParameters changeLogParameters,
+                                   ResourceAccessor resourceAccessor)
+            throws ChangeLogParseException
+    {
+        ParsedNode parsedNode = null;
+        DatabaseChangeLog changeLog = null;
+        try (InputStream in = StreamUtil
+                .singleInputStream(physicalChangeLogLocation, resourceAccessor)) {
+            if (in != null) {
+                BufferedInputStream buffered = new BufferedInputStream(
+                        new UtfBomStripperInputStream(in), HEAD_LIMIT);
+                if (isTrusted(buffered)) {
+                    ParsedNodeHandler handler = parseTrusted(buffered,
+                            physicalChangeLogLocation, changeLogParameters);
+                    parsedNode = handler.root;
+                    changeLog = handler.changeLog;
+                }
+            }
+        } catch (IOException e) {
+            throw new ChangeLogParseException("Error Reading Migration File: "
+                                              + e.getMessage(), e);
+        }
+
+        try {
+            if (parsedNode == null) {
+                // Not found, or not marked: the standard (validating) handling.
+                parsedNode = super.parseToNode(physicalChangeLogLocation,
+                                               changeLogParameters, resourceAccessor);
+                if (parsedNode == null) {
+                    return null;
+                }
+                changeLog = newChangeLog(physicalChangeLogLocation,
+                        parsedNode.getChildValue(null,
+                                ValidatedDatabaseChangeLog.STAMP_ATTRIBUTE, String.class),
+                        parsedNode.getChildValue(null,
+                                ValidatedDatabaseChangeLog.DBMS_ATTRIBUTE, String.class));
+            }
+            changeLog.setChangeLogParameters(changeLogParameters);
+            changeLog.load(parsedNode, resourceAccessor);
+        } catch (ChangeLogParseException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ChangeLogParseException(e);
+        }
+        return changeLog;
+    }
+
+    private static DatabaseChangeLog newChangeLog(String physicalChangeLogLocation,
+                                                  String stamp, String dbms) {
+        return (stamp == null || dbms == null)
+                ? new DatabaseChangeLog(physicalChangeLogLocation)
+                : new ValidatedDatabaseChangeLog(physicalChangeLogLocation, stamp, dbms);
+    }
+
+    /*
+     * Looks for the marker attribute in the root start tag, leaving the
+     * stream at its beginning.
+     */
+    static boolean isTrusted(BufferedInputStream in) throws IOException {
+        in.mark(HEAD_LIMIT);
+        byte[] head = new byte[HEAD_LIMIT];
+        int length = 0;
+        int count;
+        while (length < head.length
+                && (count = in.read(head, length, head.length - length)) > 0) {
+            length += count;
+        }
+        in.reset();
+
+        // ASCII compatible for the markup of interest.
+        String text = new String(head, 0, length, StandardCharsets.ISO_8859_1);
+        int start = text.indexOf("<databaseChangeLog");
+        int end = (start < 0) ? -1 : text.indexOf('>', start);
+        if (end < 0) {
+            return false;
+        }
+        String rootTag = text.substring(start, end);
+        Matcher marker = MARKER.matcher(rootTag);
+        return marker.find() && rootTag.contains("xmlns:" + marker.group(1)
+                + "=\"" + GENERIC_CHANGELOG_EXTENSION_NAMESPACE + "\"");
+    }
+
+    private ParsedNodeHandler parseTrusted(InputStream in,
+                                           String physicalChangeLogLocation,
+                                           ChangeLogParameters changeLogParameters)
+            throws IOException, ChangeLogParseException
+    {
+        try {
+            XMLReader xmlReader = trustedParserFactory.newSAXParser().getXMLReader();
+            ParsedNodeHandler contentHandler = new ParsedNodeHandler(
+                    physicalChangeLogLocation, changeLogParameters);
+            xmlReader.setContentHandler(contentHandler);
+            xmlReader.parse(new InputSource(in));
+            return contentHandler;
+        } catch (ParserConfigurationException e) {
+            throw new ChangeLogParseException(e);
+        } catch (SAXParseException e) {
+            throw new ChangeLogParseException("Error parsing line " + e.getLineNumber()
+                    + " column " + e.getColumnNumber() + " of "
+                    + physicalChangeLogLocation + ": " + e.getMessage(), e);
+        } catch (SAXException e) {
+            for (Throwable cause = e.getException(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof ChangeLogParseException) {
+                    throw (ChangeLogParseException) cause;
+                }
+            }
+            throw new ChangeLogParseException("Invalid Migration File: "
+                    + physicalChangeLogLocation + ": " + e.getMessage(), e);
+        }
+    }
+
+
+    /**
+     * Builds the {@code ParsedNode} tree as the (package-private)
+     * {@code liquibase.parser.core.xml.XMLChangeLogSAXHandler} does:
+     * attributes become child nodes, followed by the child elements, and
+     * the trimmed text content becomes the node value.  Parameters are
+     * expanded in attribute values, other than the root's, and text for
+     * the changelog created from the root element.
+     */
+    private static class ParsedNodeHandler extends DefaultHandler {
+
+        ParsedNode root;
+        DatabaseChangeLog changeLog;
+        private final String path;
+        private final ChangeLogParameters changeLogParameters;
+        private final Deque<ParsedNode> nodeStack = new ArrayDeque<>();
+        private final Deque<StringBuilder> textStack = new ArrayDeque<>();
+
+        ParsedNodeHandler(String path, ChangeLogParameters changeLogParameters) {
+            this.path = path;
+            this.changeLogParameters = changeLogParameters;
+        }
+
+        private String expand(String value) {
+            return (changeLogParameters == null)
+                    ? value
+                    : changeLogParameters.expandExpressions(value, changeLog);
+        }
+
+        @Override
+        public void startElement(String uri, String localName,
+                                 String qName, Attributes attributes)
+                throws SAXException
+        {
+            ParsedNode node = new ParsedNode(null, localName);
+            boolean rootElement = nodeStack.isEmpty();
+            if (rootElement) {
+                changeLog = newChangeLog(path,
+                        localValue(attributes, ValidatedDatabaseChangeLog.STAMP_ATTRIBUTE),
+                        localValue(attributes, ValidatedDatabaseChangeLog.DBMS_ATTRIBUTE));
+            }
+            try {
+                for (int i = 0, len = attributes.getLength(); i < len; i++) {
+                    // The root attributes are taken as-is by DatabaseChangeLog.load().
+                    String value = attributes.getValue(i);
+                    node.addChild(null, attributes.getLocalName(i),
+                                  rootElement ? value : expand(value));
+                }
+                if (nodeStack.isEmpty()) {
+                    root = node;
+                } else {
+                    nodeStack.peek().addChild(node);
+                }
+            } catch (ParsedNodeException e) {
+                throw new SAXException(e);
+            }
+            nodeStack.push(node);
+            textStack.push(new StringBuilder());
+        }
+
+        private static String localValue(Attributes attributes, String localName) {
+            for (int i = 0, len = attributes.getLength(); i < len; i++) {
+                if (attributes.getLocalName(i).equals(localName)) {
+                    return attributes.getValue(i);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            textStack.peek().append(ch, start, length);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName)
+                throws SAXException
+        {
+            ParsedNode node = nodeStack.pop();
+            String text = textStack.pop().toString().trim();
+            if (!text.isEmpty()) {
+                try {
+                    node.setValue(expand(text));
+                } catch (ParsedNodeException e) {
+                    throw new SAXException(e);
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,379 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.serializer.ext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import liquibase.ContextExpression;
+import liquibase.Labels;
+import liquibase.change.Change;
+import liquibase.change.ColumnConfig;
+import liquibase.change.core.CreateSequenceChange;
+import liquibase.change.core.CreateTableChange;
+import liquibase.change.core.CreateViewChange;
+import liquibase.change.core.DropSequenceChange;
+import liquibase.change.core.DropTableChange;
+import liquibase.change.core.DropViewChange;
+import liquibase.change.core.EmptyChange;
+import liquibase.change.core.InsertDataChange;
+import liquibase.change.core.OutputChange;
+import liquibase.change.core.TagDatabaseChange;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.ChangeSet.ExecType;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.configuration.GlobalConfiguration;
+import liquibase.configuration.LiquibaseConfiguration;
+import liquibase.exception.UnexpectedLiquibaseException;
+import liquibase.logging.LogService;
+import liquibase.statement.DatabaseFunction;
+import liquibase.util.StringUtils;
+
+import net.example.liquibase.serializer.ext.util.ContentDigest;
+
+/**
+ * Collapses the change sets preceding a boundary into their net effect.
+ * <p>
+ * Tables, views and sequences which are both created and dropped before
+ * the boundary are eliminated together with all changes referring to
+ * them, unless a change which cannot be analyzed (f.e. {@code sql})
+ * occurs during their lifetime.  All other changes are kept in their
+ * original order.</p>
+ */
+class BaselineSquasher {
+
+    private static final Map<String, String> nameFields;
+    static {
+        Map<String, String> fields = new HashMap<>();
+        fields.put("tableName", "table");
+        fields.put("baseTableName", "table");
+        fields.put("referencedTableName", "table");
+        fields.put("viewName", "view");
+        fields.put("sequenceName", "sequence");
+        nameFields = Collections.unmodifiableMap(fields);
+    }
+
+    private static final String AUTHOR = "compileXml";
+
+    private static final Set<Class<?>> neutralChanges = new HashSet<>(Arrays
+            .asList(EmptyChange.class, OutputChange.class, TagDatabaseChange.class));
+
+    private final List<ChangeSet> squashed;
+    private final List<Change> netChanges;
+
+    /**
+     * @param   changeLog  the changelog to squash;
+     * @param   boundary  a tag name, a change set identity
+     *          ({@code path::id::author}), or a change set id; change sets
+     *          preceding the first one matching are squashed.
+     * @throws  UnexpectedLiquibaseException  if no change set matches
+     *          the given boundary.
+     */
+    BaselineSquasher(DatabaseChangeLog changeLog, String boundary) {
+        List<ChangeSet> changeSets = changeLog.getChangeSets();
+        int end = boundaryIndex(changeSets, boundary);
+        if (end < 0) {
+            throw new UnexpectedLiquibaseException("No change set matches squash boundary: "
+                                                   + boundary);
+        }
+        this.squashed = Collections.unmodifiableList(new ArrayList<>(changeSets.subList(0, end)));
+        this.netChanges = Collections.unmodifiableList(netEffect(squashed));
+    }
+
+    private static int boundaryIndex(List<ChangeSet> changeSets, String boundary) {
+        for (int i = 0; i < changeSets.size(); i++) {
+            ChangeSet changeSet = changeSets.get(i);
+            if (boundary.equals(changeSet.toString(false))
+                    || boundary.equals(changeSet.getId())
+                    || boundary.equals(tagOf(changeSet))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static String tagOf(ChangeSet changeSet) {
+        for (Change change : changeSet.getChanges()) {
+            if (change instanceof TagDatabaseChange) {
+                return ((TagDatabaseChange) change).getTag();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return  the change sets preceding the boundary.
+     */
+    List<ChangeSet> getSquashed() {
+        return squashed;
+    }
+
+    /**
+     * @return  the changes remaining after eliminating objects created
+     *          and dropped before the boundary, and changes having no
+     *          effect on the schema ({@code tagDatabase}, {@code output}).
+     */
+    List<Change> getNetChanges() {
+        return netChanges;
+    }
+
+    /**
+     * Creates the baseline changelog applying the net changes, and
+     * inserting {@code DATABASECHANGELOG} rows marking the squashed
+     * change sets as ran.
+     * <p>
+     * The rows are literal inserts, so their {@code MD5SUM} and
+     * {@code DEPLOYMENT_ID} are fixed at compile time: the checksums are
+     * those of the squashed change sets as compiled, and all databases
+     * the baseline is applied to share a single deployment id, derived
+     * from the squashed change sets, so the same changelog always squashes
+     * to the same baseline.  {@code DATEEXECUTED} is computed when the
+     * baseline runs, and {@code LIQUIBASE} is left out, not to record the
+     * compiling version.</p>
+     *
+     * @param   path  the baseline changelog path;
+     * @return  the baseline changelog.
+     */
+    DatabaseChangeLog toChangeLog(String path) {
+        DatabaseChangeLog baseline = new DatabaseChangeLog(path);
+        if (!netChanges.isEmpty()) {
+            baseline.addChangeSet(new BaselineChangeSet("baseline", baseline, netChanges));
+        }
+
+        GlobalConfiguration config = LiquibaseConfiguration
+                .getInstance().getConfiguration(GlobalConfiguration.class);
+        String deploymentId = deploymentId();
+        ChangeSet history = new ChangeSet("baseline-history", AUTHOR,
+                false, false, path, null, null, baseline);
+        int order = 0;
+        for (ChangeSet changeSet : squashed) {
+            // Null values are left out rather than inserted explicitly.
+            InsertDataChange row = new InsertDataChange();
+            row.setSchemaName(config.getLiquibaseSchemaName());
+            row.setTableName(config.getDatabaseChangeLogTableName());
+            row.addColumn(new ColumnConfig().setName("ID").setValue(changeSet.getId()));
+            row.addColumn(new ColumnConfig().setName("AUTHOR").setValue(changeSet.getAuthor()));
+            row.addColumn(new ColumnConfig().setName("FILENAME").setValue(changeSet.getFilePath()));
+            row.addColumn(new ColumnConfig().setName("DATEEXECUTED")
+                    .setValueComputed(new DatabaseFunction("CURRENT_TIMESTAMP")));
+            row.addColumn(new ColumnConfig().setName("ORDEREXECUTED").setValueNumeric(++order));
+            row.addColumn(new ColumnConfig().setName("EXECTYPE")
+                    .setValue(ExecType.EXECUTED.value));
+            row.addColumn(new ColumnConfig().setName("MD5SUM")
+                    .setValue(changeSet.generateCheckSum().toString()));
+            row.addColumn(new ColumnConfig().setName("DESCRIPTION")
+                    .setValue(limitSize(changeSet.getDescription())));
+            row.addColumn(new ColumnConfig().setName("COMMENTS")
+                    .setValue(limitSize(StringUtils.trimToEmpty(changeSet.getComments()))));
+            if (tagOf(changeSet) != null) {
+                row.addColumn(new ColumnConfig().setName("TAG").setValue(tagOf(changeSet)));
+            }
+            if (!isEmpty(changeSet.getContexts())) {
+                row.addColumn(new ColumnConfig().setName("CONTEXTS")
+                        .setValue(changeSet.getContexts().toString()));
+            }
+            if (!isEmpty(changeSet.getLabels())) {
+                row.addColumn(new ColumnConfig().setName("LABELS")
+                        .setValue(changeSet.getLabels().toString()));
+            }
+            row.addColumn(new ColumnConfig().setName("DEPLOYMENT_ID").setValue(deploymentId));
+            history.addChange(row);
+        }
+        baseline.addChangeSet(history);
+        return baseline;
+    }
+
+    /*
+     * The first 10 (the column size) hex digits of the digest of the
+     * squashed change set identities and check sums.
+     */
+    private String deploymentId() {
+        StringBuilder content = new StringBuilder();
+        for (ChangeSet changeSet : squashed) {
+            content.append(changeSet.toString(false)).append(' ')
+                   .append(changeSet.generateCheckSum()).append('\n');
+        }
+        return ContentDigest.sha256(content.toString()).substring(0, 10);
+    }
+
+    private static String limitSize(String string) {
+        return (string.length() > 250) ? string.substring(0, 247) + "..." : string;
+    }
+
+    private static boolean isEmpty(ContextExpression contexts) {
+        return contexts == null || contexts.isEmpty();
+    }
+
+    private static boolean isEmpty(Labels labels) {
+        return labels == null || labels.isEmpty();
+    }
+
+    private static List<Change> netEffect(List<ChangeSet> changeSets) {
+        List<Change> changes = new ArrayList<>();
+        for (ChangeSet changeSet : changeSets) {
+            warnConditional(changeSet);
+            changes.addAll(changeSet.getChanges());
+        }
+
+        Map<String, List<int[]>> lifetimes = new HashMap<>();
+        Map<String, Integer> created = new HashMap<>();
+        int lastOpaque = -1;
+        for (int i = 0; i < changes.size(); i++) {
+            Change change = changes.get(i);
+            Set<String> names = objectNames(change);
+            if (isCreate(change)) {
+                created.put(names.iterator().next(), i);
+            } else if (isDrop(change)) {
+                String name = names.iterator().next();
+                Integer start = created.remove(name);
+                if (start != null && lastOpaque <= start) {
+                    lifetimes.computeIfAbsent(name, k -> new ArrayList<>())
+                             .add(new int[] { start, i });
+                }
+            }
+            if (names.isEmpty() && !neutralChanges.contains(change.getClass())
+                    || change instanceof CreateViewChange
+                    || change.getClass().getSimpleName().startsWith("Rename")) {
+                lastOpaque = i;
+            }
+        }
+
+        boolean[] eliminated = new boolean[changes.size()];
+        Set<List<String>> constraints = new HashSet<>();
+        for (int i = 0; i < changes.size(); i++) {
+            for (String name : objectNames(changes.get(i))) {
+                for (int[] lifetime : lifetimes.getOrDefault(name, Collections.emptyList())) {
+                    if (i >= lifetime[0] && i <= lifetime[1]) {
+                        eliminated[i] = true;
+                        addConstraintName(changes.get(i), constraints);
+                    }
+                }
+            }
+        }
+
+        List<Change> result = new ArrayList<>();
+        for (int i = 0; i < changes.size(); i++) {
+            List<String> constraint = constraintKey(changes.get(i));
+            if (!eliminated[i] && (constraint == null || !constraints.contains(constraint))
+                    && !neutralChanges.contains(changes.get(i).getClass())) {
+                result.add(changes.get(i));
+            }
+        }
+        return result;
+    }
+
+    private static void warnConditional(ChangeSet changeSet) {
+        if (changeSet.isAlwaysRun() || changeSet.isRunOnChange()
+                || !changeSet.getContexts().isEmpty()
+                || !changeSet.getInheritableContexts().isEmpty()
+                || (changeSet.getLabels() != null && !changeSet.getLabels().isEmpty())
+                || (changeSet.getDbmsSet() != null && !changeSet.getDbmsSet().isEmpty())
+                || (changeSet.getPreconditions() != null
+                        && !changeSet.getPreconditions().getNestedPreconditions().isEmpty())) {
+            LogService.getLog(BaselineSquasher.class).warning("Squashing conditional "
+                    + changeSet + " - the baseline applies it unconditionally");
+        }
+    }
+
+    private static boolean isCreate(Change change) {
+        return change instanceof CreateTableChange
+                || change instanceof CreateViewChange
+                || change instanceof CreateSequenceChange;
+    }
+
+    private static boolean isDrop(Change change) {
+        return change instanceof DropTableChange
+                || change instanceof DropViewChange
+                || change instanceof DropSequenceChange;
+    }
+
+    private static Set<String> objectNames(Change change) {
+        Set<String> names = new HashSet<>(2);
+        Object schema = fieldValue(change, "schemaName");
+        for (Map.Entry<String, String> entry : nameFields.entrySet()) {
+            Object name = fieldValue(change, entry.getKey());
+            if (name != null) {
+                String qualified = (schema == null || entry.getKey().equals("referencedTableName"))
+                                   ? name.toString()
+                                   : schema + "." + name;
+                names.add(entry.getValue() + ':' + qualified.toLowerCase(Locale.ROOT));
+            }
+        }
+        return names;
+    }
+
+    private static void addConstraintName(Change change, Set<List<String>> constraints) {
+        List<String> constraint = constraintKey(change);
+        if (constraint != null) {
+            constraints.add(constraint);
+        }
+    }
+
+    /**
+     * Constraint and index names are only unique per table, so they are
+     * keyed by {@code (schema, table, name)}.
+     *
+     * @return  the constraint or index the given change refers to, or
+     *          {@code null} if none.
+     */
+    private static List<String> constraintKey(Change change) {
+        Object name = firstValue(change, "constraintName", "indexName");
+        if (name == null) {
+            return null;
+        }
+        Object schema = firstValue(change, "schemaName", "baseTableSchemaName");
+        Object table = firstValue(change, "tableName", "baseTableName");
+        return Arrays.asList(lowerCase(schema), lowerCase(table), lowerCase(name));
+    }
+
+    private static Object firstValue(Change change, String... fields) {
+        for (String field : fields) {
+            Object value = fieldValue(change, field);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    private static String lowerCase(Object value) {
+        return (value == null) ? "" : value.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private static Object fieldValue(Change change, String field) {
+        return change.getSerializableFields().contains(field)
+               ? change.getSerializableFieldValue(field)
+               : null;
+    }
+
+
+    /**
+     * Holds changes of other change sets without re-parenting them, so
+     * they are still resolved relative to their original changelogs.
+     */
+    static class BaselineChangeSet extends ChangeSet {
+
+        private final List<Change> changes;
+
+        BaselineChangeSet(String id, DatabaseChangeLog changeLog, List<Change> changes) {
+            super(id, AUTHOR, false, false, changeLog.getFilePath(), null, null, changeLog);
+            this.changes = changes;
+        }
+
+        @Override
+        public List<Change> getChanges() {
+            return changes;
+        }
+
+    }
+
+}
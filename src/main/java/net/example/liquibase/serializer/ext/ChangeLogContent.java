@@ -4,17 +4,21 @@
  */
 package net.example.liquibase.serializer.ext;
 
-import static net.example.liquibase.serializer.ext.EnhancedXMLChangeLogSerializer.xmlExt;
+import static net.example.liquibase.serializer.ext.EnhancedXMLChangeLogSerializer.withExtension;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.Set;
+import java.util.function.ToLongFunction;
 
 import liquibase.ContextExpression;
 import liquibase.LabelExpression;
@@ -39,7 +43,12 @@ class ChangeLogContent {
 
     private List<DatabaseChangeLog> dbChangeLogs = new ArrayList<>();
     private Map<DatabaseChangeLog, List<ChangeLogChild>> contentMap = new IdentityHashMap<>();
+    private Set<DatabaseChangeLog> included = Collections.newSetFromMap(new IdentityHashMap<>());
     private boolean singleFile;
+    private boolean shallow;
+    private String fileExtension;
+    private Coalescing coalescing;
+    private Set<String> outputPaths;
 
     /**
      * Constructs new {@code ChangeLogContent} for the given changelog.
@@ -47,43 +56,225 @@ class ChangeLogContent {
      * @param   changeLog  a changelog to reconstruct the content for;
      * @param   singleFile  {@code true} to construct content for a single
      *          file output, or {@code false} to construct content for
-     *          as many source files there appear to be.
+     *          as many source files there appear to be;
+     * @param   fileExtension  extension of the output files, included
+     *          changelogs are referred to with.
      */
-    ChangeLogContent(DatabaseChangeLog changeLog, boolean singleFile) {
+    ChangeLogContent(DatabaseChangeLog changeLog, boolean singleFile, String fileExtension) {
+        this(changeLog, singleFile, fileExtension, null);
+    }
+
+    /**
+     * Constructs new {@code ChangeLogContent} for the given changelog,
+     * packing small included changelogs into shared files.
+     *
+     * @param   changeLog  a changelog to reconstruct the content for;
+     * @param   singleFile  {@code true} to construct content for a single
+     *          file output;
+     * @param   fileExtension  extension of the output files;
+     * @param   coalescing  limits of the packed files, or {@code null}
+     *          not to pack included changelogs.
+     * @see     Coalescing
+     */
+    ChangeLogContent(DatabaseChangeLog changeLog, boolean singleFile,
+                     String fileExtension, Coalescing coalescing) {
+        this(changeLog, singleFile, false, true, fileExtension,
+             singleFile ? null : coalescing);
+    }
+
+    private ChangeLogContent(DatabaseChangeLog changeLog,
+                             boolean singleFile, boolean shallow,
+                             boolean root, String fileExtension,
+                             Coalescing coalescing) {
         this.singleFile = singleFile;
+        this.shallow = shallow;
+        this.fileExtension = fileExtension;
+        this.coalescing = coalescing;
 
         // https://www.liquibase.org/documentation/preconditions.html
         // Preconditions at the changelog level apply to all changeSets, not
         // just those listed in the current changelog or its child changelogs.
         PreconditionContainer preconditions = changeLog.getPreconditions();
-        if (preconditionsPresent(preconditions)) {
+        if (root && preconditionsPresent(preconditions)) {
             addContent(changeLog).add(preconditions);
         }
+        if (coalescing != null) {
+            outputPaths = outputPaths(changeLog);
+        }
         init(changeLog);
     }
 
+    /**
+     * Constructs content for the file of the given changelog only,
+     * referring to the changelogs it includes without constructing their
+     * content.
+     *
+     * @param   changeLog  a fully parsed changelog;
+     * @param   root  whether the given changelog is the root one;
+     * @param   fileExtension  extension of the output files;
+     * @return  content having a single changelog.
+     */
+    static ChangeLogContent ofFile(DatabaseChangeLog changeLog,
+                                   boolean root, String fileExtension) {
+        return new ChangeLogContent(changeLog, false, true, root, fileExtension, null);
+    }
+
+    /**
+     * Like {@link #ofFile ofFile(changeLog, false, ...)}, but referring to the
+     * included changelogs by their source paths, so the content parses
+     * back to the same model as the source file.
+     *
+     * @param   changeLog  a fully parsed changelog;
+     * @return  content having a single changelog.
+     * @see     ParsedChangeLogCache
+     */
+    static ChangeLogContent ofSourceFile(DatabaseChangeLog changeLog) {
+        return new ChangeLogContent(changeLog, false, true, false, null, null);
+    }
+
     private void init(DatabaseChangeLog changeLog) {
         List<ChangeLogChild> content = addContent(changeLog);
+        List<DatabaseChangeLog> packable = new ArrayList<>();
         for (ChangeSet changeSet : changeLog.getChangeSets()) {
             DatabaseChangeLog nextLog = changeSet.getChangeLog();
             if (nextLog == changeLog || singleFile) {
+                addPacked(changeLog, packable, content);
                 content.add(changeSet);
-            } else if (!contentMap.containsKey(nextLog)) {
-                EnhancedChangeLogInclude include = new EnhancedChangeLogInclude();
-                // REVISIT: Have option to use relative paths.
-                include.setFile(urlPath(xmlExt(nextLog.getPhysicalFilePath())));
-                ContextExpression includeContexts = nextLog.getIncludeContexts();
-                if (includeContexts != null && !includeContexts.isEmpty()) {
-                    include.setContext(includeContexts);
+            } else if (included.add(nextLog = includedBy(changeLog, nextLog))) {
+                if (coalescing != null && coalescing.accepts(nextLog)) {
+                    packable.add(nextLog);
+                    continue;
                 }
-                LabelExpression includeLabels = nextLog.getIncludeLabels();
-                if (includeLabels != null && !includeLabels.isEmpty()) {
-                    include.setLabels(includeLabels);
+                addPacked(changeLog, packable, content);
+                content.add(includeOf(nextLog));
+                if (!shallow) {
+                    init(nextLog);
                 }
-                content.add(include);
-                init(nextLog);
             }
         }
+        addPacked(changeLog, packable, content);
+    }
+
+    /*
+     * The output paths of all changelogs having change sets, the pack
+     * files may not be named as.
+     */
+    private Set<String> outputPaths(DatabaseChangeLog changeLog) {
+        Set<String> paths = new HashSet<>();
+        Set<DatabaseChangeLog> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (ChangeSet changeSet : changeLog.getChangeSets()) {
+            for (DatabaseChangeLog log = changeSet.getChangeLog();
+                    log != null && seen.add(log); log = log.getParentChangeLog()) {
+                paths.add(outputPathKey(log.getPhysicalFilePath()));
+            }
+        }
+        return paths;
+    }
+
+    private String outputPathKey(String path) {
+        // Case-insensitive file systems
+        return urlPath((fileExtension == null) ? path : withExtension(path, fileExtension))
+                .toLowerCase(Locale.ROOT);
+    }
+
+    private EnhancedChangeLogInclude includeOf(DatabaseChangeLog nextLog) {
+        EnhancedChangeLogInclude include = new EnhancedChangeLogInclude();
+        // REVISIT: Have option to use relative paths.
+        String includePath = nextLog.getPhysicalFilePath();
+        include.setFile(urlPath((fileExtension == null)
+                                ? includePath
+                                : withExtension(includePath, fileExtension)));
+        ContextExpression includeContexts = nextLog.getIncludeContexts();
+        if (includeContexts != null && !includeContexts.isEmpty()) {
+            include.setContext(includeContexts);
+        }
+        LabelExpression includeLabels = nextLog.getIncludeLabels();
+        if (includeLabels != null && !includeLabels.isEmpty()) {
+            include.setLabels(includeLabels);
+        }
+        return include;
+    }
+
+    /*
+     * Packs a run of consecutive included changelogs into files within
+     * the coalescing limits, in order.  A changelog alone in its pack is
+     * included as usual.
+     */
+    private void addPacked(DatabaseChangeLog changeLog,
+                           List<DatabaseChangeLog> packable,
+                           List<ChangeLogChild> content) {
+        int start = 0;
+        while (start < packable.size()) {
+            int end = start + 1;
+            int changeSets = packable.get(start).getChangeSets().size();
+            long size = coalescing.sizeOf(packable.get(start));
+            while (end < packable.size()) {
+                DatabaseChangeLog next = packable.get(end);
+                changeSets += next.getChangeSets().size();
+                size += coalescing.sizeOf(next);
+                if (!coalescing.fits(changeSets, size)) {
+                    break;
+                }
+                end++;
+            }
+
+            if (end - start == 1) {
+                DatabaseChangeLog single = packable.get(start);
+                content.add(includeOf(single));
+                init(single);
+            } else {
+                DatabaseChangeLog pack = packOf(changeLog, packable.subList(start, end));
+                content.add(includeOf(pack));
+            }
+            start = end;
+        }
+        packable.clear();
+    }
+
+    /*
+     * The pack file is named after its first changelog, and numbered on
+     * if a source file has the name already.  Its change sets
+     * keep their logicalFilePath, and the contexts of the changelogs
+     * packed, as written for change sets of a foreign changelog.
+     */
+    private DatabaseChangeLog packOf(DatabaseChangeLog changeLog,
+                                     List<DatabaseChangeLog> packed) {
+        String firstPath = packed.get(0).getPhysicalFilePath();
+        int dot = firstPath.lastIndexOf('.');
+        if (dot <= Math.max(firstPath.lastIndexOf('/'), firstPath.lastIndexOf('\\'))) {
+            dot = firstPath.length();
+        }
+        String packName = firstPath.substring(0, dot) + "-pack" + packed.size();
+        String packPath = packName + firstPath.substring(dot);
+        for (int n = 2; !outputPaths.add(outputPathKey(packPath)); n++) {
+            packPath = packName + "-" + n + firstPath.substring(dot);
+        }
+        DatabaseChangeLog pack = new DatabaseChangeLog(packPath);
+        pack.setParentChangeLog(changeLog);
+        pack.setChangeLogParameters(changeLog.getChangeLogParameters());
+
+        List<ChangeLogChild> content = addContent(pack);
+        for (DatabaseChangeLog log : packed) {
+            addDeclaredProperties(log, content, false);
+            content.addAll(log.getChangeSets());
+        }
+        return pack;
+    }
+
+    /*
+     * Change sets of nested includes appear directly in the including
+     * changelog - resolve the changelog it includes directly.  Otherwise
+     * a nested changelog having the first change set of an include gets
+     * included in place of it, losing the include attributes.
+     */
+    private static DatabaseChangeLog includedBy(DatabaseChangeLog changeLog,
+                                                DatabaseChangeLog nested) {
+        DatabaseChangeLog child = nested;
+        while (child.getParentChangeLog() != null
+                && child.getParentChangeLog() != changeLog) {
+            child = child.getParentChangeLog();
+        }
+        return (child.getParentChangeLog() == changeLog) ? child : nested;
     }
 
     public List<DatabaseChangeLog> getChangeLogs() {
@@ -100,6 +291,23 @@ class ChangeLogContent {
         return Collections.unmodifiableList(content);
     }
 
+    /**
+     * Removes the content of the given changelog, f.e. once its file is
+     * written, so it is no longer retained.
+     *
+     * @param   changeLog  the changelog to remove the content of;
+     * @return  the removed content.
+     */
+    List<ChangeLogChild> release(DatabaseChangeLog changeLog) {
+        Objects.requireNonNull(changeLog, "changeLog must not be null");
+
+        List<ChangeLogChild> content = contentMap.remove(changeLog);
+        if (content == null) {
+            throw new NoSuchElementException();
+        }
+        return content;
+    }
+
     private List<ChangeLogChild> addContent(DatabaseChangeLog changeLog) {
         Objects.requireNonNull(changeLog, "changeLog must not be null");
 
@@ -122,7 +330,7 @@ class ChangeLogContent {
         defaultPreconditionAttributes = attributes;
     }
 
-    private static boolean preconditionsPresent(PreconditionContainer preconditions) {
+    static boolean preconditionsPresent(PreconditionContainer preconditions) {
         if (preconditions == null) {
             return false;
         }
@@ -202,4 +410,74 @@ class ChangeLogContent {
         return path.replace('\\', '/');
     }
 
+
+    /**
+     * Limits of the files included changelogs are packed into.
+     * <p>
+     * Only changelogs including no other changelogs are packed, having
+     * no include {@code labels} (which change sets can't carry over), and
+     * declaring no local ({@code global="false"}) properties.  A run of
+     * such changelogs, consecutive in their including changelog, is packed
+     * into as few files as the limits allow, in order.  A changelog
+     * exceeding the limits on its own is not packed.</p>
+     */
+    static class Coalescing {
+
+        private final int maxChangeSets;
+        private final long maxSize;
+        private final ToLongFunction<ChangeSet> sizeEstimate;
+        private final Map<DatabaseChangeLog, Long> sizes = new IdentityHashMap<>();
+
+        /**
+         * @param   maxChangeSets  maximum number of change sets per file,
+         *          or {@code 0} for no limit;
+         * @param   maxSize  maximum (estimated) size of a file, or
+         *          {@code 0} for no limit;
+         * @param   sizeEstimate  estimates the written size of a change
+         *          set; not used if there's no size limit.
+         */
+        Coalescing(int maxChangeSets, long maxSize, ToLongFunction<ChangeSet> sizeEstimate) {
+            this.maxChangeSets = maxChangeSets;
+            this.maxSize = maxSize;
+            this.sizeEstimate = sizeEstimate;
+        }
+
+        boolean fits(int changeSets, long size) {
+            return (maxChangeSets <= 0 || changeSets <= maxChangeSets)
+                    && (maxSize <= 0 || size <= maxSize);
+        }
+
+        long sizeOf(DatabaseChangeLog changeLog) {
+            if (maxSize <= 0) {
+                return 0;
+            }
+            return sizes.computeIfAbsent(changeLog, log -> {
+                long size = 0;
+                for (ChangeSet changeSet : log.getChangeSets()) {
+                    size += sizeEstimate.applyAsLong(changeSet);
+                }
+                return size;
+            });
+        }
+
+        boolean accepts(DatabaseChangeLog changeLog) {
+            LabelExpression includeLabels = changeLog.getIncludeLabels();
+            if (includeLabels != null && !includeLabels.isEmpty()) {
+                return false;
+            }
+            for (ChangeSet changeSet : changeLog.getChangeSets()) {
+                if (changeSet.getChangeLog() != changeLog) {
+                    return false;
+                }
+            }
+            for (ChangeLogParameter param : changeLog.getChangeLogParameters().getChangeLogParameters()) {
+                if (param.getChangeLog() == changeLog && !param.isGlobal()) {
+                    return false;
+                }
+            }
+            return fits(changeLog.getChangeSets().size(), sizeOf(changeLog));
+        }
+
+    }
+
 }
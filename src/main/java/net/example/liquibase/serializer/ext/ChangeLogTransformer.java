@@ -0,0 +1,76 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.serializer.ext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+
+import liquibase.changelog.ChangeLogChild;
+import liquibase.changelog.DatabaseChangeLog;
+
+/**
+ * Transforms changelog content as it is written, f.e. rewriting schema
+ * names, omitting change sets, or tagging.
+ * <p>
+ * Transformers are applied to each top-level {@code ChangeLogChild}
+ * (change set, include, property, preconditions) in turn, as
+ * {@link EnhancedXMLChangeLogSerializer} iterates the content of every
+ * output file – a single traversal, with no intermediate copies of the
+ * changelog.  Implementations are discovered through
+ * {@link ServiceLoader}, declared in
+ * {@code META-INF/services/net.example.liquibase.serializer.ext.ChangeLogTransformer},
+ * and applied in the order found.</p>
+ * <p>
+ * Only the written output is affected.  The parsed model, and artifacts
+ * derived from it (SQL scripts, identity index, apply plan), reflect
+ * any in-place modifications of the given children, but not children
+ * replaced or omitted.</p>
+ * <p>
+ * Compiled output is cached by the class names and
+ * {@linkplain #getVersion() versions} of the transformers applied.</p>
+ *
+ * @see  EnhancedXMLChangeLogSerializer#setTransformers(List)
+ */
+public interface ChangeLogTransformer {
+
+    /**
+     * @param   child  the changelog child about to be written;
+     * @param   changeLog  the changelog the child is written as part of,
+     *          or {@code null} if not known;
+     * @return  the child to write in place of the given one – the same,
+     *          possibly modified in place, another one, or {@code null}
+     *          to omit it.
+     */
+    ChangeLogChild transform(ChangeLogChild child, DatabaseChangeLog changeLog);
+
+    /**
+     * Distinguishes outputs of different implementation versions or
+     * configurations of this transformer, for caching compiled output.
+     * Transformers with external configuration should return a digest of
+     * it.  The default is the implementation version of the package.
+     *
+     * @return  the version or configuration digest of this transformer,
+     *          or {@code null}.
+     */
+    default String getVersion() {
+        Package pkg = getClass().getPackage();
+        return (pkg == null) ? null : pkg.getImplementationVersion();
+    }
+
+    /**
+     * @param   classLoader  the class loader to find implementations with;
+     * @return  new instances of the transformers available.
+     */
+    static List<ChangeLogTransformer> load(ClassLoader classLoader) {
+        List<ChangeLogTransformer> transformers = new ArrayList<>();
+        for (ChangeLogTransformer transformer
+                : ServiceLoader.load(ChangeLogTransformer.class, classLoader)) {
+            transformers.add(transformer);
+        }
+        return transformers;
+    }
+
+}
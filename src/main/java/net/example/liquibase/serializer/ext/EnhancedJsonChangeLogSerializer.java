@@ -0,0 +1,128 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.serializer.ext;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import liquibase.changelog.ChangeLogChild;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.serializer.ChangeLogSerializer;
+import liquibase.serializer.LiquibaseSerializable;
+import liquibase.servicelocator.LiquibaseService;
+
+import net.example.liquibase.serializer.ext.util.SimpleJsonWriter;
+
+/**
+ * Serializes {@code DatabaseChangeLog} to JSON files, having the same
+ * multi-file structure, {@code logicalFilePath} and context handling as
+ * {@link EnhancedXMLChangeLogSerializer} – only the output syntax
+ * differs.
+ * <p>
+ * JSON changelogs load faster than namespace-aware, schema-validated
+ * XML, especially with {@link net.example.liquibase.parser.ext.StreamingJsonChangeLogParser}.</p>
+ * <p>
+ * The serializer is not picked up by the service locator, leaving the
+ * standard {@code JsonChangeLogSerializer} in place for other uses of
+ * JSON changelogs.  The output options are set on the
+ * {@link #getStructureSerializer() structure serializer}.</p>
+ *
+ * @see  SimpleJsonWriter
+ */
+@LiquibaseService(skip = true)
+public class EnhancedJsonChangeLogSerializer implements ChangeLogSerializer {
+
+    static final String JSON_EXT = ".json";
+
+    // Closing the "databaseChangeLog" array, and the root object
+    private static final Pattern CHANGELOG_END = Pattern.compile("\\]\\s*\\}\\s*$");
+
+    private final EnhancedXMLChangeLogSerializer structureSerializer;
+
+    public EnhancedJsonChangeLogSerializer() {
+        structureSerializer = new EnhancedXMLChangeLogSerializer(new SimpleJsonWriter(), JSON_EXT);
+    }
+
+    /**
+     * @return  the serializer traversing the changelog structure, writing
+     *          JSON output.
+     */
+    public EnhancedXMLChangeLogSerializer getStructureSerializer() {
+        return structureSerializer;
+    }
+
+    @Override
+    public String[] getValidFileExtensions() {
+        return structureSerializer.getValidFileExtensions();
+    }
+
+    @Override
+    public String serialize(LiquibaseSerializable object, boolean pretty) {
+        return structureSerializer.serialize(object, pretty);
+    }
+
+    @Override
+    public <T extends ChangeLogChild> void write(List<T> children, OutputStream out)
+            throws IOException
+    {
+        structureSerializer.write(children, out);
+    }
+
+    /**
+     * Appends the given change set to the top-level array of an existing
+     * JSON changelog, as written by this serializer.
+     *
+     * @param   changeSet  the change set to append;
+     * @param   changeLogFile  the changelog file to modify;
+     * @throws  IOException  if I/O error occurs, or the file content is
+     *          not a JSON changelog.
+     */
+    @Override
+    public void append(ChangeSet changeSet, File changeLogFile) throws IOException {
+        String content = new String(Files.readAllBytes(changeLogFile.toPath()),
+                                    StandardCharsets.UTF_8);
+        Matcher end = CHANGELOG_END.matcher(content);
+        if (!end.find()) {
+            throw new IOException("Not a JSON changelog: " + changeLogFile);
+        }
+        int last = end.start() - 1;
+        while (last >= 0 && Character.isWhitespace(content.charAt(last))) {
+            last--;
+        }
+        String lineSeparator = content.contains("\r\n") ? "\r\n" : "\n";
+        StringBuilder buf = new StringBuilder(content.length() + 1024);
+        buf.append(content, 0, last + 1);
+        if (last >= 0 && content.charAt(last) != '[') {
+            buf.append(',');
+        }
+        for (String line : serialize(changeSet, true).trim().split("\\R")) {
+            buf.append(lineSeparator).append("  ").append(line);
+        }
+        buf.append(lineSeparator).append(content, end.start(), content.length());
+        Files.write(changeLogFile.toPath(), buf.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @see  EnhancedXMLChangeLogSerializer#serialize(DatabaseChangeLog, String, boolean)
+     */
+    public void serialize(DatabaseChangeLog changeLog, String targetDir, boolean singleFile)
+            throws IOException
+    {
+        structureSerializer.serialize(changeLog, targetDir, singleFile);
+    }
+
+    @Override
+    public int getPriority() {
+        return PRIORITY_DEFAULT;
+    }
+
+}
@@ -6,21 +6,32 @@ package net.example.liquibase.serializer.ext;
 
 import static javax.xml.XMLConstants.DEFAULT_NS_PREFIX;
 import static javax.xml.XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI;
+import static liquibase.serializer.LiquibaseSerializable.GENERIC_CHANGELOG_EXTENSION_NAMESPACE;
 import static liquibase.serializer.LiquibaseSerializable.STANDARD_CHANGELOG_NAMESPACE;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import javax.xml.XMLConstants;
 
@@ -28,21 +39,39 @@ import org.xml.sax.SAXException;
 
 import liquibase.ContextExpression;
 import liquibase.change.Change;
+import liquibase.change.DbmsTargetedChange;
 import liquibase.change.core.CreateProcedureChange;
 import liquibase.change.core.CreateViewChange;
 import liquibase.change.core.LoadDataChange;
 import liquibase.change.core.SQLFileChange;
 import liquibase.changelog.ChangeLogChild;
+import liquibase.changelog.ChangeLogProperty;
 import liquibase.changelog.ChangeSet;
 import liquibase.changelog.DatabaseChangeLog;
+import liquibase.changelog.RollbackContainer;
 import liquibase.database.ObjectQuotingStrategy;
 import liquibase.exception.UnexpectedLiquibaseException;
+import liquibase.logging.LogService;
 import liquibase.parser.NamespaceDetails;
 import liquibase.parser.NamespaceDetailsFactory;
+import liquibase.parser.core.ParsedNode;
+import liquibase.parser.core.ParsedNodeException;
 import liquibase.serializer.LiquibaseSerializable;
 import liquibase.serializer.LiquibaseSerializable.SerializationType;
 import liquibase.serializer.core.xml.XMLChangeLogSerializer;
+import net.example.liquibase.change.ext.PrecompiledSqlChange;
+import net.example.liquibase.change.ext.PrecompiledSqlScript;
+import net.example.liquibase.changelog.ext.ChangeLogValidator;
+import net.example.liquibase.changelog.ext.ChangeSetOffsetIndex;
+import net.example.liquibase.changelog.ext.CompileTimeParameters;
+import net.example.liquibase.changelog.ext.RollbackMaterializer;
+import net.example.liquibase.changelog.ext.ValidatedDatabaseChangeLog;
+import net.example.liquibase.parser.ext.TrustedXMLChangeLogParser;
+import net.example.liquibase.serializer.ext.util.HeapUsage;
+import net.example.liquibase.serializer.ext.util.OffsetTrackingOutputStream;
 import net.example.liquibase.serializer.ext.util.SimpleXmlWriter;
+import net.example.liquibase.serializer.ext.util.StructuredWriter;
+import net.example.liquibase.serializer.ext.util.WriteBehindOutput;
 
 /**
  * Implements full serialization of {@code DatabaseChangeLog} breaking
@@ -59,16 +88,430 @@ import net.example.liquibase.serializer.ext.util.SimpleXmlWriter;
  */
 public class EnhancedXMLChangeLogSerializer extends XMLChangeLogSerializer {
 
+    static final String XML_EXT = ".xml";
+
+    static final String ROLLBACK_IMPOSSIBLE = "rollbackImpossible";
+
     private static boolean debugBase = true;
 
+    /**
+     * Attribute defaults declared by {@code dbchangelog-3.8.xsd}, keyed by
+     * {@code element/attribute}.
+     */
+    private static final Map<String, String> SCHEMA_DEFAULTS;
+    static {
+        Map<String, String> defaults = new HashMap<>();
+        defaults.put("includeAll/errorIfMissingOrEmpty", "false");
+        defaults.put("databaseChangeLog/objectQuotingStrategy", "LEGACY");
+        defaults.put("changeSet/runInTransaction", "true");
+        defaults.put("loadData/encoding", "UTF-8");
+        defaults.put("loadData/separator", ",");
+        defaults.put("loadData/quotchar", "\"");
+        defaults.put("loadData/commentLineStartsWith", "#");
+        defaults.put("loadUpdateData/encoding", "UTF-8");
+        defaults.put("loadUpdateData/onlyUpdate", "false");
+        defaults.put("loadUpdateData/separator", ",");
+        defaults.put("loadUpdateData/quotchar", "\"");
+        defaults.put("sqlFile/encoding", "UTF-8");
+        SCHEMA_DEFAULTS = Collections.unmodifiableMap(defaults);
+    }
+
     private String currentLogicalPath;
     private DatabaseChangeLog currentChangeLog;
     //private String currentPhysicalBase;
-    private SimpleXmlWriter xmlOut = new SimpleXmlWriter();
+    private final StructuredWriter writer;
+    private final String fileExtension;
     private String currentElement;
+    private String squashBoundary;
+    private int cdataThreshold;
+    private WriteBehindOutput writeBehind;
+    private boolean trusted;
+    private List<ChangeSetOffsetIndex.Entry> offsetEntries;
+    private List<ChangeSetOffsetIndex.Range> offsetProperties;
+    private OffsetTrackingOutputStream offsetTracker;
+    private Writer trackedOut;
+    private String trackedFile;
+    private byte[] changeSetTag;
+    private byte[] propertyTag;
+    private RollbackMaterializer rollbackMaterializer;
+    private List<ChangeLogTransformer> transformers = Collections.emptyList();
+    private int transformed;
+    private XMLChangeLogSerializer snapshotSerializer;
+    private String validatedStamp;
+    private String validatedDbms;
+    private Set<String> retainedProperties;
+    private String precompiledSqlPath;
+    private Set<String> precompiledSql;
+    private RollbackMaterializer precompiledRollback;
+    private boolean releaseWritten;
+    private HeapUsage heapUsage;
+    private boolean compact;
+    private int coalesceChangeSets;
+    private long coalesceSize;
+    private long elided;
+    private final List<CompactedFile> compactedFiles = new ArrayList<>();
+    private final Map<Class<?>, Optional<LiquibaseSerializable>> defaultObjects = new HashMap<>();
 
     public EnhancedXMLChangeLogSerializer() {
+        this(new SimpleXmlWriter(), XML_EXT);
+    }
+
+    /**
+     * @param   writer  the output syntax writer, sharing the traversal
+     *          of the changelog structure;
+     * @param   fileExtension  the extension of the output files,
+     *          including the dot.
+     * @see     EnhancedJsonChangeLogSerializer
+     */
+    EnhancedXMLChangeLogSerializer(StructuredWriter writer, String fileExtension) {
         super((org.w3c.dom.Document) null);
+        this.writer = writer;
+        this.fileExtension = fileExtension;
+    }
+
+    @Override
+    public String[] getValidFileExtensions() {
+        return new String[] { fileExtension.substring(1) };
+    }
+
+    /**
+     * @return  the extension of the output files, including the dot.
+     */
+    public String getFileExtension() {
+        return fileExtension;
+    }
+
+    /**
+     * Maps a source changelog path to the path of the output file,
+     * relative to the output base directory.
+     *
+     * @param   path  source changelog path;
+     * @return  the relative path of the corresponding output file.
+     */
+    public String outputPath(String path) {
+        return withExtension(path, getFileExtension());
+    }
+
+    public boolean isCanonical() {
+        return writer.isCanonical();
+    }
+
+    /**
+     * Canonical output doesn't depend on the iteration order of
+     * serializable fields, or of registered {@code NamespaceDetails}:
+     * attributes are sorted by name, namespaces and schema locations by
+     * namespace URI, and generated prefixes are derived from the
+     * namespace URI.  The {@code base-} debug files, written by the
+     * standard serializer, are not produced in this mode.
+     *
+     * @param   canonical  whether to produce canonical output.
+     * @see     SimpleXmlWriter#setCanonical(boolean)
+     */
+    public void setCanonical(boolean canonical) {
+        writer.setCanonical(canonical);
+    }
+
+    public int getCdataThreshold() {
+        return cdataThreshold;
+    }
+
+    /**
+     * @param   cdataThreshold  minimum length of text content (f.e. of
+     *          {@code sql} or {@code createProcedure}) to be written as
+     *          a CDATA section; {@code 0} (the default) to never use CDATA.
+     */
+    public void setCdataThreshold(int cdataThreshold) {
+        this.cdataThreshold = cdataThreshold;
+    }
+
+    public WriteBehindOutput getWriteBehind() {
+        return writeBehind;
+    }
+
+    /**
+     * @param   writeBehind  output to hand files written by
+     *          {@link #serialize(DatabaseChangeLog, String, boolean)} to,
+     *          or {@code null} to write them synchronously.  The caller
+     *          is responsible for awaiting the completion.
+     */
+    public void setWriteBehind(WriteBehindOutput writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+    public boolean isTrusted() {
+        return trusted;
+    }
+
+    /**
+     * Marks the written XML changelogs as compiled, so
+     * {@link TrustedXMLChangeLogParser} loads them without resolving
+     * and validating against the declared schemas.  The marker is an
+     * {@code ext:} namespace attribute on the root element, ignored by
+     * the standard parser.
+     *
+     * @param   trusted  whether to mark the output as trusted.
+     */
+    public void setTrusted(boolean trusted) {
+        this.trusted = trusted;
+    }
+
+    public boolean isOffsetIndex() {
+        return offsetEntries != null;
+    }
+
+    /**
+     * When set, the byte offset and length of every {@code <changeSet>}
+     * and top-level {@code <property>} written by
+     * {@link #serialize(DatabaseChangeLog, String, boolean)} is recorded,
+     * for {@link #getOffsetIndex()}.  XML output only.
+     *
+     * @param   offsetIndex  whether to track change set offsets.
+     */
+    public void setOffsetIndex(boolean offsetIndex) {
+        this.offsetEntries = offsetIndex ? new ArrayList<>() : null;
+        this.offsetProperties = offsetIndex ? new ArrayList<>() : null;
+    }
+
+    /**
+     * @return  index of the change sets written so far, or {@code null}
+     *          if not {@linkplain #setOffsetIndex(boolean) enabled}.
+     */
+    public ChangeSetOffsetIndex getOffsetIndex() {
+        return (offsetEntries == null) ? null : ChangeSetOffsetIndex.of(offsetEntries, offsetProperties);
+    }
+
+    public RollbackMaterializer getRollbackMaterializer() {
+        return rollbackMaterializer;
+    }
+
+    /**
+     * When set, every change set is given explicit rollback as it is
+     * written, leaving the change sets themselves unmodified.  Change sets
+     * which couldn't be rolled back get marked with
+     * an {@code ext:rollbackImpossible} attribute listing the changes
+     * having no inverse.
+     *
+     * @param   materializer  the rollback materializer to apply, or
+     *          {@code null} to write the rollback as in the source.
+     */
+    public void setRollbackMaterializer(RollbackMaterializer materializer) {
+        this.rollbackMaterializer = materializer;
+    }
+
+    public List<ChangeLogTransformer> getTransformers() {
+        return Collections.unmodifiableList(transformers);
+    }
+
+    /**
+     * @param   transformers  transformers to apply, in order, to every
+     *          top-level changelog child as it is written.
+     * @see     ChangeLogTransformer#load(ClassLoader)
+     */
+    public void setTransformers(List<ChangeLogTransformer> transformers) {
+        this.transformers = new ArrayList<>(transformers);
+    }
+
+    /**
+     * @return  number of changelog children replaced, omitted or modified
+     *          in place by the {@linkplain #setTransformers(List)
+     *          transformers} so far.
+     */
+    public int getTransformed() {
+        return transformed;
+    }
+
+    public String getValidatedStamp() {
+        return validatedStamp;
+    }
+
+    /**
+     * Sets the stamp of the changelog content, as validated at compile
+     * time, to write on the root changelog.  XML output only.
+     *
+     * @param   stamp  the validated stamp, or {@code null} to not write
+     *          any;
+     * @param   dbms  the short names of the databases validated against.
+     * @see     ChangeLogValidator#stamp(DatabaseChangeLog, Collection)
+     * @see     ValidatedDatabaseChangeLog
+     */
+    public void setValidatedStamp(String stamp, Collection<String> dbms) {
+        this.validatedStamp = stamp;
+        this.validatedDbms = (stamp == null) ? null : String.join(",", dbms);
+    }
+
+    public Set<String> getRetainedProperties() {
+        return retainedProperties;
+    }
+
+    /**
+     * Limits the {@code <property>} declarations written, f.e. once the
+     * parameters have been expanded at compile time.
+     *
+     * @param   retainedProperties  the names of the properties to write
+     *          the declarations of, or {@code null} (the default) to write
+     *          all declarations;
+     * @see     CompileTimeParameters#getRuntimeReferenced()
+     */
+    public void setRetainedProperties(Set<String> retainedProperties) {
+        if (retainedProperties == null) {
+            this.retainedProperties = null;
+        } else {
+            this.retainedProperties = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            this.retainedProperties.addAll(retainedProperties);
+        }
+    }
+
+    public Set<String> getPrecompiledSql() {
+        return precompiledSql;
+    }
+
+    /**
+     * Writes an {@code ext:precompiledSql} change in place of every change
+     * having pre-generated statements, keeping the change set check sums,
+     * and the {@code dbms} of the changes.  Change sets having such changes
+     * get their automatic rollback written explicitly.
+     *
+     * @param   path  the base path of the pre-generated scripts, relative
+     *          to the output base directory;
+     * @param   keys  the {@linkplain PrecompiledSqlScript#key(ChangeSet, int)
+     *          keys} of the changes to substitute, or {@code null} (the
+     *          default) to write all changes as in the source.
+     * @see     PrecompiledSqlChange
+     */
+    public void setPrecompiledSql(String path, Set<String> keys) {
+        this.precompiledSqlPath = path;
+        this.precompiledSql = (keys == null) ? null : new HashSet<>(keys);
+        this.precompiledRollback = (keys != null && RollbackMaterializer.isSupported())
+                                   ? new RollbackMaterializer()
+                                   : null;
+    }
+
+    public boolean isReleaseWritten() {
+        return releaseWritten;
+    }
+
+    /**
+     * Bounds the memory {@link #serialize(DatabaseChangeLog, String, boolean)}
+     * adds to the given changelog: once a file is written, its content,
+     * and its change sets are removed from the changelog structure, and
+     * from the serialized changelog itself, so they may be collected.  The
+     * squashed baseline, if any, is written first.
+     * <p>
+     * The changelog given is parsed completely, still – its memory is
+     * not bounded by this.  The serialized changelog is left without
+     * change sets – anything else requiring them needs to be done before
+     * serializing.</p>
+     *
+     * @param   releaseWritten  whether to release written change sets.
+     */
+    public void setReleaseWritten(boolean releaseWritten) {
+        this.releaseWritten = releaseWritten;
+    }
+
+    public HeapUsage getHeapUsage() {
+        return heapUsage;
+    }
+
+    /**
+     * @param   heapUsage  heap usage to sample after writing every file,
+     *          or {@code null}.
+     */
+    public void setHeapUsage(HeapUsage heapUsage) {
+        this.heapUsage = heapUsage;
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * Compact output is not indented, and omits attributes equal to their
+     * defaults.  The default of an attribute is the value an object of
+     * the same class has when loaded without it – the value the parser
+     * would produce from the compact output.  Attributes having a
+     * different schema default (which the validating parser applies) are
+     * always written.
+     *
+     * @param   compact  whether to produce compact output.
+     * @see     #getCompactedFiles()
+     */
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+        writer.setIndent(!compact);
+    }
+
+    public int getCoalesceChangeSets() {
+        return coalesceChangeSets;
+    }
+
+    /**
+     * Packs consecutive included changelogs into shared files of up to the
+     * given number of change sets.  The change sets keep their
+     * {@code logicalFilePath}, and get the contexts of the changelogs
+     * packed written in.  Not applicable to single file output.
+     *
+     * @param   coalesceChangeSets  maximum number of change sets per
+     *          packed file, or {@code 0} for no limit.
+     * @see     #setCoalesceSize(long)
+     * @see     ChangeLogContent.Coalescing
+     */
+    public void setCoalesceChangeSets(int coalesceChangeSets) {
+        this.coalesceChangeSets = coalesceChangeSets;
+    }
+
+    public long getCoalesceSize() {
+        return coalesceSize;
+    }
+
+    /**
+     * Like {@link #setCoalesceChangeSets(int)}, limiting the packed files
+     * by size.  The size of a change set is estimated as its standard XML
+     * form.
+     *
+     * @param   coalesceSize  maximum (estimated) size of a packed file,
+     *          in characters, or {@code 0} for no limit.
+     */
+    public void setCoalesceSize(long coalesceSize) {
+        this.coalesceSize = coalesceSize;
+    }
+
+    private ChangeLogContent.Coalescing coalescing() {
+        if (coalesceChangeSets <= 0 && coalesceSize <= 0) {
+            return null;
+        }
+        XMLChangeLogSerializer estimator = new XMLChangeLogSerializer();
+        return new ChangeLogContent.Coalescing(coalesceChangeSets, coalesceSize,
+                changeSet -> estimator.serialize(changeSet, false).length());
+    }
+
+    /**
+     * @return  the sizes of the compact files written so far.
+     */
+    public List<CompactedFile> getCompactedFiles() {
+        return Collections.unmodifiableList(compactedFiles);
+    }
+
+    public String getSquashBoundary() {
+        return squashBoundary;
+    }
+
+    /**
+     * When set, {@link #serialize(DatabaseChangeLog, String, boolean)}
+     * additionally writes a {@code <name>-baseline.xml} changelog
+     * collapsing all change sets preceding the given boundary into their
+     * net effect, and inserting {@code DATABASECHANGELOG} rows marking
+     * them as ran.  A fresh
+     * database updated with the baseline, and then with the full
+     * changelog, executes only the change sets starting at the boundary.
+     * The inserted {@code MD5SUM} and {@code DEPLOYMENT_ID} values are
+     * computed at compile time, so the baseline has to be recompiled
+     * whenever a squashed change set is modified.
+     *
+     * @param   boundary  a tag name, a change set identity
+     *          ({@code path::id::author}), or a change set id.
+     */
+    public void setSquashBoundary(String boundary) {
+        this.squashBoundary = boundary;
     }
 
     @Override
@@ -83,7 +526,7 @@ public class EnhancedXMLChangeLogSerializer extends XMLChangeLogSerializer {
         try {
             currentChangeLog = null;
             currentLogicalPath = null;
-            xmlOut.setUpWrite(out);
+            writer.setUpWrite(out);
             writeChangeLog(null, children);
         } catch (SAXException e) {
             throw ioExceptionFor(e);
@@ -96,10 +539,10 @@ public class EnhancedXMLChangeLogSerializer extends XMLChangeLogSerializer {
         try {
             currentChangeLog = null;
             currentLogicalPath = null;
-            xmlOut.setUpWrite(buf, pretty, false);
+            writer.setUpWrite(buf, pretty, false);
             declareNamespacePrefixes();
             writeObject(object);
-            xmlOut.writeEndDocument();
+            writer.writeEndDocument();
         } catch (SAXException e) {
             throw new UnexpectedLiquibaseException(e);
         }
@@ -110,11 +553,11 @@ public class EnhancedXMLChangeLogSerializer extends XMLChangeLogSerializer {
     public String serialize(DatabaseChangeLog databaseChangeLog) {
         StringWriter buf = new StringWriter();
         try {
-            ChangeLogContent structure = new ChangeLogContent(databaseChangeLog, true);
+            ChangeLogContent structure = new ChangeLogContent(databaseChangeLog, true, getFileExtension());
             for (DatabaseChangeLog log : structure.getChangeLogs()) {
                 currentChangeLog = log;
                 currentLogicalPath = databaseChangeLog.getLogicalFilePath();
-                xmlOut.setUpWrite(buf);
+                writer.setUpWrite(buf);
                 writeChangeLog(log, structure.getContent(log));
             }
         } catch (IOException | SAXException e) {
@@ -142,27 +585,204 @@ public class EnhancedXMLChangeLogSerializer extends XMLChangeLogSerializer {
             throws IOException
     {
         Path targetPath = Paths.get(targetDir).toAbsolutePath();
-        ChangeLogContent structure = new ChangeLogContent(changeLog, singleFile);
+        ChangeLogContent structure = new ChangeLogContent(changeLog, singleFile,
+                                                          getFileExtension(), coalescing());
+        if (releaseWritten && squashBoundary != null) {
+            // Requires the complete changelog.
+            serializeBaseline(changeLog, targetPath);
+        }
         for (DatabaseChangeLog log : structure.getChangeLogs()) {
-            currentChangeLog = log;
-            currentLogicalPath = xmlExt(log.getPhysicalFilePath());
-            Path changeLogFile = targetPath.resolve(currentLogicalPath);
-            Files.createDirectories(changeLogFile.getParent());
-            try (OutputStream out = Files.newOutputStream(changeLogFile)) {
-                currentLogicalPath = currentLogicalPath.replace('\\', '/');
-                xmlOut.setUpWrite(out);
-                writeChangeLog(log, structure.getContent(log));
-            } catch (SAXException e) {
-                throw ioExceptionFor(e);
+            if (releaseWritten) {
+                List<ChangeLogChild> content = structure.release(log);
+                writeChangeLogFile(targetPath, log, content);
+                releaseChangeSets(content);
+            } else {
+                writeChangeLogFile(targetPath, log, structure.getContent(log));
+            }
+            if (heapUsage != null) {
+                heapUsage.sample();
             }
+        }
+        if (!releaseWritten && squashBoundary != null) {
+            serializeBaseline(changeLog, targetPath);
+        }
+    }
 
-            if (debugBase) {
-                Path standardLogFile = changeLogFile
-                        .resolveSibling("base-" + changeLogFile.getFileName());
-                try (OutputStream out = Files.newOutputStream(standardLogFile)) {
-                    super.write(structure.getContent(log), out);
-                }
+    /*
+     * Removes the written change sets from the changelogs holding them:
+     * the changelog of their file, and the changelogs including it.
+     */
+    private static void releaseChangeSets(List<ChangeLogChild> content) {
+        Set<ChangeSet> written = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (ChangeLogChild child : content) {
+            if (child instanceof ChangeSet) {
+                written.add((ChangeSet) child);
+            }
+        }
+        Set<DatabaseChangeLog> holders = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (ChangeSet changeSet : written) {
+            DatabaseChangeLog log = changeSet.getChangeLog();
+            while (log != null && holders.add(log)) {
+                log = log.getParentChangeLog();
+            }
+        }
+        for (DatabaseChangeLog log : holders) {
+            log.getChangeSets().removeIf(written::contains);
+        }
+    }
+
+    /**
+     * Writes the file of a single changelog.
+     *
+     * @param   targetPath  the output base directory;
+     * @param   log  the changelog to write the file of;
+     * @param   content  the file content;
+     * @throws  IOException  if I/O error occurs.
+     * @see     ChangeLogContent
+     */
+    void writeChangeLogFile(Path targetPath,
+                            DatabaseChangeLog log,
+                            List<ChangeLogChild> content)
+            throws IOException
+    {
+        currentChangeLog = log;
+        currentLogicalPath = outputPath(log.getPhysicalFilePath());
+        Path changeLogFile = targetPath.resolve(currentLogicalPath);
+        elided = 0;
+        long size;
+        try (OutputStream out = newOutputStream(changeLogFile)) {
+            currentLogicalPath = currentLogicalPath.replace('\\', '/');
+            if (isOffsetIndex() && XML_EXT.equals(getFileExtension())) {
+                size = writeTracked(log, content, out, currentLogicalPath);
+            } else {
+                OffsetTrackingOutputStream counter = new OffsetTrackingOutputStream(out);
+                writer.setUpWrite(counter);
+                writeChangeLog(log, content);
+                size = counter.getPosition();
             }
+        } catch (SAXException e) {
+            throw ioExceptionFor(e);
+        }
+        if (compact) {
+            long unindented = (writer instanceof SimpleXmlWriter)
+                              ? ((SimpleXmlWriter) writer).getUnindented()
+                              : 0;
+            compactedFiles.add(new CompactedFile(currentLogicalPath,
+                                                 size, elided + unindented));
+        }
+
+        if (debugBase && !isCanonical() && XML_EXT.equals(getFileExtension())) {
+            Path standardLogFile = changeLogFile
+                    .resolveSibling("base-" + changeLogFile.getFileName());
+            try (OutputStream out = newOutputStream(standardLogFile)) {
+                super.write(content, out);
+            }
+        }
+    }
+
+    /*
+     * Writes through an encoder flushed after every change set and
+     * property, so the byte position after it is exact.
+     */
+    private long writeTracked(DatabaseChangeLog log,
+                              List<ChangeLogChild> content,
+                              OutputStream out,
+                              String file)
+            throws IOException, SAXException
+    {
+        String encoding = SimpleXmlWriter.defaultCharset();
+        OffsetTrackingOutputStream tracker =
+                new OffsetTrackingOutputStream(new BufferedOutputStream(out));
+        offsetTracker = tracker;
+        try (Writer encoded = new OutputStreamWriter(tracker, encoding)) {
+            trackedOut = encoded;
+            trackedFile = file;
+            changeSetTag = "<changeSet".getBytes(encoding);
+            propertyTag = "<property".getBytes(encoding);
+            writer.setUpWrite(encoded);
+            writeChangeLog(log, content);
+        } finally {
+            offsetTracker = null;
+            trackedOut = null;
+        }
+        return tracker.getPosition();
+    }
+
+    private void writeTrackedChild(ChangeLogChild child) throws IOException, SAXException {
+        boolean changeSet = (child instanceof ChangeSet);
+        offsetTracker.find(changeSet ? changeSetTag : propertyTag);
+        writeObject(child);
+        trackedOut.flush();
+        long start = offsetTracker.getFound();
+        if (start < 0) {
+            return;
+        }
+        int length = Math.toIntExact(offsetTracker.getPosition() - start);
+        if (changeSet) {
+            ChangeSet tracked = (ChangeSet) child;
+            offsetEntries.add(new ChangeSetOffsetIndex.Entry(tracked.getFilePath(),
+                    tracked.getId(), tracked.getAuthor(), trackedFile, start, length));
+        } else {
+            offsetProperties.add(new ChangeSetOffsetIndex.Range(trackedFile, start, length));
+        }
+    }
+
+    /**
+     * Writes the content of a single changelog in place of its source
+     * file, that is, keeping the source {@code physicalFilePath} as the
+     * default {@code logicalFilePath}.
+     *
+     * @param   log  the changelog to write the content of;
+     * @param   content  the file content;
+     * @param   out  the output stream to write to;
+     * @throws  IOException  if I/O error occurs.
+     * @see     ChangeLogContent#ofSourceFile(DatabaseChangeLog)
+     */
+    void writeSourceFile(DatabaseChangeLog log,
+                         List<ChangeLogChild> content,
+                         OutputStream out)
+            throws IOException
+    {
+        currentChangeLog = log;
+        currentLogicalPath = log.getPhysicalFilePath().replace('\\', '/');
+        try {
+            writer.setUpWrite(out);
+            writeChangeLog(log, content);
+        } catch (SAXException e) {
+            throw ioExceptionFor(e);
+        }
+    }
+
+    private OutputStream newOutputStream(Path file) throws IOException {
+        if (writeBehind != null) {
+            return writeBehind.newOutputStream(file);
+        }
+        Files.createDirectories(file.getParent());
+        return Files.newOutputStream(file);
+    }
+
+    void serializeBaseline(DatabaseChangeLog changeLog, Path targetPath)
+            throws IOException
+    {
+        BaselineSquasher squasher = new BaselineSquasher(changeLog, squashBoundary);
+        String baselinePath = withExtension(changeLog.getPhysicalFilePath(),
+                "-baseline" + getFileExtension()).replace('\\', '/');
+        Path baselineFile = targetPath.resolve(baselinePath);
+        DatabaseChangeLog baseline = squasher.toChangeLog(baselinePath);
+        currentChangeLog = baseline;
+        currentLogicalPath = baselinePath;
+        RollbackMaterializer materializer = rollbackMaterializer;
+        rollbackMaterializer = null; // The baseline is not meant to be rolled back
+        String stamp = validatedStamp;
+        validatedStamp = null;
+        try (OutputStream out = newOutputStream(baselineFile)) {
+            writer.setUpWrite(out);
+            writeChangeLog(baseline, baseline.getChangeSets());
+        } catch (SAXException e) {
+            throw ioExceptionFor(e);
+        } finally {
+            rollbackMaterializer = materializer;
+            validatedStamp = stamp;
         }
     }
 
@@ -176,58 +796,144 @@ public class EnhancedXMLChangeLogSerializer extends XMLChangeLogSerializer {
                                 List<? extends ChangeLogChild> content)
             throws IOException, SAXException
     {
-        xmlOut.writeStartDocument();
-        xmlOut.writeStartElement("databaseChangeLog");
+        writer.writeStartDocument();
+        writer.writeStartElement("databaseChangeLog");
         writeChangeLogAttributes(changeLog);
-        for (ChangeLogChild child : content) {
-            writeObject(child);
+        for (ChangeLogChild source : content) {
+            if (source instanceof ChangeLogProperty && retainedProperties != null
+                    && !retainedProperties.contains(((ChangeLogProperty) source).getName())) {
+                continue;
+            }
+            ChangeLogChild child = transform(source, changeLog);
+            if (child == null) {
+                continue;
+            }
+            if (offsetTracker != null && (child instanceof ChangeSet
+                                          || child instanceof ChangeLogProperty)) {
+                writeTrackedChild(child);
+            } else {
+                writeObject(child);
+            }
         }
-        xmlOut.writeEndElement();
-        xmlOut.writeEndDocument();
+        writer.writeEndElement();
+        writer.writeEndDocument();
+    }
+
+    private ChangeLogChild transform(ChangeLogChild source, DatabaseChangeLog changeLog) {
+        if (transformers.isEmpty()) {
+            return source;
+        }
+        if (snapshotSerializer == null) {
+            snapshotSerializer = new XMLChangeLogSerializer();
+        }
+        // In-place modifications are told by the standard serialization.
+        String snapshot = snapshotSerializer.serialize(source, false);
+        ChangeLogChild child = source;
+        for (int i = 0, len = transformers.size(); i < len && child != null; i++) {
+            child = transformers.get(i).transform(child, changeLog);
+        }
+        if (child != source || !snapshotSerializer.serialize(child, false).equals(snapshot)) {
+            transformed++;
+        }
+        return child;
     }
 
     private String declareNamespacePrefixes() {
-        xmlOut.setPrefix(DEFAULT_NS_PREFIX, STANDARD_CHANGELOG_NAMESPACE);
+        writer.setPrefix(DEFAULT_NS_PREFIX, STANDARD_CHANGELOG_NAMESPACE);
 
-        StringBuilder schemaLocations = new StringBuilder(500);
+        Map<String, NamespaceDetails> namespaces = isCanonical() ? new TreeMap<>()
+                                                                 : new LinkedHashMap<>();
         for (NamespaceDetails details : NamespaceDetailsFactory.getInstance().getNamespaceDetails()) {
             for (String namespace : details.getNamespaces()) {
                 if (details.getPriority() > 0 && details.supports(this, namespace)) {
-                    String shortName = details.getShortName(namespace);
-                    String schemaUrl = details.getSchemaUrl(namespace);
-                    if (shortName != null && !shortName.isEmpty()) {
-                        xmlOut.setPrefix(shortName, namespace);
-                    }
-                    if (schemaUrl != null) {
-                        schemaLocations.append(namespace)
-                                .append(' ').append(schemaUrl).append(' ');
-                    }
+                    namespaces.putIfAbsent(namespace, details);
                 }
             }
         }
+
+        StringBuilder schemaLocations = new StringBuilder(500);
+        for (Map.Entry<String, NamespaceDetails> entry : namespaces.entrySet()) {
+            String namespace = entry.getKey();
+            String shortName = entry.getValue().getShortName(namespace);
+            String schemaUrl = entry.getValue().getSchemaUrl(namespace);
+            if (shortName != null && !shortName.isEmpty()) {
+                writer.setPrefix(shortName, namespace);
+            }
+            if (schemaUrl != null) {
+                schemaLocations.append(namespace)
+                        .append(' ').append(schemaUrl).append(' ');
+            }
+        }
         return schemaLocations.toString().trim();
     }
 
     private void writeChangeLogAttributes(DatabaseChangeLog changeLog) {
         if (changeLog != null) {
             if (currentLogicalPath != null && !currentLogicalPath.equals(changeLog.getLogicalFilePath())) {
-                xmlOut.writeAttribute("logicalFilePath", changeLog.getLogicalFilePath());
+                writer.writeAttribute("logicalFilePath", changeLog.getLogicalFilePath());
                 currentLogicalPath = changeLog.getLogicalFilePath();
             }
             ContextExpression contexts = changeLog.getContexts();
             if (contexts != null && !contexts.isEmpty()) {
-                xmlOut.writeAttribute("context", contexts.toString());
+                writer.writeAttribute("context", contexts.toString());
             }
             if (changeLog.getObjectQuotingStrategy() != null
                     && changeLog.getObjectQuotingStrategy() != ObjectQuotingStrategy.LEGACY) {
-                xmlOut.writeAttribute("objectQuotingStrategy",
+                writer.writeAttribute("objectQuotingStrategy",
                         changeLog.getObjectQuotingStrategy().toString());
             }
         }
+        if (!writer.isNamespaceAware()) {
+            return;
+        }
         String schemaLocations = declareNamespacePrefixes();
         if (schemaLocations.length() > 0) {
-            xmlOut.setPrefix("xsi", W3C_XML_SCHEMA_INSTANCE_NS_URI);
-            xmlOut.writeAttribute("xsi:schemaLocation", schemaLocations);
+            writer.setPrefix("xsi", W3C_XML_SCHEMA_INSTANCE_NS_URI);
+            writer.writeAttribute("xsi:schemaLocation", schemaLocations);
+        }
+        if (trusted) {
+            writer.writeAttribute(GENERIC_CHANGELOG_EXTENSION_NAMESPACE,
+                                  TrustedXMLChangeLogParser.MARKER_ATTRIBUTE,
+                                  TrustedXMLChangeLogParser.MARKER_VALUE);
+        }
+        if (validatedStamp != null && changeLog != null
+                && changeLog.getParentChangeLog() == null) {
+            writer.writeAttribute(GENERIC_CHANGELOG_EXTENSION_NAMESPACE,
+                                  ValidatedDatabaseChangeLog.STAMP_ATTRIBUTE, validatedStamp);
+            writer.writeAttribute(GENERIC_CHANGELOG_EXTENSION_NAMESPACE,
+                                  ValidatedDatabaseChangeLog.DBMS_ATTRIBUTE, validatedDbms);
+        }
+    }
+
+    private boolean isDefaultValue(LiquibaseSerializable object, String field, Object value) {
+        if (field.equals("objectQuotingStrategy")) {
+            return false; // Change sets default to the one of their changelog
+        }
+        LiquibaseSerializable defaults = defaultObjects
+                .computeIfAbsent(object.getClass(), k -> Optional.ofNullable(newDefaults(object)))
+                .orElse(null);
+        if (defaults == null || !value.equals(defaults.getSerializableFieldValue(field))) {
+            return false;
+        }
+        String schemaDefault = SCHEMA_DEFAULTS.get(object.getSerializedObjectName() + "/" + field);
+        return schemaDefault == null || schemaDefault.equals(value.toString());
+    }
+
+    /*
+     * An object as loaded from an element without attributes, or null if
+     * it couldn't be constructed, or loaded that way.
+     */
+    private static LiquibaseSerializable newDefaults(LiquibaseSerializable object) {
+        try {
+            LiquibaseSerializable defaults = (object instanceof ChangeSet)
+                    ? new ChangeSet(new DatabaseChangeLog())
+                    : object.getClass().getConstructor().newInstance();
+            defaults.load(new ParsedNode(null, object.getSerializedObjectName()), null);
+            return defaults;
+        } catch (ReflectiveOperationException | ParsedNodeException | RuntimeException e) {
+            LogService.getLog(EnhancedXMLChangeLogSerializer.class)
+                    .debug("No defaults for " + object.getSerializedObjectName() + ": " + e);
+            return null;
         }
     }
 
@@ -254,10 +960,18 @@ public class EnhancedXMLChangeLogSerializer extends XMLChangeLogSerializer {
                     || writeChangeSetAttribute(object, field)) {
                 continue;
             }
+            if (compact && isDefaultValue(object, field, value)) {
+                elided += field.length() + String.valueOf(value).length() + 4;
+                continue;
+            }
             writeAttribute(object.getSerializableFieldNamespace(field),
                            field, value, object.getSerializedObjectNamespace());
         }
         if (object instanceof ChangeSet) {
+            if (object.getSerializableFieldValue("context") == null) {
+                // Contexts of a foreign change set are folded in, still.
+                writeChangeSetAttribute(object, "context");
+            }
             Object changeSetLogicalPath = null;
             if (object.getSerializableFields().contains("logicalFilePath")) {
                 changeSetLogicalPath = object.getSerializableFieldValue("logicalFilePath");
@@ -266,7 +980,7 @@ public class EnhancedXMLChangeLogSerializer extends XMLChangeLogSerializer {
             if (changeSetLogicalPath == null
                     && currentLogicalPath != null
                     && !currentLogicalPath.equals(changeSet.getFilePath())) {
-                xmlOut.writeAttribute("logicalFilePath", changeSet.getFilePath());
+                writer.writeAttribute("logicalFilePath", changeSet.getFilePath());
             }
         }
         return remaining;
@@ -283,8 +997,14 @@ public class EnhancedXMLChangeLogSerializer extends XMLChangeLogSerializer {
                 && changetSet.getChangeLog() != null) {
             List<ContextExpression> contexts = new ArrayList<>();
             addContexts(changetSet.getContexts(), contexts);
+            // Ancestors of the current file are inherited at runtime.
+            Set<DatabaseChangeLog> inherited = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (DatabaseChangeLog log = currentChangeLog.getParentChangeLog();
+                    log != null; log = log.getParentChangeLog()) {
+                inherited.add(log);
+            }
             DatabaseChangeLog currentLog = changetSet.getChangeLog();
-            while (currentLog != null) {
+            while (currentLog != null && !inherited.contains(currentLog)) {
                 addContexts(currentLog.getContexts(), contexts);
                 addContexts(currentLog.getIncludeContexts(), contexts);
                 currentLog = currentLog.getParentChangeLog();
@@ -297,6 +1017,15 @@ public class EnhancedXMLChangeLogSerializer extends XMLChangeLogSerializer {
                     toAndString(contexts), object.getSerializedObjectNamespace());
             return true;
         }
+        if (field.equals("objectQuotingStrategy")
+                && changetSet.getObjectQuotingStrategy() == ObjectQuotingStrategy.LEGACY
+                && (currentChangeLog == null
+                    || currentChangeLog.getObjectQuotingStrategy() == null
+                    || currentChangeLog.getObjectQuotingStrategy() == ObjectQuotingStrategy.LEGACY)) {
+            // The XML parser default - same as formatted SQL change sets
+            // having none, once parsed back.
+            return true;
+        }
         // REVISIT: Introduce option to erase "context" and/or "labels",
         // while filtering out change-sets which do not match given
         // context and/or labels.
@@ -345,18 +1074,79 @@ public class EnhancedXMLChangeLogSerializer extends XMLChangeLogSerializer {
         return false;
     }
 
-    private void writeObject(LiquibaseSerializable object) throws SAXException {
+    /*
+     * The precompiled stand-in for a change of a change set, or the change
+     * itself.
+     */
+    private LiquibaseSerializable precompiled(Change change) {
+        ChangeSet changeSet = change.getChangeSet();
+        if (changeSet == null) {
+            return change;
+        }
+        List<Change> changes = changeSet.getChanges();
+        for (int i = 0, len = changes.size(); i < len; i++) {
+            if (changes.get(i) == change) {
+                if (!precompiledSql.contains(PrecompiledSqlScript.key(changeSet, i))) {
+                    break;
+                }
+                PrecompiledSqlChange precompiled = new PrecompiledSqlChange();
+                precompiled.setPath(precompiledSqlPath);
+                precompiled.setChangeIndex(i);
+                precompiled.setCheckSum(change.generateCheckSum().toString());
+                if (change instanceof DbmsTargetedChange) {
+                    precompiled.setDbms(((DbmsTargetedChange) change).getDbms());
+                }
+                return precompiled;
+            }
+        }
+        return change; // f.e. a rollback change
+    }
+
+    private boolean hasPrecompiled(ChangeSet changeSet) {
+        for (int i = 0, len = changeSet.getChanges().size(); i < len; i++) {
+            if (precompiledSql.contains(PrecompiledSqlScript.key(changeSet, i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeObject(LiquibaseSerializable source) throws SAXException {
+        LiquibaseSerializable object = (precompiledSql != null && source instanceof Change)
+                                       ? precompiled((Change) source)
+                                       : source;
         String namespace = object.getSerializedObjectNamespace();
+        String rollbackImpossible = null;
+        List<Change> rollback = null;
+        if (rollbackMaterializer != null && object instanceof ChangeSet) {
+            rollback = rollbackMaterializer.materialize((ChangeSet) object);
+            rollbackImpossible = rollbackMaterializer.getImpossibleReason((ChangeSet) object);
+        } else if (precompiledRollback != null && object instanceof ChangeSet
+                && hasPrecompiled((ChangeSet) object)) {
+            // The precompiled stand-ins have no inverse.
+            rollback = precompiledRollback.materialize((ChangeSet) object);
+        }
         try {
-            xmlOut.writeStartElement(namespace, object.getSerializedObjectName());
+            writer.writeStartElement(namespace, object.getSerializedObjectName());
             currentElement = object.getSerializedObjectName();
-            for (String field : writeSerializableAttributes(object)) {
+            Set<String> nestedFields = writeSerializableAttributes(object);
+            if (rollbackImpossible != null) {
+                writer.writeAttribute(GENERIC_CHANGELOG_EXTENSION_NAMESPACE,
+                                      ROLLBACK_IMPOSSIBLE, rollbackImpossible);
+            }
+            for (String field : nestedFields) {
+                if (rollback != null && field.equals("rollback")) {
+                    RollbackContainer materialized = new RollbackContainer();
+                    materialized.setChanges(rollback);
+                    writeObject(materialized);
+                    continue;
+                }
                 writeField(object.getSerializableFieldNamespace(field),
                                 field, object.getSerializableFieldValue(field),
                                 object.getSerializableFieldType(field),
                                 namespace);
             }
-            xmlOut.writeEndElement();
+            writer.writeEndElement();
         } catch (UnexpectedLiquibaseException e) {
             if (object instanceof ChangeSet && e.getMessage().startsWith(INVALID_STRING_ENCODING_MESSAGE)) {
                 throw new UnexpectedLiquibaseException(e.getMessage() + " in changeSet " + object
@@ -386,24 +1176,24 @@ public class EnhancedXMLChangeLogSerializer extends XMLChangeLogSerializer {
         } else if (value instanceof Map) {
             for (Map.Entry<?,?> entry : ((Map<?,?>) value).entrySet()) {
                 // XXX: Some funny namespace handling
-                xmlOut.writeStartElement(DEFAULT_NS_PREFIX, STANDARD_CHANGELOG_NAMESPACE, objectName);
+                writer.writeStartElement(DEFAULT_NS_PREFIX, STANDARD_CHANGELOG_NAMESPACE, objectName);
                 if (serializationType == SerializationType.NESTED_OBJECT) {
                     writeField(objectNamespace, (String) entry.getKey(), entry.getValue(), serializationType, objectNamespace);
                 } else {
                     writeField(objectNamespace, "name", entry.getKey(), SerializationType.NAMED_FIELD, objectNamespace);
                     writeField(objectNamespace, "value", entry.getValue(), serializationType, objectNamespace);
                 }
-                xmlOut.writeEndElement();
+                writer.writeEndElement();
             }
         } else if (value instanceof Object[]) {
             if (serializationType.equals(SerializationType.NESTED_OBJECT)) {
                 // XXX: More funny namespace handling
                 String namespace = STANDARD_CHANGELOG_NAMESPACE;
-                xmlOut.writeStartElement(DEFAULT_NS_PREFIX, namespace, objectName);
+                writer.writeStartElement(DEFAULT_NS_PREFIX, namespace, objectName);
                 for (Object child : (Object[]) value) {
                     writeField(namespace, objectName, child, serializationType, parentNamespace);
                 }
-                xmlOut.writeEndElement();
+                writer.writeEndElement();
             } else {
                 for (Object child : (Object[]) value) {
                     writeField(objectNamespace, objectName, child, serializationType, parentNamespace);
@@ -411,12 +1201,14 @@ public class EnhancedXMLChangeLogSerializer extends XMLChangeLogSerializer {
             }
         } else if (serializationType.equals(SerializationType.NESTED_OBJECT)) {
             // XXX: A funny namespace handling
-            xmlOut.writeStartElement(DEFAULT_NS_PREFIX, STANDARD_CHANGELOG_NAMESPACE, objectName);
-            xmlOut.writeCharacters(value.toString()); // XXX: No checkString?
-            xmlOut.writeEndElement();
+            writer.writeStartElement(DEFAULT_NS_PREFIX, STANDARD_CHANGELOG_NAMESPACE, objectName);
+            writer.writeCharacters(value.toString()); // XXX: No checkString?
+            writer.writeEndElement();
         } else if (serializationType.equals(SerializationType.DIRECT_VALUE)) {
             try {
-                xmlOut.writeCharacters(checkString(value.toString()));
+                String text = checkString(value.toString());
+                writer.writeCharacters(text, cdataThreshold > 0
+                                             && text.length() >= cdataThreshold);
             } catch (UnexpectedLiquibaseException e) {
                 throw new UnexpectedLiquibaseException(e.getMessage() + " in text of " + objectName
                         + ". To resolve, remove the invalid character on the database and try again");
@@ -434,7 +1226,7 @@ public class EnhancedXMLChangeLogSerializer extends XMLChangeLogSerializer {
             xmlNs = XMLConstants.NULL_NS_URI;
         }
         try {
-            xmlOut.writeAttribute(xmlNs, fieldName, checkString(value.toString()));
+            writer.writeAttribute(xmlNs, fieldName, checkString(value.toString()));
         } catch (UnexpectedLiquibaseException e) {
             if (e.getMessage().startsWith(INVALID_STRING_ENCODING_MESSAGE)) {
                 throw new UnexpectedLiquibaseException(e.getMessage() + " on " + currentElement + "."
@@ -455,7 +1247,18 @@ public class EnhancedXMLChangeLogSerializer extends XMLChangeLogSerializer {
         return base.replaceFirst("/[^/]*$", "") + '/' + filePath;
     }
 
-    static String xmlExt(String path) {
+    /**
+     * Maps a source changelog path to the path of the compiled XML file,
+     * relative to the output base directory.
+     *
+     * @param   path  source changelog path;
+     * @return  the relative path of the corresponding XML output file.
+     */
+    public static String xmlExt(String path) {
+        return withExtension(path, XML_EXT);
+    }
+
+    static String withExtension(String path, String extension) {
         Path result = Paths.get(path);
         // Ensure path relative to the target base.
         if (result.isAbsolute()) {
@@ -463,9 +1266,49 @@ public class EnhancedXMLChangeLogSerializer extends XMLChangeLogSerializer {
         }
         String fileName = result.getFileName().toString();
         int dotIndex = fileName.lastIndexOf('.');
-        fileName = (dotIndex > 0) ? fileName.substring(0, dotIndex) + ".xml"
-                                  : fileName + ".xml";
+        fileName = (dotIndex > 0) ? fileName.substring(0, dotIndex) + extension
+                                  : fileName + extension;
         return result.resolveSibling(fileName).toString();
     }
 
+
+    /**
+     * The size of a compact output file.
+     */
+    public static final class CompactedFile {
+
+        private final String path;
+        private final long size;
+        private final long saved;
+
+        CompactedFile(String path, long size, long saved) {
+            this.path = path;
+            this.size = size;
+            this.saved = saved;
+        }
+
+        /**
+         * @return  the file path, relative to the output directory.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return  the file size in bytes.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return  approx. number of bytes saved by omitting default
+         *          attributes and indentation.
+         */
+        public long getSaved() {
+            return saved;
+        }
+
+    }
+
 }
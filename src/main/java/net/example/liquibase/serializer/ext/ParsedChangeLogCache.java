@@ -0,0 +1,441 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.serializer.ext;
+
+import static net.example.liquibase.serializer.ext.util.ContentDigest.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import liquibase.changelog.ChangeLogParameters;
+import liquibase.changelog.ChangeLogParameters.ChangeLogParameter;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.exception.ChangeLogParseException;
+import liquibase.logging.LogService;
+import liquibase.parser.ChangeLogParser;
+import liquibase.parser.ChangeLogParserFactory;
+import liquibase.parser.core.xml.XMLChangeLogSAXParser;
+import liquibase.resource.ResourceAccessor;
+import liquibase.util.LiquibaseUtil;
+
+/**
+ * Persists the parsed model of every non-XML source changelog (Groovy
+ * DSL, YAML, formatted SQL), so unchanged files are rehydrated from XML
+ * instead of being evaluated again.
+ * <pre>
+ * &lt;cacheDir>/
+ *     &lt;key>.xml
+ *     &lt;key>.deps</pre>
+ * <p>
+ * The <i>key</i> digests the source parser, Liquibase and compiler
+ * versions, the source path and content, and the changelog parameters
+ * the source may depend on: the ones mentioned in its text, and the ones
+ * declared by previously parsed changelogs.  The {@code .xml} entry is
+ * the {@linkplain ChangeLogContent#ofSourceFile source file content}
+ * serialized by {@link EnhancedXMLChangeLogSerializer}, and parses back
+ * to the same model.  The {@code .deps} file lists the other resources
+ * read (or listed) while parsing the file – f.e. property files – with
+ * the digest of their content, which are checked on lookup.  Nested
+ * changelogs are cached on their own.</p>
+ * <p>
+ * A caching {@code ChangeLogParser} is registered with priority just
+ * below {@link PipelinedChangeLogWriter}'s, but is active only on the
+ * thread which has {@link #open opened} the cache.  Changelogs declaring
+ * changelog-level preconditions are not cached, as the parser merges
+ * those into the including changelogs'.</p>
+ */
+public class ParsedChangeLogCache implements Closeable {
+
+    private static final String DEPS_HEADER = "# parsed changelog dependencies";
+    private static final String ENTRY_EXT = ".xml";
+    private static final String DEPS_EXT = ".deps";
+
+    private static final Pattern WORD = Pattern.compile("[\\w.\\-]+");
+
+    private static final ThreadLocal<ParsedChangeLogCache> active = new ThreadLocal<>();
+
+    private final Path cacheDir;
+    private final EnhancedXMLChangeLogSerializer serializer;
+    private final Deque<Frame> frames = new ArrayDeque<>();
+    private int hits;
+    private int misses;
+
+    private ParsedChangeLogCache(Path cacheDir) {
+        this.cacheDir = cacheDir;
+        this.serializer = new EnhancedXMLChangeLogSerializer();
+        serializer.setCanonical(true);
+    }
+
+    /**
+     * Activates a parsed-model cache for changelogs parsed on the current
+     * thread, until {@link #close() closed}.
+     *
+     * @param   cacheDir  the cache directory;
+     * @return  the active cache.
+     * @throws  IOException  if I/O error occurs creating the directory.
+     */
+    public static ParsedChangeLogCache open(Path cacheDir) throws IOException {
+        if (active.get() != null) {
+            throw new IllegalStateException("A parsed changelog cache is already"
+                                            + " open on the current thread");
+        }
+        Files.createDirectories(cacheDir);
+        CachingParser.register();
+        ParsedChangeLogCache cache = new ParsedChangeLogCache(cacheDir);
+        active.set(cache);
+        return cache;
+    }
+
+    /**
+     * @return  number of changelogs rehydrated from the cache.
+     */
+    public int getHits() {
+        return hits;
+    }
+
+    /**
+     * @return  number of changelogs parsed from source.
+     */
+    public int getMisses() {
+        return misses;
+    }
+
+    /**
+     * Deactivates the cache on the current thread.
+     */
+    @Override
+    public void close() {
+        if (active.get() == this) {
+            active.remove();
+        }
+        LogService.getLog(getClass()).info("Parsed changelog cache: "
+                + hits + " hit(s), " + misses + " miss(es)");
+    }
+
+    DatabaseChangeLog parse(ChangeLogParser parser,
+                            String path,
+                            ChangeLogParameters params,
+                            ResourceAccessor resourceAccessor)
+            throws ChangeLogParseException
+    {
+        byte[] source = (parser instanceof XMLChangeLogSAXParser)
+                        ? null
+                        : readSource(path, resourceAccessor);
+        if (source == null) {
+            // Nothing to gain, or let the parser report the failure.
+            return parseIsolated(parser, path, params, resourceAccessor);
+        }
+
+        String key = key(parser, path, source, params);
+        Path entry = cacheDir.resolve(key + ENTRY_EXT);
+        Path deps = cacheDir.resolve(key + DEPS_EXT);
+        byte[] content = lookup(entry, deps, resourceAccessor);
+        if (content != null) {
+            hits++;
+            LogService.getLog(getClass()).debug("Rehydrating " + path + " from " + entry);
+            return parseIsolated(new XMLChangeLogSAXParser(), path, params,
+                                 new TrackingAccessor(resourceAccessor, path, content));
+        }
+
+        misses++;
+        Frame frame = new Frame(path);
+        frames.push(frame);
+        DatabaseChangeLog changeLog;
+        try {
+            changeLog = parser.parse(path, params,
+                                     new TrackingAccessor(resourceAccessor, null, null));
+        } finally {
+            frames.pop();
+        }
+        if (!ChangeLogContent.preconditionsPresent(changeLog.getPreconditions())) {
+            try {
+                store(changeLog, frame, entry, deps, resourceAccessor);
+            } catch (IOException | RuntimeException e) {
+                LogService.getLog(getClass()).warning("Could not cache " + path, e);
+            }
+        }
+        return changeLog;
+    }
+
+    /*
+     * Resources read while parsing nested changelogs, or rehydrating,
+     * don't count as dependencies of the including changelog.
+     */
+    private DatabaseChangeLog parseIsolated(ChangeLogParser parser,
+                                            String path,
+                                            ChangeLogParameters params,
+                                            ResourceAccessor resourceAccessor)
+            throws ChangeLogParseException
+    {
+        frames.push(new Frame(path));
+        try {
+            return parser.parse(path, params, resourceAccessor);
+        } finally {
+            frames.pop();
+        }
+    }
+
+    private static byte[] readSource(String path, ResourceAccessor resourceAccessor) {
+        try {
+            Set<InputStream> streams = resourceAccessor.getResourcesAsStream(path);
+            if (streams == null || streams.size() != 1) {
+                if (streams != null) {
+                    for (InputStream in : streams) {
+                        in.close();
+                    }
+                }
+                return null;
+            }
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            try (InputStream in = streams.iterator().next()) {
+                byte[] chunk = new byte[8192];
+                int count;
+                while ((count = in.read(chunk)) != -1) {
+                    buf.write(chunk, 0, count);
+                }
+            }
+            return buf.toByteArray();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String key(ChangeLogParser parser,
+                              String path,
+                              byte[] source,
+                              ChangeLogParameters params) {
+        StringBuilder key = new StringBuilder();
+        key.append("parser=").append(parser.getClass().getName()).append('\n');
+        key.append("liquibase=").append(LiquibaseUtil.getBuildVersion()).append('\n');
+        key.append("compiler=").append(compilerVersion()).append('\n');
+        key.append("path=").append(path).append('\n');
+        key.append("source=").append(sha256(source)).append('\n');
+        key.append("contexts=").append(params.getContexts()).append('\n');
+        key.append("labels=").append(params.getLabels()).append('\n');
+        key.append("database=").append(params.getValue("database.typeName", null)).append('\n');
+
+        Set<String> words = new HashSet<>();
+        Matcher m = WORD.matcher(new String(source, StandardCharsets.UTF_8));
+        while (m.find()) {
+            words.add(m.group().toLowerCase(Locale.ROOT));
+        }
+        for (ChangeLogParameter param : params.getChangeLogParameters()) {
+            if (param.getChangeLog() == null
+                    && !words.contains(param.getKey().toLowerCase(Locale.ROOT))) {
+                continue;
+            }
+            key.append("param=").append(param.getKey())
+                    .append('\t').append(param.getValue())
+                    .append('\t').append(param.isGlobal())
+                    .append('\t').append(param.getValidContexts())
+                    .append('\t').append(param.getLabels())
+                    .append('\t').append(param.getValidDatabases())
+                    .append('\t').append(param.getChangeLog() == null
+                                         ? "" : param.getChangeLog().getPhysicalFilePath())
+                    .append('\n');
+        }
+        return sha256(key.toString());
+    }
+
+    private static byte[] lookup(Path entry, Path deps, ResourceAccessor resourceAccessor) {
+        try {
+            List<String[]> records = matchInputs(deps, resourceAccessor);
+            if (records == null) {
+                return null;
+            } else if (!records.isEmpty()) {
+                LogService.getLog(ParsedChangeLogCache.class)
+                        .warning("Malformed cache dependencies: " + deps);
+                return null;
+            }
+            return Files.readAllBytes(entry);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LogService.getLog(ParsedChangeLogCache.class)
+                    .warning("Could not read cache entry: " + entry, e);
+            return null;
+        }
+    }
+
+    private void store(DatabaseChangeLog changeLog,
+                       Frame frame,
+                       Path entry,
+                       Path deps,
+                       ResourceAccessor resourceAccessor)
+            throws IOException
+    {
+        StringBuilder depsContent = new StringBuilder(DEPS_HEADER).append('\n');
+        for (String path : frame.resources) {
+            appendInput(depsContent, resourceAccessor, path);
+        }
+        for (String[] list : frame.lists.values()) {
+            appendList(depsContent, resourceAccessor, list);
+        }
+
+        ChangeLogContent content = ChangeLogContent.ofSourceFile(changeLog);
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        serializer.writeSourceFile(changeLog, content.getContent(changeLog), xml);
+
+        // The entry first, so a visible .deps always has its entry.
+        writeAtomically(entry, xml.toByteArray());
+        writeAtomically(deps, depsContent.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void writeAtomically(Path target, byte[] content) throws IOException {
+        Path temp = Files.createTempFile(cacheDir, "tmp-", null);
+        try {
+            Files.write(temp, content);
+            moveInto(temp, target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+
+    /**
+     * Resources read while parsing a single changelog file.
+     */
+    private static class Frame {
+
+        final String path;
+        final Set<String> resources = new LinkedHashSet<>();
+        final Map<String, String[]> lists = new LinkedHashMap<>();
+
+        Frame(String path) {
+            this.path = path;
+        }
+
+    }
+
+
+    /**
+     * Records the resources read (or listed) into the current frame, and
+     * optionally substitutes the content of a single resource.
+     */
+    private class TrackingAccessor implements ResourceAccessor {
+
+        private final ResourceAccessor delegate;
+        private final String overlayPath;
+        private final byte[] overlayContent;
+
+        TrackingAccessor(ResourceAccessor delegate, String overlayPath, byte[] overlayContent) {
+            this.delegate = unwrap(delegate);
+            this.overlayPath = overlayPath;
+            this.overlayContent = overlayContent;
+        }
+
+        @Override
+        public Set<InputStream> getResourcesAsStream(String path) throws IOException {
+            if (path.equals(overlayPath)) {
+                return Collections.singleton(new ByteArrayInputStream(overlayContent));
+            }
+            Frame frame = frames.peek();
+            if (frame != null && !path.equals(frame.path)) {
+                frame.resources.add(path);
+            }
+            return delegate.getResourcesAsStream(path);
+        }
+
+        @Override
+        public Set<String> list(String relativeTo, String path,
+                                boolean includeFiles, boolean includeDirectories,
+                                boolean recursive)
+                throws IOException
+        {
+            Frame frame = frames.peek();
+            if (frame != null) {
+                String flags = listFlags(includeFiles, includeDirectories, recursive);
+                frame.lists.put(relativeTo + '\t' + path + '\t' + flags,
+                                new String[] { relativeTo, path, flags });
+            }
+            return delegate.list(relativeTo, path, includeFiles, includeDirectories, recursive);
+        }
+
+        @Override
+        public ClassLoader toClassLoader() {
+            return delegate.toClassLoader();
+        }
+
+    }
+
+    private static ResourceAccessor unwrap(ResourceAccessor resourceAccessor) {
+        ResourceAccessor base = resourceAccessor;
+        while (base instanceof TrackingAccessor) {
+            base = ((TrackingAccessor) base).delegate;
+        }
+        return base;
+    }
+
+
+    private static class CachingParser implements ChangeLogParser {
+
+        static synchronized void register() {
+            ChangeLogParserFactory factory = ChangeLogParserFactory.getInstance();
+            for (ChangeLogParser parser : factory.getParsers()) {
+                if (parser instanceof CachingParser) {
+                    return;
+                }
+            }
+            factory.register(new CachingParser());
+        }
+
+        @Override
+        public int getPriority() {
+            return Integer.MAX_VALUE - 1;
+        }
+
+        @Override
+        public boolean supports(String changeLogFile, ResourceAccessor resourceAccessor) {
+            return active.get() != null && delegate(changeLogFile, resourceAccessor) != null;
+        }
+
+        private ChangeLogParser delegate(String changeLogFile,
+                                         ResourceAccessor resourceAccessor) {
+            for (ChangeLogParser parser : ChangeLogParserFactory.getInstance().getParsers()) {
+                if (parser.getPriority() < getPriority()
+                        && parser.supports(changeLogFile, resourceAccessor)) {
+                    return parser;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public DatabaseChangeLog parse(String physicalChangeLogLocation,
+                                       ChangeLogParameters changeLogParameters,
+                                       ResourceAccessor resourceAccessor)
+                throws ChangeLogParseException
+        {
+            ChangeLogParser parser = delegate(physicalChangeLogLocation, resourceAccessor);
+            if (parser == null) {
+                throw new ChangeLogParseException("Cannot find parser that supports "
+                                                  + physicalChangeLogLocation);
+            }
+            return active.get().parse(parser, physicalChangeLogLocation,
+                                      changeLogParameters, unwrap(resourceAccessor));
+        }
+
+    }
+
+}
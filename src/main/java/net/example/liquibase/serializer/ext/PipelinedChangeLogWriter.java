@@ -0,0 +1,294 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.serializer.ext;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import liquibase.changelog.ChangeLogParameters;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.exception.ChangeLogParseException;
+import liquibase.exception.LiquibaseException;
+import liquibase.parser.ChangeLogParser;
+import liquibase.parser.ChangeLogParserFactory;
+import liquibase.resource.ResourceAccessor;
+
+/**
+ * Parses a changelog writing the compiled file of every (included)
+ * changelog as soon as it has been fully parsed, overlapping parsing with
+ * serialization.
+ * <p>
+ * An intercepting {@code ChangeLogParser} is registered with the highest
+ * priority while {@link #parse} runs, and is active only on the threads
+ * running it.  It delegates to the parser which would otherwise be used,
+ * and hands the result to a writer thread through a bounded queue –
+ * parsing blocks while the queue is full.</p>
+ * <p>
+ * The including changelog keeps updating an included one after parsing
+ * it (include contexts and labels), so a changelog is handed over once
+ * the parsing of its next sibling starts, or of its including changelog
+ * completes – only the last include of a changelog waits for the
+ * including one.  The content of
+ * every file is collected on the parsing thread, as the parser keeps
+ * updating shared state (changelog parameters) after handing it over.</p>
+ * <p>
+ * Only multiple file output is supported.</p>
+ */
+public class PipelinedChangeLogWriter {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private static final ThreadLocal<PipelinedChangeLogWriter> active = new ThreadLocal<>();
+
+    private static final Object END = new Object();
+
+    private final EnhancedXMLChangeLogSerializer serializer;
+    private final Path targetPath;
+    private final BlockingQueue<Object> queue;
+    private volatile Throwable writeFailure;
+    private final Deque<List<DatabaseChangeLog>> includedLogs = new ArrayDeque<>();
+
+    public PipelinedChangeLogWriter(EnhancedXMLChangeLogSerializer serializer,
+                                    String targetDir) {
+        this(serializer, targetDir, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param   serializer  the serializer to write files with;
+     * @param   targetDir  the output base directory;
+     * @param   capacity  maximum number of parsed changelogs waiting to be
+     *          written.
+     */
+    public PipelinedChangeLogWriter(EnhancedXMLChangeLogSerializer serializer,
+                                    String targetDir, int capacity) {
+        this.serializer = serializer;
+        this.targetPath = Paths.get(targetDir).toAbsolutePath();
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Parses the given changelog, and writes the compiled files.
+     *
+     * @param   src  the changelog to parse;
+     * @param   params  changelog parameters;
+     * @param   resourceAccessor  resolves the source changelogs;
+     * @return  the parsed changelog.
+     * @throws  LiquibaseException  if parsing fails;
+     * @throws  IOException  if writing fails.
+     */
+    public DatabaseChangeLog parse(String src,
+                                   ChangeLogParameters params,
+                                   ResourceAccessor resourceAccessor)
+            throws LiquibaseException, IOException
+    {
+        Thread writer = new Thread(this::writeLoop, "changelog-writer");
+        writer.setDaemon(true);
+        writer.start();
+
+        DatabaseChangeLog changeLog;
+        InterceptingParser.register();
+        active.set(this);
+        try {
+            changeLog = ChangeLogParserFactory.getInstance()
+                    .getParser(src, resourceAccessor)
+                    .parse(src, params, resourceAccessor);
+        } finally {
+            active.remove();
+            InterceptingParser.unregister();
+            putUninterruptibly(END);
+            joinUninterruptibly(writer);
+        }
+
+        if (writeFailure instanceof IOException) {
+            throw (IOException) writeFailure;
+        } else if (writeFailure != null) {
+            throw new IOException(writeFailure);
+        }
+        if (serializer.getSquashBoundary() != null) {
+            serializer.serializeBaseline(changeLog, targetPath);
+        }
+        return changeLog;
+    }
+
+    /*
+     * The included changelogs not handed over yet are complete once their
+     * including one is parsed; the root one is complete as soon as it is
+     * parsed.
+     */
+    private void parsed(DatabaseChangeLog changeLog, List<DatabaseChangeLog> included)
+            throws ChangeLogParseException
+    {
+        for (DatabaseChangeLog log : included) {
+            enqueue(log, false);
+        }
+        if (includedLogs.isEmpty()) {
+            enqueue(changeLog, true);
+        } else {
+            includedLogs.peek().add(changeLog);
+        }
+    }
+
+    /*
+     * The included changelogs parsed before are complete, as the including
+     * changelog is done with them once it parses the next one.
+     */
+    private void parsing() throws ChangeLogParseException {
+        List<DatabaseChangeLog> siblings = includedLogs.peek();
+        if (siblings == null) {
+            return;
+        }
+        for (DatabaseChangeLog log : siblings) {
+            enqueue(log, false);
+        }
+        siblings.clear();
+    }
+
+    private void enqueue(DatabaseChangeLog changeLog, boolean root)
+            throws ChangeLogParseException
+    {
+        if (writeFailure != null) {
+            throw new ChangeLogParseException("Writing failed", writeFailure);
+        }
+        try {
+            queue.put(ChangeLogContent.ofFile(changeLog, root,
+                                              serializer.getFileExtension()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ChangeLogParseException("Interrupted", e);
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            Object item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException e) {
+                writeFailure = e;
+                return;
+            }
+            if (item == END) {
+                break;
+            }
+            if (writeFailure != null) {
+                continue; // Keep draining so the parser doesn't block
+            }
+
+            ChangeLogContent content = (ChangeLogContent) item;
+            DatabaseChangeLog log = content.getChangeLogs().get(0);
+            try {
+                serializer.writeChangeLogFile(targetPath, log, content.getContent(log));
+            } catch (IOException | RuntimeException e) {
+                writeFailure = e;
+            }
+        }
+    }
+
+    private void putUninterruptibly(Object item) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(item);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private static class InterceptingParser implements ChangeLogParser {
+
+        private static InterceptingParser instance;
+        private static int users;
+
+        static synchronized void register() {
+            if (users++ == 0) {
+                instance = new InterceptingParser();
+                ChangeLogParserFactory.getInstance().register(instance);
+            }
+        }
+
+        static synchronized void unregister() {
+            if (--users == 0) {
+                ChangeLogParserFactory.getInstance().unregister(instance);
+                instance = null;
+            }
+        }
+
+        @Override
+        public int getPriority() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public boolean supports(String changeLogFile, ResourceAccessor resourceAccessor) {
+            return active.get() != null && delegate(changeLogFile, resourceAccessor) != null;
+        }
+
+        private ChangeLogParser delegate(String changeLogFile,
+                                         ResourceAccessor resourceAccessor) {
+            for (ChangeLogParser parser : ChangeLogParserFactory.getInstance().getParsers()) {
+                if (!(parser instanceof InterceptingParser)
+                        && parser.supports(changeLogFile, resourceAccessor)) {
+                    return parser;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public DatabaseChangeLog parse(String physicalChangeLogLocation,
+                                       ChangeLogParameters changeLogParameters,
+                                       ResourceAccessor resourceAccessor)
+                throws ChangeLogParseException
+        {
+            PipelinedChangeLogWriter pipeline = active.get();
+            ChangeLogParser parser = delegate(physicalChangeLogLocation, resourceAccessor);
+            if (parser == null) {
+                throw new ChangeLogParseException("Cannot find parser that supports "
+                                                  + physicalChangeLogLocation);
+            }
+            DatabaseChangeLog changeLog;
+            List<DatabaseChangeLog> included;
+            pipeline.parsing();
+            pipeline.includedLogs.push(new ArrayList<>());
+            try {
+                changeLog = parser.parse(physicalChangeLogLocation,
+                                         changeLogParameters, resourceAccessor);
+            } finally {
+                included = pipeline.includedLogs.pop();
+            }
+            pipeline.parsed(changeLog, included);
+            return changeLog;
+        }
+
+    }
+
+}
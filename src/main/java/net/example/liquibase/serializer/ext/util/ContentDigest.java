@@ -0,0 +1,291 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.serializer.ext.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import liquibase.logging.LogService;
+import liquibase.resource.ResourceAccessor;
+
+/**
+ * SHA-256 digests of resource content, used to key and validate cache
+ * entries, and the manifests recording them.
+ * <p>
+ * A manifest is a text file of tab-separated records, one per line:</p>
+ * <pre>
+ * in    &lt;path>    &lt;digest>
+ * list  &lt;relativeTo>    &lt;path>    &lt;flags>    &lt;digest></pre>
+ * <p>
+ * Lines starting with {@code #} are comments.  Caches may add records of
+ * their own kinds.</p>
+ */
+public final class ContentDigest {
+
+    /** Digest of an absent resource. */
+    public static final String ABSENT = "-";
+
+    private static String compilerVersion;
+
+    private ContentDigest() {
+        // no instances
+    }
+
+    /**
+     * @param   resourceAccessor  the resource accessor to use;
+     * @param   path  the resource path;
+     * @return  the digest of all resources found by the given path, or
+     *          {@link #ABSENT}.
+     * @throws  IOException  if I/O error occurs.
+     */
+    public static String digestResource(ResourceAccessor resourceAccessor, String path)
+            throws IOException
+    {
+        Set<InputStream> streams = resourceAccessor.getResourcesAsStream(path);
+        if (streams == null) {
+            return ABSENT;
+        }
+        List<String> digests = new ArrayList<>(streams.size());
+        for (InputStream in : streams) {
+            try (InputStream stream = in) {
+                digests.add(digest(stream));
+            }
+        }
+        Collections.sort(digests);
+        return String.join(",", digests);
+    }
+
+    /**
+     * @param   resourceAccessor  the resource accessor to use;
+     * @param   relativeTo  as given to {@code ResourceAccessor.list()};
+     * @param   path  as given to {@code ResourceAccessor.list()};
+     * @param   flags  {@code includeFiles}, {@code includeDirectories},
+     *          and {@code recursive} encoded as three {@code '0'}/{@code '1'}
+     *          characters;
+     * @return  the digest of the sorted listing, or {@link #ABSENT}.
+     * @throws  IOException  if I/O error occurs.
+     */
+    public static String digestList(ResourceAccessor resourceAccessor,
+                                    String relativeTo,
+                                    String path,
+                                    String flags)
+            throws IOException
+    {
+        Set<String> found = resourceAccessor.list(relativeTo, path,
+                flags.charAt(0) == '1', flags.charAt(1) == '1', flags.charAt(2) == '1');
+        if (found == null) {
+            return ABSENT;
+        }
+        List<String> sorted = new ArrayList<>(found);
+        Collections.sort(sorted);
+        return sha256(String.join("\n", sorted));
+    }
+
+    /**
+     * @param   includeFiles  as given to {@code ResourceAccessor.list()};
+     * @param   includeDirectories  as given to {@code ResourceAccessor.list()};
+     * @param   recursive  as given to {@code ResourceAccessor.list()};
+     * @return  the {@code flags} argument for {@link #digestList}.
+     */
+    public static String listFlags(boolean includeFiles,
+                                   boolean includeDirectories,
+                                   boolean recursive) {
+        return (includeFiles ? "1" : "0")
+                + (includeDirectories ? "1" : "0")
+                + (recursive ? "1" : "0");
+    }
+
+    /**
+     * Appends an {@code in} record of the given resource.
+     *
+     * @param   manifest  the manifest content to append to;
+     * @param   resourceAccessor  the resource accessor to use;
+     * @param   path  the resource path;
+     * @throws  IOException  if I/O error occurs.
+     */
+    public static void appendInput(StringBuilder manifest,
+                                   ResourceAccessor resourceAccessor,
+                                   String path)
+            throws IOException
+    {
+        manifest.append("in\t").append(path).append('\t')
+                .append(digestResource(resourceAccessor, path)).append('\n');
+    }
+
+    /**
+     * Appends a {@code list} record of the given listing.
+     *
+     * @param   manifest  the manifest content to append to;
+     * @param   resourceAccessor  the resource accessor to use;
+     * @param   list  {@code relativeTo}, {@code path}, and {@code flags}
+     *          as given to {@link #digestList};
+     * @throws  IOException  if I/O error occurs.
+     */
+    public static void appendList(StringBuilder manifest,
+                                  ResourceAccessor resourceAccessor,
+                                  String[] list)
+            throws IOException
+    {
+        manifest.append("list\t").append(list[0] == null ? "" : list[0])
+                .append('\t').append(list[1]).append('\t').append(list[2])
+                .append('\t').append(digestList(resourceAccessor, list[0], list[1], list[2]))
+                .append('\n');
+    }
+
+    /**
+     * Checks the {@code in} and {@code list} records of the given manifest
+     * against the current content.
+     *
+     * @param   manifest  the manifest file;
+     * @param   resourceAccessor  the resource accessor to use;
+     * @return  the records of other kinds, split into fields, or
+     *          {@code null} if an input has changed, or the manifest is
+     *          malformed, or absent.
+     * @throws  IOException  if I/O error occurs.
+     */
+    public static List<String[]> matchInputs(Path manifest,
+                                             ResourceAccessor resourceAccessor)
+            throws IOException
+    {
+        List<String[]> other = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\t", -1);
+                if (fields[0].equals("in") && fields.length == 3) {
+                    if (!fields[2].equals(digestResource(resourceAccessor, fields[1]))) {
+                        return null;
+                    }
+                } else if (fields[0].equals("list") && fields.length == 5) {
+                    String relativeTo = fields[1].isEmpty() ? null : fields[1];
+                    if (!fields[4].equals(digestList(resourceAccessor,
+                            relativeTo, fields[2], fields[3]))) {
+                        return null;
+                    }
+                } else if (fields[0].equals("in") || fields[0].equals("list")) {
+                    LogService.getLog(ContentDigest.class)
+                            .warning("Malformed cache manifest: " + manifest);
+                    return null;
+                } else {
+                    other.add(fields);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return null; // Concurrently evicted
+        }
+        return other;
+    }
+
+    /**
+     * Moves the given file into place, atomically if supported, so
+     * concurrent readers never observe partially written content.
+     *
+     * @param   source  a complete temporary file;
+     * @param   target  the target path, replaced if existing.
+     * @throws  IOException  if I/O error occurs.
+     */
+    public static void moveInto(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Reads the given stream to its end, and closes it.
+     */
+    public static String digest(InputStream in) throws IOException {
+        MessageDigest md = newDigest();
+        byte[] buf = new byte[8192];
+        try (DigestInputStream digestIn = new DigestInputStream(in, md)) {
+            while (digestIn.read(buf) != -1) {
+                // digest
+            }
+        }
+        return hex(md.digest());
+    }
+
+    public static String sha256(byte[] bytes) {
+        return hex(newDigest().digest(bytes));
+    }
+
+    public static String sha256(String text) {
+        return sha256(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder buf = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            buf.append(Character.forDigit((b >> 4) & 0xF, 16))
+               .append(Character.forDigit(b & 0xF, 16));
+        }
+        return buf.toString();
+    }
+
+    /**
+     * @return  Implementation-Version of the compiler jar, or the latest
+     *          modification time of the classes for development builds.
+     */
+    public static synchronized String compilerVersion() {
+        if (compilerVersion == null) {
+            compilerVersion = findCompilerVersion();
+        }
+        return compilerVersion;
+    }
+
+    private static String findCompilerVersion() {
+        Package pkg = ContentDigest.class.getPackage();
+        if (pkg != null && pkg.getImplementationVersion() != null) {
+            return pkg.getImplementationVersion();
+        }
+        try {
+            URL location = ContentDigest.class.getProtectionDomain()
+                                              .getCodeSource().getLocation();
+            File codeSource = new File(location.toURI());
+            if (codeSource.isFile()) {
+                return "dev-" + codeSource.lastModified();
+            }
+            try (Stream<Path> tree = Files.walk(codeSource.toPath())) {
+                return "dev-" + tree.mapToLong(path -> path.toFile().lastModified())
+                                    .max().orElse(0);
+            }
+        } catch (URISyntaxException | IOException | RuntimeException e) {
+            LogService.getLog(ContentDigest.class)
+                    .debug("Could not determine compiler version", e);
+            return "dev";
+        }
+    }
+
+}
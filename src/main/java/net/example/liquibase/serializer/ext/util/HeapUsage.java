@@ -0,0 +1,77 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.serializer.ext.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tracks the peak heap usage of a compilation.
+ * <p>
+ * The <i>retained</i> heap is the heap used after the most recent
+ * garbage collection, summed over the heap memory pools – the live data
+ * as of that collection.  Its peak is observed at the points of
+ * {@link #sample()}, f.e. after writing every file.  The peak
+ * <i>used</i> heap, including garbage not yet collected, is tracked by
+ * the JVM since the construction of this object.</p>
+ * <p>
+ * The peak usage of the memory pools is JVM-wide: constructing this
+ * object resets it for any other users of the memory pool beans, and
+ * concurrent compilations in the same JVM affect each other's figures.</p>
+ */
+public class HeapUsage {
+
+    private final List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+    private long peakRetained;
+
+    public HeapUsage() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+    }
+
+    /**
+     * Updates the peak retained heap with the current observation.
+     */
+    public void sample() {
+        long retained = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (usage != null) {
+                retained += usage.getUsed();
+            }
+        }
+        peakRetained = Math.max(peakRetained, retained);
+    }
+
+    /**
+     * @return  the peak heap retained after garbage collections, in
+     *          bytes, as sampled so far.
+     */
+    public long getPeakRetained() {
+        sample();
+        return peakRetained;
+    }
+
+    /**
+     * @return  the peak heap used, in bytes – an upper bound, as the
+     *          sum of the peaks of the individual heap pools.
+     */
+    public long getPeakUsed() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            used += pool.getPeakUsage().getUsed();
+        }
+        return used;
+    }
+
+}
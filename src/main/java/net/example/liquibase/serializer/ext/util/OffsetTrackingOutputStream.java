@@ -0,0 +1,104 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.serializer.ext.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes written through, and finds the offset of the next
+ * occurrence of a given byte sequence, f.e. an encoded start tag
+ * {@code "<changeSet"}, without buffering or re-reading the output.
+ * <p>
+ * {@link #flush()} doesn't propagate, so an encoding {@code Writer} on
+ * top could be flushed frequently to obtain exact positions, without
+ * flushing the underlying stream.  The underlying stream is flushed on
+ * {@link #close()}.</p>
+ */
+public class OffsetTrackingOutputStream extends FilterOutputStream {
+
+    private long position;
+    private byte[] pattern;
+    private int matched;
+    private long found = -1;
+
+    public OffsetTrackingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    /**
+     * @return  the number of bytes written so far.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Starts looking for the given byte sequence in the following output.
+     *
+     * @param   sequence  the byte sequence to look for.
+     * @see     #getFound()
+     */
+    public void find(byte[] sequence) {
+        this.pattern = sequence;
+        this.matched = 0;
+        this.found = -1;
+    }
+
+    /**
+     * @return  the offset of the sequence looked for since the last
+     *          {@link #find(byte[])}, or {@code -1} if not found (yet).
+     */
+    public long getFound() {
+        return found;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        scan((byte) b);
+        position++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        int i = off;
+        for (int end = off + len; i < end && pattern != null; i++) {
+            scan(b[i]);
+            position++;
+        }
+        position += len - (i - off);
+    }
+
+    private void scan(byte b) {
+        if (pattern == null) {
+            return;
+        }
+        if (b == pattern[matched]) {
+            if (++matched == pattern.length) {
+                found = position - matched + 1;
+                pattern = null;
+            }
+        } else {
+            // The patterns of interest don't repeat their first byte.
+            matched = (b == pattern[0]) ? 1 : 0;
+        }
+    }
+
+    @Override
+    public void flush() {
+        // See close()
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (OutputStream stream = out) {
+            stream.flush();
+        }
+    }
+
+}
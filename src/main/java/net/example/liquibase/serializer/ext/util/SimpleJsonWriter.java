@@ -0,0 +1,343 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.serializer.ext.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Writes the {@link StructuredWriter} events as JSON in the shape of
+ * Liquibase JSON/YAML changelogs, so the result loads to the same
+ * {@code ParsedNode} tree as the equivalent XML does:
+ * <pre>
+ * { "databaseChangeLog": [
+ *     { "property": { "name": "...", "value": "..." } },
+ *     { "changeSet": [
+ *         { "id": "1", "author": "..." },
+ *         { "createTable": [
+ *             { "tableName": "..." },
+ *             { "column": { "name": "id", "type": "INT" } } ] } ] } ] }</pre>
+ * <p>
+ * An element having only attributes is written as an object; otherwise
+ * as an array of: an object of its attributes (if any), an object per
+ * child element, and its text content (if any), trimmed as the XML
+ * parser does.  Text-only elements are written as a string, and
+ * {@code "true"}/{@code "false"} attribute values as booleans.
+ * Namespaces are ignored.</p>
+ * <p>
+ * The output is always UTF-8 encoded.</p>
+ */
+public class SimpleJsonWriter implements StructuredWriter {
+
+    private static final int INDENT_AMOUNT = 2;
+    private static final String ROOT_ELEMENT = "databaseChangeLog";
+
+    private Writer out;
+    private boolean indent;
+    private boolean indentOutput = true;
+    private boolean canonical;
+    private Deque<Element> stack = new ArrayDeque<>();
+
+    @Override
+    public boolean isNamespaceAware() {
+        return false;
+    }
+
+    @Override
+    public boolean isCanonical() {
+        return canonical;
+    }
+
+    /**
+     * In canonical mode attributes are written sorted by name, and
+     * lines are terminated with {@code "\n"}.
+     *
+     * @param   canonical  whether to produce canonical output.
+     */
+    @Override
+    public void setCanonical(boolean canonical) {
+        this.canonical = canonical;
+    }
+
+    @Override
+    public boolean isIndent() {
+        return indentOutput;
+    }
+
+    @Override
+    public void setIndent(boolean indent) {
+        this.indentOutput = indent;
+    }
+
+    private String lineSeparator() {
+        return canonical ? "\n" : System.lineSeparator();
+    }
+
+    @Override
+    public void setUpWrite(OutputStream out) {
+        setUpWrite(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public void setUpWrite(Writer out) {
+        setUpWrite(out, indentOutput, true);
+    }
+
+    @Override
+    public void setUpWrite(Writer out, boolean indent, boolean nsDecl) {
+        this.out = out;
+        this.indent = indent;
+        this.stack.clear();
+    }
+
+    @Override
+    public void setPrefix(String prefix, String uri) {
+        // No namespaces
+    }
+
+    @Override
+    public void writeStartDocument() {
+        // Nothing before the root element
+    }
+
+    @Override
+    public void writeStartElement(String qname) throws SAXException {
+        int colon = qname.indexOf(':');
+        Element parent = stack.peek();
+        if (parent != null) {
+            try {
+                openList(parent);
+                nextItem(parent);
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+        }
+        stack.push(new Element((colon < 0) ? qname : qname.substring(colon + 1),
+                               stack.size() + 1));
+    }
+
+    @Override
+    public void writeStartElement(String namespace, String localName) throws SAXException {
+        writeStartElement(localName);
+    }
+
+    @Override
+    public void writeStartElement(String prefix, String namespace, String localName)
+            throws SAXException {
+        writeStartElement(localName);
+    }
+
+    @Override
+    public void writeAttribute(String qname, String value) {
+        if (qname.equals("xmlns") || qname.startsWith("xmlns:") || qname.startsWith("xsi:")) {
+            return;
+        }
+        int colon = qname.indexOf(':');
+        stack.peek().attributes.add(new String[] {
+                (colon < 0) ? qname : qname.substring(colon + 1), value });
+    }
+
+    @Override
+    public void writeAttribute(String namespace, String localName, String value) {
+        writeAttribute(localName, value);
+    }
+
+    @Override
+    public void writeCharacters(String text) {
+        writeCharacters(text, false);
+    }
+
+    @Override
+    public void writeCharacters(CharSequence text, boolean cdata) {
+        Element current = stack.peek();
+        if (current.text == null) {
+            current.text = new StringBuilder(text);
+        } else {
+            current.text.append(text);
+        }
+    }
+
+    @Override
+    public void writeEndElement() throws SAXException {
+        Element element = stack.pop();
+        try {
+            String text = (element.text == null) ? "" : element.text.toString().trim();
+            if (element.name.equals(ROOT_ELEMENT)) {
+                // Liquibase requires a list of entries.
+                openList(element);
+            }
+            if (element.listOpen) {
+                if (!text.isEmpty()) {
+                    nextItem(element);
+                    writeString(text);
+                }
+                newLine(element.depth - 1);
+                out.write("]}");
+                return;
+            }
+
+            beginItem(element);
+            if (element.attributes.isEmpty()) {
+                if (text.isEmpty()) {
+                    out.write("{}");
+                } else {
+                    writeString(text);
+                }
+            } else if (text.isEmpty()) {
+                writeAttributes(element);
+            } else {
+                out.write('[');
+                writeAttributes(element);
+                out.write(", ");
+                writeString(text);
+                out.write(']');
+            }
+            out.write('}');
+        } catch (IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    @Override
+    public void writeEndDocument() throws SAXException {
+        while (!stack.isEmpty()) {
+            writeEndElement();
+        }
+        try {
+            out.write(lineSeparator());
+            out.flush();
+        } catch (IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    /*
+     * Writes the element as an array, once it is known to have child
+     * elements.
+     */
+    private void openList(Element element) throws IOException {
+        if (element.listOpen) {
+            return;
+        }
+        beginItem(element);
+        out.write('[');
+        element.listOpen = true;
+        newLine(element.depth);
+        if (!element.attributes.isEmpty()) {
+            writeAttributes(element);
+            element.items = 1;
+        }
+    }
+
+    /*
+     * Opens the object wrapping the element, in its parent array.
+     */
+    private void beginItem(Element element) throws IOException {
+        out.write("{");
+        writeString(element.name);
+        out.write(": ");
+    }
+
+    private void nextItem(Element element) throws IOException {
+        if (element.items++ > 0) {
+            out.write(',');
+            newLine(element.depth);
+        }
+    }
+
+    private void writeAttributes(Element element) throws IOException {
+        List<String[]> attributes = element.attributes;
+        if (canonical) {
+            attributes = new ArrayList<>(attributes);
+            attributes.sort(Comparator.comparing((String[] attr) -> attr[0]));
+        }
+        out.write('{');
+        boolean first = true;
+        for (String[] attr : attributes) {
+            if (!first) {
+                out.write(", ");
+            }
+            first = false;
+            writeString(attr[0]);
+            out.write(": ");
+            if (attr[1].equals("true") || attr[1].equals("false")) {
+                out.write(attr[1]);
+            } else {
+                writeString(attr[1]);
+            }
+        }
+        out.write('}');
+    }
+
+    private void newLine(int depth) throws IOException {
+        if (!indent) {
+            return;
+        }
+        out.write(lineSeparator());
+        for (int i = 0, len = depth * INDENT_AMOUNT; i < len; i++) {
+            out.write(' ');
+        }
+    }
+
+    private void writeString(CharSequence text) throws IOException {
+        out.write('"');
+        for (int i = 0, len = text.length(); i < len; i++) {
+            char ch = text.charAt(i);
+            switch (ch) {
+            case '"':
+                out.write("\\\"");
+                break;
+            case '\\':
+                out.write("\\\\");
+                break;
+            case '\n':
+                out.write("\\n");
+                break;
+            case '\r':
+                out.write("\\r");
+                break;
+            case '\t':
+                out.write("\\t");
+                break;
+            default:
+                if (ch < 0x20 || ch == '\u2028' || ch == '\u2029') {
+                    out.write(String.format("\\u%04x", (int) ch));
+                } else {
+                    out.write(ch);
+                }
+            }
+        }
+        out.write('"');
+    }
+
+
+    private static class Element {
+
+        final String name;
+        final int depth;
+        final List<String[]> attributes = new ArrayList<>();
+        StringBuilder text;
+        boolean listOpen;
+        int items;
+
+        Element(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+
+    }
+
+}
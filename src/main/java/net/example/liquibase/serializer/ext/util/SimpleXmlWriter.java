@@ -11,6 +11,9 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
 import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.Deque;
 import java.util.Enumeration;
 import java.util.function.Supplier;
@@ -41,12 +44,17 @@ import liquibase.logging.LogService;
  * with {@link javax.xml.stream.XMLStreamWriter}.  It also requires
  * explicit {@code writeEmptyElement()} which is not always simple for
  * use in all cases.</p>
+ * <p>
+ * In {@linkplain #setCanonical(boolean) canonical} mode the output
+ * doesn't depend on the order attributes and namespace prefixes are
+ * written in, nor on the platform line separator.</p>
  */
-public class SimpleXmlWriter {
+public class SimpleXmlWriter implements StructuredWriter {
 
     private static final String XML_VERSION = "1.1";
     private static final int INDENT_AMOUNT = 4;
     private static final String CDATA = "CDATA";
+    private static final int CHUNK_SIZE = 8192;
 
     private String charset;
     private StreamResult result;
@@ -56,6 +64,12 @@ public class SimpleXmlWriter {
     private AttributesImpl attributes = new AttributesImpl();
     private NamespaceSupport namespaceContext = new NamespaceSupport();
     private boolean repairingNamespaces;
+    private boolean canonical;
+    private boolean indentOutput = true;
+    private boolean indenting;
+    private long unindented;
+    private final BitSet parents = new BitSet();
+    private final char[] chunk = new char[CHUNK_SIZE];
 
     public SimpleXmlWriter() {
         namespaceContext.setNamespaceDeclUris(true);
@@ -96,30 +110,88 @@ public class SimpleXmlWriter {
         return outputHandler;
     }
 
+    @Override
+    public boolean isNamespaceAware() {
+        return true;
+    }
+
+    @Override
+    public boolean isCanonical() {
+        return canonical;
+    }
+
+    /**
+     * In canonical mode: namespace declarations, followed by the rest of
+     * the attributes of every element are written sorted by qualified
+     * name; generated namespace prefixes are derived from the namespace
+     * URI, rather than the order of first use; lines are terminated with
+     * {@code "\n"}.
+     *
+     * @param   canonical  whether to produce canonical output.
+     */
+    @Override
+    public void setCanonical(boolean canonical) {
+        this.canonical = canonical;
+    }
+
+    @Override
+    public boolean isIndent() {
+        return indentOutput;
+    }
+
+    @Override
+    public void setIndent(boolean indent) {
+        this.indentOutput = indent;
+    }
+
+    /**
+     * @return  approx. number of whitespace characters indentation would
+     *          have added to the output written since the last set up,
+     *          if not indenting.
+     */
+    public long getUnindented() {
+        return unindented;
+    }
+
     private void setUpWrite(String encoding, boolean indent, boolean nsDecl) {
         this.charset = encoding;
+        this.indenting = indent;
+        this.unindented = 0;
+        this.parents.clear();
         Transformer transformer = initOutputHandler().getTransformer();
         transformer.setOutputProperty(OutputKeys.ENCODING, charset);
         transformer.setOutputProperty(OutputKeys.INDENT, indent ? "yes" : "no");
+        try {
+            transformer.setOutputProperty("{http://xml.apache.org/xalan}"
+                    + "line-separator", lineSeparator());
+        } catch (IllegalArgumentException e) {
+            LogService.getLog(getClass()).debug("Could not set \"line-separator\"", e);
+        }
         namespaceContext.reset();
         repairingNamespaces = nsDecl;
     }
 
+    @Override
     public void setUpWrite(OutputStream out) {
-        setUpWrite(defaultCharset(), true, true);
+        setUpWrite(defaultCharset(), indentOutput, true);
         outputHandler.setResult(result = new StreamResult(out));
     }
 
+    @Override
     public void setUpWrite(Writer out) {
-        setUpWrite(out, true, true);
+        setUpWrite(out, indentOutput, true);
     }
 
+    @Override
     public void setUpWrite(Writer out, boolean indent, boolean nsDecl) {
         setUpWrite(defaultCharset(), indent, nsDecl);
         outputHandler.setResult(result = new StreamResult(out));
     }
 
-    private static String defaultCharset() {
+    /**
+     * @return  the encoding of the output, as configured for Liquibase.
+     */
+    public static String defaultCharset() {
         return LiquibaseConfiguration.getInstance()
                   .getConfiguration(GlobalConfiguration.class)
                   .getOutputEncoding();
@@ -129,14 +201,21 @@ public class SimpleXmlWriter {
         return namespaceContext;
     }
 
+    @Override
     public void setPrefix(String prefix, String uri) {
         namespaceContext.declarePrefix(prefix, uri);
     }
 
+    private String lineSeparator() {
+        return canonical ? "\n" : System.lineSeparator();
+    }
+
     private String prefixedName(String namespace, String name) {
         String prefix = namespaceContext.getPrefix(namespace);
         if (prefix == null) {
-            int n = 1;
+            // Canonical: start from a number derived from the namespace,
+            // so the prefix doesn't depend on what has been written before.
+            int n = canonical ? (namespace.hashCode() & 0xFFFF) : 1;
             do {
                 prefix = "ns" + n++;
             } while (namespaceContext.getURI(prefix) != null);
@@ -146,10 +225,11 @@ public class SimpleXmlWriter {
         return prefix + ":" + name;
     }
 
+    @Override
     public void writeStartDocument() throws IOException {
         String xmlDecl = "<?xml version=\"" + XML_VERSION
                          + "\" encoding=\"" + charset + "\"?>"
-                         + System.lineSeparator();
+                         + lineSeparator();
         if (result.getOutputStream() == null) {
             result.getWriter().write(xmlDecl);
         } else {
@@ -159,15 +239,23 @@ public class SimpleXmlWriter {
 
     private void writeStartElement(Supplier<String> qname) throws SAXException {
         writeDeferredElement();
+        int depth = contentStack.size();
+        if (depth > 0) {
+            parents.set(depth - 1);
+            countUnindented(depth);
+        }
+        parents.clear(depth);
         attributes.clear();
         deferredElement = qname.get();
         contentStack.push(deferredElement);
     }
 
+    @Override
     public void writeStartElement(String qname) throws SAXException {
         writeStartElement(() -> qname);
     }
 
+    @Override
     public void writeStartElement(String namespace, String localName)
             throws SAXException {
         writeStartElement(() -> {
@@ -182,6 +270,7 @@ public class SimpleXmlWriter {
         });
     }
 
+    @Override
     public void writeStartElement(String prefix, String namespace, String localName)
             throws SAXException {
         writeStartElement(() -> {
@@ -197,6 +286,9 @@ public class SimpleXmlWriter {
             if (repairingNamespaces) {
                 writeNamespaceDeclarations();
             }
+            if (canonical) {
+                sortAttributes();
+            }
             outputHandler.startElement("", "", deferredElement, attributes);
             deferredElement = null;
         }
@@ -213,27 +305,122 @@ public class SimpleXmlWriter {
         }
     }
 
+    private void sortAttributes() {
+        int length = attributes.getLength();
+        if (length < 2) {
+            return;
+        }
+        Integer[] order = new Integer[length];
+        for (int i = 0; i < length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator
+                .comparing((Integer i) -> !isNamespaceDeclaration(attributes.getQName(i)))
+                .thenComparing(i -> attributes.getQName(i)));
+        AttributesImpl sorted = new AttributesImpl();
+        for (int i : order) {
+            sorted.addAttribute(attributes.getURI(i), attributes.getLocalName(i),
+                    attributes.getQName(i), attributes.getType(i), attributes.getValue(i));
+        }
+        attributes = sorted;
+    }
+
+    private static boolean isNamespaceDeclaration(String qname) {
+        return qname.equals("xmlns") || qname.startsWith("xmlns:");
+    }
+
+    @Override
     public void writeAttribute(String qname, String value) {
         attributes.addAttribute("", "", qname, CDATA, value);
     }
 
+    @Override
     public void writeAttribute(String namespace, String localName, String value) {
         String uri = (namespace == null) ? NULL_NS_URI : namespace;
         String qname = uri.equals(NULL_NS_URI) ? localName : prefixedName(uri, localName);
         writeAttribute(qname, value);
     }
 
+    @Override
     public void writeCharacters(String text) throws SAXException {
+        writeCharacters(text, false);
+    }
+
+    /**
+     * Writes character content passing it to the underlying handler in
+     * fixed-size chunks, so large texts are not copied as a whole.  Chunks
+     * of a CDATA section don't end with {@code ']'}, so a {@code "]]>"} in
+     * the content is not split between them.
+     *
+     * @param   text  the character content to write;
+     * @param   cdata  whether to write the content as a CDATA section;
+     * @throws  SAXException  if the underlying handler fails.
+     */
+    @Override
+    public void writeCharacters(CharSequence text, boolean cdata) throws SAXException {
         writeDeferredElement();
-        outputHandler.characters(text.toCharArray(), 0, text.length());
+        if (cdata) {
+            outputHandler.startCDATA();
+        }
+        int length = text.length();
+        for (int start = 0; start < length;) {
+            int end = Math.min(start + CHUNK_SIZE, length);
+            if (end < length && Character.isHighSurrogate(text.charAt(end - 1))) {
+                end--; // Don't split surrogate pairs
+            }
+            boolean splitSection = false;
+            if (cdata && end < length && text.charAt(end - 1) == ']') {
+                // The handler escapes "]]>" only within a single chunk
+                int split = end - 1;
+                while (split > start && text.charAt(split - 1) == ']') {
+                    split--;
+                }
+                if (split > start) {
+                    end = split;
+                } else {
+                    splitSection = true;
+                }
+            }
+            if (text instanceof String) {
+                ((String) text).getChars(start, end, chunk, 0);
+            } else {
+                for (int i = start; i < end; i++) {
+                    chunk[i - start] = text.charAt(i);
+                }
+            }
+            outputHandler.characters(chunk, 0, end - start);
+            if (splitSection) {
+                outputHandler.endCDATA();
+                outputHandler.startCDATA();
+            }
+            start = end;
+        }
+        if (cdata) {
+            outputHandler.endCDATA();
+        }
     }
 
+    @Override
     public void writeEndElement() throws SAXException {
         writeDeferredElement();
         outputHandler.endElement("", "", contentStack.pop());
+        if (parents.get(contentStack.size())) {
+            countUnindented(contentStack.size());
+        }
         namespaceContext.popContext();
     }
 
+    /*
+     * A line break and indentation precede start tags, and end tags of
+     * elements containing elements.
+     */
+    private void countUnindented(int depth) {
+        if (!indenting) {
+            unindented += lineSeparator().length() + INDENT_AMOUNT * depth;
+        }
+    }
+
+    @Override
     public void writeEndDocument() throws SAXException {
         writeDeferredElement();
         while (!contentStack.isEmpty()) {
@@ -0,0 +1,70 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.serializer.ext.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+import org.xml.sax.SAXException;
+
+/**
+ * The element/attribute/text events a changelog serializer writes,
+ * independent of the output syntax.
+ *
+ * @see  SimpleXmlWriter
+ * @see  SimpleJsonWriter
+ */
+public interface StructuredWriter {
+
+    boolean isCanonical();
+
+    void setCanonical(boolean canonical);
+
+    /**
+     * @return  {@code false} if the output syntax has no notion of
+     *          namespaces – prefixes and namespace URIs are then ignored.
+     */
+    boolean isNamespaceAware();
+
+    boolean isIndent();
+
+    /**
+     * @param   indent  whether {@link #setUpWrite(OutputStream)} and
+     *          {@link #setUpWrite(Writer)} set up indented output (the
+     *          default).
+     */
+    void setIndent(boolean indent);
+
+    void setUpWrite(OutputStream out);
+
+    void setUpWrite(Writer out);
+
+    void setUpWrite(Writer out, boolean indent, boolean nsDecl);
+
+    void setPrefix(String prefix, String uri);
+
+    void writeStartDocument() throws IOException;
+
+    void writeStartElement(String qname) throws SAXException;
+
+    void writeStartElement(String namespace, String localName) throws SAXException;
+
+    void writeStartElement(String prefix, String namespace, String localName)
+            throws SAXException;
+
+    void writeAttribute(String qname, String value);
+
+    void writeAttribute(String namespace, String localName, String value);
+
+    void writeCharacters(String text) throws SAXException;
+
+    void writeCharacters(CharSequence text, boolean cdata) throws SAXException;
+
+    void writeEndElement() throws SAXException;
+
+    void writeEndDocument() throws SAXException;
+
+}
@@ -0,0 +1,219 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.serializer.ext.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes files in the background, so producing their content doesn't
+ * block on file creation – costly on network file systems.
+ * <p>
+ * {@link #newOutputStream(Path)} returns a stream buffering the content
+ * in memory, which is handed to a pool of I/O workers when closed.  The
+ * workers create parent directories, at most once per directory, and
+ * write the content through a {@code FileChannel}.  When all workers are
+ * busy, and the queue of pending files is full, the closing thread
+ * writes the file itself.</p>
+ * <p>
+ * The first failure is reported by {@link #await()}, and by any
+ * following {@code newOutputStream()}.</p>
+ */
+public class WriteBehindOutput implements Closeable {
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private final ThreadPoolExecutor workers;
+    private final Map<Path, Boolean> directories = new ConcurrentHashMap<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private volatile IOException failure;
+
+    /**
+     * @param   workerCount  number of I/O worker threads.
+     */
+    public WriteBehindOutput(int workerCount) {
+        this(workerCount, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param   workerCount  number of I/O worker threads;
+     * @param   capacity  maximum number of files waiting to be written.
+     */
+    public WriteBehindOutput(int workerCount, int capacity) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount,
+                30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(capacity), task -> {
+                    Thread thread = new Thread(task, "write-behind-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        workers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return  number of files written.
+     */
+    public long getFiles() {
+        return files.get();
+    }
+
+    /**
+     * @return  number of bytes written.
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @param   file  the file to write;
+     * @return  a stream which content is written to the given file,
+     *          creating any missing parent directories, after it is
+     *          closed.
+     * @throws  IOException  if writing a previous file has failed.
+     */
+    public OutputStream newOutputStream(Path file) throws IOException {
+        checkFailure();
+        return new Content(file);
+    }
+
+    private void submit(Path file, Content content) {
+        pending.incrementAndGet();
+        workers.execute(() -> {
+            try {
+                if (failure == null) {
+                    write(file, content);
+                }
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    if (failure == null) {
+                        failure = (e instanceof IOException)
+                                  ? (IOException) e
+                                  : new IOException("Could not write " + file, e);
+                    }
+                }
+            } finally {
+                synchronized (this) {
+                    if (pending.decrementAndGet() == 0) {
+                        notifyAll();
+                    }
+                }
+            }
+        });
+    }
+
+    private void write(Path file, Content content) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        try {
+            directories.computeIfAbsent(parent, dir -> {
+                try {
+                    Files.createDirectories(dir);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return Boolean.TRUE;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        ByteBuffer buf = content.toByteBuffer();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        }
+        files.incrementAndGet();
+        bytes.addAndGet(buf.limit());
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException(failure.getMessage(), failure);
+        }
+    }
+
+    /**
+     * Waits for all files submitted so far to be written.
+     *
+     * @throws  IOException  if writing any file has failed.
+     */
+    public void await() throws IOException {
+        boolean interrupted = false;
+        synchronized (this) {
+            while (pending.get() > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        checkFailure();
+    }
+
+    /**
+     * Waits for all pending files to be written, and stops the workers.
+     *
+     * @throws  IOException  if writing any file has failed.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            await();
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+
+    /**
+     * Buffers the content of a file until closed.
+     */
+    private class Content extends ByteArrayOutputStream {
+
+        private final Path file;
+        private boolean closed;
+
+        Content(Path file) {
+            super(8192);
+            this.file = file;
+        }
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count); // No copy
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                submit(file, this);
+            }
+        }
+
+    }
+
+}
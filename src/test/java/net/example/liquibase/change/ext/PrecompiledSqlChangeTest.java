@@ -0,0 +1,225 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.change.ext;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import liquibase.change.Change;
+import liquibase.change.ColumnConfig;
+import liquibase.change.core.CreateTableChange;
+import liquibase.change.core.RawSQLChange;
+import liquibase.changelog.ChangeLogParameters;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.command.CommandResult;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.parser.ChangeLogParserFactory;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import liquibase.resource.CompositeResourceAccessor;
+import liquibase.resource.FileSystemResourceAccessor;
+import liquibase.resource.ResourceAccessor;
+import liquibase.statement.SqlStatement;
+import liquibase.statement.core.RawSqlStatement;
+
+import net.example.liquibase.command.ext.CompileXMLCommand;
+import net.example.liquibase.serializer.ext.EnhancedXMLChangeLogSerializer;
+
+public class PrecompiledSqlChangeTest {
+
+    private static final String SRC = "net/example/liquibase/test/nested/changelog.xml";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void register() {
+        PrecompiledSqlChange.register();
+    }
+
+    private static Database offline(String dbms) throws Exception {
+        return DatabaseFactory.getInstance().openDatabase("offline:" + dbms,
+                null, null, null, new ClassLoaderResourceAccessor());
+    }
+
+    private static DatabaseChangeLog parse(String path, ResourceAccessor resourceAccessor)
+            throws Exception {
+        return ChangeLogParserFactory.getInstance().getParser(path, resourceAccessor)
+                .parse(path, new ChangeLogParameters(), resourceAccessor);
+    }
+
+    @Test
+    public void scriptRoundTrip() throws Exception {
+        DatabaseChangeLog changeLog = new DatabaseChangeLog("app/changelog.xml");
+        ChangeSet changeSet = new ChangeSet("1", "john", false, false,
+                "app/changelog.xml", null, null, changeLog);
+        CreateTableChange createTable = new CreateTableChange();
+        createTable.setTableName("people");
+        createTable.addColumn(new ColumnConfig()
+                .setName("id").setType("INTEGER"));
+        changeSet.addChange(createTable);
+        changeSet.addChange(new RawSQLChange("SELECT 1;\nSELECT 2"));
+        changeLog.addChangeSet(changeSet);
+
+        StringWriter script = new StringWriter();
+        Set<String> written = PrecompiledSqlScript.write(changeLog, offline("derby"), script);
+
+        assertThat(written, contains("app/changelog.xml::1::john#0",
+                                     "app/changelog.xml::1::john#1"));
+        List<String> statements = PrecompiledSqlScript
+                .read(new StringReader(script.toString()))
+                .get("app/changelog.xml::1::john#1");
+        assertThat(statements, contains("SELECT 1", "SELECT 2"));
+    }
+
+    @Test
+    public void dbmsTargeted() throws Exception {
+        DatabaseChangeLog changeLog = new DatabaseChangeLog("app/changelog.xml");
+        ChangeSet changeSet = new ChangeSet("1", "john", false, false,
+                "app/changelog.xml", null, null, changeLog);
+        RawSQLChange derbyOnly = new RawSQLChange("SELECT 1");
+        derbyOnly.setDbms("derby");
+        changeSet.addChange(derbyOnly);
+        changeSet.addChange(new RawSQLChange("SELECT 2"));
+        changeLog.addChangeSet(changeSet);
+
+        assertThat(PrecompiledSqlScript.write(changeLog, offline("derby"), new StringWriter()),
+                   contains("app/changelog.xml::1::john#0", "app/changelog.xml::1::john#1"));
+        assertThat(PrecompiledSqlScript.write(changeLog, offline("h2"), new StringWriter()),
+                   contains("app/changelog.xml::1::john#1"));
+
+        EnhancedXMLChangeLogSerializer serializer = new EnhancedXMLChangeLogSerializer();
+        serializer.setPrecompiledSql("app/changelog.sql",
+                new HashSet<>(Arrays.asList("app/changelog.xml::1::john#0")));
+        String xml = serializer.serialize(changeSet, true);
+        assertThat(xml, containsString("dbms=\"derby\""));
+        assertThat(xml, containsString("<ext:precompiledSql"));
+    }
+
+    @Test
+    public void automaticRollbackKept() throws Exception {
+        DatabaseChangeLog changeLog = new DatabaseChangeLog("app/changelog.xml");
+        changeLog.setChangeLogParameters(new ChangeLogParameters());
+        ChangeSet changeSet = new ChangeSet("1", "john", false, false,
+                "app/changelog.xml", null, null, changeLog);
+        CreateTableChange createTable = new CreateTableChange();
+        createTable.setTableName("people");
+        createTable.addColumn(new ColumnConfig()
+                .setName("id").setType("INTEGER"));
+        changeSet.addChange(createTable);
+        changeLog.addChangeSet(changeSet);
+
+        Set<String> written = PrecompiledSqlScript.write(changeLog,
+                offline("derby"), new StringWriter());
+        assertThat(written, contains("app/changelog.xml::1::john#0"));
+
+        EnhancedXMLChangeLogSerializer serializer = new EnhancedXMLChangeLogSerializer();
+        serializer.setPrecompiledSql("app/changelog.sql", written);
+        String xml = serializer.serialize(changeSet, true);
+        assertThat(xml, containsString("<ext:precompiledSql"));
+        assertThat(xml, containsString("<rollback>"));
+        assertThat(xml, containsString("<dropTable tableName=\"people\"/>"));
+    }
+
+    @Test
+    public void compiledSubstitution() throws Exception {
+        Path out = tempFolder.getRoot().toPath();
+        CompileXMLCommand command = new CompileXMLCommand();
+        command.setSrc(SRC);
+        command.setOut(out.toString());
+        command.setSqlDialects("derby,h2");
+        command.setPrecompiledSql(true);
+        command.setVerify(true);
+        CommandResult result = command.execute();
+        assertThat(result.message, is("Compiled successfully"));
+
+        ResourceAccessor sourceAccessor = new ClassLoaderResourceAccessor();
+        DatabaseChangeLog source = parse(SRC, sourceAccessor);
+        DatabaseChangeLog compiled = parse(SRC, new CompositeResourceAccessor(
+                new FileSystemResourceAccessor(out.toString()), sourceAccessor));
+
+        assertThat(compiled.getChangeSets(), hasSize(source.getChangeSets().size()));
+        int precompiled = 0;
+        for (int i = 0; i < source.getChangeSets().size(); i++) {
+            ChangeSet sourceSet = source.getChangeSets().get(i);
+            ChangeSet compiledSet = compiled.getChangeSets().get(i);
+            assertThat(compiledSet.toString(false), is(sourceSet.toString(false)));
+            assertThat(compiledSet.generateCheckSum(), is(sourceSet.generateCheckSum()));
+            for (Change change : compiledSet.getChanges()) {
+                if (change instanceof PrecompiledSqlChange) {
+                    precompiled++;
+                }
+            }
+        }
+        assertThat("precompiled changes", precompiled, is(5));
+
+        Database derby = offline("derby");
+        for (ChangeSet changeSet : compiled.getChangeSets()) {
+            for (Change change : changeSet.getChanges()) {
+                if (change instanceof PrecompiledSqlChange) {
+                    assertThat(change.validate(derby).getErrorMessages(), is(empty()));
+                    assertThat(change.generateStatements(derby).length, is(greaterThan(0)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rewrittenScriptReloaded() throws Exception {
+        File dir = tempFolder.getRoot();
+        Path script = dir.toPath().resolve("app/changelog.derby.sql");
+        Files.createDirectories(script.getParent());
+
+        DatabaseChangeLog changeLog = new DatabaseChangeLog("app/changelog.xml");
+        ChangeSet changeSet = new ChangeSet("1", "john", false, false,
+                "app/changelog.xml", null, null, changeLog);
+        PrecompiledSqlChange change = new PrecompiledSqlChange();
+        change.setPath("app/changelog.sql");
+        change.setChangeIndex(0);
+        change.setResourceAccessor(new FileSystemResourceAccessor(dir.getAbsolutePath()));
+        changeSet.addChange(change);
+        Database derby = offline("derby");
+
+        // Missing script is not cached.
+        assertThat(change.validate(derby).getErrorMessages(), hasSize(1));
+
+        writeScript(script, "SELECT 1");
+        assertThat(statement(change.generateStatements(derby)), is("SELECT 1"));
+
+        writeScript(script, "SELECT 22");
+        script.toFile().setLastModified(script.toFile().lastModified() + 2000);
+        assertThat(statement(change.generateStatements(derby)), is("SELECT 22"));
+    }
+
+    private static void writeScript(Path script, String sql) throws Exception {
+        String text = "--changeSet app/changelog.xml::1::john\n"
+                + "--change 0\n"
+                + "--statement " + sql.length() + "\n" + sql + "\n";
+        Files.write(script, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String statement(SqlStatement[] statements) {
+        assertThat(statements.length, is(1));
+        return ((RawSqlStatement) statements[0]).getSql();
+    }
+
+}
@@ -0,0 +1,191 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.changelog.ext;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import liquibase.changelog.ChangeLogParameters;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.command.CommandResult;
+import liquibase.parser.ChangeLogParserFactory;
+import liquibase.resource.FileSystemResourceAccessor;
+
+import net.example.liquibase.command.ext.CompileXMLCommand;
+
+public class ChangeLogDeltaTest {
+
+    // Not on the class path, so the copies are read.
+    private static final String DIR = "delta-test/";
+
+    private static final String SRC = DIR + "changelog.xml";
+
+    private static final String HEADER = "<databaseChangeLog"
+            + " xmlns='http://www.liquibase.org/xml/ns/dbchangelog'"
+            + " xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'"
+            + " xsi:schemaLocation='http://www.liquibase.org/xml/ns/dbchangelog"
+            + " http://www.liquibase.org/xml/ns/dbchangelog/dbchangelog-3.8.xsd'";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path baseDir;
+
+    private Path sourceDir;
+
+    @Before
+    public void setUp() throws Exception {
+        baseDir = tempFolder.newFolder("base").toPath();
+        sourceDir = tempFolder.newFolder("src").toPath();
+        write(baseDir, "changelog.xml", HEADER + ">\n"
+                + "  <changeSet id='1' author='john'>\n"
+                + "    <sql>UPDATE people SET name = 'a'</sql>\n"
+                + "  </changeSet>\n"
+                + "  <changeSet id='2' author='john' runAlways='true'>\n"
+                + "    <sql>UPDATE people SET name = 'b'</sql>\n"
+                + "  </changeSet>\n"
+                + "  <include file='part.xml' relativeToChangelogFile='true'/>\n"
+                + "  <changeSet id='9' author='john'>\n"
+                + "    <sql>UPDATE people SET name = 'z'</sql>\n"
+                + "  </changeSet>\n"
+                + "</databaseChangeLog>\n");
+        write(baseDir, "part.xml", HEADER + " logicalFilePath='legacy/part.xml'>\n"
+                + "  <changeSet id='3' author='jane' runOnChange='true'>\n"
+                + "    <sql>UPDATE people SET name = 'c'</sql>\n"
+                + "  </changeSet>\n"
+                + "  <changeSet id='4' author='jane'>\n"
+                + "    <sql>UPDATE people SET name = 'd'</sql>\n"
+                + "  </changeSet>\n"
+                + "</databaseChangeLog>\n");
+
+        // 3 changed, 5 new, 9 removed
+        write(sourceDir, "changelog.xml", HEADER + ">\n"
+                + "  <changeSet id='1' author='john'>\n"
+                + "    <sql>UPDATE people SET name = 'a'</sql>\n"
+                + "  </changeSet>\n"
+                + "  <changeSet id='2' author='john' runAlways='true'>\n"
+                + "    <sql>UPDATE people SET name = 'b'</sql>\n"
+                + "  </changeSet>\n"
+                + "  <include file='part.xml' relativeToChangelogFile='true'/>\n"
+                + "</databaseChangeLog>\n");
+        write(sourceDir, "part.xml", HEADER + " logicalFilePath='legacy/part.xml'>\n"
+                + "  <changeSet id='3' author='jane' runOnChange='true'>\n"
+                + "    <sql>UPDATE people SET name = 'changed'</sql>\n"
+                + "  </changeSet>\n"
+                + "  <changeSet id='4' author='jane'>\n"
+                + "    <sql>UPDATE people SET name = 'd'</sql>\n"
+                + "  </changeSet>\n"
+                + "  <changeSet id='5' author='jane'>\n"
+                + "    <sql>UPDATE people SET name = 'e'</sql>\n"
+                + "  </changeSet>\n"
+                + "</databaseChangeLog>\n");
+    }
+
+    private static void write(Path root, String name, String content) throws Exception {
+        Path file = root.resolve(DIR).resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static DatabaseChangeLog parse(Path root) throws Exception {
+        FileSystemResourceAccessor resourceAccessor =
+                new FileSystemResourceAccessor(root.toString());
+        return ChangeLogParserFactory.getInstance().getParser(SRC, resourceAccessor)
+                .parse(SRC, new ChangeLogParameters(), resourceAccessor);
+    }
+
+    private static List<String> ids(List<ChangeSet> changeSets) {
+        List<String> ids = new ArrayList<>();
+        for (ChangeSet changeSet : changeSets) {
+            ids.add(changeSet.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void selected() throws Exception {
+        ChangeLogDelta delta = new ChangeLogDelta(ChangeSetIdentityIndex.of(parse(baseDir)));
+        DatabaseChangeLog changeLog = parse(sourceDir);
+        delta.reduce(changeLog);
+
+        assertThat(ids(delta.getAdded()), contains("5"));
+        assertThat(ids(delta.getChanged()), contains("3"));
+        assertThat(ids(delta.getRunAlways()), contains("2"));
+        assertThat(delta.getRejected(), is(empty()));
+        assertThat(delta.getUnchanged(), is(2));
+        assertThat(delta.getRemoved(), is(1));
+
+        assertThat(ids(changeLog.getChangeSets()), contains("2", "3", "5"));
+        assertThat(changeLog.getChangeSets().get(0).getFilePath(), is(SRC));
+        assertThat(changeLog.getChangeSets().get(1).getFilePath(), is("legacy/part.xml"));
+        assertThat(changeLog.getChangeSets().get(2).getFilePath(), is("legacy/part.xml"));
+    }
+
+    @Test
+    public void compiled() throws Exception {
+        Path out = tempFolder.newFolder("out").toPath();
+        CompileXMLCommand command = new CompileXMLCommand();
+        command.setSrc(SRC);
+        command.setClasspath(sourceDir.toString());
+        command.setOut(out.toString());
+        command.setDeltaFrom(baseDir.toString());
+        CommandResult result = command.execute();
+        assertThat(result.message, is("Compiled successfully"));
+
+        DatabaseChangeLog changeLog = parse(out);
+        assertThat(ids(changeLog.getChangeSets()), contains("2", "3", "5"));
+        assertThat(changeLog.getChangeSets().get(1).getFilePath(), is("legacy/part.xml"));
+        assertThat(changeLog.getChangeSets().get(2).getFilePath(), is("legacy/part.xml"));
+    }
+
+    @Test
+    public void changedRejected() throws Exception {
+        write(sourceDir, "changelog.xml", HEADER + ">\n"
+                + "  <changeSet id='1' author='john'>\n"
+                + "    <sql>UPDATE people SET name = 'changed'</sql>\n"
+                + "  </changeSet>\n"
+                + "</databaseChangeLog>\n");
+        ChangeLogDelta delta = new ChangeLogDelta(ChangeSetIdentityIndex.of(parse(baseDir)));
+        delta.reduce(parse(sourceDir));
+        assertThat(ids(delta.getRejected()), contains("1"));
+
+        Path out = tempFolder.newFolder("out").toPath();
+        CompileXMLCommand command = new CompileXMLCommand();
+        command.setSrc(SRC);
+        command.setClasspath(sourceDir.toString());
+        command.setOut(out.toString());
+        command.setDeltaFrom(baseDir.toString());
+        CommandResult result = command.execute();
+        assertThat(result.succeeded, is(false));
+        assertThat(result.message, containsString(SRC + "::1::john"));
+    }
+
+    @Test
+    public void validCheckSumAccepted() throws Exception {
+        write(sourceDir, "changelog.xml", HEADER + ">\n"
+                + "  <changeSet id='1' author='john'>\n"
+                + "    <validCheckSum>ANY</validCheckSum>\n"
+                + "    <sql>UPDATE people SET name = 'changed'</sql>\n"
+                + "  </changeSet>\n"
+                + "</databaseChangeLog>\n");
+        ChangeLogDelta delta = new ChangeLogDelta(ChangeSetIdentityIndex.of(parse(baseDir)));
+        delta.reduce(parse(sourceDir));
+        assertThat(ids(delta.getChanged()), contains("1"));
+        assertThat(delta.getRejected(), is(empty()));
+    }
+
+}
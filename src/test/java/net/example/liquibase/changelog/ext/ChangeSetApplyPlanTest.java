@@ -0,0 +1,122 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.changelog.ext;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import liquibase.change.Change;
+import liquibase.change.ColumnConfig;
+import liquibase.change.ConstraintsConfig;
+import liquibase.change.core.AddForeignKeyConstraintChange;
+import liquibase.change.core.CreateTableChange;
+import liquibase.change.core.CreateViewChange;
+import liquibase.change.core.RawSQLChange;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+
+public class ChangeSetApplyPlanTest {
+
+    private static void changeSet(DatabaseChangeLog changeLog, String id, Change change) {
+        ChangeSet changeSet = new ChangeSet(id, "john", false, false,
+                "app/changelog.xml", null, null, changeLog);
+        changeSet.addChange(change);
+        changeLog.addChangeSet(changeSet);
+    }
+
+    private static CreateTableChange createTable(String name) {
+        CreateTableChange change = new CreateTableChange();
+        change.setTableName(name);
+        change.addColumn(new ColumnConfig().setName("id").setType("INTEGER"));
+        return change;
+    }
+
+    private static DatabaseChangeLog changeLog() {
+        DatabaseChangeLog changeLog = new DatabaseChangeLog("app/changelog.xml");
+        changeSet(changeLog, "1", createTable("orders"));
+        changeSet(changeLog, "2", createTable("PUBLIC.People"));
+
+        AddForeignKeyConstraintChange foreignKey = new AddForeignKeyConstraintChange();
+        foreignKey.setBaseTableName("orders");
+        foreignKey.setBaseColumnNames("person_id");
+        foreignKey.setReferencedTableName("people");
+        foreignKey.setReferencedColumnNames("id");
+        foreignKey.setConstraintName("fk_orders_people");
+        changeSet(changeLog, "3", foreignKey);
+
+        CreateTableChange addresses = createTable("addresses");
+        addresses.addColumn(new ColumnConfig().setName("person_id").setType("INTEGER")
+                .setConstraints(new ConstraintsConfig().setReferences("people(id)")
+                                                       .setForeignKeyName("fk_addr_people")));
+        changeSet(changeLog, "4", addresses);
+
+        changeSet(changeLog, "5", new RawSQLChange("UPDATE orders SET id = id"));
+        changeSet(changeLog, "6", createTable("audit"));
+        changeSet(changeLog, "7", new RawSQLChange("-- @writes audit\n"
+                + "INSERT INTO audit (id) VALUES (1)"));
+
+        CreateViewChange view = new CreateViewChange();
+        view.setViewName("order_view");
+        view.setSelectQuery("SELECT * FROM orders");
+        changeSet(changeLog, "8", view);
+
+        changeSet(changeLog, "9", createTable("later"));
+        return changeLog;
+    }
+
+    private static List<String> describe(List<ChangeSetApplyPlan.Entry> entries) {
+        List<String> result = new ArrayList<>();
+        for (ChangeSetApplyPlan.Entry entry : entries) {
+            result.add(entry.getGroup() + " " + entry.getId() + " " + entry.getObjects());
+        }
+        return result;
+    }
+
+    @Test
+    public void grouping() {
+        ChangeSetApplyPlan plan = ChangeSetApplyPlan.of(changeLog());
+
+        assertThat(describe(plan.getEntries()), contains(
+                "0 1 w:orders",
+                "0 2 w:people",
+                "1 3 r:people w:orders",
+                "1 4 r:people w:addresses",
+                "2 5 *",
+                "3 6 w:audit",
+                "4 7 w:audit",
+                "5 8 r:* w:order_view",
+                "6 9 w:later"));
+    }
+
+    @Test
+    public void barrier() {
+        List<List<ChangeSetApplyPlan.Entry>> groups = ChangeSetApplyPlan.of(changeLog()).getGroups();
+
+        assertThat(groups, hasSize(7));
+        assertThat(groups.get(2), hasSize(1));
+        assertThat(groups.get(2).get(0).isBarrier(), is(true));
+        assertThat(groups.get(3).get(0).isBarrier(), is(false));
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        ChangeSetApplyPlan plan = ChangeSetApplyPlan.of(changeLog());
+        StringWriter out = new StringWriter();
+        plan.write(out);
+
+        ChangeSetApplyPlan read = ChangeSetApplyPlan.read(new StringReader(out.toString()));
+
+        assertThat(describe(read.getEntries()), is(describe(plan.getEntries())));
+        assertThat(read.getEntries().get(0).toString(), is("app/changelog.xml::1::john"));
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.changelog.ext;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import liquibase.changelog.ChangeLogParameters;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.command.CommandResult;
+import liquibase.parser.ChangeLogParserFactory;
+import liquibase.resource.FileSystemResourceAccessor;
+import liquibase.resource.ResourceAccessor;
+
+import net.example.liquibase.command.ext.CompileXMLCommand;
+
+public class ChangeSetOffsetIndexTest {
+
+    private static final String SRC = "net/example/liquibase/test/nested/changelog.xml";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static String describe(ChangeSet changeSet) {
+        return changeSet.toString() + " " + changeSet.getContexts()
+                + " " + changeSet.getLabels() + " " + changeSet.generateCheckSum();
+    }
+
+    private Path compile(boolean pipelined) throws Exception {
+        Path out = tempFolder.newFolder().toPath();
+        CompileXMLCommand command = new CompileXMLCommand();
+        command.setSrc(SRC);
+        command.setOut(out.toString());
+        command.setOffsetIndex(true);
+        command.setPipelined(pipelined);
+        CommandResult result = command.execute();
+        assertThat(result.message, is("Compiled successfully"));
+        return out;
+    }
+
+    private static ChangeSetOffsetIndex readIndex(Path out) throws Exception {
+        try (Reader in = Files.newBufferedReader(out.resolve(ChangeSetOffsetIndex
+                .indexPath(SRC)), StandardCharsets.UTF_8)) {
+            return ChangeSetOffsetIndex.read(in);
+        }
+    }
+
+    @Test
+    public void sameAsFullParse() throws Exception {
+        for (boolean pipelined : new boolean[] { false, true }) {
+            Path out = compile(pipelined);
+            ChangeSetOffsetIndex index = readIndex(out);
+            assertThat("pipelined " + pipelined, index.getEntries(), hasSize(5));
+            assertThat("pipelined " + pipelined, index.getProperties(), hasSize(2));
+
+            ResourceAccessor resourceAccessor = new FileSystemResourceAccessor(out.toString());
+            DatabaseChangeLog full = ChangeLogParserFactory.getInstance()
+                    .getParser(SRC, resourceAccessor)
+                    .parse(SRC, new ChangeLogParameters(), resourceAccessor);
+            Map<String, String> expected = new HashMap<>();
+            for (ChangeSet changeSet : full.getChangeSets()) {
+                expected.put(changeSet.getId(), describe(changeSet));
+            }
+
+            List<ChangeSetOffsetIndex.Entry> selected = new ArrayList<>();
+            for (ChangeSetOffsetIndex.Entry entry : index.getEntries()) {
+                if (!entry.getId().equals("3")) {
+                    selected.add(entry);
+                }
+            }
+            List<ChangeSet> loaded = index.load(resourceAccessor, selected);
+
+            assertThat(loaded, hasSize(4));
+            for (int i = 0; i < loaded.size(); i++) {
+                ChangeSet changeSet = loaded.get(i);
+                assertThat(changeSet.getId(), is(selected.get(i).getId()));
+                assertThat("pipelined " + pipelined, describe(changeSet),
+                           is(expected.get(changeSet.getId())));
+            }
+        }
+    }
+
+    @Test
+    public void propertiesFromOtherFiles() throws Exception {
+        Path out = compile(false);
+        ChangeSetOffsetIndex index = readIndex(out);
+        List<ChangeSetOffsetIndex.Entry> selected = new ArrayList<>();
+        for (ChangeSetOffsetIndex.Entry entry : index.getEntries()) {
+            if (entry.getId().equals("2")) {
+                selected.add(entry);
+            }
+        }
+        List<ChangeSet> loaded = index.load(new FileSystemResourceAccessor(out.toString()),
+                                            selected);
+
+        // Declared in the root changelog, used by runtime references
+        DatabaseChangeLog changeLog = loaded.get(0).getChangeLog();
+        ChangeLogParameters parameters = changeLog.getChangeLogParameters();
+        assertThat(parameters.getValue("prefix", changeLog), is("app_"));
+        assertThat(parameters.getValue("status.default", changeLog), is("NEW"));
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.changelog.ext;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import liquibase.change.core.RawSQLChange;
+import liquibase.change.core.SQLFileChange;
+import liquibase.changelog.ChangeLogParameters;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.command.CommandResult;
+import liquibase.parser.ChangeLogParserFactory;
+import liquibase.resource.CompositeResourceAccessor;
+import liquibase.resource.FileSystemResourceAccessor;
+import liquibase.resource.ResourceAccessor;
+
+import net.example.liquibase.command.ext.CompileXMLCommand;
+
+public class CompileTimeParametersTest {
+
+    // Not on the class path, so the copy is read.
+    private static final String DIR = "params-test/";
+
+    private static final String SRC = DIR + "changelog.xml";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path sourceDir;
+
+    @Before
+    public void setUp() throws Exception {
+        sourceDir = tempFolder.newFolder("src").toPath();
+        Path dir = sourceDir.resolve(DIR);
+        Files.createDirectories(dir);
+        Files.write(dir.resolve("changelog.xml"), ("<databaseChangeLog"
+                + " xmlns='http://www.liquibase.org/xml/ns/dbchangelog'"
+                + " xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'"
+                + " xsi:schemaLocation='http://www.liquibase.org/xml/ns/dbchangelog"
+                + " http://www.liquibase.org/xml/ns/dbchangelog/dbchangelog-3.8.xsd'>\n"
+                + "  <property name='table' value='people'/>\n"
+                + "  <property name='status' value='1'/>\n"
+                + "  <changeSet id='1' author='john'>\n"
+                + "    <sql>UPDATE ${table} SET name = ${missing}</sql>\n"
+                + "  </changeSet>\n"
+                + "  <changeSet id='2' author='john'>\n"
+                + "    <sqlFile path='update.sql' relativeToChangelogFile='true'/>\n"
+                + "  </changeSet>\n"
+                + "</databaseChangeLog>\n").getBytes(StandardCharsets.UTF_8));
+        Files.write(dir.resolve("update.sql"),
+                "UPDATE people SET status = ${status} WHERE id = ${undeclared}"
+                        .getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static DatabaseChangeLog parse(String path, ChangeLogParameters params,
+                                           ResourceAccessor resourceAccessor) throws Exception {
+        return ChangeLogParserFactory.getInstance().getParser(path, resourceAccessor)
+                .parse(path, params, resourceAccessor);
+    }
+
+    @Test
+    public void scan() throws Exception {
+        DatabaseChangeLog changeLog = parse(SRC, CompileTimeParameters.of(null,
+                        Collections.singletonMap("table", "orders"), null, null),
+                new FileSystemResourceAccessor(sourceDir.toString()));
+
+        CompileTimeParameters parameters = new CompileTimeParameters(changeLog);
+        parameters.scan();
+
+        assertThat(parameters.getUnresolved().keySet(), contains("missing", "undeclared"));
+        assertThat(parameters.getUnresolved().get("missing"),
+                   contains(SRC + "::1::john"));
+        assertThat(parameters.getUnresolved().get("undeclared"),
+                   contains(SRC + "::2::john (update.sql)"));
+        assertThat(parameters.getRuntimeReferenced(), contains("status"));
+
+        // The given values take precedence over the declarations.
+        RawSQLChange sql = (RawSQLChange) changeLog.getChangeSets().get(0).getChanges().get(0);
+        assertThat(sql.getSql(), is("UPDATE orders SET name = ${missing}"));
+    }
+
+    @Test
+    public void expandedOutput() throws Exception {
+        Path parametersFile = tempFolder.getRoot().toPath().resolve("target.properties");
+        Files.write(parametersFile, "table=orders\n".getBytes(StandardCharsets.UTF_8));
+        Path out = tempFolder.newFolder("out").toPath();
+
+        CompileXMLCommand command = new CompileXMLCommand();
+        command.setSrc(SRC);
+        command.setClasspath(sourceDir.toString());
+        command.setOut(out.toString());
+        command.setExpandParameters(true);
+        command.setParametersFile(parametersFile.toString());
+        CommandResult result = command.execute();
+        assertThat(result.message, is("Compiled successfully"));
+
+        String compiled = new String(Files.readAllBytes(out.resolve(SRC)), StandardCharsets.UTF_8);
+        assertThat(compiled, containsString("UPDATE orders SET name = ${missing}"));
+        assertThat(compiled, not(containsString("name=\"table\"")));
+        // Referenced by the sqlFile, expanded at runtime
+        assertThat(compiled, containsString("<property name=\"status\" value=\"1\"/>"));
+
+        ResourceAccessor runtimeAccessor = new CompositeResourceAccessor(Arrays.asList(
+                new FileSystemResourceAccessor(out.toString()),
+                new FileSystemResourceAccessor(sourceDir.toString())));
+        DatabaseChangeLog changeLog = parse(SRC, new ChangeLogParameters(), runtimeAccessor);
+        ChangeSet changeSet = changeLog.getChangeSets().get(1);
+        SQLFileChange sqlFile = (SQLFileChange) changeSet.getChanges().get(0);
+        sqlFile.finishInitialization();
+        assertThat(sqlFile.getSql(),
+                   is("UPDATE people SET status = 1 WHERE id = ${undeclared}"));
+    }
+
+}
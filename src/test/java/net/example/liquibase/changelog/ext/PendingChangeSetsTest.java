@@ -0,0 +1,149 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.changelog.ext;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import liquibase.Contexts;
+import liquibase.LabelExpression;
+import liquibase.changelog.ChangeLogParameters;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.ValidationFailedException;
+import liquibase.parser.ChangeLogParserFactory;
+import liquibase.resource.FileSystemResourceAccessor;
+import liquibase.resource.ResourceAccessor;
+
+public class PendingChangeSetsTest {
+
+    private static final String URL = "jdbc:derby:memory:pendingChangeSets";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Database database;
+
+    private ResourceAccessor resourceAccessor;
+
+    @BeforeClass
+    public static void init() {
+        System.setProperty("derby.stream.error.file",
+                new File("target/derby.log").getAbsolutePath());
+    }
+
+    @Before
+    public void open() throws Exception {
+        database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(
+                new JdbcConnection(DriverManager.getConnection(URL + ";create=true")));
+        resourceAccessor = new FileSystemResourceAccessor(tempFolder.getRoot().getAbsolutePath());
+    }
+
+    @After
+    public void close() throws Exception {
+        database.close();
+        try (Connection ignored = DriverManager.getConnection(URL + ";drop=true")) {
+            // Expected to fail with the "dropped" state.
+        } catch (SQLException e) {
+            // 08006: Database dropped.
+        }
+    }
+
+    private void compile(String insertValue, String updateValue) throws Exception {
+        Path dir = tempFolder.getRoot().toPath();
+        String xml = "<databaseChangeLog"
+                + " xmlns='http://www.liquibase.org/xml/ns/dbchangelog'"
+                + " xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'"
+                + " xsi:schemaLocation='http://www.liquibase.org/xml/ns/dbchangelog"
+                + " http://www.liquibase.org/xml/ns/dbchangelog/dbchangelog-3.8.xsd'>\n"
+                + "  <changeSet id='1' author='john'>\n"
+                + "    <createTable tableName='people'>\n"
+                + "      <column name='id' type='INTEGER'/>\n"
+                + "    </createTable>\n"
+                + "  </changeSet>\n"
+                + "  <changeSet id='2' author='john'>\n"
+                + "    <sql>INSERT INTO people (id) VALUES (" + insertValue + ")</sql>\n"
+                + "  </changeSet>\n"
+                + "  <changeSet id='3' author='john' runOnChange='true'>\n"
+                + "    <sql>UPDATE people SET id = " + updateValue + "</sql>\n"
+                + "  </changeSet>\n"
+                + "</databaseChangeLog>\n";
+        Files.write(dir.resolve("changelog.xml"), xml.getBytes(StandardCharsets.UTF_8));
+        try (Writer out = Files.newBufferedWriter(dir.resolve("changelog.index"))) {
+            ChangeSetIdentityIndex.of(ChangeLogParserFactory.getInstance()
+                    .getParser("changelog.xml", resourceAccessor)
+                    .parse("changelog.xml", new ChangeLogParameters(), resourceAccessor))
+                    .write(out);
+        }
+    }
+
+    private List<ChangeSetIdentityIndex.Entry> pending() throws Exception {
+        try (Reader in = Files.newBufferedReader(tempFolder.getRoot().toPath()
+                .resolve("changelog.index"))) {
+            return PendingChangeSets.find(database, ChangeSetIdentityIndex.read(in));
+        }
+    }
+
+    private boolean update() throws Exception {
+        return PendingChangeSets.update("changelog.xml", resourceAccessor, database,
+                                        new Contexts(), new LabelExpression());
+    }
+
+    @Test
+    public void upToDate() throws Exception {
+        compile("1", "1");
+        assertThat(pending(), hasSize(3));
+        assertThat(update(), is(true));
+
+        assertThat(pending(), is(empty()));
+        assertThat(update(), is(false));
+    }
+
+    @Test
+    public void runOnChangeModified() throws Exception {
+        compile("1", "1");
+        update();
+        compile("1", "2");
+
+        assertThat(pending(), contains(hasToString("changelog.xml::3::john")));
+        assertThat(update(), is(true));
+        assertThat(pending(), is(empty()));
+    }
+
+    @Test
+    public void otherModified() throws Exception {
+        compile("1", "1");
+        update();
+        compile("2", "1");
+
+        assertThat(pending(), contains(hasToString("changelog.xml::2::john")));
+        try {
+            update();
+            throw new AssertionError("Modified change set passed validation");
+        } catch (ValidationFailedException e) {
+            assertThat(e.getMessage(), containsString("changelog.xml::2::john"));
+        }
+    }
+
+}
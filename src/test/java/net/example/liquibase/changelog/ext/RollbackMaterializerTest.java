@@ -0,0 +1,120 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.changelog.ext;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import liquibase.change.AddColumnConfig;
+import liquibase.change.Change;
+import liquibase.change.ColumnConfig;
+import liquibase.change.core.AddColumnChange;
+import liquibase.change.core.CreateTableChange;
+import liquibase.change.core.DropColumnChange;
+import liquibase.change.core.DropTableChange;
+import liquibase.change.core.RawSQLChange;
+import liquibase.changelog.ChangeLogParameters;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.database.ObjectQuotingStrategy;
+
+import net.example.liquibase.serializer.ext.EnhancedXMLChangeLogSerializer;
+
+public class RollbackMaterializerTest {
+
+    private static ChangeSet changeSet(String id, Change... changes) {
+        DatabaseChangeLog changeLog = new DatabaseChangeLog("app/changelog.xml");
+        changeLog.setChangeLogParameters(new ChangeLogParameters());
+        ChangeSet changeSet = new ChangeSet(id, "john", false, false, "app/changelog.xml",
+                null, null, ObjectQuotingStrategy.LEGACY, changeLog);
+        for (Change change : changes) {
+            changeSet.addChange(change);
+        }
+        changeLog.addChangeSet(changeSet);
+        return changeSet;
+    }
+
+    private static CreateTableChange createTable() {
+        CreateTableChange change = new CreateTableChange();
+        change.setTableName("people");
+        change.addColumn(new ColumnConfig().setName("id").setType("INTEGER"));
+        return change;
+    }
+
+    private static AddColumnChange addColumn() {
+        AddColumnChange change = new AddColumnChange();
+        change.setTableName("people");
+        AddColumnConfig column = new AddColumnConfig();
+        column.setName("status");
+        column.setType("CHAR(5)");
+        change.addColumn(column);
+        return change;
+    }
+
+    @Test
+    public void inversesInReverseOrder() throws Exception {
+        assertThat(RollbackMaterializer.isSupported(), is(true));
+        ChangeSet changeSet = changeSet("1", createTable(), addColumn());
+        String checkSum = changeSet.generateCheckSum().toString();
+
+        RollbackMaterializer materializer = new RollbackMaterializer();
+        List<Change> rollback = materializer.materialize(changeSet);
+
+        assertThat(rollback, hasSize(2));
+        DropColumnChange dropColumn = (DropColumnChange) rollback.get(0);
+        assertThat(dropColumn.getTableName(), is("people"));
+        assertThat(dropColumn.getColumns().get(0).getName(), is("status"));
+        DropTableChange dropTable = (DropTableChange) rollback.get(1);
+        assertThat(dropTable.getTableName(), is("people"));
+        assertThat(materializer.getMaterialized(), is(1));
+
+        // The model is left as is
+        assertThat(changeSet.getRollback().getChanges(), is(empty()));
+        assertThat(changeSet.generateCheckSum().toString(), is(checkSum));
+    }
+
+    @Test
+    public void explicitRollbackKept() throws Exception {
+        ChangeSet changeSet = changeSet("1", createTable());
+        changeSet.addRollbackChange(new RawSQLChange("DROP TABLE people"));
+
+        RollbackMaterializer materializer = new RollbackMaterializer();
+        assertThat(materializer.materialize(changeSet), is(nullValue()));
+        assertThat(materializer.getMaterialized(), is(0));
+    }
+
+    @Test
+    public void impossibleMarked() throws Exception {
+        ChangeSet changeSet = changeSet("1", createTable(), new RawSQLChange("SELECT 1"));
+
+        RollbackMaterializer materializer = new RollbackMaterializer();
+        assertThat(materializer.materialize(changeSet), is(nullValue()));
+        assertThat(materializer.getImpossibleReason(changeSet), is("sql"));
+        assertThat(materializer.getImpossible().keySet(), contains(changeSet));
+    }
+
+    @Test
+    public void serialized() throws Exception {
+        ChangeSet reversible = changeSet("1", createTable());
+        ChangeSet irreversible = changeSet("2", new RawSQLChange("SELECT 1"));
+
+        EnhancedXMLChangeLogSerializer serializer = new EnhancedXMLChangeLogSerializer();
+        serializer.setRollbackMaterializer(new RollbackMaterializer());
+
+        String xml = serializer.serialize(reversible, true);
+        assertThat(xml, containsString("<rollback>"));
+        assertThat(xml, containsString("<dropTable tableName=\"people\"/>"));
+        assertThat(reversible.getRollback().getChanges(), is(empty()));
+
+        xml = serializer.serialize(irreversible, true);
+        assertThat(xml, containsString("ext:rollbackImpossible=\"sql\""));
+        assertThat(xml, not(containsString("<rollback>")));
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.changelog.ext;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import liquibase.change.ColumnConfig;
+import liquibase.change.core.CreateTableChange;
+import liquibase.change.core.RawSQLChange;
+import liquibase.changelog.ChangeLogParameters;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.command.CommandResult;
+import liquibase.parser.ChangeLogParserFactory;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import liquibase.resource.CompositeResourceAccessor;
+import liquibase.resource.FileSystemResourceAccessor;
+import liquibase.resource.ResourceAccessor;
+
+import net.example.liquibase.command.ext.CompileXMLCommand;
+
+public class StringDeduplicatorTest {
+
+    private static final String SRC = "net/example/liquibase/test/nested/changelog.xml";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void traversesUnmodifiableList() {
+        DatabaseChangeLog changeLog = new DatabaseChangeLog("db/changelog.xml");
+        ChangeSet changeSet = new ChangeSet("1", "john", false, false,
+                "db/changelog.xml", null, null, changeLog);
+        CreateTableChange createTable = new CreateTableChange();
+        createTable.setTableName(new String("people"));
+        ColumnConfig column = new ColumnConfig().setName(new String("people"));
+        changeSet.addChange(createTable);
+        changeSet.addChange(new ListChange(Collections.unmodifiableList(
+                Arrays.asList(new String("x"), new String("x"), column))));
+        changeLog.addChangeSet(changeSet);
+
+        new StringDeduplicator().deduplicate(changeLog);
+
+        assertThat(column.getName(), is(sameInstance(createTable.getTableName())));
+    }
+
+    @Test
+    public void sameOutput() throws Exception {
+        Path plain = compile("plain", false);
+        Path deduplicated = compile("deduplicated", true);
+
+        Map<Path, String> expected = contents(plain);
+        assertThat(expected.keySet(), is(not(empty())));
+        assertThat(contents(deduplicated), is(expected));
+
+        List<String> checkSums = checkSums(plain);
+        assertThat(checkSums(deduplicated), is(checkSums));
+        assertThat(checkSums, is(checkSums(null)));
+    }
+
+    private Path compile(String name, boolean deduplicate) throws Exception {
+        Path out = tempFolder.newFolder(name).toPath();
+        CompileXMLCommand command = new CompileXMLCommand();
+        command.setSrc(SRC);
+        command.setOut(out.toString());
+        command.setDeduplicateStrings(deduplicate);
+        CommandResult result = command.execute();
+        assertThat(result.message, is("Compiled successfully"));
+        return out;
+    }
+
+    private static Map<Path, String> contents(Path dir) throws Exception {
+        Map<Path, String> contents = new TreeMap<>();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                contents.put(dir.relativize(file), new String(Files.readAllBytes(file), "UTF-8"));
+            }
+        }
+        return contents;
+    }
+
+    private static List<String> checkSums(Path dir) throws Exception {
+        ResourceAccessor resourceAccessor = (dir == null)
+                ? new ClassLoaderResourceAccessor()
+                : new CompositeResourceAccessor(new FileSystemResourceAccessor(dir.toString()),
+                                                new ClassLoaderResourceAccessor());
+        DatabaseChangeLog changeLog = ChangeLogParserFactory.getInstance()
+                .getParser(SRC, resourceAccessor)
+                .parse(SRC, new ChangeLogParameters(), resourceAccessor);
+        return changeLog.getChangeSets().stream()
+                .map(changeSet -> changeSet + "=" + changeSet.generateCheckSum())
+                .collect(Collectors.toList());
+    }
+
+
+    static class ListChange extends RawSQLChange {
+
+        final List<Object> values;
+
+        ListChange(List<Object> values) {
+            super("SELECT 1");
+            this.values = values;
+        }
+
+    }
+
+}
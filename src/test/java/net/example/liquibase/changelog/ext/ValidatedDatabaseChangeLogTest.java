@@ -0,0 +1,128 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.changelog.ext;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import liquibase.Contexts;
+import liquibase.LabelExpression;
+import liquibase.Liquibase;
+import liquibase.changelog.ChangeLogParameters;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.command.CommandResult;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.ValidationFailedException;
+import liquibase.resource.FileSystemResourceAccessor;
+
+import net.example.liquibase.command.ext.CompileXMLCommand;
+import net.example.liquibase.parser.ext.TrustedXMLChangeLogParser;
+
+public class ValidatedDatabaseChangeLogTest {
+
+    private static final String URL = "jdbc:derby:memory:validatedChangeLog";
+
+    private static final String SRC = "net/example/liquibase/test/nested/changelog.xml";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Database database;
+
+    private Path out;
+
+    @BeforeClass
+    public static void init() {
+        System.setProperty("derby.stream.error.file",
+                new File("target/derby.log").getAbsolutePath());
+        TrustedXMLChangeLogParser.register();
+    }
+
+    @Before
+    public void open() throws Exception {
+        database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(
+                new JdbcConnection(DriverManager.getConnection(URL + ";create=true")));
+
+        out = tempFolder.getRoot().toPath();
+        CompileXMLCommand command = new CompileXMLCommand();
+        command.setSrc(SRC);
+        command.setOut(out.toString());
+        command.setTrusted(true);
+        command.setValidate(true);
+        command.setSqlDialects("derby");
+        CommandResult result = command.execute();
+        assertThat(result.message, is("Compiled successfully"));
+    }
+
+    @After
+    public void close() throws Exception {
+        database.close();
+        try (Connection ignored = DriverManager.getConnection(URL + ";drop=true")) {
+            // Expected to fail with the "dropped" state.
+        } catch (SQLException e) {
+            // 08006: Database dropped.
+        }
+    }
+
+    private DatabaseChangeLog parse() throws Exception {
+        return new TrustedXMLChangeLogParser().parse(SRC, new ChangeLogParameters(),
+                new FileSystemResourceAccessor(out.toString()));
+    }
+
+    @Test
+    public void stamped() throws Exception {
+        DatabaseChangeLog changeLog = parse();
+        assertThat(changeLog, instanceOf(ValidatedDatabaseChangeLog.class));
+        assertThat(((ValidatedDatabaseChangeLog) changeLog).isStampValid(database), is(true));
+        changeLog.validate(database, new Contexts(), new LabelExpression());
+
+        // Check sums of ran change sets verified against the stamped ones
+        new Liquibase(SRC, new FileSystemResourceAccessor(out.toString()), database)
+                .update(new Contexts(), new LabelExpression());
+        parse().validate(database, new Contexts(), new LabelExpression());
+    }
+
+    @Test
+    public void tampered() throws Exception {
+        // An invalid change is detected by the full validation only.
+        Path file = out.resolve(SRC);
+        String xml = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        Matcher sql = Pattern.compile("(?s)(<changeSet id=\"5\".*?)<sql\\b.*?</sql>")
+                             .matcher(xml);
+        assertThat(sql.find(), is(true));
+        Files.write(file, sql.replaceFirst("$1<createTable tableName=\"broken\"/>")
+                             .getBytes(StandardCharsets.UTF_8));
+
+        DatabaseChangeLog changeLog = parse();
+        assertThat(changeLog, instanceOf(ValidatedDatabaseChangeLog.class));
+        assertThat(((ValidatedDatabaseChangeLog) changeLog).isStampValid(database), is(false));
+        try {
+            changeLog.validate(database, new Contexts(), new LabelExpression());
+            throw new AssertionError("Invalid change not reported");
+        } catch (ValidationFailedException e) {
+            assertThat(e.getMessage(), containsString("columns is empty"));
+        }
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.command.ext;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import liquibase.LabelExpression;
+import liquibase.Labels;
+import liquibase.change.core.RawSQLChange;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+
+public class ChangeLogVerifierTest {
+
+    private static ChangeSet changeSet(DatabaseChangeLog changeLog,
+                                       String id, String context, String sql) {
+        ChangeSet changeSet = new ChangeSet(id, "john", false, false,
+                "db/changelog.xml", context, null, changeLog);
+        changeSet.addChange(new RawSQLChange(sql));
+        changeLog.addChangeSet(changeSet);
+        return changeSet;
+    }
+
+    private static List<String> verify(DatabaseChangeLog source, DatabaseChangeLog compiled) {
+        return new ChangeLogVerifier(source, compiled).verify();
+    }
+
+    @Test
+    public void equivalent() {
+        DatabaseChangeLog source = new DatabaseChangeLog("db/changelog.groovy");
+        changeSet(source, "1", "abc", "SELECT 1");
+        changeSet(source, "2", null, "SELECT 2");
+        DatabaseChangeLog compiled = new DatabaseChangeLog("db/changelog.xml");
+        changeSet(compiled, "1", "abc", "SELECT 1");
+        changeSet(compiled, "2", null, "SELECT 2");
+
+        assertThat(verify(source, compiled), is(empty()));
+    }
+
+    @Test
+    public void contextsDiffer() {
+        DatabaseChangeLog source = new DatabaseChangeLog("db/changelog.groovy");
+        changeSet(source, "1", "abc", "SELECT 1");
+        DatabaseChangeLog compiled = new DatabaseChangeLog("db/changelog.xml");
+        changeSet(compiled, "1", "abc or xyz", "SELECT 1");
+
+        List<String> mismatches = verify(source, compiled);
+        assertThat(mismatches, hasSize(1));
+        assertThat(mismatches.get(0), containsString("contexts differ"));
+    }
+
+    @Test
+    public void labelsDiffer() {
+        DatabaseChangeLog source = new DatabaseChangeLog("db/changelog.groovy");
+        changeSet(source, "1", null, "SELECT 1").setLabels(new Labels("foo"));
+        DatabaseChangeLog compiled = new DatabaseChangeLog("db/changelog.xml");
+        changeSet(compiled, "1", null, "SELECT 1").setLabels(new Labels("bar"));
+
+        List<String> mismatches = verify(source, compiled);
+        assertThat(mismatches, hasSize(1));
+        assertThat(mismatches.get(0), containsString("labels differ"));
+    }
+
+    @Test
+    public void checkSumDiffers() {
+        DatabaseChangeLog source = new DatabaseChangeLog("db/changelog.groovy");
+        changeSet(source, "1", null, "SELECT 1");
+        DatabaseChangeLog compiled = new DatabaseChangeLog("db/changelog.xml");
+        changeSet(compiled, "1", null, "SELECT 2");
+
+        List<String> mismatches = verify(source, compiled);
+        assertThat(mismatches, hasSize(1));
+        assertThat(mismatches.get(0), containsString("checksum differs"));
+    }
+
+    @Test
+    public void missingAndExtra() {
+        DatabaseChangeLog source = new DatabaseChangeLog("db/changelog.groovy");
+        changeSet(source, "1", null, "SELECT 1");
+        DatabaseChangeLog compiled = new DatabaseChangeLog("db/changelog.xml");
+        changeSet(compiled, "2", null, "SELECT 1");
+
+        assertThat(verify(source, compiled), containsInAnyOrder(
+                containsString("missing from compiled changelog"),
+                containsString("not present in source changelog")));
+    }
+
+    @Test
+    public void foldedIncludeLabels() {
+        DatabaseChangeLog source = new DatabaseChangeLog("db/changelog.groovy");
+        DatabaseChangeLog included = new DatabaseChangeLog("db/part.groovy");
+        included.setParentChangeLog(source);
+        included.setIncludeLabels(new LabelExpression("bar"));
+        ChangeSet sourceSet = changeSet(included, "1", null, "SELECT 1");
+        sourceSet.setLabels(new Labels("foo"));
+        source.addChangeSet(sourceSet);
+
+        DatabaseChangeLog compiled = new DatabaseChangeLog("db/changelog.xml");
+        changeSet(compiled, "1", null, "SELECT 1").setLabels(new Labels("foo, bar"));
+
+        assertThat(verify(source, compiled), is(empty()));
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.command.ext;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompileCacheTest {
+
+    private static final String FIXTURE = "net/example/liquibase/test/deep/";
+
+    // Not on the class path, so the copy is read.
+    private static final String DIR = "cache-test/";
+
+    private static final String SRC = DIR + "changelog.xml";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path sourceDir;
+
+    private Path cacheDir;
+
+    @Before
+    public void setUp() throws Exception {
+        sourceDir = tempFolder.newFolder("src").toPath();
+        cacheDir = tempFolder.getRoot().toPath().resolve("cache");
+        for (String file : new String[] { "changelog.xml", "child/child.xml", "child/grand.xml" }) {
+            Path target = sourceDir.resolve(DIR + file);
+            Files.createDirectories(target.getParent());
+            try (InputStream in = getClass().getClassLoader().getResourceAsStream(FIXTURE + file)) {
+                Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    private CompileXMLCommand command(String out) throws Exception {
+        CompileXMLCommand command = new CompileXMLCommand();
+        command.setSrc(SRC);
+        command.setClasspath(sourceDir.toString());
+        command.setOut(tempFolder.getRoot().toPath().resolve(out).toString());
+        command.setCacheDir(cacheDir.toString());
+        return command;
+    }
+
+    private String output(String out, String file) throws Exception {
+        return new String(Files.readAllBytes(tempFolder.getRoot().toPath()
+                .resolve(out).resolve(DIR + file)), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void hit() throws Exception {
+        assertThat(command("out1").execute().message, is("Compiled successfully"));
+        assertThat(command("out2").execute().message, is("Compiled successfully (cached)"));
+        assertThat(output("out2", "changelog.xml"), is(output("out1", "changelog.xml")));
+        assertThat(output("out2", "child/grand.xml"), is(output("out1", "child/grand.xml")));
+    }
+
+    @Test
+    public void missOnSourceChange() throws Exception {
+        assertThat(command("out1").execute().message, is("Compiled successfully"));
+
+        Path grand = sourceDir.resolve(DIR + "child/grand.xml");
+        String changed = new String(Files.readAllBytes(grand), StandardCharsets.UTF_8)
+                .replace("SELECT 1 ", "SELECT 11 ");
+        Files.write(grand, changed.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(command("out2").execute().message, is("Compiled successfully"));
+        assertThat(output("out2", "child/grand.xml"), containsString("SELECT 11 "));
+    }
+
+    @Test
+    public void missOnOptionChange() throws Exception {
+        assertThat(command("out1").execute().message, is("Compiled successfully"));
+
+        CompileXMLCommand singleFile = command("out2");
+        singleFile.setSingleFile(true);
+        assertThat(singleFile.execute().message, is("Compiled successfully"));
+    }
+
+    @Test
+    public void missOnVerify() throws Exception {
+        assertThat(command("out1").execute().message, is("Compiled successfully"));
+
+        CompileXMLCommand verified = command("out2");
+        verified.setVerify(true);
+        assertThat(verified.execute().message, is("Compiled successfully"));
+        verified = command("out3");
+        verified.setVerify(true);
+        assertThat(verified.execute().message, is("Compiled successfully (cached)"));
+    }
+
+    @Test
+    public void skippedVerificationNotStored() throws Exception {
+        CompileXMLCommand boundedMemory = command("out1");
+        boundedMemory.setVerify(true);
+        boundedMemory.setBoundedMemory(true);
+        assertThat(boundedMemory.execute().message, is("Compiled successfully"));
+
+        CompileXMLCommand verified = command("out2");
+        verified.setVerify(true);
+        assertThat(verified.execute().message, is("Compiled successfully"));
+        verified = command("out3");
+        verified.setVerify(true);
+        assertThat(verified.execute().message, is("Compiled successfully (cached)"));
+    }
+
+}
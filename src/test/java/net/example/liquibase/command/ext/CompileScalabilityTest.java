@@ -0,0 +1,315 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.command.ext;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import liquibase.command.CommandResult;
+import liquibase.logging.LogService;
+
+/**
+ * Compiles generated changelog trees at 1x, 10x and 100x scale – with
+ * wide and deep includes, properties and contexts – asserting the
+ * compile time and allocated bytes grow near-linearly, and the 1x output
+ * matches the golden files.
+ * <p>
+ * The cost assertions depend on the machine load, so they are not run by
+ * default – enable with {@code -Dscalability=true}.  Run with
+ * {@code -Dscalability.golden.update=true} to (re)write the golden files
+ * after an intended output change.</p>
+ */
+public class CompileScalabilityTest {
+
+    private static final String SRC = "scale/changelog.xml";
+
+    private static final Path BASE_DIR = Paths.get("target/scalability");
+
+    private static final String GOLDEN = "/net/example/liquibase/scalability/golden";
+
+    /** Allowed excess over linear growth, for time – subject to JIT and GC noise. */
+    private static final double TIME_TOLERANCE = 3.0;
+
+    /** Allowed excess over linear growth, for allocated bytes. */
+    private static final double ALLOC_TOLERANCE = 1.5;
+
+    private static ThreadMXBean threads;
+
+    @BeforeClass
+    public static void init() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            ((com.sun.management.ThreadMXBean) bean).setThreadAllocatedMemoryEnabled(true);
+        }
+        threads = bean;
+    }
+
+    @Test
+    public void nearLinearCost() throws Exception {
+        assumeTrue("Scalability test not enabled (-Dscalability=true)",
+                   Boolean.getBoolean("scalability"));
+        // Warm up: class loading, service lookup, JIT.
+        compile(1, "warmup");
+
+        Cost cost1 = compile(1, "1x");
+        Cost cost10 = compile(10, "10x");
+        Cost cost100 = compile(100, "100x");
+        LogService.getLog(CompileScalabilityTest.class)
+                .info("1x: " + cost1 + ", 10x: " + cost10 + ", 100x: " + cost100);
+
+        // Fixed overhead dominates at 1x, so compare the growth from 10x.
+        assertThat("time(100x) / time(10x)",
+                (double) cost100.nanos / cost10.nanos,
+                lessThan(10 * TIME_TOLERANCE));
+        assertThat("time(10x) / time(1x)",
+                (double) cost10.nanos / cost1.nanos,
+                lessThan(10 * TIME_TOLERANCE));
+
+        assumeTrue("Thread allocated bytes not supported", cost1.bytes > 0);
+        assertThat("allocated(100x) / allocated(10x)",
+                (double) cost100.bytes / cost10.bytes,
+                lessThan(10 * ALLOC_TOLERANCE));
+        assertThat("allocated(10x) / allocated(1x)",
+                (double) cost10.bytes / cost1.bytes,
+                lessThan(10 * ALLOC_TOLERANCE));
+    }
+
+    @Test
+    public void goldenOutput() throws Exception {
+        Path outDir = BASE_DIR.resolve("golden-out");
+        compile(1, "golden", outDir);
+
+        Path goldenDir = goldenDir();
+        List<String> actualFiles = listFiles(outDir);
+        if (Boolean.getBoolean("scalability.golden.update")) {
+            for (String file : actualFiles) {
+                Path target = goldenDir.resolve(file);
+                Files.createDirectories(target.getParent());
+                Files.copy(outDir.resolve(file), target,
+                           StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        assertThat("output files", actualFiles, is(listFiles(goldenDir)));
+        for (String file : actualFiles) {
+            assertThat(file, new String(Files.readAllBytes(outDir.resolve(file)),
+                                        StandardCharsets.UTF_8),
+                       is(new String(Files.readAllBytes(goldenDir.resolve(file)),
+                                     StandardCharsets.UTF_8)));
+        }
+    }
+
+    private static Path goldenDir() throws URISyntaxException {
+        // Prefer the source location, so updates land in the source tree.
+        Path source = Paths.get("src/test/resources").resolve(GOLDEN.substring(1));
+        if (Files.isDirectory(source) || Boolean.getBoolean("scalability.golden.update")) {
+            return source;
+        }
+        return Paths.get(CompileScalabilityTest.class.getResource(GOLDEN).toURI());
+    }
+
+    private static List<String> listFiles(Path dir) throws IOException {
+        try (Stream<Path> tree = Files.walk(dir)) {
+            return tree.filter(Files::isRegularFile)
+                       .map(path -> dir.relativize(path).toString().replace('\\', '/'))
+                       .sorted()
+                       .collect(Collectors.toList());
+        }
+    }
+
+    private static Cost compile(int scale, String name) throws Exception {
+        return compile(scale, name, BASE_DIR.resolve(name + "-out"));
+    }
+
+    private static Cost compile(int scale, String name, Path outDir) throws Exception {
+        Path srcDir = BASE_DIR.resolve(name + "-src");
+        ChangeLogGenerator.generate(srcDir, scale);
+        deleteTree(outDir);
+
+        CompileXMLCommand command = new CompileXMLCommand();
+        command.setSrc(SRC);
+        command.setClasspath(srcDir.toString());
+        command.setOut(outDir.toString());
+        command.setCanonical(true);
+
+        System.gc();
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        CommandResult result = command.execute();
+        long nanos = System.nanoTime() - start;
+        bytes = allocatedBytes() - bytes;
+
+        assertThat(name + " result.message", result.message, is("Compiled successfully"));
+        return new Cost(nanos, bytes);
+    }
+
+    /*
+     * The compile runs with no worker threads (no pipelined, nor
+     * write-behind output), so the current thread allocates all.
+     */
+    private static long allocatedBytes() {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        List<Path> paths;
+        try (Stream<Path> tree = Files.walk(dir)) {
+            paths = tree.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        for (Path path : paths) {
+            Files.delete(path);
+        }
+    }
+
+
+    private static class Cost {
+
+        final long nanos;
+        final long bytes;
+
+        Cost(long nanos, long bytes) {
+            this.nanos = nanos;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public String toString() {
+            return (nanos / 1_000_000) + " ms, " + (bytes / 1024) + " KiB";
+        }
+
+    }
+
+
+    /**
+     * Generates a changelog tree with, per unit of scale: 4 wide includes
+     * of the root changelog, and a nested include chain of depth 2; and 5
+     * change sets in every included file.  The root changelog declares
+     * 10 properties, and the change sets use 5 contexts, at any scale – so
+     * the work grows linearly with the scale.
+     */
+    static class ChangeLogGenerator {
+
+        private static final String HEADER = "<databaseChangeLog\n"
+                + "        xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\"\n"
+                + "        xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n"
+                + "        xsi:schemaLocation=\"http://www.liquibase.org/xml/ns/dbchangelog"
+                + " http://www.liquibase.org/xml/ns/dbchangelog/dbchangelog-3.8.xsd\"";
+
+        private static final int CHANGE_SETS = 5;
+
+        static void generate(Path srcDir, int scale) throws IOException {
+            deleteTree(srcDir);
+            Path root = srcDir.resolve(SRC);
+            Files.createDirectories(root.getParent().resolve("wide"));
+            Files.createDirectories(root.getParent().resolve("deep"));
+
+            int properties = 10;
+            int contexts = 5;
+            try (Writer out = Files.newBufferedWriter(root, StandardCharsets.UTF_8)) {
+                out.write(HEADER + ">\n");
+                for (int p = 0; p < properties; p++) {
+                    out.write("    <property name=\"p" + p + "\" value=\"v" + p + "\"/>\n");
+                }
+                for (int w = 0; w < 4 * scale; w++) {
+                    out.write("    <include file=\"wide/w" + w + ".xml\""
+                            + " relativeToChangelogFile=\"true\""
+                            + " context=\"ctx" + (w % contexts) + "\"/>\n");
+                }
+                for (int c = 0; c < scale; c++) {
+                    out.write("    <include file=\"deep/d" + (2 * c) + ".xml\""
+                            + " relativeToChangelogFile=\"true\"/>\n");
+                }
+                out.write("</databaseChangeLog>\n");
+            }
+
+            int seq = 0;
+            for (int w = 0; w < 4 * scale; w++) {
+                writeFile(root.resolveSibling("wide/w" + w + ".xml"), "w" + w,
+                          null, properties, contexts, seq);
+                seq += CHANGE_SETS;
+            }
+            for (int d = 0; d < 2 * scale; d++) {
+                writeFile(root.resolveSibling("deep/d" + d + ".xml"), "d" + d,
+                          (d % 2 == 0) ? "d" + (d + 1) + ".xml" : null,
+                          properties, contexts, seq);
+                seq += CHANGE_SETS;
+            }
+        }
+
+        private static void writeFile(Path file, String name, String include,
+                                      int properties, int contexts, int seq)
+                throws IOException
+        {
+            try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                out.write(HEADER + ">\n");
+                for (int i = 0; i < CHANGE_SETS; i++) {
+                    int n = seq + i;
+                    String table = "t_" + name + "_" + i;
+                    out.write("    <changeSet id=\"" + n + "\" author=\"gen\""
+                            + " context=\"ctx" + (n % contexts) + "\">\n");
+                    switch (i % 4) {
+                    case 0:
+                        out.write("        <createTable tableName=\"" + table + "\""
+                                + " remarks=\"${p" + (n % properties) + "}\">\n"
+                                + "            <column name=\"id\" type=\"INTEGER\"/>\n"
+                                + "            <column name=\"name\" type=\"VARCHAR(50)\"/>\n"
+                                + "        </createTable>\n");
+                        break;
+                    case 1:
+                        out.write("        <addColumn tableName=\"t_" + name + "_0\">\n"
+                                + "            <column name=\"c" + n + "\" type=\"INTEGER\""
+                                + " defaultValue=\"${p" + (n % properties) + "}\"/>\n"
+                                + "        </addColumn>\n");
+                        break;
+                    case 2:
+                        out.write("        <insert tableName=\"t_" + name + "_0\">\n"
+                                + "            <column name=\"id\" valueNumeric=\"" + n + "\"/>\n"
+                                + "            <column name=\"name\" value=\"${p"
+                                + (n % properties) + "}\"/>\n"
+                                + "        </insert>\n");
+                        break;
+                    default:
+                        out.write("        <sql>UPDATE t_" + name + "_0 SET name = '${p"
+                                + (n % properties) + "}' WHERE id = " + n + "</sql>\n");
+                    }
+                    out.write("    </changeSet>\n");
+                }
+                if (include != null) {
+                    out.write("    <include file=\"" + include + "\""
+                            + " relativeToChangelogFile=\"true\"/>\n");
+                }
+                out.write("</databaseChangeLog>\n");
+            }
+        }
+
+    }
+
+}
@@ -37,6 +37,7 @@ public class CompileXMLCommandTest {
     public void nestedInclude() throws Exception {
         command.setSrc("net/example/liquibase/groovy2/changelog.groovy");
         command.setSingleFile(false);
+        command.setVerify(true);
         assertResult(command.execute());
     }
 
@@ -0,0 +1,138 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.command.ext;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompileXMLDaemonTest {
+
+    private static final String SRC = "net/example/liquibase/test/nested/changelog.xml";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path portFile;
+
+    private Thread daemon;
+
+    @Before
+    public void start() throws Exception {
+        portFile = tempFolder.getRoot().toPath().resolve("daemon.port");
+        daemon = new Thread(() -> {
+            try {
+                new CompileXMLDaemon(portFile, 0, 2).run();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }, "compile-daemon");
+        daemon.setDaemon(true);
+        daemon.start();
+        for (int i = 0; i < 100 && !(Files.exists(portFile) && Files.size(portFile) > 0); i++) {
+            Thread.sleep(100);
+        }
+        assertThat("port file written", Files.size(portFile), is(greaterThan(0L)));
+    }
+
+    @After
+    public void stop() throws Exception {
+        daemon.join(10_000);
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        Path out = tempFolder.newFolder("out").toPath();
+        Map<String, String> request = new LinkedHashMap<>();
+        request.put("src", SRC);
+        request.put("out", out.toString());
+        request.put("singleFile", "true");
+
+        String response = new CompileXMLClient(portFile).send(request);
+
+        assertThat(response, is(CompileXMLDaemon.STATUS_OK + "\nCompiled successfully"));
+        assertThat(Files.exists(out.resolve(SRC)), is(true));
+
+        daemon.join(10_000);
+        assertThat("daemon idle exit", daemon.isAlive(), is(false));
+        assertThat("port file removed", Files.exists(portFile), is(false));
+    }
+
+    @Test
+    public void longProperty() throws Exception {
+        Path out = tempFolder.newFolder("out").toPath();
+        Map<String, String> request = new LinkedHashMap<>();
+        request.put("src", SRC);
+        request.put("out", out.toString());
+        request.put("coalesceSize", "100000");
+
+        String response = new CompileXMLClient(portFile).send(request);
+
+        assertThat(response, is(CompileXMLDaemon.STATUS_OK + "\nCompiled successfully"));
+    }
+
+    @Test
+    public void failureWithoutTrace() throws Exception {
+        Map<String, String> request = new LinkedHashMap<>();
+        request.put("src", "no/such/changelog.xml");
+        request.put("out", tempFolder.newFolder("out").toString());
+
+        String response = new CompileXMLClient(portFile).send(request);
+
+        assertThat(response, startsWith(CompileXMLDaemon.STATUS_FAIL + "\n"));
+        assertThat(response, not(containsString("\tat ")));
+    }
+
+    @Test
+    public void invalidToken() throws Exception {
+        String port = new String(Files.readAllBytes(portFile), "UTF-8").split(" ")[0];
+        Files.write(portFile, (port + " wrong\n").getBytes("UTF-8"));
+
+        String response = new CompileXMLClient(portFile).send(new LinkedHashMap<>());
+
+        assertThat(response, startsWith(CompileXMLDaemon.STATUS_FAIL + "\nInvalid token"));
+    }
+
+    @Test
+    public void portFileOwnerOnly() throws Exception {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+
+        assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(portFile)),
+                   is("rw-------"));
+    }
+
+    @Test
+    public void relativePaths() {
+        Map<String, String> request = new LinkedHashMap<>();
+        request.put("src", "pom.xml");
+        request.put("out", "target/out");
+        request.put("classpath", "src/test/resources");
+
+        Map<String, String> resolved = CompileXMLClient.resolvePaths(request);
+
+        assertThat(resolved.get("out"), is(Paths.get("target/out").toAbsolutePath().toString()));
+        assertThat(resolved.get("classpath"),
+                   is(Paths.get("src/test/resources").toAbsolutePath().toString()));
+        assertThat(resolved.get("src"), is(Paths.get("pom.xml").toAbsolutePath().toString()));
+
+        request.put("src", SRC);
+        assertThat(CompileXMLClient.resolvePaths(request).get("src"), is(SRC));
+    }
+
+}
@@ -0,0 +1,306 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.command.ext;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import liquibase.Contexts;
+import liquibase.LabelExpression;
+import liquibase.Liquibase;
+import liquibase.changelog.ChangeLogParameters;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.command.CommandResult;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.parser.ChangeLogParserFactory;
+import liquibase.resource.FileSystemResourceAccessor;
+import liquibase.resource.ResourceAccessor;
+
+/**
+ * Applies the same generated changelog – in Groovy source form, compiled
+ * to multiple XML files, and compiled to a single XML file – to fresh
+ * embedded Derby databases, at several scales, recording the time to
+ * parse, validate, compute check sums, and the total {@code update} time.
+ * <p>
+ * Not run by default – enable with {@code -Dbenchmark=true}.  The scales
+ * may be given as {@code -Dbenchmark.scales=1,10,100} (the default); a
+ * unit of scale is 10 change sets.  The results are printed, and written
+ * to {@code target/benchmark/update-benchmark.csv}.</p>
+ */
+public class UpdateBenchmarkTest {
+
+    private static final String SRC = "bench/changelog.groovy";
+
+    private static final Path BASE_DIR = Paths.get("target/benchmark");
+
+    private static final String[] FORMS = { "groovy", "xml", "xml-single" };
+
+    @BeforeClass
+    public static void init() throws Exception {
+        // Before anything may boot Derby, even with the benchmark skipped.
+        Files.createDirectories(BASE_DIR);
+        System.setProperty("derby.stream.error.file",
+                BASE_DIR.resolve("derby.log").toAbsolutePath().toString());
+        assumeTrue("Benchmark not enabled (-Dbenchmark=true)", Boolean.getBoolean("benchmark"));
+        // Warm up: class loading, service lookup, JIT.
+        for (String form : FORMS) {
+            measure(form, prepare(1, "warmup"), "warmup");
+        }
+    }
+
+    @Test
+    public void updateCost() throws Exception {
+        List<Timings> results = new ArrayList<>();
+        for (String scale : System.getProperty("benchmark.scales", "1,10,100").split(",")) {
+            int n = Integer.parseInt(scale.trim());
+            Path dir = prepare(n, n + "x");
+            int ran = -1;
+            for (String form : FORMS) {
+                Timings timings = measure(form, dir, n + "x");
+                results.add(timings);
+                System.out.println(timings);
+                if (ran < 0) {
+                    ran = timings.ranChangeSets;
+                }
+                assertThat(timings.form + " " + n + "x ran change sets",
+                           timings.ranChangeSets, is(ran));
+            }
+        }
+
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(
+                BASE_DIR.resolve("update-benchmark.csv"), StandardCharsets.UTF_8))) {
+            out.println("form,scale,changeSets,parseMs,validateMs,checkSumMs,updateMs");
+            for (Timings timings : results) {
+                out.println(timings.toCsv());
+            }
+        }
+    }
+
+    /*
+     * Generates the source, and compiles it to the multi- and single-file
+     * XML forms.
+     */
+    private static Path prepare(int scale, String name) throws Exception {
+        Path dir = BASE_DIR.resolve(name);
+        deleteTree(dir);
+        ChangeLogGenerator.generate(dir.resolve("groovy"), scale);
+        compile(dir, "xml", false);
+        compile(dir, "xml-single", true);
+        return dir;
+    }
+
+    private static void compile(Path dir, String form, boolean singleFile) throws Exception {
+        CompileXMLCommand command = new CompileXMLCommand();
+        command.setSrc(SRC);
+        command.setClasspath(dir.resolve("groovy").toString());
+        command.setOut(dir.resolve(form).toString());
+        command.setSingleFile(singleFile);
+        CommandResult result = command.execute();
+        assertThat(form + " result.message", result.message, is("Compiled successfully"));
+    }
+
+    private static Timings measure(String form, Path dir, String name) throws Exception {
+        String path = form.equals("groovy") ? SRC : SRC.replaceFirst("\\.groovy$", ".xml");
+        ResourceAccessor resourceAccessor =
+                new FileSystemResourceAccessor(dir.resolve(form).toString());
+        String url = "jdbc:derby:memory:" + name + "-" + form;
+        Timings timings = new Timings(form, name);
+
+        Database database = open(url + ";create=true");
+        try {
+            long start = System.nanoTime();
+            DatabaseChangeLog changeLog = ChangeLogParserFactory.getInstance()
+                    .getParser(path, resourceAccessor)
+                    .parse(path, new ChangeLogParameters(database), resourceAccessor);
+            timings.parse = System.nanoTime() - start;
+            timings.changeSets = changeLog.getChangeSets().size();
+
+            start = System.nanoTime();
+            changeLog.validate(database, new Contexts(), new LabelExpression());
+            timings.validate = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (ChangeSet changeSet : changeLog.getChangeSets()) {
+                changeSet.generateCheckSum();
+            }
+            timings.checkSum = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            new Liquibase(path, resourceAccessor, database).update(new Contexts());
+            timings.update = System.nanoTime() - start;
+
+            timings.ranChangeSets = database.getRanChangeSetList().size();
+        } finally {
+            database.close();
+            drop(url);
+        }
+        return timings;
+    }
+
+    private static Database open(String url) throws Exception {
+        return DatabaseFactory.getInstance().findCorrectDatabaseImplementation(
+                new JdbcConnection(DriverManager.getConnection(url)));
+    }
+
+    private static void drop(String url) {
+        try (Connection ignored = DriverManager.getConnection(url + ";drop=true")) {
+            // Expected to fail with the "dropped" state.
+        } catch (SQLException e) {
+            // 08006: Database dropped.
+        }
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        List<Path> paths;
+        try (Stream<Path> tree = Files.walk(dir)) {
+            paths = tree.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        for (Path path : paths) {
+            Files.delete(path);
+        }
+    }
+
+
+    private static class Timings {
+
+        final String form;
+        final String scale;
+        int changeSets;
+        int ranChangeSets;
+        long parse;
+        long validate;
+        long checkSum;
+        long update;
+
+        Timings(String form, String scale) {
+            this.form = form;
+            this.scale = scale;
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1e6;
+        }
+
+        String toCsv() {
+            return String.format(Locale.ROOT, "%s,%s,%d,%.3f,%.3f,%.3f,%.3f",
+                    form, scale, changeSets, millis(parse), millis(validate),
+                    millis(checkSum), millis(update));
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%-10s %5s %6d change sets: parse %9.1f ms,"
+                                 + " validate %9.1f ms, check sums %9.1f ms, update %9.1f ms",
+                    form, scale, changeSets, millis(parse), millis(validate),
+                    millis(checkSum), millis(update));
+        }
+
+    }
+
+
+    /**
+     * Generates a Groovy changelog including, per unit of scale, 2 files
+     * of 5 change sets each, referring to 5 properties.
+     */
+    static class ChangeLogGenerator {
+
+        private static final int FILES = 2;
+
+        private static final int CHANGE_SETS = 5;
+
+        static void generate(Path srcDir, int scale) throws IOException {
+            Path root = srcDir.resolve(SRC);
+            Files.createDirectories(root.resolveSibling("part"));
+
+            int properties = 5 * scale;
+            int files = FILES * scale;
+            try (Writer out = Files.newBufferedWriter(root, StandardCharsets.UTF_8)) {
+                out.write("databaseChangeLog {\n");
+                for (int p = 0; p < properties; p++) {
+                    out.write("    property name: 'p" + p + "', value: 'v" + p + "'\n");
+                }
+                for (int f = 0; f < files; f++) {
+                    out.write("    include file: 'part/p" + f + ".groovy',"
+                            + " relativeToChangelogFile: true\n");
+                }
+                out.write("}\n");
+            }
+
+            for (int f = 0; f < files; f++) {
+                writeFile(root.resolveSibling("part/p" + f + ".groovy"),
+                          "p" + f, properties, f * CHANGE_SETS);
+            }
+        }
+
+        private static void writeFile(Path file, String name, int properties, int seq)
+                throws IOException
+        {
+            try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                out.write("databaseChangeLog {\n");
+                for (int i = 0; i < CHANGE_SETS; i++) {
+                    int n = seq + i;
+                    String table = "t_" + name + "_" + (i / 4);
+                    String param = "${p" + (n % properties) + "}";
+                    out.write("    changeSet(id: '" + n + "', author: 'gen') {\n");
+                    switch (i % 4) {
+                    case 0:
+                        out.write("        createTable(tableName: '" + table + "',"
+                                + " remarks: '" + param + "') {\n"
+                                + "            column(name: 'id', type: 'INTEGER')\n"
+                                + "            column(name: 'name', type: 'VARCHAR(50)')\n"
+                                + "        }\n");
+                        break;
+                    case 1:
+                        out.write("        addColumn(tableName: '" + table + "') {\n"
+                                + "            column(name: 'c" + n + "', type: 'VARCHAR(20)',"
+                                + " defaultValue: '" + param + "')\n"
+                                + "        }\n");
+                        break;
+                    case 2:
+                        out.write("        insert(tableName: '" + table + "') {\n"
+                                + "            column(name: 'id', valueNumeric: " + n + ")\n"
+                                + "            column(name: 'name', value: '" + param + "')\n"
+                                + "        }\n");
+                        break;
+                    default:
+                        out.write("        sql(\"UPDATE " + table + " SET name = '\\"
+                                + param + "' WHERE id = " + (n - 1) + "\")\n");
+                    }
+                    out.write("    }\n");
+                }
+                out.write("}\n");
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.parser.ext;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import liquibase.change.core.AddColumnChange;
+import liquibase.change.core.RawSQLChange;
+import liquibase.changelog.ChangeLogParameters;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.command.CommandResult;
+import liquibase.parser.ChangeLogParserFactory;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import liquibase.resource.FileSystemResourceAccessor;
+
+import net.example.liquibase.command.ext.CompileXMLCommand;
+import net.example.liquibase.serializer.ext.EnhancedJsonChangeLogSerializer;
+
+public class StreamingJsonChangeLogParserTest {
+
+    private static final String SRC = "net/example/liquibase/test/nested/changelog.xml";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void register() {
+        StreamingJsonChangeLogParser.register();
+    }
+
+    private static List<String> describe(DatabaseChangeLog changeLog) {
+        List<String> result = new ArrayList<>();
+        for (ChangeSet changeSet : changeLog.getChangeSets()) {
+            result.add(changeSet.toString() + " " + changeSet.getContexts()
+                    + " " + changeSet.generateCheckSum());
+        }
+        return result;
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        Path out = tempFolder.getRoot().toPath();
+        CompileXMLCommand command = new CompileXMLCommand();
+        command.setSrc(SRC);
+        command.setOut(out.toString());
+        command.setFormat("json");
+        CommandResult result = command.execute();
+        assertThat(result.message, is("Compiled successfully"));
+
+        String compiledPath = SRC.replaceFirst("\\.xml$", ".json");
+        ClassLoaderResourceAccessor sourceAccessor = new ClassLoaderResourceAccessor();
+        DatabaseChangeLog source = ChangeLogParserFactory.getInstance()
+                .getParser(SRC, sourceAccessor)
+                .parse(SRC, new ChangeLogParameters(), sourceAccessor);
+        DatabaseChangeLog compiled = new StreamingJsonChangeLogParser()
+                .parse(compiledPath, new ChangeLogParameters(),
+                       new FileSystemResourceAccessor(out.toString()));
+
+        assertThat(describe(source), hasSize(5));
+        assertThat(describe(compiled), is(describe(source)));
+        AddColumnChange addColumn = (AddColumnChange)
+                compiled.getChangeSets().get(1).getChanges().get(0);
+        assertThat(addColumn.getTableName(), is("app_people"));
+        assertThat(addColumn.getColumns().get(0).getDefaultValue(), is("NEW"));
+    }
+
+    @Test
+    public void appended() throws Exception {
+        Path dir = tempFolder.getRoot().toPath();
+        DatabaseChangeLog changeLog = new DatabaseChangeLog("changelog.json");
+        changeLog.setChangeLogParameters(new ChangeLogParameters());
+        EnhancedJsonChangeLogSerializer serializer = new EnhancedJsonChangeLogSerializer();
+        serializer.serialize(changeLog, dir.toString(), true);
+
+        for (String id : new String[] { "1", "2" }) {
+            ChangeSet changeSet = new ChangeSet(id, "john", false, false,
+                                                "changelog.json", null, null, changeLog);
+            changeSet.addChange(new RawSQLChange("UPDATE people SET name = '" + id + "'"));
+            serializer.append(changeSet, dir.resolve("changelog.json").toFile());
+        }
+
+        DatabaseChangeLog appended = new StreamingJsonChangeLogParser()
+                .parse("changelog.json", new ChangeLogParameters(),
+                       new FileSystemResourceAccessor(dir.toString()));
+        assertThat(describe(appended), contains(
+                startsWith("changelog.json::1::john"), startsWith("changelog.json::2::john")));
+        assertThat(((RawSQLChange) appended.getChangeSets().get(1).getChanges().get(0)).getSql(),
+                   is("UPDATE people SET name = '2'"));
+    }
+
+    @Test
+    public void expandParameters() throws Exception {
+        Path dir = tempFolder.getRoot().toPath();
+        Files.write(dir.resolve("params.properties"),
+                "schema.name=audit\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(dir.resolve("changelog.json"), ("{ \"databaseChangeLog\": [\n"
+                + "  { \"changeSet\": { \"id\": \"1\", \"author\": \"john\",\n"
+                + "      \"context\": \"${ctx}\",\n"
+                + "      \"dbms\": \"${db}\",\n"
+                + "      \"changes\": [ { \"sql\": {\n"
+                + "          \"sql\": \"SELECT * FROM ${schema.name}.${table}\" } } ] } },\n"
+                + "  { \"property\": { \"name\": \"table\", \"value\": \"people\" } },\n"
+                + "  { \"property\": { \"name\": \"ctx\", \"value\": \"test\" } },\n"
+                + "  { \"property\": { \"name\": \"db\", \"value\": \"h2\" } },\n"
+                + "  { \"property\": { \"file\": \"params.properties\" } }\n"
+                + "] }\n").getBytes(StandardCharsets.UTF_8));
+
+        DatabaseChangeLog changeLog = new StreamingJsonChangeLogParser()
+                .parse("changelog.json", new ChangeLogParameters(),
+                       new FileSystemResourceAccessor(dir.toString()));
+
+        ChangeSet changeSet = changeLog.getChangeSets().get(0);
+        assertThat(((RawSQLChange) changeSet.getChanges().get(0)).getSql(),
+                   is("SELECT * FROM audit.people"));
+        assertThat(changeSet.getContexts().toString(), is("test"));
+        assertThat(changeSet.getDbmsSet(), contains("h2"));
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.parser.ext;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import liquibase.change.core.RawSQLChange;
+import liquibase.changelog.ChangeLogParameters;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.command.CommandResult;
+import liquibase.resource.FileSystemResourceAccessor;
+
+import net.example.liquibase.command.ext.CompileXMLCommand;
+
+public class TrustedXMLChangeLogParserTest {
+
+    private static final String SRC = "net/example/liquibase/test/nested/changelog.xml";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void register() {
+        TrustedXMLChangeLogParser.register();
+    }
+
+    private static List<String> describe(DatabaseChangeLog changeLog) {
+        List<String> result = new ArrayList<>();
+        for (ChangeSet changeSet : changeLog.getChangeSets()) {
+            result.add(changeSet.toString() + " " + changeSet.getContexts()
+                    + " " + changeSet.getLabels() + " " + changeSet.generateCheckSum());
+        }
+        return result;
+    }
+
+    private Path compile(boolean trusted) throws Exception {
+        Path out = tempFolder.newFolder().toPath();
+        CompileXMLCommand command = new CompileXMLCommand();
+        command.setSrc(SRC);
+        command.setOut(out.toString());
+        command.setTrusted(trusted);
+        CommandResult result = command.execute();
+        assertThat(result.message, is("Compiled successfully"));
+        return out;
+    }
+
+    private static DatabaseChangeLog parse(Path dir, String path,
+                                           ChangeLogParameters params) throws Exception {
+        return new TrustedXMLChangeLogParser()
+                .parse(path, params, new FileSystemResourceAccessor(dir.toString()));
+    }
+
+    @Test
+    public void markedSameAsUnmarked() throws Exception {
+        Path marked = compile(true);
+        Path unmarked = compile(false);
+        assertThat(new String(Files.readAllBytes(marked.resolve(SRC)), StandardCharsets.UTF_8),
+                   containsString(TrustedXMLChangeLogParser.MARKER_ATTRIBUTE + "=\""
+                                  + TrustedXMLChangeLogParser.MARKER_VALUE + "\""));
+
+        List<String> expected = describe(parse(unmarked, SRC, new ChangeLogParameters()));
+        assertThat(expected, hasSize(5));
+        assertThat(describe(parse(marked, SRC, new ChangeLogParameters())), is(expected));
+    }
+
+    @Test
+    public void expandParameters() throws Exception {
+        Path dir = tempFolder.getRoot().toPath();
+        String unmarked = "<databaseChangeLog"
+                + " logicalFilePath=\"${path}\""
+                + " xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\""
+                + " xmlns:ext=\"http://www.liquibase.org/xml/ns/dbchangelog-ext\""
+                + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\""
+                + " xsi:schemaLocation=\"http://www.liquibase.org/xml/ns/dbchangelog"
+                + " http://www.liquibase.org/xml/ns/dbchangelog/dbchangelog-3.8.xsd\">\n"
+                + "  <property name=\"table\" value=\"people\"/>\n"
+                + "  <changeSet id=\"1\" author=\"john\" context=\"${ctx}\">\n"
+                + "    <sql>SELECT * FROM ${schema}.${table}</sql>\n"
+                + "  </changeSet>\n"
+                + "</databaseChangeLog>\n";
+        Files.write(dir.resolve("unmarked.xml"), unmarked.getBytes(StandardCharsets.UTF_8));
+        Files.write(dir.resolve("marked.xml"), unmarked.replace("<databaseChangeLog",
+                "<databaseChangeLog ext:compiled=\"trusted\"").getBytes(StandardCharsets.UTF_8));
+
+        List<List<String>> results = new ArrayList<>();
+        for (String file : new String[] { "unmarked.xml", "marked.xml" }) {
+            ChangeLogParameters params = new ChangeLogParameters();
+            params.set("schema", "audit");
+            params.set("ctx", "test");
+            params.set("path", "app.xml");
+            DatabaseChangeLog changeLog = parse(dir, file, params);
+
+            ChangeSet changeSet = changeLog.getChangeSets().get(0);
+            assertThat(file, ((RawSQLChange) changeSet.getChanges().get(0)).getSql(),
+                       is("SELECT * FROM audit.people"));
+            assertThat(file, changeSet.getContexts().toString(), is("test"));
+            results.add(describe(changeLog));
+        }
+        assertThat(results.get(1), is(results.get(0)));
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.serializer.ext;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import liquibase.change.AddColumnConfig;
+import liquibase.change.Change;
+import liquibase.change.ColumnConfig;
+import liquibase.change.core.AddColumnChange;
+import liquibase.change.core.AddForeignKeyConstraintChange;
+import liquibase.change.core.AddUniqueConstraintChange;
+import liquibase.change.core.CreateTableChange;
+import liquibase.change.core.DropForeignKeyConstraintChange;
+import liquibase.change.core.DropTableChange;
+import liquibase.change.core.InsertDataChange;
+import liquibase.change.core.RawSQLChange;
+import liquibase.change.core.TagDatabaseChange;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.exception.UnexpectedLiquibaseException;
+import liquibase.serializer.core.xml.XMLChangeLogSerializer;
+
+public class BaselineSquasherTest {
+
+    private static ChangeSet changeSet(DatabaseChangeLog changeLog, String id,
+                                       Change... changes) {
+        ChangeSet changeSet = new ChangeSet(id, "john", false, false,
+                "db/changelog.xml", null, null, changeLog);
+        for (Change change : changes) {
+            changeSet.addChange(change);
+        }
+        changeLog.addChangeSet(changeSet);
+        return changeSet;
+    }
+
+    private static CreateTableChange createTable(String name) {
+        CreateTableChange change = new CreateTableChange();
+        change.setTableName(name);
+        change.addColumn(new ColumnConfig().setName("id").setType("INTEGER"));
+        return change;
+    }
+
+    private static DropTableChange dropTable(String name) {
+        DropTableChange change = new DropTableChange();
+        change.setTableName(name);
+        return change;
+    }
+
+    private static AddColumnChange addColumn(String table, String column) {
+        AddColumnChange change = new AddColumnChange();
+        change.setTableName(table);
+        AddColumnConfig config = new AddColumnConfig();
+        config.setName(column);
+        config.setType("INTEGER");
+        change.addColumn(config);
+        return change;
+    }
+
+    private static AddForeignKeyConstraintChange addForeignKey(String table,
+            String referencedTable, String name) {
+        AddForeignKeyConstraintChange change = new AddForeignKeyConstraintChange();
+        change.setBaseTableName(table);
+        change.setBaseColumnNames("ref_id");
+        change.setReferencedTableName(referencedTable);
+        change.setReferencedColumnNames("id");
+        change.setConstraintName(name);
+        return change;
+    }
+
+    private static DropForeignKeyConstraintChange dropForeignKey(String table, String name) {
+        DropForeignKeyConstraintChange change = new DropForeignKeyConstraintChange();
+        change.setBaseTableName(table);
+        change.setConstraintName(name);
+        return change;
+    }
+
+    private static AddUniqueConstraintChange addUnique(String schema, String table, String name) {
+        AddUniqueConstraintChange change = new AddUniqueConstraintChange();
+        change.setSchemaName(schema);
+        change.setTableName(table);
+        change.setColumnNames("ref_id");
+        change.setConstraintName(name);
+        return change;
+    }
+
+    private static TagDatabaseChange tag(String name) {
+        TagDatabaseChange change = new TagDatabaseChange();
+        change.setTag(name);
+        return change;
+    }
+
+    private static DatabaseChangeLog history() {
+        DatabaseChangeLog changeLog = new DatabaseChangeLog("db/changelog.xml");
+        changeSet(changeLog, "1", createTable("temp"), createTable("people"),
+                                  createTable("orders"));
+        changeSet(changeLog, "2", addColumn("people", "ref_id"),
+                                  addColumn("orders", "ref_id"),
+                                  addForeignKey("people", "temp", "fk_ref"));
+        changeSet(changeLog, "3", addUnique(null, "orders", "fk_ref"),
+                                  addUnique("archive", "people", "fk_ref"));
+        changeSet(changeLog, "4", dropForeignKey("people", "fk_ref"),
+                                  dropTable("temp"));
+        changeSet(changeLog, "5", tag("v1"));
+        changeSet(changeLog, "6", createTable("later"));
+        return changeLog;
+    }
+
+    private static List<String> describe(List<Change> changes) {
+        List<String> result = new ArrayList<>();
+        for (Change change : changes) {
+            String name = change.getSerializedObjectName();
+            Object table = change.getSerializableFields().contains("tableName")
+                           ? change.getSerializableFieldValue("tableName")
+                           : change.getSerializableFieldValue("baseTableName");
+            Object schema = change.getSerializableFields().contains("schemaName")
+                            ? change.getSerializableFieldValue("schemaName")
+                            : null;
+            result.add((table == null) ? name
+                       : name + ' ' + (schema == null ? "" : schema + ".") + table);
+        }
+        return result;
+    }
+
+    @Test
+    public void createAlterDrop() {
+        BaselineSquasher squasher = new BaselineSquasher(history(), "v1");
+
+        assertThat(squasher.getSquashed(), hasSize(4));
+        assertThat(describe(squasher.getNetChanges()), contains(
+                "createTable people",
+                "createTable orders",
+                "addColumn people",
+                "addColumn orders",
+                "addUniqueConstraint orders",
+                "addUniqueConstraint archive.people"));
+    }
+
+    @Test
+    public void opaqueChangeKeepsLifetime() {
+        DatabaseChangeLog changeLog = new DatabaseChangeLog("db/changelog.xml");
+        changeSet(changeLog, "1", createTable("temp"));
+        changeSet(changeLog, "2", new RawSQLChange("UPDATE temp SET id = 1"));
+        changeSet(changeLog, "3", dropTable("temp"));
+        changeSet(changeLog, "4", tag("v1"));
+
+        BaselineSquasher squasher = new BaselineSquasher(changeLog, "db/changelog.xml::4::john");
+
+        assertThat(describe(squasher.getNetChanges()), contains(
+                "createTable temp", "sql", "dropTable temp"));
+    }
+
+    @Test
+    public void historyRows() {
+        DatabaseChangeLog changeLog = history();
+        BaselineSquasher squasher = new BaselineSquasher(changeLog, "5");
+        DatabaseChangeLog baseline = squasher.toChangeLog("db/changelog-baseline.xml");
+
+        assertThat(baseline.getChangeSets(), hasSize(2));
+        ChangeSet history = baseline.getChangeSets().get(1);
+        assertThat(history.getChanges(), hasSize(4));
+        for (int i = 0; i < 4; i++) {
+            InsertDataChange row = (InsertDataChange) history.getChanges().get(i);
+            ChangeSet squashed = changeLog.getChangeSets().get(i);
+            assertThat(columnValue(row, "ID"), is(squashed.getId()));
+            assertThat(columnValue(row, "MD5SUM"), is(squashed.generateCheckSum().toString()));
+        }
+    }
+
+    @Test
+    public void reproducibleHistory() throws Exception {
+        DatabaseChangeLog changeLog = history();
+        String first = new XMLChangeLogSerializer().serialize(new BaselineSquasher(changeLog, "5")
+                .toChangeLog("db/changelog-baseline.xml").getChangeSets().get(1), false);
+        Thread.sleep(5);
+        String second = new XMLChangeLogSerializer().serialize(new BaselineSquasher(changeLog, "5")
+                .toChangeLog("db/changelog-baseline.xml").getChangeSets().get(1), false);
+        assertThat(second, is(first));
+        assertThat(first, containsString("DEPLOYMENT_ID"));
+        assertThat(first, not(containsString("\"LIQUIBASE\"")));
+    }
+
+    @Test(expected = UnexpectedLiquibaseException.class)
+    public void unknownBoundary() {
+        new BaselineSquasher(history(), "v2");
+    }
+
+    private static Object columnValue(InsertDataChange row, String name) {
+        for (ColumnConfig column : row.getColumns()) {
+            if (column.getName().equals(name)) {
+                return column.getValueObject();
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.serializer.ext;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import liquibase.Contexts;
+import liquibase.changelog.ChangeLogParameters;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.changelog.filter.ContextChangeSetFilter;
+import liquibase.command.CommandResult;
+import liquibase.parser.ChangeLogParserFactory;
+import liquibase.resource.FileSystemResourceAccessor;
+
+import net.example.liquibase.command.ext.CompileXMLCommand;
+
+public class ChangeLogCoalescingTest {
+
+    // Not on the class path, so the copies are read.
+    private static final String DIR = "coalesce-test/";
+
+    private static final String SRC = DIR + "changelog.xml";
+
+    private static final String HEADER = "<databaseChangeLog"
+            + " xmlns='http://www.liquibase.org/xml/ns/dbchangelog'"
+            + " xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'"
+            + " xsi:schemaLocation='http://www.liquibase.org/xml/ns/dbchangelog"
+            + " http://www.liquibase.org/xml/ns/dbchangelog/dbchangelog-3.8.xsd'";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path sourceDir;
+
+    @Before
+    public void setUp() throws Exception {
+        sourceDir = tempFolder.newFolder("src").toPath();
+        write("changelog.xml", HEADER + ">\n"
+                + changeSet("0", "")
+                + "  <include file='mid.xml' relativeToChangelogFile='true'"
+                + " context='ctxMid'/>\n"
+                + "</databaseChangeLog>\n");
+        write("mid.xml", HEADER + ">\n"
+                + changeSet("m", "")
+                + "  <include file='a.xml' relativeToChangelogFile='true' context='ctxA'/>\n"
+                + "  <include file='b.xml' relativeToChangelogFile='true'/>\n"
+                + "  <include file='c.xml' relativeToChangelogFile='true'/>\n"
+                + "</databaseChangeLog>\n");
+        write("a.xml", HEADER + ">\n"
+                + changeSet("1", "")
+                + "</databaseChangeLog>\n");
+        write("b.xml", HEADER + " context='ctxFileB' logicalFilePath='legacy/b.xml'>\n"
+                + changeSet("2", "")
+                + "</databaseChangeLog>\n");
+        write("c.xml", HEADER + ">\n"
+                + changeSet("3", " context='own'")
+                + "</databaseChangeLog>\n");
+    }
+
+    private static String changeSet(String id, String attributes) {
+        return "  <changeSet id='" + id + "' author='john'" + attributes + ">\n"
+                + "    <sql>UPDATE people SET name = '" + id + "'</sql>\n"
+                + "  </changeSet>\n";
+    }
+
+    private void write(String name, String content) throws Exception {
+        Path file = sourceDir.resolve(DIR).resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Path compile(int coalesceChangeSets) throws Exception {
+        Path out = tempFolder.newFolder().toPath();
+        CompileXMLCommand command = new CompileXMLCommand();
+        command.setSrc(SRC);
+        command.setClasspath(sourceDir.toString());
+        command.setOut(out.toString());
+        command.setCoalesceChangeSets(coalesceChangeSets);
+        CommandResult result = command.execute();
+        assertThat(result.message, is("Compiled successfully"));
+        return out;
+    }
+
+    private static DatabaseChangeLog parse(Path root) throws Exception {
+        FileSystemResourceAccessor resourceAccessor =
+                new FileSystemResourceAccessor(root.toString());
+        return ChangeLogParserFactory.getInstance().getParser(SRC, resourceAccessor)
+                .parse(SRC, new ChangeLogParameters(), resourceAccessor);
+    }
+
+    private static List<String> describe(DatabaseChangeLog changeLog, String... contexts) {
+        ContextChangeSetFilter filter = new ContextChangeSetFilter(new Contexts(contexts));
+        List<String> result = new ArrayList<>();
+        for (ChangeSet changeSet : changeLog.getChangeSets()) {
+            if (filter.accepts(changeSet).isAccepted()) {
+                result.add(changeSet.toString());
+            }
+        }
+        return result;
+    }
+
+    private static List<String> filePaths(DatabaseChangeLog changeLog) {
+        List<String> result = new ArrayList<>();
+        for (ChangeSet changeSet : changeLog.getChangeSets()) {
+            result.add(changeSet.getId() + " " + changeSet.getFilePath()
+                    + " " + changeSet.getChangeLog().getPhysicalFilePath());
+        }
+        return result;
+    }
+
+    @Test
+    public void packed() throws Exception {
+        Path out = compile(2);
+        assertThat(Files.exists(out.resolve(DIR + "a-pack2.xml")), is(true));
+        assertThat(Files.exists(out.resolve(DIR + "a.xml")), is(false));
+        assertThat(Files.exists(out.resolve(DIR + "b.xml")), is(false));
+        // Exceeding the limit, so included as is
+        assertThat(Files.exists(out.resolve(DIR + "c.xml")), is(true));
+
+        DatabaseChangeLog compiled = parse(out);
+        assertThat(filePaths(compiled), contains(
+                "0 " + SRC + " " + SRC,
+                "m " + DIR + "mid.xml " + DIR + "mid.xml",
+                "1 " + DIR + "a.xml " + DIR + "a-pack2.xml",
+                "2 legacy/b.xml " + DIR + "a-pack2.xml",
+                "3 " + DIR + "c.xml " + DIR + "c.xml"));
+        assertThat(compiled.getChangeSets().get(2).getContexts().toString(), is("(ctxA)"));
+        assertThat(compiled.getChangeSets().get(3).getContexts().toString(), is("(ctxFileB)"));
+        assertThat(compiled.getChangeSets().get(4).getContexts().toString(), is("own"));
+        assertThat(describe(compiled, "other"), is(describe(parse(sourceDir), "other")));
+    }
+
+    @Test
+    public void packedAll() throws Exception {
+        Path out = compile(10);
+        assertThat(filePaths(parse(out)), contains(
+                "0 " + SRC + " " + SRC,
+                "m " + DIR + "mid.xml " + DIR + "mid.xml",
+                "1 " + DIR + "a.xml " + DIR + "a-pack3.xml",
+                "2 legacy/b.xml " + DIR + "a-pack3.xml",
+                "3 " + DIR + "c.xml " + DIR + "a-pack3.xml"));
+    }
+
+    @Test
+    public void packNameTaken() throws Exception {
+        write("changelog.xml", HEADER + ">\n"
+                + changeSet("0", "")
+                + "  <include file='mid.xml' relativeToChangelogFile='true'"
+                + " context='ctxMid'/>\n"
+                + "  <include file='a-pack2.xml' relativeToChangelogFile='true'/>\n"
+                + "</databaseChangeLog>\n");
+        write("a-pack2.xml", HEADER + ">\n"
+                + changeSet("x", "")
+                + "</databaseChangeLog>\n");
+
+        Path out = compile(2);
+        assertThat(filePaths(parse(out)), contains(
+                "0 " + SRC + " " + SRC,
+                "m " + DIR + "mid.xml " + DIR + "mid.xml",
+                "1 " + DIR + "a.xml " + DIR + "a-pack2-2.xml",
+                "2 legacy/b.xml " + DIR + "a-pack2-2.xml",
+                "3 " + DIR + "c.xml " + DIR + "c.xml",
+                "x " + DIR + "a-pack2.xml " + DIR + "a-pack2.xml"));
+    }
+
+    @Test
+    public void contextsKept() throws Exception {
+        Path out = compile(10);
+        String pack = new String(Files.readAllBytes(out.resolve(DIR + "a-pack3.xml")),
+                                 StandardCharsets.UTF_8);
+        // Inherited from the including changelogs at runtime
+        assertThat(pack, not(containsString("ctxMid")));
+
+        DatabaseChangeLog source = parse(sourceDir);
+        DatabaseChangeLog compiled = parse(out);
+        for (String[] contexts : new String[][] { {}, { "ctxMid" }, { "ctxA" },
+                                                  { "ctxMid", "ctxA" },
+                                                  { "ctxMid", "ctxFileB" },
+                                                  { "ctxMid", "own" }, { "other" } }) {
+            assertThat(String.join(",", contexts), describe(compiled, contexts),
+                       is(describe(source, contexts)));
+        }
+        assertThat(describe(compiled, "ctxMid", "ctxA"),
+                   contains(SRC + "::0::john", DIR + "mid.xml::m::john",
+                            DIR + "a.xml::1::john"));
+    }
+
+}
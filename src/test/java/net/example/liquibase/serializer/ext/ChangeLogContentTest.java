@@ -0,0 +1,149 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.serializer.ext;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import liquibase.changelog.ChangeLogChild;
+import liquibase.changelog.ChangeLogParameters;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.command.CommandResult;
+import liquibase.parser.ChangeLogParserFactory;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import liquibase.resource.FileSystemResourceAccessor;
+import liquibase.resource.ResourceAccessor;
+
+import net.example.liquibase.command.ext.CompileXMLCommand;
+
+public class ChangeLogContentTest {
+
+    private static final String DIR = "net/example/liquibase/test/deep/";
+
+    private static final String SRC = DIR + "changelog.xml";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static DatabaseChangeLog parse(ResourceAccessor resourceAccessor) throws Exception {
+        return ChangeLogParserFactory.getInstance().getParser(SRC, resourceAccessor)
+                .parse(SRC, new ChangeLogParameters(), resourceAccessor);
+    }
+
+    private static List<String> describe(List<ChangeLogChild> content) {
+        List<String> result = new ArrayList<>();
+        for (ChangeLogChild child : content) {
+            if (child instanceof EnhancedChangeLogInclude) {
+                EnhancedChangeLogInclude include = (EnhancedChangeLogInclude) child;
+                result.add("include " + include.getFile()
+                        + (include.getContext() == null ? "" : " " + include.getContext()));
+            } else {
+                result.add(child.toString());
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void nestedIncludeFirst() throws Exception {
+        DatabaseChangeLog changeLog = parse(new ClassLoaderResourceAccessor());
+        ChangeLogContent content = new ChangeLogContent(changeLog, false, ".xml");
+
+        List<DatabaseChangeLog> changeLogs = content.getChangeLogs();
+        assertThat(changeLogs, hasSize(3));
+        assertThat(describe(content.getContent(changeLogs.get(0))), contains(
+                "include " + DIR + "child/child.xml ctxChild",
+                SRC + "::3::john"));
+        assertThat(describe(content.getContent(changeLogs.get(1))), contains(
+                "include " + DIR + "child/grand.xml",
+                DIR + "child/child.xml::2::john"));
+        assertThat(describe(content.getContent(changeLogs.get(2))), contains(
+                DIR + "child/grand.xml::1::john"));
+    }
+
+    @Test
+    public void releasedAsWritten() throws Exception {
+        DatabaseChangeLog changeLog = parse(new ClassLoaderResourceAccessor());
+        Set<DatabaseChangeLog> logs = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (ChangeSet changeSet : changeLog.getChangeSets()) {
+            logs.add(changeSet.getChangeLog());
+        }
+        assertThat(logs, hasSize(3));
+
+        Path released = tempFolder.newFolder("released").toPath();
+        EnhancedXMLChangeLogSerializer serializer = new EnhancedXMLChangeLogSerializer();
+        serializer.setReleaseWritten(true);
+        serializer.serialize(changeLog, released.toString());
+
+        for (DatabaseChangeLog log : logs) {
+            assertThat(log.getPhysicalFilePath(), log.getChangeSets(), is(empty()));
+        }
+
+        Path retained = tempFolder.newFolder("retained").toPath();
+        new EnhancedXMLChangeLogSerializer().serialize(parse(new ClassLoaderResourceAccessor()),
+                                                        retained.toString());
+        for (String file : new String[] { "changelog.xml", "child/child.xml", "child/grand.xml" }) {
+            assertThat(file, new String(Files.readAllBytes(released.resolve(DIR + file)),
+                                        StandardCharsets.UTF_8),
+                       is(new String(Files.readAllBytes(retained.resolve(DIR + file)),
+                                     StandardCharsets.UTF_8)));
+        }
+    }
+
+    @Test
+    public void releasedContent() throws Exception {
+        ChangeLogContent content = new ChangeLogContent(parse(new ClassLoaderResourceAccessor()),
+                                                        false, ".xml");
+        DatabaseChangeLog root = content.getChangeLogs().get(0);
+        List<String> expected = describe(content.getContent(root));
+
+        assertThat(describe(content.release(root)), is(expected));
+        try {
+            content.getContent(root);
+            throw new AssertionError("Released content still retained");
+        } catch (NoSuchElementException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void nestedIncludeCompiled() throws Exception {
+        Path out = tempFolder.getRoot().toPath();
+        CompileXMLCommand command = new CompileXMLCommand();
+        command.setSrc(SRC);
+        command.setOut(out.toString());
+        CommandResult result = command.execute();
+        assertThat(result.message, is("Compiled successfully"));
+
+        DatabaseChangeLog source = parse(new ClassLoaderResourceAccessor());
+        DatabaseChangeLog compiled = parse(new FileSystemResourceAccessor(out.toString()));
+        assertThat(compiled.getChangeSets(), hasSize(source.getChangeSets().size()));
+        for (int i = 0; i < source.getChangeSets().size(); i++) {
+            ChangeSet sourceSet = source.getChangeSets().get(i);
+            ChangeSet compiledSet = compiled.getChangeSets().get(i);
+            assertThat(compiledSet.toString(false), is(sourceSet.toString(false)));
+            assertThat(compiledSet + " contexts",
+                       compiledSet.getInheritableContexts().toString(),
+                       is(sourceSet.getInheritableContexts().toString()));
+            assertThat(compiledSet.generateCheckSum(), is(sourceSet.generateCheckSum()));
+        }
+    }
+
+}
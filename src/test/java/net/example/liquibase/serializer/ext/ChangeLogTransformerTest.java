@@ -0,0 +1,110 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.serializer.ext;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import liquibase.changelog.ChangeLogParameters;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.parser.ChangeLogParserFactory;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import liquibase.resource.ResourceAccessor;
+
+import net.example.liquibase.command.ext.CompileXMLCommand;
+import net.example.liquibase.serializer.ext.test.TestChangeLogTransformer;
+
+public class ChangeLogTransformerTest {
+
+    private static final String SRC = "net/example/liquibase/test/nested/changelog.xml";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @After
+    public void resetVersion() {
+        TestChangeLogTransformer.version = "1";
+    }
+
+    private CompileXMLCommand command(Path out, boolean transform) {
+        CompileXMLCommand command = new CompileXMLCommand();
+        command.setSrc(SRC);
+        command.setOut(out.toString());
+        command.setTransform(transform);
+        return command;
+    }
+
+    private static String output(Path out) throws Exception {
+        return new String(Files.readAllBytes(out.resolve(SRC)), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void loaded() throws Exception {
+        List<ChangeLogTransformer> transformers =
+                ChangeLogTransformer.load(getClass().getClassLoader());
+        assertThat(transformers, contains(instanceOf(TestChangeLogTransformer.class)));
+    }
+
+    @Test
+    public void disabledByDefault() throws Exception {
+        Path out = tempFolder.newFolder().toPath();
+        CompileXMLCommand command = new CompileXMLCommand();
+        command.setSrc(SRC);
+        command.setOut(out.toString());
+        assertThat(command.isTransform(), is(false));
+        assertThat(command.execute().message, is("Compiled successfully"));
+
+        assertThat(output(out), containsString("id=\"5\""));
+        assertThat(output(out), not(containsString("transformed")));
+    }
+
+    @Test
+    public void applied() throws Exception {
+        Path out = tempFolder.newFolder().toPath();
+        assertThat(command(out, true).execute().message, is("Compiled successfully"));
+
+        assertThat(output(out), not(containsString("id=\"5\"")));
+        assertThat(output(out), containsString("<comment>transformed</comment>"));
+    }
+
+    @Test
+    public void countsInPlaceModifications() throws Exception {
+        ResourceAccessor resourceAccessor = new ClassLoaderResourceAccessor();
+        DatabaseChangeLog changeLog = ChangeLogParserFactory.getInstance()
+                .getParser(SRC, resourceAccessor)
+                .parse(SRC, new ChangeLogParameters(), resourceAccessor);
+
+        EnhancedXMLChangeLogSerializer serializer = new EnhancedXMLChangeLogSerializer();
+        serializer.setTransformers(ChangeLogTransformer.load(getClass().getClassLoader()));
+        serializer.serialize(changeLog, tempFolder.getRoot().toString(), false);
+
+        // 4 commented in place, 1 omitted; properties and includes as is.
+        assertThat(serializer.getTransformed(), is(5));
+    }
+
+    @Test
+    public void cachedByVersion() throws Exception {
+        Path cacheDir = tempFolder.getRoot().toPath().resolve("cache");
+        for (String[] run : new String[][] { { "1", "" }, { "1", " (cached)" },
+                                             { "2", "" }, { "2", " (cached)" } }) {
+            TestChangeLogTransformer.version = run[0];
+            CompileXMLCommand command = command(tempFolder.newFolder().toPath(), true);
+            command.setCacheDir(cacheDir.toString());
+            assertThat("version " + run[0], command.execute().message,
+                       is("Compiled successfully" + run[1]));
+        }
+    }
+
+}
@@ -5,22 +5,47 @@
 package net.example.liquibase.serializer.ext;
 
 import static liquibase.serializer.LiquibaseSerializable.GENERIC_CHANGELOG_EXTENSION_NAMESPACE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import liquibase.ContextExpression;
+import liquibase.change.Change;
+import liquibase.change.core.LoadUpdateDataChange;
+import liquibase.change.core.RawSQLChange;
+import liquibase.changelog.ChangeLogParameters;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.command.CommandResult;
+import liquibase.database.ObjectQuotingStrategy;
+import liquibase.parser.core.ParsedNode;
+import liquibase.parser.core.xml.XMLChangeLogSAXParser;
+import liquibase.resource.FileSystemResourceAccessor;
 import liquibase.serializer.core.xml.XMLChangeLogSerializer;
 //import liquibase.serializer.core.xml.XMLChangeLogSerializerFixed;
+import net.example.liquibase.command.ext.CompileXMLCommand;
+import net.example.liquibase.parser.ext.TrustedXMLChangeLogParser;
 import net.example.liquibase.serializer.ext.EnhancedXMLChangeLogSerializer;
 import net.example.liquibase.serializer.ext.test.SampleSerializable;
 import net.example.liquibase.serializer.ext.test.SimpleSerializable;
 
 public class EnhancedXMLChangeLogSerializerTest {
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     private static XMLChangeLogSerializer standardSerializer;
     //private static XMLChangeLogSerializerFixed fixedSerializer;
     private static EnhancedXMLChangeLogSerializer enhancedSerializer;
@@ -30,6 +55,7 @@ public class EnhancedXMLChangeLogSerializerTest {
         standardSerializer = new XMLChangeLogSerializer();
         //fixedSerializer = new XMLChangeLogSerializerFixed();
         enhancedSerializer = new EnhancedXMLChangeLogSerializer();
+        TrustedXMLChangeLogParser.register();
     }
 
     @Test
@@ -58,4 +84,168 @@ public class EnhancedXMLChangeLogSerializerTest {
         System.out.println(enhancedSerializer.serialize(object, true));
     }
 
+    private static DatabaseChangeLog quotingChangeLog(ObjectQuotingStrategy defaultStrategy) {
+        DatabaseChangeLog changeLog = new DatabaseChangeLog("app/changelog.xml");
+        changeLog.setChangeLogParameters(new ChangeLogParameters());
+        changeLog.setObjectQuotingStrategy(defaultStrategy);
+        for (ObjectQuotingStrategy strategy : new ObjectQuotingStrategy[] {
+                ObjectQuotingStrategy.LEGACY, ObjectQuotingStrategy.QUOTE_ALL_OBJECTS }) {
+            ChangeSet changeSet = new ChangeSet(strategy.name(), "john", false, false,
+                    "app/changelog.xml", null, null, strategy, changeLog);
+            changeSet.addChange(new RawSQLChange("SELECT 1"));
+            changeLog.addChangeSet(changeSet);
+        }
+        return changeLog;
+    }
+
+    @Test
+    public void legacyQuotingOmitted() throws Exception {
+        String xml = enhancedSerializer.serialize(quotingChangeLog(null));
+
+        assertThat(xml, containsString("id=\"LEGACY\" author=\"john\">"));
+        assertThat(xml, containsString("id=\"QUOTE_ALL_OBJECTS\" author=\"john\""
+                                       + " objectQuotingStrategy=\"QUOTE_ALL_OBJECTS\""));
+        assertThat(xml, not(containsString("objectQuotingStrategy=\"LEGACY\"")));
+    }
+
+    @Test
+    public void legacyQuotingKeptOverChangeLogDefault() throws Exception {
+        String xml = enhancedSerializer.serialize(
+                quotingChangeLog(ObjectQuotingStrategy.QUOTE_ALL_OBJECTS));
+
+        assertThat(xml, containsString("id=\"LEGACY\" author=\"john\" objectQuotingStrategy=\"LEGACY\""));
+    }
+
+    @Test
+    public void legacyQuotingSingleObject() throws Exception {
+        DatabaseChangeLog changeLog = quotingChangeLog(null);
+
+        assertThat(enhancedSerializer.serialize(changeLog.getChangeSets().get(0), true),
+                   not(containsString("objectQuotingStrategy")));
+        assertThat(enhancedSerializer.serialize(changeLog.getChangeSets().get(1), true),
+                   containsString("objectQuotingStrategy=\"QUOTE_ALL_OBJECTS\""));
+    }
+
+    @Test
+    public void includeContextsFolded() throws Exception {
+        DatabaseChangeLog changeLog = new DatabaseChangeLog("app/changelog.xml");
+        changeLog.setChangeLogParameters(new ChangeLogParameters());
+        DatabaseChangeLog part = new DatabaseChangeLog("app/part.xml");
+        part.setParentChangeLog(changeLog);
+        part.setIncludeContexts(new ContextExpression("ctxPart"));
+        for (String context : new String[] { null, "own" }) {
+            ChangeSet changeSet = new ChangeSet(String.valueOf(context), "john", false, false,
+                    "app/part.xml", context, null, part);
+            changeSet.addChange(new RawSQLChange("SELECT 1"));
+            part.addChangeSet(changeSet);
+            changeLog.addChangeSet(changeSet);
+        }
+
+        String xml = enhancedSerializer.serialize(changeLog);
+
+        // Single file: the including changelog no longer applies them
+        assertThat(xml, containsString("id=\"null\" author=\"john\" context=\"(ctxPart)\""));
+        assertThat(xml, containsString("id=\"own\" author=\"john\" context=\"(ctxPart) AND (own)\""));
+    }
+
+    private Path compile(String src, boolean compact) throws Exception {
+        Path out = tempFolder.newFolder().toPath();
+        CompileXMLCommand command = new CompileXMLCommand();
+        command.setSrc(src);
+        command.setOut(out.toString());
+        command.setTrusted(true);
+        command.setCompact(compact);
+        CommandResult result = command.execute();
+        assertThat(result.message, is("Compiled successfully"));
+        return out;
+    }
+
+    /*
+     * Describes the change set attributes, check sums, and the node trees
+     * of the changes as loaded.  The raw trees of the parsers differ by
+     * the schema defaults the validating one fills in.
+     */
+    private static List<String> describeNodes(DatabaseChangeLog changeLog) throws Exception {
+        List<String> result = new ArrayList<>();
+        for (ChangeSet changeSet : changeLog.getChangeSets()) {
+            StringBuilder buf = new StringBuilder();
+            buf.append(changeSet).append(' ').append(changeSet.getContexts())
+                    .append(' ').append(changeSet.getLabels())
+                    .append(' ').append(changeSet.getDbmsSet())
+                    .append(' ').append(changeSet.isRunOnChange())
+                    .append(' ').append(changeSet.isAlwaysRun())
+                    .append(' ').append(changeSet.isRunInTransaction())
+                    .append(' ').append(changeSet.getFailOnError())
+                    .append(' ').append(changeSet.getObjectQuotingStrategy())
+                    .append(' ').append(changeSet.generateCheckSum()).append('\n');
+            for (Change change : changeSet.getChanges()) {
+                describe(change.serialize(), "  ", buf);
+            }
+            for (Change change : changeSet.getRollback().getChanges()) {
+                describe(change.serialize(), "  rollback ", buf);
+            }
+            result.add(buf.toString());
+        }
+        return result;
+    }
+
+    private static void describe(ParsedNode node, String indent, StringBuilder buf) {
+        buf.append(indent).append(node.getName());
+        if (node.getValue() != null) {
+            buf.append('=').append(node.getValue());
+        }
+        buf.append('\n');
+        for (ParsedNode child : node.getChildren()) {
+            describe(child, indent + "  ", buf);
+        }
+    }
+
+    @Test
+    public void compactSameAsNormal() throws Exception {
+        for (String src : new String[] { "net/example/liquibase/test/nested/changelog.xml",
+                                         "net/example/liquibase/test/deep/changelog.xml" }) {
+            Path normal = compile(src, false);
+            Path compact = compile(src, true);
+            assertThat(Files.size(compact.resolve(src)), lessThan(Files.size(normal.resolve(src))));
+
+            List<String> expected = describeNodes(new XMLChangeLogSAXParser()
+                    .parse(src, new ChangeLogParameters(),
+                           new FileSystemResourceAccessor(normal.toString())));
+            assertThat(expected, is(not(empty())));
+            for (Path out : new Path[] { normal, compact }) {
+                String label = src + (out == compact ? " compact" : " normal");
+                assertThat(label + " validating", describeNodes(new XMLChangeLogSAXParser()
+                                .parse(src, new ChangeLogParameters(),
+                                       new FileSystemResourceAccessor(out.toString()))),
+                           is(expected));
+                assertThat(label + " trusted", describeNodes(new TrustedXMLChangeLogParser()
+                                .parse(src, new ChangeLogParameters(),
+                                       new FileSystemResourceAccessor(out.toString()))),
+                           is(expected));
+            }
+        }
+    }
+
+    @Test
+    public void compactSchemaDefaultsPerElement() throws Exception {
+        EnhancedXMLChangeLogSerializer serializer = new EnhancedXMLChangeLogSerializer();
+        serializer.setCompact(true);
+        LoadUpdateDataChange change = new LoadUpdateDataChange();
+        change.setTableName("people");
+        change.setFile("people.csv");
+        change.setPrimaryKey("id");
+        change.setOnlyUpdate(false);
+        change.setCommentLineStartsWith("#");
+
+        String xml = serializer.serialize(change, true);
+
+        assertThat(xml, not(containsString("onlyUpdate")));
+        // Declared for loadData only, so the loaded default applies
+        assertThat(xml, not(containsString("commentLineStartsWith")));
+
+        change.setCommentLineStartsWith("--");
+        assertThat(serializer.serialize(change, true),
+                   containsString("commentLineStartsWith=\"--\""));
+    }
+
 }
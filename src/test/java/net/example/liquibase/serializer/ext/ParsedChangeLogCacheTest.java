@@ -0,0 +1,135 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.serializer.ext;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import liquibase.change.core.RawSQLChange;
+import liquibase.changelog.ChangeLogParameters;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.parser.ChangeLogParserFactory;
+import liquibase.resource.FileSystemResourceAccessor;
+import liquibase.resource.ResourceAccessor;
+
+public class ParsedChangeLogCacheTest {
+
+    private static final String SRC = "cache-test/changes.sql";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path sourceDir;
+
+    private Path cacheDir;
+
+    @Before
+    public void setUp() throws Exception {
+        sourceDir = tempFolder.newFolder("src").toPath();
+        cacheDir = tempFolder.getRoot().toPath().resolve("cache");
+        writeSource("SELECT 1 FROM ${table}");
+    }
+
+    private void writeSource(String sql) throws Exception {
+        Path file = sourceDir.resolve(SRC);
+        Files.createDirectories(file.getParent());
+        Files.write(file, ("--liquibase formatted sql\n"
+                + "--changeset john:1\n" + sql + "\n"
+                + "--changeset john:2 runOnChange:true\n"
+                + "SELECT 2 FROM ${table}\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ChangeLogParameters params(String table) {
+        ChangeLogParameters params = new ChangeLogParameters();
+        params.set("table", table);
+        return params;
+    }
+
+    private DatabaseChangeLog parse(ChangeLogParameters params) throws Exception {
+        ResourceAccessor resourceAccessor = new FileSystemResourceAccessor(sourceDir.toString());
+        return ChangeLogParserFactory.getInstance().getParser(SRC, resourceAccessor)
+                .parse(SRC, params, resourceAccessor);
+    }
+
+    private static String sql(DatabaseChangeLog changeLog, int index) {
+        return ((RawSQLChange) changeLog.getChangeSets().get(index).getChanges().get(0)).getSql();
+    }
+
+    @Test
+    public void hit() throws Exception {
+        DatabaseChangeLog source;
+        try (ParsedChangeLogCache cache = ParsedChangeLogCache.open(cacheDir)) {
+            source = parse(params("people"));
+            assertThat(cache.getMisses(), is(1));
+            assertThat(cache.getHits(), is(0));
+        }
+
+        try (ParsedChangeLogCache cache = ParsedChangeLogCache.open(cacheDir)) {
+            DatabaseChangeLog cached = parse(params("people"));
+            assertThat(cache.getHits(), is(1));
+            assertThat(cache.getMisses(), is(0));
+
+            assertThat(cached.getChangeSets(), hasSize(2));
+            for (int i = 0; i < 2; i++) {
+                ChangeSet expected = source.getChangeSets().get(i);
+                ChangeSet actual = cached.getChangeSets().get(i);
+                assertThat(actual.toString(), is(expected.toString()));
+                assertThat(actual.isRunOnChange(), is(expected.isRunOnChange()));
+                assertThat(actual.generateCheckSum(), is(expected.generateCheckSum()));
+            }
+            assertThat(cached.getPhysicalFilePath(), is(SRC));
+            assertThat(sql(cached, 0), is("SELECT 1 FROM people"));
+        }
+    }
+
+    @Test
+    public void missAfterSourceEdit() throws Exception {
+        try (ParsedChangeLogCache cache = ParsedChangeLogCache.open(cacheDir)) {
+            parse(params("people"));
+        }
+
+        writeSource("SELECT 11 FROM ${table}");
+
+        try (ParsedChangeLogCache cache = ParsedChangeLogCache.open(cacheDir)) {
+            DatabaseChangeLog changeLog = parse(params("people"));
+            assertThat(cache.getMisses(), is(1));
+            assertThat(cache.getHits(), is(0));
+            assertThat(sql(changeLog, 0), is("SELECT 11 FROM people"));
+        }
+    }
+
+    @Test
+    public void missAfterParameterChange() throws Exception {
+        try (ParsedChangeLogCache cache = ParsedChangeLogCache.open(cacheDir)) {
+            parse(params("people"));
+        }
+
+        try (ParsedChangeLogCache cache = ParsedChangeLogCache.open(cacheDir)) {
+            DatabaseChangeLog changeLog = parse(params("orders"));
+            assertThat(cache.getMisses(), is(1));
+            assertThat(cache.getHits(), is(0));
+            assertThat(sql(changeLog, 1), is("SELECT 2 FROM orders"));
+        }
+
+        // Unreferenced parameters don't matter.
+        ChangeLogParameters params = params("orders");
+        params.set("unused", "value");
+        try (ParsedChangeLogCache cache = ParsedChangeLogCache.open(cacheDir)) {
+            parse(params);
+            assertThat(cache.getHits(), is(1));
+        }
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.serializer.ext;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import liquibase.changelog.ChangeLogParameters;
+import liquibase.changelog.DatabaseChangeLog;
+import liquibase.command.CommandResult;
+import liquibase.parser.ChangeLogParser;
+import liquibase.parser.ChangeLogParserFactory;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import liquibase.resource.FileSystemResourceAccessor;
+
+import net.example.liquibase.command.ext.CompileXMLCommand;
+
+public class PipelinedChangeLogWriterTest {
+
+    private static final String HEADER = "<databaseChangeLog"
+            + " xmlns='http://www.liquibase.org/xml/ns/dbchangelog'"
+            + " xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'"
+            + " xsi:schemaLocation='http://www.liquibase.org/xml/ns/dbchangelog"
+            + " http://www.liquibase.org/xml/ns/dbchangelog/dbchangelog-3.8.xsd'";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void nestedIncludes() throws Exception {
+        assertSameOutput("net/example/liquibase/test/nested/changelog.xml");
+    }
+
+    @Test
+    public void nestedIncludeFirst() throws Exception {
+        assertSameOutput("net/example/liquibase/test/deep/changelog.xml");
+    }
+
+    @Test
+    public void parserUnregistered() throws Exception {
+        String src = "net/example/liquibase/test/deep/changelog.xml";
+        DatabaseChangeLog changeLog = new PipelinedChangeLogWriter(
+                new EnhancedXMLChangeLogSerializer(), tempFolder.getRoot().toString())
+                .parse(src, new ChangeLogParameters(), new ClassLoaderResourceAccessor());
+
+        assertThat(changeLog.getChangeSets(), hasSize(3));
+        for (ChangeLogParser parser : ChangeLogParserFactory.getInstance().getParsers()) {
+            assertThat(parser.getClass().getName(), not(containsString("Intercepting")));
+        }
+    }
+
+    @Test
+    public void siblingsWrittenWhileParsing() throws Exception {
+        String dir = "flat-test/";
+        Path sourceDir = tempFolder.newFolder("src").toPath();
+        Files.createDirectories(sourceDir.resolve(dir));
+        StringBuilder root = new StringBuilder();
+        for (String name : new String[] { "a", "b", "c" }) {
+            root.append("  <include file='").append(name)
+                .append(".xml' relativeToChangelogFile='true'/>\n");
+            Files.write(sourceDir.resolve(dir + name + ".xml"), (HEADER + ">\n"
+                    + "  <changeSet id='" + name + "' author='john'>\n"
+                    + "    <sql>SELECT 1</sql>\n"
+                    + "  </changeSet>\n"
+                    + "</databaseChangeLog>\n").getBytes(StandardCharsets.UTF_8));
+        }
+        Files.write(sourceDir.resolve(dir + "changelog.xml"),
+                (HEADER + ">\n" + root + "</databaseChangeLog>\n")
+                .getBytes(StandardCharsets.UTF_8));
+
+        // Whether the first include is written before the last one is read.
+        Path out = tempFolder.newFolder("out").toPath();
+        AtomicBoolean overlapped = new AtomicBoolean();
+        FileSystemResourceAccessor resourceAccessor =
+                new FileSystemResourceAccessor(sourceDir.toString()) {
+            @Override
+            public Set<InputStream> getResourcesAsStream(String path) throws IOException {
+                if (path.endsWith(dir + "c.xml")) {
+                    overlapped.set(awaitFile(out.resolve(dir + "a.xml")));
+                }
+                return super.getResourcesAsStream(path);
+            }
+        };
+        DatabaseChangeLog changeLog = new PipelinedChangeLogWriter(
+                new EnhancedXMLChangeLogSerializer(), out.toString())
+                .parse(dir + "changelog.xml", new ChangeLogParameters(), resourceAccessor);
+
+        assertThat(changeLog.getChangeSets(), hasSize(3));
+        assertThat(overlapped.get(), is(true));
+        assertThat(Files.exists(out.resolve(dir + "c.xml")), is(true));
+    }
+
+    private static boolean awaitFile(Path file) {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!Files.exists(file)) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void assertSameOutput(String src) throws Exception {
+        Map<Path, String> expected = contents(compile(src, "sequential", false));
+        assertThat(expected.keySet(), hasSize(greaterThan(1)));
+        assertThat(contents(compile(src, "pipelined", true)), is(expected));
+    }
+
+    private Path compile(String src, String name, boolean pipelined) throws Exception {
+        Path out = tempFolder.newFolder(name).toPath();
+        CompileXMLCommand command = new CompileXMLCommand();
+        command.setSrc(src);
+        command.setOut(out.toString());
+        command.setPipelined(pipelined);
+        CommandResult result = command.execute();
+        assertThat(result.message, is("Compiled successfully"));
+        return out;
+    }
+
+    private static Map<Path, String> contents(Path dir) throws Exception {
+        Map<Path, String> contents = new TreeMap<>();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                contents.put(dir.relativize(file),
+                             new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            }
+        }
+        return contents;
+    }
+
+}
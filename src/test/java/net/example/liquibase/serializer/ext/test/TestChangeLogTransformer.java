@@ -0,0 +1,38 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.serializer.ext.test;
+
+import liquibase.changelog.ChangeLogChild;
+import liquibase.changelog.ChangeSet;
+import liquibase.changelog.DatabaseChangeLog;
+
+import net.example.liquibase.serializer.ext.ChangeLogTransformer;
+
+/**
+ * Omits change sets with id "5", and comments the others in place.
+ */
+public class TestChangeLogTransformer implements ChangeLogTransformer {
+
+    public static volatile String version = "1";
+
+    @Override
+    public ChangeLogChild transform(ChangeLogChild child, DatabaseChangeLog changeLog) {
+        if (!(child instanceof ChangeSet)) {
+            return child;
+        }
+        ChangeSet changeSet = (ChangeSet) child;
+        if (changeSet.getId().equals("5")) {
+            return null;
+        }
+        changeSet.setComments("transformed");
+        return changeSet;
+    }
+
+    @Override
+    public String getVersion() {
+        return version;
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.serializer.ext.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+
+import liquibase.change.core.RawSQLChange;
+
+import net.example.liquibase.serializer.ext.EnhancedXMLChangeLogSerializer;
+
+public class SimpleXmlWriterTest {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private static String write(CharSequence text, boolean cdata) throws Exception {
+        StringWriter out = new StringWriter();
+        SimpleXmlWriter writer = new SimpleXmlWriter();
+        writer.setUpWrite(out, false, false);
+        writer.writeStartDocument();
+        writer.writeStartElement("sql");
+        writer.writeCharacters(text, cdata);
+        writer.writeEndDocument();
+        return out.toString();
+    }
+
+    private static String textOf(String xml) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setCoalescing(true);
+        Node root = factory.newDocumentBuilder()
+                .parse(new InputSource(new StringReader(xml))).getDocumentElement();
+        assertThat(root.getNodeName(), is("sql"));
+        return root.getTextContent();
+    }
+
+    private static String repeat(String pattern, int length) {
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            text.append(pattern);
+        }
+        text.setLength(length);
+        return text.toString();
+    }
+
+    @Test
+    public void severalChunks() throws Exception {
+        String text = repeat("UPDATE people SET name = '<&>' WHERE id = 1;\n",
+                             CHUNK_SIZE * 3 + 17);
+        for (boolean cdata : new boolean[] { false, true }) {
+            assertThat(textOf(write(text, cdata)), is(text));
+            assertThat(textOf(write(new StringBuilder(text), cdata)), is(text));
+        }
+    }
+
+    @Test
+    public void surrogatePairOnChunkBoundary() throws Exception {
+        String pair = new String(Character.toChars(0x1F600));
+        String text = repeat("a", CHUNK_SIZE - 1) + pair + repeat("b", CHUNK_SIZE);
+        assertThat(Character.isHighSurrogate(text.charAt(CHUNK_SIZE - 1)), is(true));
+        for (boolean cdata : new boolean[] { false, true }) {
+            // Written the same as within a chunk
+            String inChunk = write("a" + pair + "b", cdata);
+            String written = inChunk.substring(inChunk.indexOf('a'), inChunk.indexOf('b') + 1);
+            String xml = write(text, cdata);
+            assertThat(xml, containsString(written));
+            assertThat(textOf(xml), is(text));
+        }
+    }
+
+    @Test
+    public void cdataEnd() throws Exception {
+        String text = "SELECT a[b[1]]>0 FROM t";
+        String xml = write(text, true);
+        assertThat(xml, containsString("<![CDATA["));
+        assertThat(textOf(xml), is(text));
+    }
+
+    @Test
+    public void cdataEndOnChunkBoundary() throws Exception {
+        for (int offset = 1; offset <= 3; offset++) {
+            String text = repeat("x", CHUNK_SIZE - offset) + "]]>" + repeat("y", 100);
+            assertThat("offset " + offset, textOf(write(text, true)), is(text));
+        }
+        String brackets = "x" + repeat("]", CHUNK_SIZE * 2) + ">";
+        assertThat(textOf(write(brackets, true)), is(brackets));
+    }
+
+    @Test
+    public void cdataThreshold() throws Exception {
+        EnhancedXMLChangeLogSerializer serializer = new EnhancedXMLChangeLogSerializer();
+        serializer.setCdataThreshold(10);
+
+        String shorter = serializer.serialize(new RawSQLChange("SELECT 1<2"
+                                                               .substring(1)), true);
+        assertThat(shorter, not(containsString("<![CDATA[")));
+        assertThat(shorter, containsString("1&lt;2"));
+
+        String atThreshold = serializer.serialize(new RawSQLChange("SELECT 1<2"), true);
+        assertThat(atThreshold, containsString("<![CDATA[SELECT 1<2]]>"));
+
+        serializer.setCdataThreshold(0);
+        assertThat(serializer.serialize(new RawSQLChange(repeat("x", CHUNK_SIZE)), true),
+                   not(containsString("<![CDATA[")));
+    }
+
+}
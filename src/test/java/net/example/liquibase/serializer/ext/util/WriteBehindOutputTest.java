@@ -0,0 +1,112 @@
+/*
+ * This module, both source code and documentation,
+ * is in the Public Domain, and comes with NO WARRANTY.
+ */
+package net.example.liquibase.serializer.ext.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import liquibase.command.CommandResult;
+
+import net.example.liquibase.command.ext.CompileXMLCommand;
+
+public class WriteBehindOutputTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void sameAsSynchronous() throws Exception {
+        for (String src : new String[] { "net/example/liquibase/test/nested/changelog.xml",
+                                         "net/example/liquibase/test/deep/changelog.xml" }) {
+            Map<Path, String> expected = contents(compile(src, 0));
+            assertThat(expected.keySet(), hasSize(greaterThan(1)));
+            assertThat(src, contents(compile(src, 4)), is(expected));
+        }
+    }
+
+    @Test
+    public void callerRunsWhenFull() throws Exception {
+        Path dir = tempFolder.getRoot().toPath();
+        try (WriteBehindOutput output = new WriteBehindOutput(2, 1)) {
+            for (int i = 0; i < 100; i++) {
+                try (OutputStream out = output.newOutputStream(
+                        dir.resolve("d" + (i % 7)).resolve("f" + i + ".txt"))) {
+                    out.write(("content " + i).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            output.await();
+            assertThat(output.getFiles(), is(100L));
+        }
+        for (int i = 0; i < 100; i++) {
+            Path file = dir.resolve("d" + (i % 7)).resolve("f" + i + ".txt");
+            assertThat(new String(Files.readAllBytes(file), StandardCharsets.UTF_8),
+                       is("content " + i));
+        }
+    }
+
+    @Test
+    public void failureReported() throws Exception {
+        Path notDir = tempFolder.newFile("plain").toPath();
+        WriteBehindOutput output = new WriteBehindOutput(1);
+        try {
+            output.newOutputStream(notDir.resolve("f.txt")).close();
+            try {
+                output.await();
+                throw new AssertionError("Write failure not reported");
+            } catch (IOException e) {
+                // Expected
+            }
+            try {
+                output.newOutputStream(tempFolder.getRoot().toPath().resolve("g.txt"));
+                throw new AssertionError("Previous failure not reported");
+            } catch (IOException e) {
+                // Expected
+            }
+        } finally {
+            try {
+                output.close();
+            } catch (IOException e) {
+                // Reported already
+            }
+        }
+    }
+
+    private Path compile(String src, int ioWorkers) throws Exception {
+        Path out = tempFolder.newFolder().toPath();
+        CompileXMLCommand command = new CompileXMLCommand();
+        command.setSrc(src);
+        command.setOut(out.toString());
+        command.setIoWorkers(ioWorkers);
+        CommandResult result = command.execute();
+        assertThat(result.message, is("Compiled successfully"));
+        return out;
+    }
+
+    private static Map<Path, String> contents(Path dir) throws Exception {
+        Map<Path, String> contents = new TreeMap<>();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                contents.put(dir.relativize(file),
+                             new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            }
+        }
+        return contents;
+    }
+
+}